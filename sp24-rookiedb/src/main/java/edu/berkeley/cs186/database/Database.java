@@ -15,7 +15,11 @@ import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.IOMetrics;
+import edu.berkeley.cs186.database.io.TablespaceDiskSpaceManager;
+import edu.berkeley.cs186.database.io.TempDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferWarmer;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.EvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
@@ -33,6 +37,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Phaser;
@@ -79,6 +84,10 @@ public class Database implements AutoCloseable {
     private static final String TABLE_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "tables";
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
+    // temporary pages are kept on the heap: default to 1/8 of it, and at most 64M
+    private static final long DEFAULT_TEMP_MEMORY = Math.min(64L << 20, Runtime.getRuntime().maxMemory() / 8);
+    // file in fileDir listing the pages in the buffer cache at shutdown (see BufferWarmer)
+    static final String BUFFER_PAGES_FILE = "buffer.warm";
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4006;
 
@@ -93,10 +102,18 @@ public class Database implements AutoCloseable {
     private final LockManager lockManager;
     // disk space manager
     private final DiskSpaceManager diskSpaceManager;
+    // keeps temporary tables in memory (also the disk space manager used for everything else)
+    private final TempDiskSpaceManager tempSpaceManager;
     // buffer manager
     private final BufferManager bufferManager;
     // recovery manager
     private final RecoveryManager recoveryManager;
+    // list of the pages in the buffer cache at shutdown
+    private final Path bufferPagesFile;
+    // warms up the buffer cache, if started by warmUpBuffer
+    private BufferWarmer bufferWarmer;
+    // whether the partitions of new tables are compressed
+    private final boolean compressTables;
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
@@ -163,7 +180,7 @@ public class Database implements AutoCloseable {
     }
 
     /**
-     * Creates a new database.
+     * Creates a new database with default options (see DatabaseOptions)
      *
      * @param fileDir the directory to put the table files in
      * @param numMemoryPages the number of pages of memory in the buffer cache
@@ -173,19 +190,47 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, new DatabaseOptions());
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param options settings that have to be chosen before the database is opened
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, DatabaseOptions options) {
         boolean initialized = setupDirectory(fileDir);
+        this.bufferPagesFile = Paths.get(fileDir, BUFFER_PAGES_FILE);
 
         numTransactions = 0;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
+        this.compressTables = options.getCompressTables();
 
         if (useRecoveryManager) {
-            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction);
+            ARIESRecoveryManager ariesRecoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction);
+            ariesRecoveryManager.setRedoThreads(options.getRedoThreads());
+            ariesRecoveryManager.setInstantRestart(options.getInstantRestart());
+            ariesRecoveryManager.setRedoPrefetch(options.getRedoPrefetch());
+            recoveryManager = ariesRecoveryManager;
         } else {
             recoveryManager = new DummyRecoveryManager();
         }
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
+        DiskSpaceManager partitionManager;
+        if (options.getUseTablespace()) {
+            partitionManager = new TablespaceDiskSpaceManager(fileDir, recoveryManager);
+        } else {
+            partitionManager = new DiskSpaceManagerImpl(fileDir, recoveryManager, options.getIOMode());
+        }
+        tempSpaceManager = new TempDiskSpaceManager(partitionManager, fileDir, DEFAULT_TEMP_MEMORY);
+        diskSpaceManager = tempSpaceManager;
         bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
                                               policy);
 
@@ -287,9 +332,21 @@ public class Database implements AutoCloseable {
     public synchronized void close() {
         // wait for all transactions to terminate
         this.waitAllTransactions();
+        if (this.recoveryManager instanceof ARIESRecoveryManager) {
+            // and for restart recovery to finish, if it still runs in the background
+            ((ARIESRecoveryManager) this.recoveryManager).awaitRestart();
+        }
 
         dropDemoTables();
 
+        if (this.bufferWarmer != null) {
+            this.bufferWarmer.stop();
+        }
+        try {
+            BufferWarmer.save(this.bufferManager, this.bufferPagesFile);
+        } catch (IOException e) {
+            // the list only speeds up the next startup; shutting down cleanly matters more
+        }
         this.bufferManager.evictAll();
 
         this.recoveryManager.close();
@@ -323,6 +380,82 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    public int getBufferSize() {
+        return this.bufferManager.getBufferSize();
+    }
+
+    /**
+     * Resizes the buffer cache while the database is running (see BufferManager#resize),
+     * e.g. to give memory to or take it from work memory, which is capped at the size of
+     * the buffer cache.
+     *
+     * @param numMemoryPages new number of pages of memory in the buffer cache
+     */
+    public synchronized void setBufferSize(int numMemoryPages) {
+        this.bufferManager.resize(numMemoryPages);
+        this.numMemoryPages = numMemoryPages;
+    }
+
+    /**
+     * Sets the gather window of group commit: how long a committing transaction that flushes
+     * the log for the transactions committing at the same time waits for more of them to
+     * join it first. Does nothing without the recovery manager, since commits don't flush
+     * the log then.
+     *
+     * @param micros length of the window in microseconds, or 0 to flush right away
+     */
+    public void setGroupCommitWindow(long micros) {
+        if (this.recoveryManager instanceof ARIESRecoveryManager) {
+            ((ARIESRecoveryManager) this.recoveryManager).setGroupCommitWindow(micros);
+        }
+    }
+
+    /**
+     * Sets the number of bytes of memory that temporary tables may take up before
+     * their pages are spilled to disk.
+     */
+    public void setTempMemoryLimit(long bytes) {
+        this.tempSpaceManager.setMemoryLimit(bytes);
+    }
+
+    public TempDiskSpaceManager getTempSpaceManager() {
+        return tempSpaceManager;
+    }
+
+    /**
+     * Resets the I/O metrics of the buffer manager and the disk space manager.
+     */
+    public void resetIOMetrics() {
+        this.bufferManager.getIOMetrics().reset();
+        IOMetrics diskMetrics = this.diskSpaceManager.getIOMetrics();
+        if (diskMetrics != null) {
+            diskMetrics.reset();
+        }
+    }
+
+    /**
+     * Starts reading the pages that were in the buffer cache when the database was last
+     * closed back in, in the background (see BufferWarmer). Meant to be called right after
+     * the database is opened, before the buffer cache has filled up with other pages.
+     *
+     * @param maxPagesPerSecond most pages to read in per second, or 0 for no limit
+     * @return the warmer, which can be waited on or stopped
+     */
+    public synchronized BufferWarmer warmUpBuffer(long maxPagesPerSecond) {
+        if (this.bufferWarmer != null) {
+            this.bufferWarmer.stop();
+        }
+        long[] pageNums;
+        try {
+            pageNums = BufferWarmer.read(this.bufferPagesFile);
+        } catch (IOException | NumberFormatException e) {
+            throw new DatabaseException("could not read " + this.bufferPagesFile + ": " + e.getMessage());
+        }
+        this.bufferWarmer = new BufferWarmer(this.bufferManager, pageNums, maxPagesPerSecond);
+        this.bufferWarmer.start();
+        return this.bufferWarmer;
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -631,7 +764,7 @@ public class Database implements AutoCloseable {
             String tempTableName = "tempTable" + tempTableCounter++;
             String tableName = prefixTempTableName(tempTableName);
 
-            int partNum = diskSpaceManager.allocPart();
+            int partNum = diskSpaceManager.allocTempPart();
             long pageNum = diskSpaceManager.allocPage(partNum);
             // We can use dummy contexts since this table will only be visible from the current transaction
             PageDirectory pageDirectory = new PageDirectory(bufferManager, partNum, pageNum, (short) 0, new DummyLockContext("_dummyPageDir"));
@@ -1054,7 +1187,8 @@ public class Database implements AutoCloseable {
                 throw new DatabaseException("table `" + tableName + "` already exists");
             }
             TableMetadata metadata = new TableMetadata(tableName);
-            metadata.partNum = diskSpaceManager.allocPart();
+            metadata.partNum = compressTables ? diskSpaceManager.allocCompressedPart()
+                                              : diskSpaceManager.allocPart();
             metadata.pageNum = diskSpaceManager.allocPage(metadata.partNum);
             metadata.schema = s;
             synchronized (tableMetadata) {
@@ -0,0 +1,134 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+
+/**
+ * Settings of a Database beyond the ones its constructors take, that have to be chosen
+ * before the database is opened. Every setter returns the options, so that calls can be
+ * chained together:
+ *
+ *     new Database(fileDir, numMemoryPages, lockManager, policy, true,
+ *                  new DatabaseOptions().setIOMode(DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED));
+ */
+public class DatabaseOptions {
+    // how the disk space manager reads and writes partition files
+    private DiskSpaceManagerImpl.IOMode ioMode = DiskSpaceManagerImpl.IOMode.FILE_CHANNEL;
+    // whether all partitions are stored in a single tablespace file
+    private boolean useTablespace = false;
+    // whether restart recovery opens the database right after the analysis pass
+    private boolean instantRestart = false;
+    // whether the redo pass of restart recovery reads the dirty pages ahead
+    private boolean redoPrefetch = false;
+    // number of threads the redo pass of restart recovery redoes records on
+    private int redoThreads = 1;
+    // whether the partitions of new tables are stored compressed
+    private boolean compressTables = false;
+
+    /**
+     * Sets how partition files are read and written. Defaults to FILE_CHANNEL, the only
+     * mode a tablespace supports.
+     * @return these options
+     * @throws IllegalArgumentException if ioMode is not FILE_CHANNEL and a tablespace is used
+     */
+    public DatabaseOptions setIOMode(DiskSpaceManagerImpl.IOMode ioMode) {
+        checkTablespaceIOMode(this.useTablespace, ioMode);
+        this.ioMode = ioMode;
+        return this;
+    }
+
+    /**
+     * Sets whether all partitions are stored in a single tablespace file
+     * (TablespaceDiskSpaceManager) instead of one file per partition. A tablespace is
+     * always read and written with FILE_CHANNEL I/O, forces every data page write, and
+     * keeps no I/O metrics of its own (so \io shows no disk rows for it). Defaults to false.
+     * @return these options
+     * @throws IllegalArgumentException if useTablespace is set and the I/O mode is not FILE_CHANNEL
+     */
+    public DatabaseOptions setUseTablespace(boolean useTablespace) {
+        checkTablespaceIOMode(useTablespace, this.ioMode);
+        this.useTablespace = useTablespace;
+        return this;
+    }
+
+    /**
+     * Sets whether restart recovery opens the database right after the analysis pass,
+     * and finishes recovering in the background while the database is in use (see
+     * ARIESRecoveryManager#restart). Only used with the recovery manager enabled.
+     * Defaults to false.
+     * @return these options
+     */
+    public DatabaseOptions setInstantRestart(boolean instantRestart) {
+        this.instantRestart = instantRestart;
+        return this;
+    }
+
+    /**
+     * Sets whether the redo pass of restart recovery reads the pages in the dirty page
+     * table into the buffer cache ahead of redoing them, rather than each page when redo
+     * first gets to it (see ARIESRecoveryManager#setRedoPrefetch). Only used with the
+     * recovery manager enabled. Defaults to false.
+     * @return these options
+     */
+    public DatabaseOptions setRedoPrefetch(boolean redoPrefetch) {
+        this.redoPrefetch = redoPrefetch;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads the redo pass of restart recovery redoes records on; with
+     * more than one, records of different pages are redone in parallel (see
+     * ARIESRecoveryManager#setRedoThreads). This only pays off when redo waits on reading
+     * pages in, i.e. when the dirty pages do not fit in the buffer cache. Only used with the
+     * recovery manager enabled. Defaults to 1.
+     * @return these options
+     * @throws IllegalArgumentException if redoThreads is less than 1
+     */
+    public DatabaseOptions setRedoThreads(int redoThreads) {
+        if (redoThreads < 1) {
+            throw new IllegalArgumentException("redo needs at least one thread");
+        }
+        this.redoThreads = redoThreads;
+        return this;
+    }
+
+    /**
+     * Sets whether the data pages of tables created from now on are stored compressed
+     * (see DiskSpaceManagerImpl#allocCompressedPart). Tables that already exist keep
+     * their format, and with a tablespace tables are never compressed. Defaults to false.
+     * @return these options
+     */
+    public DatabaseOptions setCompressTables(boolean compressTables) {
+        this.compressTables = compressTables;
+        return this;
+    }
+
+    private static void checkTablespaceIOMode(boolean useTablespace, DiskSpaceManagerImpl.IOMode ioMode) {
+        if (useTablespace && ioMode != DiskSpaceManagerImpl.IOMode.FILE_CHANNEL) {
+            throw new IllegalArgumentException("a tablespace only supports the FILE_CHANNEL I/O mode, not " + ioMode);
+        }
+    }
+
+    public DiskSpaceManagerImpl.IOMode getIOMode() {
+        return this.ioMode;
+    }
+
+    public boolean getUseTablespace() {
+        return this.useTablespace;
+    }
+
+    public boolean getInstantRestart() {
+        return this.instantRestart;
+    }
+
+    public boolean getRedoPrefetch() {
+        return this.redoPrefetch;
+    }
+
+    public int getRedoThreads() {
+        return this.redoThreads;
+    }
+
+    public boolean getCompressTables() {
+        return this.compressTables;
+    }
+}
@@ -4,6 +4,8 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.io.IOMetrics;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -37,6 +39,8 @@ public abstract class TransactionContext implements AutoCloseable {
     private boolean startBlock = false;
     private final ReentrantLock transactionLock = new ReentrantLock();
     private final Condition unblocked = transactionLock.newCondition();
+    private BufferAccessStrategy accessStrategy = null;
+    private final IOMetrics ioMetrics = new IOMetrics();
 
     /**
      * Fetches the current transaction running on this thread.
@@ -224,6 +228,34 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract int getTreeHeight(String tableName, String columnName);
 
+    // Buffer access ///////////////////////////////////////////////////////////
+
+    /**
+     * @return access strategy that the buffer manager uses for pages loaded by this
+     * transaction, or null if they are loaded into the shared buffer as usual
+     */
+    public BufferAccessStrategy getAccessStrategy() {
+        return this.accessStrategy;
+    }
+
+    /**
+     * Sets the access strategy that the buffer manager uses for pages loaded by this
+     * transaction from now on. Operators with a strategy of their own set it while they run
+     * (see BufferAccessStrategy#apply).
+     * @param accessStrategy access strategy, or null to load pages into the shared buffer
+     */
+    public void setAccessStrategy(BufferAccessStrategy accessStrategy) {
+        this.accessStrategy = accessStrategy;
+    }
+
+    /**
+     * @return I/O done by the buffer manager for this transaction, by partition: the pages
+     * it read in, and the dirty pages it wrote out (e.g. to evict them)
+     */
+    public IOMetrics getIOMetrics() {
+        return this.ioMetrics;
+    }
+
     // Synchronization /////////////////////////////////////////////////////////
 
     /**
@@ -10,6 +10,8 @@ import edu.berkeley.cs186.database.cli.parser.RookieParser;
 import edu.berkeley.cs186.database.cli.parser.TokenMgrError;
 import edu.berkeley.cs186.database.cli.visitor.StatementListVisitor;
 import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.IOMetrics;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -43,6 +45,9 @@ public class CommandLineInterface {
         // Use the following after completing project 5 (recovery)
         // Database db = new Database("demo", 25, new LockManager(), new ClockEvictionPolicy(), true);
 
+        // read back the pages that were buffered when the database was last closed
+        db.warmUpBuffer(0);
+
         db.loadDemo();
 
         CommandLineInterface cli = new CommandLineInterface(db);
@@ -153,6 +158,95 @@ public class CommandLineInterface {
         return result.toString();
     }
 
+    /**
+     * Prints the I/O metrics of the buffer manager (I/Os charged to queries) and of the
+     * disk space manager (actual page I/O) by partition. Latencies are in microseconds,
+     * rounded up to a power of two.
+     */
+    private void printIOMetrics(Database db) {
+        Map<Integer, String> partNames = getPartitionNames(db);
+        SortedMap<Integer, IOMetrics.PartitionMetrics> bufferMetrics =
+                db.getBufferManager().getIOMetrics().getPartitions();
+        IOMetrics diskIOMetrics = db.getDiskSpaceManager().getIOMetrics();
+        SortedMap<Integer, IOMetrics.PartitionMetrics> diskMetrics = diskIOMetrics == null
+                ? new TreeMap<>() : diskIOMetrics.getPartitions();
+        SortedSet<Integer> partNums = new TreeSet<>(bufferMetrics.keySet());
+        partNums.addAll(diskMetrics.keySet());
+
+        List<Record> records = new ArrayList<>();
+        IOMetrics.PartitionMetrics none = new IOMetrics.PartitionMetrics();
+        for (int partNum : partNums) {
+            IOMetrics.PartitionMetrics buffer = bufferMetrics.getOrDefault(partNum, none);
+            IOMetrics.PartitionMetrics disk = diskMetrics.getOrDefault(partNum, none);
+            records.add(new Record(
+                partNames.getOrDefault(partNum, "partition " + partNum),
+                buffer.getNumReads(),
+                buffer.getNumWrites(),
+                disk.getNumReads(),
+                disk.getNumWrites(),
+                disk.getBytesRead() + disk.getBytesWritten(),
+                disk.getNumAllocs(),
+                disk.getNumFrees(),
+                toMicros(disk.getReadLatency().getPercentileNanos(50)),
+                toMicros(disk.getReadLatency().getPercentileNanos(99)),
+                toMicros(disk.getWriteLatency().getPercentileNanos(50)),
+                toMicros(disk.getWriteLatency().getPercentileNanos(99))
+            ));
+        }
+        new PrettyPrinter(out).printRecords(Arrays.asList("partition", "buffer_reads", "buffer_writes",
+                "disk_reads", "disk_writes", "disk_bytes", "allocs", "frees", "read_p50_us", "read_p99_us",
+                "write_p50_us", "write_p99_us"), records.iterator());
+    }
+
+    /**
+     * Prints the I/O that the buffer manager did for the current transaction, by partition.
+     * Unlike the metrics printed by printIOMetrics, these only count the I/O of this
+     * transaction when other transactions run at the same time. Latencies are in
+     * microseconds, rounded up to a power of two.
+     */
+    private void printTransactionIOMetrics(Database db, TransactionContext transaction) {
+        Map<Integer, String> partNames = getPartitionNames(db);
+        List<Record> records = new ArrayList<>();
+        for (Map.Entry<Integer, IOMetrics.PartitionMetrics> entry :
+                transaction.getIOMetrics().getPartitions().entrySet()) {
+            IOMetrics.PartitionMetrics metrics = entry.getValue();
+            records.add(new Record(
+                partNames.getOrDefault(entry.getKey(), "partition " + entry.getKey()),
+                metrics.getNumReads(),
+                metrics.getNumWrites(),
+                toMicros(metrics.getReadLatency().getPercentileNanos(50)),
+                toMicros(metrics.getReadLatency().getPercentileNanos(99)),
+                toMicros(metrics.getWriteLatency().getPercentileNanos(50)),
+                toMicros(metrics.getWriteLatency().getPercentileNanos(99))
+            ));
+        }
+        new PrettyPrinter(out).printRecords(Arrays.asList("partition", "buffer_reads", "buffer_writes",
+                "read_p50_us", "read_p99_us", "write_p50_us", "write_p99_us"), records.iterator());
+    }
+
+    /**
+     * @return names to show for partitions, by partition number
+     */
+    private Map<Integer, String> getPartitionNames(Database db) {
+        Map<Integer, String> partNames = new HashMap<>();
+        partNames.put(0, "(log)");
+        partNames.put(1, "_metadata.tables");
+        partNames.put(2, "_metadata.indices");
+        partNames.put(DiskSpaceManager.TEMP_PART_BASE, "(temp tables)");
+        for (Record record : db.scanTableMetadataRecords()) {
+            partNames.put(record.getValue(1).getInt(), record.getValue(0).getString());
+        }
+        for (Record record : db.scanIndexMetadataRecords()) {
+            partNames.put(record.getValue(3).getInt(),
+                    record.getValue(0).getString() + "." + record.getValue(1).getString() + " (index)");
+        }
+        return partNames;
+    }
+
+    private static long toMicros(long nanos) {
+        return (nanos + 999) / 1000;
+    }
+
     private void printTable(String tableName) {
         TransactionContext t = TransactionContext.getTransaction();
         Table table = t.getTable(tableName);
@@ -195,6 +289,35 @@ public class CommandLineInterface {
             } else {
                 this.out.println(db.getLockManager().getLocks(tc));
             }
+        } else if (cmd.equals("io")) {
+            if (tokens.length == 1) {
+                printIOMetrics(db);
+            } else if (tokens.length == 2 && tokens[1].equals("reset")) {
+                db.resetIOMetrics();
+            } else if (tokens.length == 2 && tokens[1].equals("txn")) {
+                if (tc == null) {
+                    this.out.println("No I/O to show, because not currently in a transaction.");
+                } else {
+                    printTransactionIOMetrics(db, tc);
+                }
+            } else {
+                throw new IllegalArgumentException("usage: \\io [reset | txn]");
+            }
+        } else if (cmd.equals("buffer")) {
+            if (tokens.length == 2) {
+                db.setBufferSize(parsePageCount(tokens[1], "usage: \\buffer [pages]"));
+            } else if (tokens.length != 1) {
+                throw new IllegalArgumentException("usage: \\buffer [pages]");
+            }
+            this.out.printf("buffer: %d pages, %d free%n", db.getBufferSize(),
+                    db.getBufferManager().getNumFreeFrames());
+        } else if (cmd.equals("workmem")) {
+            if (tokens.length == 2) {
+                db.setWorkMem(parsePageCount(tokens[1], "usage: \\workmem [pages]"));
+            } else if (tokens.length != 1) {
+                throw new IllegalArgumentException("usage: \\workmem [pages]");
+            }
+            this.out.printf("work memory: %d pages%n", db.getWorkMem());
         } else {
             throw new IllegalArgumentException(String.format(
                 "`%s` is not a valid metacommand",
@@ -203,6 +326,18 @@ public class CommandLineInterface {
         }
     }
 
+    private static int parsePageCount(String token, String usage) {
+        try {
+            int pages = Integer.parseInt(token);
+            if (pages > 0) {
+                return pages;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException(usage);
+    }
+
     private static String[] institution = {
             "berkeley", "berkley", "berklee", "Brocolli", "BeRKeLEy", "UC Zoom",
             "   UCB  ", "go bears", "   #1  "
@@ -43,6 +43,9 @@ public class Server {
         // Use the following after completing project 5 (recovery)
         // Database db = new Database("demo", 25, new LockManager(), new ClockEvictionPolicy(), true);
 
+        // read back the pages that were buffered when the database was last closed
+        db.warmUpBuffer(0);
+
         Server server = new Server();
         server.listen(db);
         db.close();
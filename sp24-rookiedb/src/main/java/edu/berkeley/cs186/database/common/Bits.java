@@ -93,4 +93,100 @@ public class Bits {
         }
         return count;
     }
+
+    /**
+     * Gets the 64 bits of a byte array starting at byte i, with bit 0 of bytes[i] as the
+     * most significant bit of the result (so bits keep their order). For example:
+     *
+     *   - getWord(new byte[]{(byte) 0b10000000, 0, 0, 0, 0, 0, 0, 1}, 0) == 0x8000000000000001L
+     */
+    public static long getWord(byte[] bytes, int i) {
+        long word = 0;
+        for (int j = 0; j < 8; ++j) {
+            word = (word << 8) | (bytes[i + j] & 0xFF);
+        }
+        return word;
+    }
+
+    /**
+     * Finds the first ZERO bit at or after index from, skipping over all-ONE bits 64 at
+     * a time. For example:
+     *
+     *   - nextClearBit(new byte[]{(byte) 0b11111111, (byte) 0b11011111}, 0) == 10
+     *   - nextClearBit(new byte[]{(byte) 0b11111111, (byte) 0b11111111}, 0) == -1
+     *
+     * @return index of the bit, or -1 if there is none
+     */
+    public static int nextClearBit(byte[] bytes, int from) {
+        int numBits = bytes.length * 8;
+        int i = from;
+        while (i < numBits) {
+            if (i % 64 == 0 && i + 64 <= numBits) {
+                long word = getWord(bytes, i / 8);
+                if (word == -1L) {
+                    i += 64;
+                    continue;
+                }
+                return i + Long.numberOfLeadingZeros(~word);
+            }
+            if (getBit(bytes, i) == Bit.ZERO) {
+                return i;
+            }
+            ++i;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first ONE bit at or after index from, skipping over all-ZERO bits 64 at
+     * a time. For example:
+     *
+     *   - nextSetBit(new byte[]{0b00000000, 0b00100000}, 0) == 10
+     *   - nextSetBit(new byte[]{0b00000000, 0b00000000}, 0) == -1
+     *
+     * @return index of the bit, or -1 if there is none
+     */
+    public static int nextSetBit(byte[] bytes, int from) {
+        int numBits = bytes.length * 8;
+        int i = from;
+        while (i < numBits) {
+            if (i % 64 == 0 && i + 64 <= numBits) {
+                long word = getWord(bytes, i / 8);
+                if (word == 0L) {
+                    i += 64;
+                    continue;
+                }
+                return i + Long.numberOfLeadingZeros(word);
+            }
+            if (getBit(bytes, i) == Bit.ONE) {
+                return i;
+            }
+            ++i;
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the number of runs of consecutive ONE bits. For example:
+     *
+     *   - countRuns(new byte[]{0b01101110, (byte) 0b10000001}) == 4
+     */
+    public static int countRuns(byte[] bytes) {
+        int runs = 0;
+        int i = 0;
+        // whether the bit before the current word/byte is ONE
+        long previous = 0;
+        for (; i + 8 <= bytes.length; i += 8) {
+            long word = getWord(bytes, i);
+            // a run starts at every ONE bit whose predecessor is ZERO
+            runs += Long.bitCount(word & ~((word >>> 1) | (previous << 63)));
+            previous = word & 1;
+        }
+        for (; i < bytes.length; ++i) {
+            int b = bytes[i] & 0xFF;
+            runs += Integer.bitCount(b & ~((b >>> 1) | (int) (previous << 7)));
+            previous = b & 1;
+        }
+        return runs;
+    }
 }
@@ -9,6 +9,7 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ReadAhead;
 import edu.berkeley.cs186.database.table.RecordId;
 
 import java.io.FileWriter;
@@ -455,6 +456,9 @@ public class BPlusTree {
         // DONE(proj2): Add whatever fields and constructors you want here.
         Iterator<RecordId> recordIdIterator;
         LeafNode currLeafNode;
+        // leaves are usually allocated left to right, so a scan over them tends to read
+        // consecutive pages, which the read-ahead then loads ahead of the scan
+        ReadAhead readAhead = new ReadAhead(bufferManager);
 
 
         /**
@@ -463,6 +467,7 @@ public class BPlusTree {
         BPlusTreeIterator(LeafNode leafNode) {
             currLeafNode = leafNode;
             recordIdIterator = currLeafNode.scanAll();
+            readAhead.fetching(leafNode.getPage().getPageNum(), ReadAhead.consecutive(leafNode.getPage().getPageNum()));
         }
 
         /**
@@ -471,13 +476,14 @@ public class BPlusTree {
         BPlusTreeIterator(LeafNode leafNode, DataBox key) {
             currLeafNode = leafNode;
             recordIdIterator = currLeafNode.scanGreaterEqual(key);
+            readAhead.fetching(leafNode.getPage().getPageNum(), ReadAhead.consecutive(leafNode.getPage().getPageNum()));
         }
 
         @Override
         public boolean hasNext() {
             // DONE(proj2): implement
             // if currentLeafNode still has next, or it has rightSibling
-            return recordIdIterator.hasNext() || currLeafNode.getRightSibling().isPresent();
+            return recordIdIterator.hasNext() || currLeafNode.getRightSiblingPageNum().isPresent();
         }
 
         @Override
@@ -485,8 +491,10 @@ public class BPlusTree {
             // DONE(proj2): implement
             if (recordIdIterator.hasNext()) {
                 return recordIdIterator.next();
-            } else if (currLeafNode.getRightSibling().isPresent()) {
+            } else if (currLeafNode.getRightSiblingPageNum().isPresent()) {
                 // update to the right leafNode
+                long pageNum = currLeafNode.getRightSiblingPageNum().get();
+                readAhead.fetching(pageNum, ReadAhead.consecutive(pageNum));
                 currLeafNode = currLeafNode.getRightSibling().get();
                 recordIdIterator = currLeafNode.scanAll();
                 return this.next();
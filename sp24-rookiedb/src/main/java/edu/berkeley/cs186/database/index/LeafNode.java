@@ -287,6 +287,11 @@ class LeafNode extends BPlusNode {
         return Optional.of(LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
     }
 
+    /** Returns the page number of the right sibling of this leaf, if it has one. */
+    Optional<Long> getRightSiblingPageNum() {
+        return rightSibling;
+    }
+
     /** Serializes this leaf to its page. */
     private void sync() {
         page.pin();
@@ -0,0 +1,360 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+
+/**
+ * Storage for the data pages of a compressed partition, in a file next to the partition's
+ * OS file (which still holds the master and header pages). Pages are compressed with
+ * LZPageCodec and appended to the file as records:
+ *
+ *     [page number (4 bytes)][length (4 bytes)][CRC32 of data (4 bytes)][data]
+ *
+ * so that a page takes up only as much disk space and read bandwidth as its compressed
+ * form. Pages that don't compress are stored as is (length = PAGE_SIZE).
+ *
+ * An in-memory index maps each page to its latest record. It is rebuilt by scanning the
+ * file when the store is opened; the scan stops at the first record that is incomplete or
+ * fails its checksum (a write torn by a crash, which was never acknowledged) and cuts the
+ * file off there.
+ *
+ * Records of pages that have since been rewritten or freed are garbage. Once there is more
+ * garbage than live data, the file is compacted: live records are copied into a new file,
+ * which then replaces the old one.
+ */
+class CompressedPageStore implements AutoCloseable {
+    // Suffix added to the partition's file name for the name of the store's file.
+    static final String FILE_SUFFIX = ".pages";
+
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    // Files smaller than this are never compacted.
+    private static final long MIN_COMPACT_SIZE = 1 << 20;
+
+    // Index entries pack a record's offset and data length into a long.
+    private static final int LENGTH_BITS = 13;
+
+    private final Path path;
+    private FileChannel channel;
+
+    // Page number -> (offset of record << LENGTH_BITS | length of record data).
+    private final ConcurrentHashMap<Integer, Long> index;
+
+    // Offset that the next record is appended at.
+    private long end;
+
+    // Total size of the records in the index.
+    private final AtomicLong liveBytes;
+
+    // Held while appending, so that records are written in the order of their offsets
+    // (a forced record then implies that every record before it is complete).
+    private final ReentrantLock appendLock;
+
+    // Shared by reads and writes, and exclusive while compacting (which moves records).
+    private final ReentrantReadWriteLock compactionLock;
+
+    // Whether there are appended records that have not been forced yet.
+    private volatile boolean unsynced;
+
+    /**
+     * Opens (creating if necessary) the store in the given file, and rebuilds its index.
+     * @param fileName name of the store's file
+     */
+    CompressedPageStore(String fileName) throws IOException {
+        this.path = Paths.get(fileName);
+        this.index = new ConcurrentHashMap<>();
+        this.liveBytes = new AtomicLong();
+        this.appendLock = new ReentrantLock();
+        this.compactionLock = new ReentrantReadWriteLock();
+        Files.deleteIfExists(Paths.get(fileName + ".tmp"));
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.scan();
+    }
+
+    /**
+     * Reads the file from the start, indexing every valid record, and truncates the
+     * file after the last one.
+     */
+    private void scan() throws IOException {
+        long size = this.channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        byte[] data = new byte[PAGE_SIZE];
+        CRC32 crc = new CRC32();
+        while (offset + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            this.readFully(header, offset);
+            header.flip();
+            int pageNum = header.getInt();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (pageNum < 0 || length <= 0 || length > PAGE_SIZE
+                    || offset + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            this.readFully(ByteBuffer.wrap(data, 0, length), offset + RECORD_HEADER_SIZE);
+            crc.reset();
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            this.putIndex(pageNum, offset, length);
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        if (offset < size) {
+            this.channel.truncate(offset);
+            this.channel.force(false);
+        }
+        this.end = offset;
+    }
+
+    /**
+     * Reads in a page. A page that has never been written reads as zeroes.
+     * @param pageNum data page number to read in
+     * @param buf output buffer - assumed to be page size
+     */
+    void readPage(int pageNum, byte[] buf) throws IOException {
+        this.compactionLock.readLock().lock();
+        try {
+            Long entry = this.index.get(pageNum);
+            if (entry == null) {
+                Arrays.fill(buf, (byte) 0);
+                return;
+            }
+            int length = recordLength(entry);
+            if (length == PAGE_SIZE) {
+                this.readFully(ByteBuffer.wrap(buf), recordOffset(entry) + RECORD_HEADER_SIZE);
+            } else {
+                byte[] data = new byte[length];
+                this.readFully(ByteBuffer.wrap(data), recordOffset(entry) + RECORD_HEADER_SIZE);
+                LZPageCodec.decompress(data, length, buf);
+            }
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a page, by appending a new record for it.
+     * @param pageNum data page number to write
+     * @param buf input buffer with new contents of page - assumed to be page size
+     * @param force whether to force the write to disk before returning (otherwise it is
+     *              forced at the next sync)
+     */
+    void writePage(int pageNum, byte[] buf, boolean force) throws IOException {
+        byte[] compressed = new byte[PAGE_SIZE - 1];
+        int length = LZPageCodec.compress(buf, compressed);
+        byte[] data = compressed;
+        if (length < 0) {
+            data = buf;
+            length = PAGE_SIZE;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(pageNum).putInt(length).putInt((int) crc.getValue()).put(data, 0, length);
+        record.flip();
+
+        this.compactionLock.readLock().lock();
+        try {
+            this.appendLock.lock();
+            try {
+                long offset = this.end;
+                this.writeFully(record, offset);
+                this.end += record.capacity();
+                this.putIndex(pageNum, offset, length);
+            } finally {
+                this.appendLock.unlock();
+            }
+            if (force) {
+                this.channel.force(false);
+            } else {
+                this.unsynced = true;
+            }
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+        this.maybeCompact();
+    }
+
+    /**
+     * Drops a freed page from the index; its record becomes garbage.
+     * @param pageNum data page number that was freed
+     */
+    void freePage(int pageNum) {
+        this.compactionLock.readLock().lock();
+        try {
+            Long old = this.index.remove(pageNum);
+            if (old != null) {
+                this.liveBytes.addAndGet(-(RECORD_HEADER_SIZE + recordLength(old)));
+            }
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces appended records to disk.
+     * @return whether there were any records to force
+     */
+    boolean sync() throws IOException {
+        if (!this.unsynced) {
+            return false;
+        }
+        this.unsynced = false;
+        this.compactionLock.readLock().lock();
+        try {
+            this.channel.force(false);
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * @return size of the store's file
+     */
+    long fileSize() {
+        this.appendLock.lock();
+        try {
+            return this.end;
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * @return total size of the records of allocated pages
+     */
+    long liveSize() {
+        return this.liveBytes.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.sync();
+        this.channel.close();
+    }
+
+    /**
+     * Compacts the file if more than half of it is garbage. Does nothing if another
+     * thread is reading, writing, or compacting.
+     */
+    private void maybeCompact() throws IOException {
+        if (!this.needsCompaction() || !this.compactionLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            if (this.needsCompaction()) {
+                this.compact();
+            }
+        } finally {
+            this.compactionLock.writeLock().unlock();
+        }
+    }
+
+    private boolean needsCompaction() {
+        long size = this.fileSize();
+        return size >= MIN_COMPACT_SIZE && size - this.liveBytes.get() > this.liveBytes.get();
+    }
+
+    /**
+     * Copies the live records to a new file, and replaces the store's file with it.
+     * Must hold the compaction lock exclusively.
+     */
+    private void compact() throws IOException {
+        Path tmp = Paths.get(this.path + ".tmp");
+        Map<Integer, Long> moved = new HashMap<>();
+        long offset = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<Integer, Long> entry : this.index.entrySet()) {
+                int length = recordLength(entry.getValue());
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+                this.readFully(record, recordOffset(entry.getValue()));
+                record.flip();
+                writeFully(out, record, offset);
+                moved.put(entry.getKey(), pack(offset, length));
+                offset += RECORD_HEADER_SIZE + length;
+            }
+            out.force(false);
+        }
+        this.channel.close();
+        try {
+            Files.move(tmp, this.path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // keep using the old file
+            this.channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        // make the rename durable, or records appended to the new file could be lost
+        try (FileChannel dir = FileChannel.open(this.path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // not supported on all platforms
+        }
+        this.channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index.putAll(moved);
+        this.end = offset;
+        this.unsynced = false;
+    }
+
+    private void putIndex(int pageNum, long offset, int length) {
+        Long old = this.index.put(pageNum, pack(offset, length));
+        long delta = RECORD_HEADER_SIZE + length;
+        if (old != null) {
+            delta -= RECORD_HEADER_SIZE + recordLength(old);
+        }
+        this.liveBytes.addAndGet(delta);
+    }
+
+    private void readFully(ByteBuffer b, long offset) throws IOException {
+        while (b.hasRemaining()) {
+            int n = this.channel.read(b, offset);
+            if (n < 0) {
+                throw new PageException("unexpected end of compressed page file " + this.path);
+            }
+            offset += n;
+        }
+    }
+
+    private void writeFully(ByteBuffer b, long offset) throws IOException {
+        writeFully(this.channel, b, offset);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer b, long offset) throws IOException {
+        while (b.hasRemaining()) {
+            offset += channel.write(b, offset);
+        }
+    }
+
+    private static long pack(long offset, int length) {
+        return (offset << LENGTH_BITS) | length;
+    }
+
+    private static long recordOffset(long entry) {
+        return entry >>> LENGTH_BITS;
+    }
+
+    private static int recordLength(long entry) {
+        return (int) (entry & ((1 << LENGTH_BITS) - 1));
+    }
+}
@@ -1,8 +1,12 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
 public interface DiskSpaceManager extends AutoCloseable {
     short PAGE_SIZE = 4096; // size of a page in bytes
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
+    int TEMP_PART_BASE = 500000000; // partition numbers from here on are temporary partitions
 
     @Override
     void close();
@@ -22,6 +26,28 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     int allocPart(int partNum);
 
+    /**
+     * Allocates a new temporary partition, for data that does not need to survive
+     * the transaction that creates it (e.g. temporary tables). Changes to temporary
+     * partitions are not logged. Implementations that do not treat temporary
+     * partitions differently allocate an ordinary partition.
+     *
+     * @return partition number of new partition
+     */
+    default int allocTempPart() {
+        return allocPart();
+    }
+
+    /**
+     * Allocates a new partition whose data pages are stored compressed. Implementations
+     * that do not compress partitions allocate an ordinary partition.
+     *
+     * @return partition number of new partition
+     */
+    default int allocCompressedPart() {
+        return allocPart();
+    }
+
     /**
      * Releases a partition from use.
 
@@ -65,6 +91,175 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Reads a page into a ByteBuffer (e.g. a direct buffer, which implementations doing
+     * file I/O can read into without an intermediate copy). The default implementation
+     * reads into a byte array and copies it over.
+     *
+     * @param page number of page to be read
+     * @param buf buffer whose remaining bytes (a page's worth) will be filled with page
+     *            data; its position and limit are not changed
+     */
+    default void readPage(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[PAGE_SIZE];
+        readPage(page, bytes);
+        buf.duplicate().put(bytes);
+    }
+
+    /**
+     * Writes to a page from a ByteBuffer. The default implementation copies the buffer
+     * into a byte array and writes that.
+     *
+     * @param page number of page to be written
+     * @param buf buffer whose remaining bytes (a page's worth) contain the new page data;
+     *            its position and limit are not changed
+     */
+    default void writePage(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[PAGE_SIZE];
+        buf.duplicate().get(bytes);
+        writePage(page, bytes);
+    }
+
+    /**
+     * Reads several pages. Implementations may coalesce pages that are adjacent on disk
+     * into a single read.
+     *
+     * @param pages numbers of pages to be read
+     * @param bufs byte buffers whose contents will be filled with page data, one per page
+     */
+    default void readPages(long[] pages, byte[][] bufs) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("readPages expects one buffer per page");
+        }
+        for (int i = 0; i < pages.length; ++i) {
+            readPage(pages[i], bufs[i]);
+        }
+    }
+
+    /**
+     * Writes to several pages. Implementations may coalesce pages that are adjacent on disk
+     * into a single write.
+     *
+     * @param pages numbers of pages to be written
+     * @param bufs byte buffers that contain the new page data, one per page
+     */
+    default void writePages(long[] pages, byte[][] bufs) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("writePages expects one buffer per page");
+        }
+        for (int i = 0; i < pages.length; ++i) {
+            writePage(pages[i], bufs[i]);
+        }
+    }
+
+    /**
+     * Writes to several pages from ByteBuffers (see writePage(long, ByteBuffer)). The
+     * default implementation copies the buffers into byte arrays and writes those.
+     *
+     * @param pages numbers of pages to be written
+     * @param bufs buffers that contain the new page data, one per page
+     */
+    default void writePages(long[] pages, ByteBuffer[] bufs) {
+        byte[][] bytes = new byte[bufs.length][PAGE_SIZE];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i].duplicate().get(bytes[i]);
+        }
+        writePages(pages, bytes);
+    }
+
+    /**
+     * Starts reading a page, without waiting for the read to finish. buf must not be
+     * used until the returned future is done. The default implementation reads the
+     * page synchronously.
+     *
+     * @param page number of page to be read
+     * @param buf byte buffer whose contents will be filled with page data
+     * @return future that completes once buf is filled, or completes exceptionally
+     *         (with a PageException) if the page could not be read
+     */
+    default CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            readPage(page, buf);
+            future.complete(null);
+        } catch (PageException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Starts reading a page into a ByteBuffer (see readPage(long, ByteBuffer)), without
+     * waiting for the read to finish. The default implementation reads into a byte array
+     * and copies it over once the read is done.
+     *
+     * @param page number of page to be read
+     * @param buf buffer whose remaining bytes will be filled with page data
+     * @return future that completes once buf is filled, or completes exceptionally
+     *         (with a PageException) if the page could not be read
+     */
+    default CompletableFuture<Void> readPageAsync(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[PAGE_SIZE];
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        readPageAsync(page, bytes).whenComplete((v, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                buf.duplicate().put(bytes);
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Starts reading several pages into ByteBuffers (see readPage(long, ByteBuffer)),
+     * without waiting for the reads to finish. Implementations may coalesce pages that are
+     * adjacent on disk into a single read. The default implementation reads the pages
+     * synchronously into byte arrays, and copies them over.
+     *
+     * @param pages numbers of pages to be read
+     * @param bufs buffers whose remaining bytes will be filled with page data, one per page
+     * @return future that completes once every buffer is filled, or completes exceptionally
+     *         (with a PageException) if a page could not be read
+     */
+    default CompletableFuture<Void> readPagesAsync(long[] pages, ByteBuffer[] bufs) {
+        byte[][] bytes = new byte[bufs.length][PAGE_SIZE];
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            readPages(pages, bytes);
+            for (int i = 0; i < bufs.length; ++i) {
+                bufs[i].duplicate().put(bytes[i]);
+            }
+            future.complete(null);
+        } catch (PageException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Starts writing to a page, without waiting for the write to finish. buf must not
+     * be modified until the returned future is done. The default implementation writes
+     * the page synchronously.
+     *
+     * @param page number of page to be written
+     * @param buf byte buffer that contains the new page data
+     * @return future that completes once the write is as durable as one done by
+     *         writePage, or completes exceptionally (with a PageException) if the page
+     *         could not be written
+     */
+    default CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            writePage(page, buf);
+            future.complete(null);
+        } catch (PageException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     /**
      * Checks if a page is allocated
      *
@@ -73,6 +268,29 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     boolean pageAllocated(long page);
 
+    /**
+     * Forces all completed page writes to stable storage (a durability barrier).
+     * Implementations that make every write durable before returning it do not need
+     * to do anything. The log manager calls this whenever it flushes the log, and
+     * checkpoints call it before recording the dirty page table.
+     */
+    default void sync() {}
+
+    /**
+     * @return I/O metrics of this disk space manager, or null if it does not keep any
+     */
+    default IOMetrics getIOMetrics() {
+        return null;
+    }
+
+    /**
+     * @param partNum partition number
+     * @return whether the partition number is that of a temporary partition (see allocTempPart)
+     */
+    static boolean isTempPart(int partNum) {
+        return partNum >= TEMP_PART_BASE;
+    }
+
     /**
      * Gets partition number from virtual page number
      * @param page virtual page number
@@ -5,11 +5,19 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * An implementation of a disk space manager with virtual page translation, and
@@ -44,26 +52,83 @@ import java.util.concurrent.locks.ReentrantLock;
  * - the second header page follows
  * - the next 32K pages are data pages managed by the second header page
  * - etc.
+ *
+ * Pages are allocated in extents: each partition reserves a run of EXTENT_PAGES free pages (in memory
+ * only), and hands out the pages in it in order before reserving another. Pages of a table that grows
+ * one page at a time are therefore contiguous in its file, even if other pages of the partition are
+ * freed in between. getFragmentation measures how contiguous a partition's pages are.
+ *
+ * Partition files are either accessed with positioned FileChannel reads and writes (the default),
+ * or memory-mapped (see IOMode). The layout of the files is the same in both modes.
+ *
+ * By default, every data page write is forced to disk before it returns. In the other modes, writes
+ * only mark their partition as unsynced, and sync() is a durability barrier that forces every unsynced
+ * partition at once. Concurrent calls to sync() share barriers (see SyncScheduler), so that, for
+ * example, the log flushes of several committing transactions and a checkpoint cost one round of
+ * fsyncs rather than one per page written.
+ *
+ * There is no lock on the manager as a whole. Each partition's lock only guards its master and
+ * header pages, and is held while pages are allocated or freed; data page reads and writes use
+ * positioned I/O and take no locks, so they can proceed concurrently with each other and with
+ * allocations in the same partition. (Their checks that the page is allocated read the header
+ * pages optimistically, see PartitionHandle#isNotAllocatedPage.) Callers are expected to
+ * serialize accesses to any single page themselves (the buffer manager does this with frame locks).
+ *
+ * Pages can also be read and written asynchronously (readPageAsync/readPagesAsync/writePageAsync),
+ * through an AsynchronousFileChannel per partition. At most maxAsyncIOs asynchronous operations are
+ * in flight at any time; callers starting more than that wait for earlier ones to finish.
+ *
+ * Partitions can optionally be compressed (allocCompressedPart). A compressed partition's master and
+ * header pages are kept in its OS file as usual, but its data pages are compressed and stored in a
+ * second file (see CompressedPageStore), which maps page numbers to the offsets of the compressed
+ * pages. Compression is transparent to callers, and a partition stays compressed once created.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
     static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
     static final int DATA_PAGES_PER_HEADER = PAGE_SIZE * 8; // 1 bit per data page
+    static final int EXTENT_PAGES = 64; // pages reserved at a time for allocation (1 word of a header page)
+    public static final int DEFAULT_MAX_ASYNC_IOS = 32;
+
+    /**
+     * How partition files are read and written.
+     */
+    public enum IOMode {
+        // Every read and write is a FileChannel call, and every data page write is forced
+        // to disk immediately.
+        FILE_CHANNEL,
+        // Files are mapped into memory in 4M regions as they grow, and pages are copied
+        // directly to and from the mapping. Writes are forced on sync() (requested by log
+        // flushes and checkpoints) and close().
+        MEMORY_MAPPED,
+        // Like FILE_CHANNEL, but writes are not forced as they happen: partitions that are
+        // written to are marked unsynced, and are all forced together on sync().
+        BATCHED_SYNC
+    }
 
     // Name of base directory.
     private String dbDir;
 
     // Info about each partition.
-    private Map<Integer, PartitionHandle> partInfo;
+    private ConcurrentHashMap<Integer, PartitionHandle> partInfo;
 
     // Counter to generate new partition numbers.
     private AtomicInteger partNumCounter;
 
-    // Lock on the entire manager.
-    private ReentrantLock managerLock;
-
     // recovery manager
     private RecoveryManager recoveryManager;
 
+    // How partition files are read and written
+    private IOMode ioMode;
+
+    // One permit per asynchronous operation that may be in flight.
+    private Semaphore asyncIOPermits;
+
+    // Carries out sync() barriers (except in FILE_CHANNEL mode).
+    private SyncScheduler syncScheduler;
+
+    // Reads, writes, allocations and frees of data pages, with read and write latencies.
+    private final IOMetrics ioMetrics = new IOMetrics();
+
     /**
      * Initialize the disk space manager using the given directory. Creates the directory
      * if not present.
@@ -71,11 +136,39 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, IOMode.FILE_CHANNEL);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param ioMode how partition files are read and written
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, IOMode ioMode) {
+        this(dbDir, recoveryManager, ioMode, DEFAULT_MAX_ASYNC_IOS);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param ioMode how partition files are read and written
+     * @param maxAsyncIOs maximum number of asynchronous reads and writes in flight at once
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, IOMode ioMode, int maxAsyncIOs) {
+        if (maxAsyncIOs < 1) {
+            throw new IllegalArgumentException("maxAsyncIOs must be positive");
+        }
         this.dbDir = dbDir;
         this.recoveryManager = recoveryManager;
-        this.partInfo = new HashMap<>();
+        this.ioMode = ioMode;
+        this.asyncIOPermits = new Semaphore(maxAsyncIOs);
+        this.partInfo = new ConcurrentHashMap<>();
         this.partNumCounter = new AtomicInteger(0);
-        this.managerLock = new ReentrantLock();
+        this.syncScheduler = new SyncScheduler(this.partInfo::values);
 
         File dir = new File(dbDir);
         if (!dir.exists()) {
@@ -88,7 +181,17 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             if (files == null) {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
+            List<File> sideFiles = new ArrayList<>();
             for (File f : files) {
+                if (!Character.isDigit(f.getName().charAt(0))) {
+                    // not a partition's file (e.g. the database's list of buffered pages)
+                    continue;
+                }
+                if (f.getName().contains(".")) {
+                    // compressed page files are opened with their partitions
+                    sideFiles.add(f);
+                    continue;
+                }
                 if (f.length() == 0) {
                     if (!f.delete()) {
                         throw new PageException("could not clean up unused file - " + f.getName());
@@ -98,10 +201,17 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 int fileNum = Integer.parseInt(f.getName());
                 maxFileNum = Math.max(maxFileNum, fileNum);
 
-                PartitionHandle pi = new PartitionHandle(fileNum, recoveryManager);
+                boolean compressed = new File(f.getPath() + CompressedPageStore.FILE_SUFFIX).exists();
+                PartitionHandle pi = new PartitionHandle(fileNum, recoveryManager, ioMode, compressed);
                 pi.open(dbDir + "/" + f.getName());
                 this.partInfo.put(fileNum, pi);
             }
+            for (File f : sideFiles) {
+                int fileNum = Integer.parseInt(f.getName().substring(0, f.getName().indexOf('.')));
+                if (!this.partInfo.containsKey(fileNum) && f.exists() && !f.delete()) {
+                    throw new PageException("could not clean up unused file - " + f.getName());
+                }
+            }
             this.partNumCounter.set(maxFileNum + 1);
         }
     }
@@ -117,37 +227,56 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    @Override
+    public void sync() {
+        if (this.ioMode == IOMode.FILE_CHANNEL) {
+            return;
+        }
+        this.syncScheduler.barrier();
+    }
+
+    /**
+     * @return number of sync() barriers carried out so far (concurrent calls to sync()
+     *         may share a barrier)
+     */
+    long getNumSyncBarriers() {
+        return this.syncScheduler.getNumBarriers();
+    }
+
+    /**
+     * @return number of partitions forced by sync() barriers so far
+     */
+    long getNumPartitionSyncs() {
+        return this.syncScheduler.getNumPartitionSyncs();
+    }
+
     @Override
     public int allocPart() {
-        return this.allocPartHelper(this.partNumCounter.getAndIncrement());
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement(), false);
     }
 
     @Override
     public int allocPart(int partNum) {
         this.partNumCounter.updateAndGet((int x) -> Math.max(x, partNum) + 1);
-        return this.allocPartHelper(partNum);
+        return this.allocPartHelper(partNum, false);
     }
 
-    private int allocPartHelper(int partNum) {
-        PartitionHandle pi;
-
-        this.managerLock.lock();
-        try {
-            if (this.partInfo.containsKey(partNum)) {
-                throw new IllegalStateException("partition number " + partNum + " already exists");
-            }
-
-            pi = new PartitionHandle(partNum, recoveryManager);
-            this.partInfo.put(partNum, pi);
+    @Override
+    public int allocCompressedPart() {
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement(), true);
+    }
 
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+    private int allocPartHelper(int partNum, boolean compressed) {
+        // The new partition is locked before it is published, so that nobody can
+        // allocate pages in it before it has been opened.
+        PartitionHandle pi = new PartitionHandle(partNum, recoveryManager, ioMode, compressed);
+        pi.partitionLock.lock();
+        if (this.partInfo.putIfAbsent(partNum, pi) != null) {
+            pi.partitionLock.unlock();
+            throw new IllegalStateException("partition number " + partNum + " already exists");
         }
         try {
-            // We must open partition only after logging, but we need to release the
-            // manager lock first, in case the log manager is currently in the process
-            // of allocating a new log page (for another txn's records).
+            // We must open partition only after logging.
             TransactionContext transaction = TransactionContext.getTransaction();
             if (transaction != null) {
                 recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
@@ -162,18 +291,11 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public void freePart(int partNum) {
-        PartitionHandle pi;
-
-        this.managerLock.lock();
-        try {
-            pi = this.partInfo.remove(partNum);
-            if (pi == null) {
-                throw new NoSuchElementException("no partition " + partNum);
-            }
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        PartitionHandle pi = this.partInfo.remove(partNum);
+        if (pi == null) {
+            throw new NoSuchElementException("no partition " + partNum);
         }
+        pi.partitionLock.lock();
         try {
             try {
                 pi.freeDataPages();
@@ -191,6 +313,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             if (!pf.delete()) {
                 throw new PageException("could not delete files for partition " + partNum);
             }
+            File compressedPages = new File(pf.getPath() + CompressedPageStore.FILE_SUFFIX);
+            if (compressedPages.exists() && !compressedPages.delete()) {
+                throw new PageException("could not delete files for partition " + partNum);
+            }
         } finally {
             pi.partitionLock.unlock();
         }
@@ -198,17 +324,12 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public long allocPage(int partNum) {
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = getPartInfo(partNum);
+        pi.partitionLock.lock();
         try {
             int pageNum = pi.allocPage();
             pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            this.ioMetrics.get(partNum).recordAlloc();
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
@@ -224,17 +345,12 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
         int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
 
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = getPartInfo(partNum);
+        pi.partitionLock.lock();
         try {
             pi.allocPage(headerIndex, pageIndex);
             pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            this.ioMetrics.get(partNum).recordAlloc();
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
@@ -247,16 +363,11 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public void freePage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = getPartInfo(partNum);
+        pi.partitionLock.lock();
         try {
             pi.freePage(pageNum);
+            this.ioMetrics.get(partNum).recordFree();
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
@@ -269,22 +380,22 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         if (buf.length != PAGE_SIZE) {
             throw new IllegalArgumentException("readPage expects a page-sized buffer");
         }
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.remaining() != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
         try {
-            pi.readPage(pageNum, buf);
+            long start = System.nanoTime();
+            getPartInfo(partNum).readPage(pageNum, buf);
+            this.ioMetrics.get(partNum).recordRead(1, System.nanoTime() - start);
         } catch (IOException e) {
             throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
-        } finally {
-            pi.partitionLock.unlock();
         }
     }
 
@@ -293,44 +404,237 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         if (buf.length != PAGE_SIZE) {
             throw new IllegalArgumentException("writePage expects a page-sized buffer");
         }
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.remaining() != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
         try {
-            pi.writePage(pageNum, buf);
+            long start = System.nanoTime();
+            getPartInfo(partNum).writePage(pageNum, buf);
+            this.ioMetrics.get(partNum).recordWrite(1, System.nanoTime() - start);
         } catch (IOException e) {
             throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
-        } finally {
-            pi.partitionLock.unlock();
         }
     }
 
     @Override
-    public boolean pageAllocated(long page) {
+    public CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPageAsync expects a page-sized buffer");
+        }
+        return this.readPageAsync(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, ByteBuffer buf) {
+        if (buf.remaining() != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPageAsync expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
-        int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = getPartInfo(partNum);
+        return this.startAsync(() -> pi.readPageAsync(DiskSpaceManager.getPageNum(page), buf), "read", partNum, 1);
+    }
+
+    @Override
+    public CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePageAsync expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        PartitionHandle pi = getPartInfo(partNum);
+        return this.startAsync(() -> pi.writePageAsync(DiskSpaceManager.getPageNum(page), buf), "write", partNum, 1);
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long[] pages, ByteBuffer[] bufs) {
+        // one operation (and permit) per partition; the partition coalesces adjacent pages
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        this.splitByPartition(pages, bufs, "read", (partNum, pageNums, partBufs) -> {
+            PartitionHandle pi = getPartInfo(partNum);
+            reads.add(this.startAsync(() -> pi.readPagesAsync(pageNums, partBufs), "read", partNum, pageNums.length));
+        });
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            } else {
+                result.complete(null);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Takes a permit and starts an asynchronous operation. The permit is given back if the
+     * operation throws instead of returning a future.
+     */
+    private CompletableFuture<Void> startAsync(Supplier<CompletableFuture<Void>> op, String verb, int partNum,
+                                               int numPages) {
+        this.asyncIOPermits.acquireUninterruptibly();
+        long start = System.nanoTime();
+        CompletableFuture<Void> started;
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+            started = op.get();
+        } catch (RuntimeException e) {
+            this.asyncIOPermits.release();
+            throw e;
         }
+        return this.finishAsync(started, verb, partNum, numPages, start);
+    }
+
+    /**
+     * Releases the permit of an asynchronous operation once it is done, records it in the
+     * I/O metrics, and translates any failure into a PageException.
+     */
+    private CompletableFuture<Void> finishAsync(CompletableFuture<Void> op, String verb, int partNum,
+                                                int numPages, long start) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        op.whenComplete((v, e) -> {
+            // released before completing, so that callbacks on result can start more I/O
+            this.asyncIOPermits.release();
+            if (e == null) {
+                if (verb.equals("read")) {
+                    this.ioMetrics.get(partNum).recordRead(numPages, System.nanoTime() - start);
+                } else {
+                    this.ioMetrics.get(partNum).recordWrite(numPages, System.nanoTime() - start);
+                }
+                result.complete(null);
+            } else if (e instanceof PageException) {
+                result.completeExceptionally(e);
+            } else {
+                result.completeExceptionally(new PageException("could not " + verb + " partition " + partNum + ": "
+                                             + e.getMessage()));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void readPages(long[] pages, byte[][] bufs) {
+        this.forEachPartitionBatch(pages, wrapAll(bufs), "read", PartitionHandle::readPages);
+    }
+
+    @Override
+    public void writePages(long[] pages, byte[][] bufs) {
+        this.forEachPartitionBatch(pages, wrapAll(bufs), "write", PartitionHandle::writePages);
+    }
+
+    @Override
+    public void writePages(long[] pages, ByteBuffer[] bufs) {
+        this.forEachPartitionBatch(pages, bufs, "write", PartitionHandle::writePages);
+    }
+
+    private static ByteBuffer[] wrapAll(byte[][] bufs) {
+        ByteBuffer[] wrapped = new ByteBuffer[bufs.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            wrapped[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        return wrapped;
+    }
+
+    // An operation on a batch of data pages of a single partition.
+    private interface PartitionBatchOp {
+        void apply(PartitionHandle pi, int[] pageNums, ByteBuffer[] bufs) throws IOException;
+    }
+
+    /**
+     * Splits a batch of pages up by partition, and runs op on each partition's pages (in
+     * ascending page order).
+     */
+    private void forEachPartitionBatch(long[] pages, ByteBuffer[] bufs, String verb, PartitionBatchOp op) {
+        this.splitByPartition(pages, bufs, verb, (partNum, pageNums, partBufs) -> {
+            try {
+                long startNanos = System.nanoTime();
+                op.apply(getPartInfo(partNum), pageNums, partBufs);
+                long nanos = System.nanoTime() - startNanos;
+                if (verb.equals("read")) {
+                    this.ioMetrics.get(partNum).recordRead(pageNums.length, nanos);
+                } else {
+                    this.ioMetrics.get(partNum).recordWrite(pageNums.length, nanos);
+                }
+            } catch (IOException e) {
+                throw new PageException("could not " + verb + " partition " + partNum + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // Pages of a batch that belong to a single partition, with their buffers.
+    private interface PartitionBatch {
+        void accept(int partNum, int[] pageNums, ByteBuffer[] bufs);
+    }
+
+    /**
+     * Splits a batch of pages up by partition, and passes each partition's pages (in
+     * ascending page order) to batch.
+     */
+    private void splitByPartition(long[] pages, ByteBuffer[] bufs, String verb, PartitionBatch batch) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException(verb + "Pages expects one buffer per page");
+        }
+        for (ByteBuffer buf : bufs) {
+            if (buf.remaining() != PAGE_SIZE) {
+                throw new IllegalArgumentException(verb + "Pages expects page-sized buffers");
+            }
+        }
+        Integer[] order = new Integer[pages.length];
+        for (int i = 0; i < pages.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> pages[i]));
+
+        int start = 0;
+        while (start < order.length) {
+            int partNum = DiskSpaceManager.getPartNum(pages[order[start]]);
+            int end = start;
+            while (end < order.length && DiskSpaceManager.getPartNum(pages[order[end]]) == partNum) {
+                ++end;
+            }
+            int[] pageNums = new int[end - start];
+            ByteBuffer[] partBufs = new ByteBuffer[end - start];
+            for (int i = start; i < end; ++i) {
+                pageNums[i - start] = DiskSpaceManager.getPageNum(pages[order[i]]);
+                partBufs[i - start] = bufs[order[i]];
+            }
+            batch.accept(partNum, pageNums, partBufs);
+            start = end;
+        }
+    }
+
+    @Override
+    public IOMetrics getIOMetrics() {
+        return this.ioMetrics;
+    }
+
+    /**
+     * Measures how scattered a partition's allocated pages are in its OS file.
+     *
+     * @param partNum partition to measure
+     * @return fraction of allocated pages (after the first) that don't directly follow another
+     *         allocated page: 0 if the pages are contiguous, up to 1 if no two are adjacent
+     */
+    public double getFragmentation(int partNum) {
+        PartitionHandle pi = getPartInfo(partNum);
+        pi.partitionLock.lock();
         try {
-            return !pi.isNotAllocatedPage(pageNum);
+            return pi.fragmentation();
         } finally {
             pi.partitionLock.unlock();
         }
     }
 
+    @Override
+    public boolean pageAllocated(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        return !getPartInfo(partNum).isNotAllocatedPage(pageNum);
+    }
+
     // Gets PartInfo, throws exception if not found.
     private PartitionHandle getPartInfo(int partNum) {
         PartitionHandle pi = this.partInfo.get(partNum);
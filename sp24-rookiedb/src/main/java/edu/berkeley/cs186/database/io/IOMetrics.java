@@ -0,0 +1,182 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O counters and latency histograms, kept per partition. All temporary partitions
+ * (see DiskSpaceManager#allocTempPart) share the entry of TEMP_PART_BASE, since they
+ * are short-lived and numerous.
+ *
+ * Recording only touches a LongAdder or an atomic array slot, so that it is cheap next to
+ * the I/O being recorded and does not serialize threads doing I/O on the same partition.
+ */
+public class IOMetrics {
+    private final Map<Integer, PartitionMetrics> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * @param partNum partition number
+     * @return metrics of the partition, created if it has none yet
+     */
+    public PartitionMetrics get(int partNum) {
+        if (DiskSpaceManager.isTempPart(partNum)) {
+            partNum = DiskSpaceManager.TEMP_PART_BASE;
+        }
+        PartitionMetrics metrics = this.partitions.get(partNum);
+        if (metrics == null) {
+            metrics = this.partitions.computeIfAbsent(partNum, p -> new PartitionMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * @return metrics of every partition with any recorded since the last reset, by partition number
+     */
+    public SortedMap<Integer, PartitionMetrics> getPartitions() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this.partitions));
+    }
+
+    /**
+     * Discards everything recorded so far.
+     */
+    public void reset() {
+        this.partitions.clear();
+    }
+
+    /**
+     * I/O done on a single partition. Reads and writes of several pages at once count
+     * as one request in the latency histograms, and as one operation per page.
+     */
+    public static class PartitionMetrics {
+        private final LongAdder reads = new LongAdder();
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder allocs = new LongAdder();
+        private final LongAdder frees = new LongAdder();
+        private final LatencyHistogram readLatency = new LatencyHistogram();
+        private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+        /**
+         * @param numPages number of pages read
+         * @param nanos how long the read took, or a negative number if not known
+         */
+        public void recordRead(int numPages, long nanos) {
+            this.reads.add(numPages);
+            if (nanos >= 0) {
+                this.readLatency.record(nanos);
+            }
+        }
+
+        /**
+         * @param numPages number of pages written
+         * @param nanos how long the write took, or a negative number if not known
+         */
+        public void recordWrite(int numPages, long nanos) {
+            this.writes.add(numPages);
+            if (nanos >= 0) {
+                this.writeLatency.record(nanos);
+            }
+        }
+
+        public void recordAlloc() {
+            this.allocs.increment();
+        }
+
+        public void recordFree() {
+            this.frees.increment();
+        }
+
+        public long getNumReads() {
+            return this.reads.sum();
+        }
+
+        public long getNumWrites() {
+            return this.writes.sum();
+        }
+
+        public long getBytesRead() {
+            return this.reads.sum() * DiskSpaceManager.PAGE_SIZE;
+        }
+
+        public long getBytesWritten() {
+            return this.writes.sum() * DiskSpaceManager.PAGE_SIZE;
+        }
+
+        public long getNumAllocs() {
+            return this.allocs.sum();
+        }
+
+        public long getNumFrees() {
+            return this.frees.sum();
+        }
+
+        public LatencyHistogram getReadLatency() {
+            return this.readLatency;
+        }
+
+        public LatencyHistogram getWriteLatency() {
+            return this.writeLatency;
+        }
+    }
+
+    /**
+     * Histogram of latencies with power-of-two buckets: bucket i counts latencies of
+     * [2^(i-1), 2^i) nanoseconds (bucket 0 counts latencies of 0). Percentiles are
+     * therefore only accurate to within a factor of two.
+     */
+    public static class LatencyHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+        private final LongAdder totalNanos = new LongAdder();
+
+        public void record(long nanos) {
+            this.buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(nanos));
+            this.totalNanos.add(nanos);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < this.buckets.length(); ++i) {
+                count += this.buckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * @return mean latency in nanoseconds, or 0 if nothing was recorded
+         */
+        public double getMeanNanos() {
+            long count = this.getCount();
+            return count == 0 ? 0 : (double) this.totalNanos.sum() / count;
+        }
+
+        /**
+         * @param percentile percentile to compute, in (0, 100]
+         * @return upper bound (in nanoseconds) of the bucket that the percentile falls in,
+         *         or 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be in (0, 100]");
+            }
+            long[] counts = new long[this.buckets.length()];
+            long count = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] = this.buckets.get(i);
+                count += counts[i];
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : (i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+                }
+            }
+            return 0;
+        }
+    }
+}
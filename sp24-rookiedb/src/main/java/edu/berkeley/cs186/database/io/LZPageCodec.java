@@ -0,0 +1,167 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+
+/**
+ * A small LZ77-style compressor for pages, using the LZ4 block format: the compressed
+ * data is a series of sequences, each of which is
+ *
+ *     [token][extra literal length bytes][literals][offset (2 bytes, LE)][extra match length bytes]
+ *
+ * The high 4 bits of the token are the number of literals (bytes copied as is), and the low
+ * 4 bits are the length of the match (bytes copied from offset bytes earlier in the output)
+ * minus 4. A nibble of 15 means that the length continues in the following bytes, each of
+ * which adds 0-255 to it (a byte less than 255 ends the length). The last sequence only has
+ * literals.
+ *
+ * Matches are found with a single hash table of recent 4-byte sequences, which is fast and
+ * does well on the long runs of zeroes and repeated values in table and index pages.
+ */
+class LZPageCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    private LZPageCodec() {}
+
+    /**
+     * Compresses src into dst.
+     * @param src bytes to compress
+     * @param dst output buffer
+     * @return number of bytes of dst used, or -1 if the compressed form doesn't fit in dst
+     */
+    static int compress(byte[] src, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        while (ip + MIN_MATCH <= src.length) {
+            int seq = readInt(src, ip);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                ++ip;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < src.length && src[ref + matchLength] == src[ip + matchLength]) {
+                ++matchLength;
+            }
+            op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLength);
+            if (op < 0) {
+                return -1;
+            }
+            ip += matchLength;
+            anchor = ip;
+        }
+        return writeSequence(dst, op, src, anchor, src.length - anchor, 0, 0);
+    }
+
+    /**
+     * Decompresses src into dst, which must be exactly the size of the original data.
+     * @param src compressed bytes
+     * @param srcLength number of compressed bytes in src
+     * @param dst output buffer
+     * @throws PageException if src is not a valid compressed form of dst.length bytes
+     */
+    static void decompress(byte[] src, int srcLength, byte[] dst) {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == srcLength) {
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLength = token & 0xF;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || offset > op || op + matchLength > dst.length) {
+                    throw new PageException("corrupt compressed page");
+                }
+                // byte by byte, since the match may overlap the bytes it produces
+                for (int i = 0; i < matchLength; ++i) {
+                    dst[op + i] = dst[op - offset + i];
+                }
+                op += matchLength;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new PageException("corrupt compressed page");
+        }
+        if (ip != srcLength || op != dst.length) {
+            throw new PageException("corrupt compressed page");
+        }
+    }
+
+    /**
+     * Writes a sequence to dst at op.
+     * @return offset in dst after the sequence, or -1 if it doesn't fit
+     */
+    private static int writeSequence(byte[] dst, int op, byte[] src, int literalStart, int literals,
+                                     int offset, int matchLength) {
+        int size = 1 + lengthBytes(literals) + literals;
+        if (matchLength > 0) {
+            size += 2 + lengthBytes(matchLength - MIN_MATCH);
+        }
+        if (op + size > dst.length) {
+            return -1;
+        }
+        int tokenPos = op++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) {
+            op = writeLength(dst, op, literals - 15);
+        }
+        System.arraycopy(src, literalStart, dst, op, literals);
+        op += literals;
+        if (matchLength > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int extra = matchLength - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15) {
+                op = writeLength(dst, op, extra - 15);
+            }
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    // number of bytes needed after the token for a length of the given nibble
+    private static int lengthBytes(int length) {
+        return length < 15 ? 0 : (length - 15) / 255 + 1;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+}
@@ -8,23 +8,74 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 
 import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
+import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.EXTENT_PAGES;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
 
 class PartitionHandle implements AutoCloseable {
-    // Lock on the partition.
+    // Number of pages covered by each memory-mapped region of the OS file (4M per region).
+    static final int MAPPED_REGION_PAGES = 1024;
+
+    // Lock on the partition's master and header pages. Held while pages are allocated
+    // or freed and while the partition is opened or closed, but not for data page I/O.
     ReentrantLock partitionLock;
 
+    // Guards the in-memory master and header pages for readers that don't hold the
+    // partition lock (isNotAllocatedPage). They are only changed with the partition lock
+    // held and this lock write-locked, and those readers use optimistic reads.
+    private final StampedLock headerLock;
+
     // Underlying OS file/file channel.
+    private String fileName;
     private RandomAccessFile file;
     private FileChannel fileChannel;
 
+    // Second channel on the OS file for asynchronous I/O (FILE_CHANNEL mode only).
+    // Opened on first use, so partitions that are never accessed asynchronously
+    // don't hold an extra file descriptor.
+    private volatile AsynchronousFileChannel asyncChannel;
+
+    // How pages are moved between memory and the OS file
+    private DiskSpaceManagerImpl.IOMode ioMode;
+
+    // Memory-mapped regions of the OS file, in file order (MEMORY_MAPPED mode only).
+    // Regions are mapped on first access, and mapped again larger (an extent at a time)
+    // when accesses go past their end; mapping grows the OS file to cover them. The
+    // array is replaced (under the partition lock) rather than modified when it changes,
+    // so readers can use whatever array they see without locking.
+    private volatile MappedByteBuffer[] mappedRegions;
+
+    // Whether writes are forced to disk as they happen, instead of at the next sync
+    private boolean forceOnWrite;
+
+    // Whether there are writes that have not been forced yet (when not forceOnWrite)
+    private volatile boolean unsynced;
+
+    // Whether data pages are stored compressed, in compressedPages instead of the OS file
+    private boolean compressed;
+    private CompressedPageStore compressedPages;
+
+    // Extent that pages are currently being allocated from: data pages extentNext
+    // (inclusive) to extentEnd (exclusive). Not persisted; guarded by the partition lock.
+    private int extentNext;
+    private int extentEnd;
+
     // Contents of the master page of this partition
     // Ideally would be an unsigned short array but Java doesn't have unsigned types
     private int[] masterPage;
@@ -39,19 +90,37 @@ class PartitionHandle implements AutoCloseable {
     private int partNum;
 
     PartitionHandle(int partNum, RecoveryManager recoveryManager) {
+        this(partNum, recoveryManager, DiskSpaceManagerImpl.IOMode.FILE_CHANNEL);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, DiskSpaceManagerImpl.IOMode ioMode) {
+        this(partNum, recoveryManager, ioMode, false);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, DiskSpaceManagerImpl.IOMode ioMode,
+                    boolean compressed) {
         this.masterPage = new int[MAX_HEADER_PAGES];
         this.headerPages = new byte[MAX_HEADER_PAGES][];
         this.partitionLock = new ReentrantLock();
+        this.headerLock = new StampedLock();
         this.recoveryManager = recoveryManager;
         this.partNum = partNum;
+        this.ioMode = ioMode;
+        this.compressed = compressed;
+        this.mappedRegions = new MappedByteBuffer[0];
+        // In the other modes, writes (log writes included) are made durable by the
+        // next sync, which the log manager requests whenever it flushes the log.
+        this.forceOnWrite = ioMode == DiskSpaceManagerImpl.IOMode.FILE_CHANNEL;
     }
 
     /**
-     * Opens the OS file and loads master and header pages.
+     * Opens the OS file and loads master and header pages. For compressed partitions,
+     * also opens the file of compressed data pages (fileName + CompressedPageStore.FILE_SUFFIX).
      * @param fileName name of OS file partition is stored in
      */
     void open(String fileName) {
         assert (this.fileChannel == null);
+        this.fileName = fileName;
         try {
             this.file = new RandomAccessFile(fileName, "rw");
             this.fileChannel = this.file.getChannel();
@@ -61,19 +130,27 @@ class PartitionHandle implements AutoCloseable {
                 this.writeMasterPage();
             } else {
                 // old file, read in master page + header pages
-                ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-                this.fileChannel.read(b, PartitionHandle.masterPageOffset());
-                b.position(0);
-                for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-                    this.masterPage[i] = Short.toUnsignedInt(b.getShort());
-                    if (PartitionHandle.headerPageOffset(i) < length) {
-                        // Load header pages that were already in the file
-                        byte[] headerPage = new byte[PAGE_SIZE];
-                        this.headerPages[i] = headerPage;
-                        this.fileChannel.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
+                byte[] masterBytes = new byte[PAGE_SIZE];
+                this.readAt(PartitionHandle.masterPageOffset(), masterBytes);
+                ByteBuffer b = ByteBuffer.wrap(masterBytes);
+                long stamp = this.headerLock.writeLock();
+                try {
+                    for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                        this.masterPage[i] = Short.toUnsignedInt(b.getShort());
+                        if (PartitionHandle.headerPageOffset(i) < length) {
+                            // Load header pages that were already in the file
+                            byte[] headerPage = new byte[PAGE_SIZE];
+                            this.readAt(PartitionHandle.headerPageOffset(i), headerPage);
+                            this.headerPages[i] = headerPage;
+                        }
                     }
+                } finally {
+                    this.headerLock.unlockWrite(stamp);
                 }
             }
+            if (this.compressed) {
+                this.compressedPages = new CompressedPageStore(fileName + CompressedPageStore.FILE_SUFFIX);
+            }
         } catch (IOException e) {
             throw new PageException("Could not open or read file: " + e.getMessage());
         }
@@ -83,9 +160,168 @@ class PartitionHandle implements AutoCloseable {
     public void close() throws IOException {
         this.partitionLock.lock();
         try {
-            Arrays.fill(this.headerPages, null);
+            this.sync();
+            long stamp = this.headerLock.writeLock();
+            try {
+                Arrays.fill(this.headerPages, null);
+            } finally {
+                this.headerLock.unlockWrite(stamp);
+            }
+            this.mappedRegions = new MappedByteBuffer[0];
             this.file.close();
             this.fileChannel.close();
+            if (this.compressedPages != null) {
+                this.compressedPages.close();
+            }
+            if (this.asyncChannel != null) {
+                this.asyncChannel.close();
+                this.asyncChannel = null;
+            }
+        } finally {
+            this.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * Forces any writes that were not forced as they happened (see forceOnWrite) out to
+     * disk. Does nothing in FILE_CHANNEL mode, where every write is already forced.
+     * @return whether there were any such writes
+     */
+    boolean sync() {
+        boolean synced = false;
+        if (this.compressedPages != null) {
+            try {
+                synced = this.compressedPages.sync();
+            } catch (IOException e) {
+                throw new PageException("could not sync partition " + partNum + ": " + e.getMessage());
+            }
+        }
+        if (!this.unsynced) {
+            return synced;
+        }
+        // Cleared before forcing: a write that lands after the file has been forced
+        // sets the flag again, so it is picked up by the next sync. Set again if
+        // forcing fails, so that the writes are forced by the next sync instead.
+        this.unsynced = false;
+        boolean forced = false;
+        try {
+            if (this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED) {
+                for (MappedByteBuffer region : this.mappedRegions) {
+                    if (region != null) {
+                        region.force();
+                    }
+                }
+            } else {
+                this.fileChannel.force(false);
+            }
+            forced = true;
+        } catch (IOException e) {
+            throw new PageException("could not sync partition " + partNum + ": " + e.getMessage());
+        } finally {
+            if (!forced) {
+                this.unsynced = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a page-sized chunk of the OS file.
+     * @param offset offset in OS file to read from
+     * @param buf output buffer - assumed to be page size
+     */
+    private void readAt(long offset, byte[] buf) throws IOException {
+        this.readAt(offset, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Reads a page-sized chunk of the OS file into the remaining bytes of buf, without
+     * changing buf's position.
+     * @param offset offset in OS file to read from
+     * @param buf output buffer - assumed to have a page's worth of bytes remaining
+     */
+    private void readAt(long offset, ByteBuffer buf) throws IOException {
+        if (this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED) {
+            ByteBuffer b = this.mappedRegion(offset).duplicate();
+            int position = PartitionHandle.regionOffset(offset);
+            b.limit(position + buf.remaining());
+            b.position(position);
+            buf.duplicate().put(b);
+        } else {
+            this.fileChannel.read(buf.duplicate(), offset);
+        }
+    }
+
+    /**
+     * Writes a page-sized chunk of the OS file.
+     * @param offset offset in OS file to write to
+     * @param buf input buffer - assumed to be page size
+     */
+    private void writeAt(long offset, byte[] buf) throws IOException {
+        this.writeAt(offset, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Writes the remaining bytes of buf to a page-sized chunk of the OS file, without
+     * changing buf's position.
+     * @param offset offset in OS file to write to
+     * @param buf input buffer - assumed to have a page's worth of bytes remaining
+     */
+    private void writeAt(long offset, ByteBuffer buf) throws IOException {
+        if (this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED) {
+            MappedByteBuffer region = this.mappedRegion(offset);
+            ByteBuffer b = region.duplicate();
+            b.position(PartitionHandle.regionOffset(offset));
+            b.put(buf.duplicate());
+            if (this.forceOnWrite) {
+                region.force();
+            } else {
+                this.unsynced = true;
+            }
+        } else {
+            this.fileChannel.write(buf.duplicate(), offset);
+            if (!this.forceOnWrite) {
+                this.unsynced = true;
+            }
+        }
+    }
+
+    /**
+     * Gets the mapped region containing the page at an offset of the OS file, mapping
+     * it if this is the first access to the region, or mapping it again further if the
+     * page is past the end of the mapping. Regions are mapped up to the end of the file
+     * or of the extent holding the page (whichever is further), and mapping a region
+     * grows the file to cover the mapping.
+     * @param offset offset in OS file of a page
+     * @return region containing the page
+     */
+    private MappedByteBuffer mappedRegion(long offset) throws IOException {
+        long regionSize = (long) MAPPED_REGION_PAGES * PAGE_SIZE;
+        int regionIndex = (int) (offset / regionSize);
+        int end = PartitionHandle.regionOffset(offset) + PAGE_SIZE;
+        MappedByteBuffer[] regions = this.mappedRegions;
+        if (regionIndex < regions.length && regions[regionIndex] != null
+                && regions[regionIndex].capacity() >= end) {
+            return regions[regionIndex];
+        }
+        this.partitionLock.lock();
+        try {
+            regions = this.mappedRegions;
+            if (regionIndex < regions.length && regions[regionIndex] != null
+                    && regions[regionIndex].capacity() >= end) {
+                return regions[regionIndex];
+            }
+            long regionStart = regionIndex * regionSize;
+            long extentSize = (long) EXTENT_PAGES * PAGE_SIZE;
+            long length = Math.max((end + extentSize - 1) / extentSize * extentSize,
+                                   this.fileChannel.size() - regionStart);
+            regions = Arrays.copyOf(regions, Math.max(regions.length, regionIndex + 1));
+            // Anyone still using the previous mapping of the region can keep doing so: both
+            // mappings share the same pages of the file.
+            regions[regionIndex] = this.fileChannel.map(FileChannel.MapMode.READ_WRITE,
+                                                        regionStart, Math.min(length, regionSize));
+            this.mappedRegions = regions;
+            return regions[regionIndex];
         } finally {
             this.partitionLock.unlock();
         }
@@ -99,8 +335,7 @@ class PartitionHandle implements AutoCloseable {
         for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
             b.putShort((short) masterPage[i]);
         }
-        b.position(0);
-        this.fileChannel.write(b, PartitionHandle.masterPageOffset());
+        this.writeAt(PartitionHandle.masterPageOffset(), b.array());
     }
 
     /**
@@ -108,44 +343,101 @@ class PartitionHandle implements AutoCloseable {
      * @param headerIndex which header page
      */
     private void writeHeaderPage(int headerIndex) throws IOException {
-        ByteBuffer b = ByteBuffer.wrap(this.headerPages[headerIndex]);
-        this.fileChannel.write(b, PartitionHandle.headerPageOffset(headerIndex));
+        this.writeAt(PartitionHandle.headerPageOffset(headerIndex), this.headerPages[headerIndex]);
     }
 
     /**
-     * Allocates a new page in the partition.
+     * Allocates a new page in the partition. Pages are handed out in order from the
+     * current extent (a run of EXTENT_PAGES pages reserved for this partition), so that
+     * pages allocated one after another are also next to each other on disk.
      * @return data page number
      */
     int allocPage() throws IOException {
-        int headerIndex = -1;
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-            if (this.masterPage[i] < DATA_PAGES_PER_HEADER) {
-                headerIndex = i;
-                break;
+        while (this.extentNext < this.extentEnd) {
+            // pages in the extent may have been allocated by number since it was reserved
+            int pageNum = this.extentNext++;
+            if (this.isNotAllocatedPage(pageNum)) {
+                return this.allocPage(pageNum / DATA_PAGES_PER_HEADER, pageNum % DATA_PAGES_PER_HEADER);
             }
         }
-        if (headerIndex == -1) {
-            throw new PageException("no free pages - partition has reached max size");
-        }
-
-        byte[] headerBytes = this.headerPages[headerIndex];
+        this.reserveExtent();
+        int pageNum = this.extentNext++;
+        return this.allocPage(pageNum / DATA_PAGES_PER_HEADER, pageNum % DATA_PAGES_PER_HEADER);
+    }
 
-        int pageIndex = -1;
-        if (headerBytes == null) {
-            pageIndex = 0;
-        } else {
-            for (int i = 0; i < DATA_PAGES_PER_HEADER; i++) {
-                if (Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) {
-                    pageIndex = i;
-                    break;
+    /**
+     * Reserves the next extent to allocate pages from. Extents are aligned to EXTENT_PAGES
+     * pages (one 64-bit word of a header page's bitmap), and are chosen in this order:
+     * - the first extent whose free pages are all at its end, if it isn't past the last
+     *   allocated page (such as a freed extent, or the one the partition was growing into
+     *   before it was reopened), from its first free page on;
+     * - the rest of the extent of the first free page, so that freed pages are reused
+     *   before the partition grows;
+     * - the first extent past the last allocated page.
+     */
+    private void reserveExtent() throws IOException {
+        // first free page of the first extent with free pages only at its end
+        int tail = -1;
+        // first free page of any other extent
+        int hole = -1;
+        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+            byte[] headerBytes = this.headerPages[i];
+            if (this.masterPage[i] == 0 || headerBytes == null) {
+                if (tail == -1) {
+                    tail = i * DATA_PAGES_PER_HEADER;
                 }
+                continue;
             }
-            if (pageIndex == -1) {
-                throw new PageException("header page should have free space, but doesn't");
+            for (int j = 0; j < DATA_PAGES_PER_HEADER; j += EXTENT_PAGES) {
+                long word = Bits.getWord(headerBytes, j / 8);
+                if (word != 0 && tail != -1) {
+                    // pages are allocated after the extent
+                    this.setExtent(tail, EXTENT_PAGES - tail % EXTENT_PAGES);
+                    return;
+                }
+                if (word == -1L) {
+                    continue;
+                }
+                int free = Long.numberOfLeadingZeros(~word);
+                int pageNum = i * DATA_PAGES_PER_HEADER + j + free;
+                if (word << free != 0) {
+                    hole = hole == -1 ? pageNum : hole;
+                } else if (free > 0) {
+                    // pages are allocated at the start of the extent
+                    this.setExtent(pageNum, EXTENT_PAGES - free);
+                    return;
+                } else if (tail == -1) {
+                    tail = pageNum;
+                }
             }
         }
+        int start = hole != -1 ? hole : tail;
+        if (start == -1) {
+            throw new PageException("no free pages - partition has reached max size");
+        }
+        this.setExtent(start, EXTENT_PAGES - start % EXTENT_PAGES);
+    }
 
-        return this.allocPage(headerIndex, pageIndex);
+    /**
+     * Makes [start, start + length) the current extent, and (unless memory-mapped) grows the
+     * OS file to cover it with a single write, so the file system can place the extent's
+     * pages together instead of one at a time as they are written.
+     */
+    private void setExtent(int start, int length) throws IOException {
+        this.extentNext = start;
+        this.extentEnd = start + length;
+        if (this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED || this.compressed) {
+            return;
+        }
+        long size = this.fileChannel.size();
+        long end = PartitionHandle.dataPageOffset(this.extentEnd - 1) + PAGE_SIZE;
+        long offset = Math.max(size, PartitionHandle.dataPageOffset(start));
+        if (offset < end) {
+            ByteBuffer zeroes = ByteBuffer.allocate((int) (end - offset));
+            while (zeroes.hasRemaining()) {
+                offset += this.fileChannel.write(zeroes, offset);
+            }
+        }
     }
 
     /**
@@ -156,19 +448,23 @@ class PartitionHandle implements AutoCloseable {
      */
     int allocPage(int headerIndex, int pageIndex) throws IOException {
         byte[] headerBytes = this.headerPages[headerIndex];
-        if (headerBytes == null) {
-            headerBytes = new byte[PAGE_SIZE];
-            this.headerPages[headerIndex] = headerBytes;
-        }
-
-        if (Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ONE) {
+        if (headerBytes != null && Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ONE) {
             throw new IllegalStateException("page at (part=" + partNum + ", header=" + headerIndex + ", index="
                                             +
                                             pageIndex + ") already allocated");
         }
 
-        Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
-        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
+        long stamp = this.headerLock.writeLock();
+        try {
+            if (headerBytes == null) {
+                headerBytes = new byte[PAGE_SIZE];
+                this.headerPages[headerIndex] = headerBytes;
+            }
+            Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
+            ++this.masterPage[headerIndex];
+        } finally {
+            this.headerLock.unlockWrite(stamp);
+        }
 
         int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
 
@@ -206,60 +502,446 @@ class PartitionHandle implements AutoCloseable {
         if (transaction != null) {
             byte[] contents = new byte[PAGE_SIZE];
             readPage(pageNum, contents);
-            int halfway = BufferManager.RESERVED_SPACE + BufferManager.EFFECTIVE_PAGE_SIZE / 2;
-            recoveryManager.logPageWrite(
-                    transaction.getTransNum(),
-                    vpn,
-                    (short) 0,
-                    Arrays.copyOfRange(contents, BufferManager.RESERVED_SPACE, halfway),
-                    new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2]
-            );
-            recoveryManager.logPageWrite(
-                    transaction.getTransNum(),
-                    vpn,
-                    (short) (BufferManager.EFFECTIVE_PAGE_SIZE / 2),
-                    Arrays.copyOfRange(contents, halfway, PAGE_SIZE),
-                    new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2]
-            );
-            recoveryManager.logFreePage(transaction.getTransNum(), vpn);
+            logFreePage(recoveryManager, transaction.getTransNum(), vpn, contents);
         }
         recoveryManager.diskIOHook(vpn);
-        Bits.setBit(headerBytes, pageIndex, Bits.Bit.ZERO);
-        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
+        long stamp = this.headerLock.writeLock();
+        try {
+            Bits.setBit(headerBytes, pageIndex, Bits.Bit.ZERO);
+            --this.masterPage[headerIndex];
+        } finally {
+            this.headerLock.unlockWrite(stamp);
+        }
         this.writeMasterPage();
         this.writeHeaderPage(headerIndex);
+        if (this.compressedPages != null) {
+            this.compressedPages.freePage(pageNum);
+        }
+    }
+
+    /**
+     * Logs the freeing of a page: the page's contents are logged as being zeroed out first,
+     * so that undoing the free restores them.
+     * @param transNum transaction freeing the page
+     * @param vpn virtual page number of the page
+     * @param contents current contents of the page
+     */
+    static void logFreePage(RecoveryManager recoveryManager, long transNum, long vpn, byte[] contents) {
+        int halfway = BufferManager.RESERVED_SPACE + BufferManager.EFFECTIVE_PAGE_SIZE / 2;
+        recoveryManager.logPageWrite(
+                transNum,
+                vpn,
+                (short) 0,
+                Arrays.copyOfRange(contents, BufferManager.RESERVED_SPACE, halfway),
+                new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2]
+        );
+        recoveryManager.logPageWrite(
+                transNum,
+                vpn,
+                (short) (BufferManager.EFFECTIVE_PAGE_SIZE / 2),
+                Arrays.copyOfRange(contents, halfway, PAGE_SIZE),
+                new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2]
+        );
+        recoveryManager.logFreePage(transNum, vpn);
     }
 
     /**
-     * Reads in a data page. Assumes that the partition lock is held.
+     * Reads in a data page. Does not need the partition lock.
      * @param pageNum data page number to read in
      * @param buf output buffer to be filled with page - assumed to be page size
      */
     void readPage(int pageNum, byte[] buf) throws IOException {
+        this.readPage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Reads in a data page. Does not need the partition lock. Direct buffers are read
+     * into without an intermediate copy (except from compressed partitions).
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page - assumed to have a page's worth of
+     *            bytes remaining; its position is not changed
+     */
+    void readPage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.read(b, PartitionHandle.dataPageOffset(pageNum));
+        this.readDataPage(pageNum, buf);
     }
 
     /**
-     * Writes to a data page. Assumes that the partition lock is held.
+     * Writes to a data page. Does not need the partition lock.
      * @param pageNum data page number to write to
      * @param buf input buffer with new contents of page - assumed to be page size
      */
     void writePage(int pageNum, byte[] buf) throws IOException {
+        this.writePage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Writes to a data page. Does not need the partition lock. Direct buffers are written
+     * from without an intermediate copy (except to compressed partitions).
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page - assumed to have a page's worth of
+     *            bytes remaining; its position is not changed
+     */
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.write(b, PartitionHandle.dataPageOffset(pageNum));
-        this.fileChannel.force(false);
+        if (this.compressedPages != null) {
+            this.compressedPages.writePage(pageNum, PartitionHandle.toArray(buf), this.forceOnWrite);
+        } else {
+            this.writeAt(PartitionHandle.dataPageOffset(pageNum), buf);
+            if (this.forceOnWrite && this.ioMode != DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED) {
+                this.fileChannel.force(false);
+            }
+        }
 
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Reads in a data page, from wherever it is stored.
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page - assumed to be page size
+     */
+    private void readDataPage(int pageNum, ByteBuffer buf) throws IOException {
+        if (this.compressedPages != null) {
+            byte[] bytes = PartitionHandle.backingArray(buf);
+            if (bytes != null) {
+                this.compressedPages.readPage(pageNum, bytes);
+            } else {
+                bytes = new byte[PAGE_SIZE];
+                this.compressedPages.readPage(pageNum, bytes);
+                buf.duplicate().put(bytes);
+            }
+        } else {
+            this.readAt(PartitionHandle.dataPageOffset(pageNum), buf);
+        }
+    }
+
+    /**
+     * Reads in several data pages, coalescing pages that are adjacent in the OS file
+     * into single positioned reads. Does not need the partition lock.
+     * @param pageNums data page numbers to read in, in ascending order
+     * @param bufs output buffers to be filled with pages - assumed to be page size
+     */
+    void readPages(int[] pageNums, ByteBuffer[] bufs) throws IOException {
+        for (int pageNum : pageNums) {
+            if (this.isNotAllocatedPage(pageNum)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+        }
+        if (this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED || this.compressedPages != null) {
+            for (int i = 0; i < pageNums.length; ++i) {
+                this.readDataPage(pageNums[i], bufs[i]);
+            }
+            return;
+        }
+        int start = 0;
+        while (start < pageNums.length) {
+            int end = PartitionHandle.endOfRun(pageNums, start);
+            ByteBuffer run = ByteBuffer.allocate((end - start) * PAGE_SIZE);
+            long offset = PartitionHandle.dataPageOffset(pageNums[start]);
+            while (run.hasRemaining()) {
+                if (this.fileChannel.read(run, offset + run.position()) < 0) {
+                    throw new PageException("unexpected end of partition " + partNum);
+                }
+            }
+            PartitionHandle.scatterRun(run, PartitionHandle.wrapRun(bufs, start, end));
+            start = end;
+        }
+    }
+
+    /**
+     * Writes to several data pages, coalescing pages that are adjacent in the OS file
+     * into single positioned writes, and forcing the file once at the end. Does not need
+     * the partition lock.
+     * @param pageNums data page numbers to write to, in ascending order
+     * @param bufs input buffers with new contents of pages - assumed to be page size
+     */
+    void writePages(int[] pageNums, ByteBuffer[] bufs) throws IOException {
+        for (int pageNum : pageNums) {
+            if (this.isNotAllocatedPage(pageNum)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+        }
+        if (this.compressedPages != null) {
+            for (int i = 0; i < pageNums.length; ++i) {
+                this.compressedPages.writePage(pageNums[i], PartitionHandle.toArray(bufs[i]), false);
+            }
+            if (this.forceOnWrite) {
+                this.compressedPages.sync();
+            }
+        } else if (this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED) {
+            for (int i = 0; i < pageNums.length; ++i) {
+                this.writeAt(PartitionHandle.dataPageOffset(pageNums[i]), bufs[i]);
+            }
+        } else {
+            int start = 0;
+            while (start < pageNums.length) {
+                int end = PartitionHandle.endOfRun(pageNums, start);
+                ByteBuffer run = PartitionHandle.gatherRun(PartitionHandle.wrapRun(bufs, start, end));
+                long offset = PartitionHandle.dataPageOffset(pageNums[start]);
+                while (run.hasRemaining()) {
+                    this.fileChannel.write(run, offset + run.position());
+                }
+                start = end;
+            }
+            if (this.forceOnWrite) {
+                this.fileChannel.force(false);
+            } else {
+                this.unsynced = true;
+            }
+        }
+
+        for (int pageNum : pageNums) {
+            recoveryManager.diskIOHook(DiskSpaceManager.getVirtualPageNum(partNum, pageNum));
+        }
+    }
+
+    /**
+     * Starts reading in a data page. Does not need the partition lock. Only FILE_CHANNEL
+     * and BATCHED_SYNC modes read asynchronously; memory-mapped reads are just copies, and are done
+     * before returning.
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page - assumed to be page size
+     * @return future completed once buf is filled, or completed exceptionally if the read failed
+     */
+    CompletableFuture<Void> readPageAsync(int pageNum, ByteBuffer buf) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            if (this.isNotAllocatedPage(pageNum) || this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED
+                    || this.compressedPages != null) {
+                this.readPage(pageNum, buf);
+                future.complete(null);
+            } else {
+                this.transferAsync(false, buf.slice(), PartitionHandle.dataPageOffset(pageNum), future);
+            }
+        } catch (IOException | PageException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Starts reading in several data pages, coalescing pages that are adjacent in the OS
+     * file into single reads. Does not need the partition lock. As with readPageAsync,
+     * memory-mapped and compressed pages are read before returning.
+     * @param pageNums data page numbers to read in, in ascending order
+     * @param bufs output buffers to be filled with pages - assumed to be page size
+     * @return future completed once every buffer is filled, or completed exceptionally if a read failed
+     */
+    CompletableFuture<Void> readPagesAsync(int[] pageNums, ByteBuffer[] bufs) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            if (this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED || this.compressedPages != null) {
+                this.readPages(pageNums, bufs);
+                future.complete(null);
+                return future;
+            }
+            for (int pageNum : pageNums) {
+                if (this.isNotAllocatedPage(pageNum)) {
+                    throw new PageException("page " + pageNum + " is not allocated");
+                }
+            }
+            // each run is read into one buffer, and copied out to the pages' buffers once read
+            List<CompletableFuture<Void>> runReads = new ArrayList<>();
+            int start = 0;
+            while (start < pageNums.length) {
+                int end = PartitionHandle.endOfRun(pageNums, start);
+                ByteBuffer[] runBufs = PartitionHandle.wrapRun(bufs, start, end);
+                ByteBuffer run = ByteBuffer.allocate(runBufs.length * PAGE_SIZE);
+                CompletableFuture<Void> runRead = new CompletableFuture<>();
+                this.transferAsync(false, run, PartitionHandle.dataPageOffset(pageNums[start]), runRead);
+                runReads.add(runRead.thenRun(() -> PartitionHandle.scatterRun(run, runBufs)));
+                start = end;
+            }
+            CompletableFuture.allOf(runReads.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                } else {
+                    future.complete(null);
+                }
+            });
+        } catch (IOException | PageException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Starts writing to a data page. Does not need the partition lock. As with writePage,
+     * the write is forced to disk (in FILE_CHANNEL mode) before the future completes.
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page - assumed to be page size
+     * @return future completed once the page is written, or completed exceptionally if the write failed
+     */
+    CompletableFuture<Void> writePageAsync(int pageNum, byte[] buf) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            if (this.isNotAllocatedPage(pageNum) || this.ioMode == DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED
+                    || this.compressedPages != null) {
+                this.writePage(pageNum, buf);
+                future.complete(null);
+                return future;
+            }
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            this.transferAsync(true, ByteBuffer.wrap(buf), PartitionHandle.dataPageOffset(pageNum), written);
+            written.whenComplete((v, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                try {
+                    if (this.forceOnWrite) {
+                        this.asyncChannel().force(false);
+                    } else {
+                        this.unsynced = true;
+                    }
+                    recoveryManager.diskIOHook(DiskSpaceManager.getVirtualPageNum(partNum, pageNum));
+                    future.complete(null);
+                } catch (IOException | RuntimeException e2) {
+                    future.completeExceptionally(e2);
+                }
+            });
+        } catch (IOException | PageException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Asynchronously reads or writes all of b at an offset of the OS file, reissuing the
+     * operation after short transfers.
+     * @param write whether to write b (or read into b)
+     * @param b buffer to transfer; its position is the number of bytes transferred so far
+     * @param offset offset in OS file corresponding to the start of b
+     * @param future completed once all of b has been transferred
+     */
+    private void transferAsync(boolean write, ByteBuffer b, long offset, CompletableFuture<Void> future)
+            throws IOException {
+        CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer n, Void attachment) {
+                if (n < 0) {
+                    future.completeExceptionally(new PageException("unexpected end of partition " + partNum));
+                } else if (b.hasRemaining()) {
+                    try {
+                        transferAsync(write, b, offset, future);
+                    } catch (IOException e) {
+                        future.completeExceptionally(e);
+                    }
+                } else {
+                    future.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        };
+        if (write) {
+            this.asyncChannel().write(b, offset + b.position(), null, handler);
+        } else {
+            this.asyncChannel().read(b, offset + b.position(), null, handler);
+        }
+    }
+
+    /**
+     * @return channel for asynchronous I/O on the OS file, opening it if necessary
+     */
+    private AsynchronousFileChannel asyncChannel() throws IOException {
+        AsynchronousFileChannel channel = this.asyncChannel;
+        if (channel != null) {
+            return channel;
+        }
+        this.partitionLock.lock();
+        try {
+            if (this.asyncChannel == null) {
+                this.asyncChannel = AsynchronousFileChannel.open(Paths.get(this.fileName),
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return this.asyncChannel;
+        } finally {
+            this.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * @param pageNums data page numbers, in ascending order
+     * @param start index of first page of a run
+     * @return index one past the last page that is stored right after its predecessor
+     *         in the OS file, starting from start
+     */
+    private static int endOfRun(int[] pageNums, int start) {
+        int end = start + 1;
+        while (end < pageNums.length
+                && dataPageOffset(pageNums[end]) == dataPageOffset(pageNums[end - 1]) + PAGE_SIZE) {
+            ++end;
+        }
+        return end;
+    }
+
+    private static ByteBuffer[] wrapRun(ByteBuffer[] bufs, int start, int end) {
+        ByteBuffer[] run = new ByteBuffer[end - start];
+        for (int i = start; i < end; ++i) {
+            run[i - start] = bufs[i].duplicate();
+        }
+        return run;
+    }
+
+    /**
+     * Copies the pages of a run that was read in (run is read from its start up to its
+     * position) out to the pages' buffers.
+     */
+    private static void scatterRun(ByteBuffer run, ByteBuffer[] bufs) {
+        run.flip();
+        for (ByteBuffer buf : bufs) {
+            ByteBuffer page = run.slice();
+            page.limit(PAGE_SIZE);
+            buf.put(page);
+            run.position(run.position() + PAGE_SIZE);
+        }
+    }
+
+    /**
+     * @return buffer with the contents of the pages of a run, one after another, so that
+     *         the run can be written with a single positioned write
+     */
+    private static ByteBuffer gatherRun(ByteBuffer[] bufs) {
+        ByteBuffer run = ByteBuffer.allocate(bufs.length * PAGE_SIZE);
+        for (ByteBuffer buf : bufs) {
+            run.put(buf);
+        }
+        run.flip();
+        return run;
+    }
+
+    /**
+     * @return the array backing buf, if buf's remaining bytes are exactly the whole array
+     */
+    private static byte[] backingArray(ByteBuffer buf) {
+        if (buf.hasArray() && buf.arrayOffset() + buf.position() == 0 && buf.remaining() == buf.array().length) {
+            return buf.array();
+        }
+        return null;
+    }
+
+    /**
+     * @return the remaining bytes of buf as an array, copied unless buf wraps exactly that array
+     */
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] bytes = PartitionHandle.backingArray(buf);
+        if (bytes == null) {
+            bytes = new byte[buf.remaining()];
+            buf.duplicate().get(bytes);
+        }
+        return bytes;
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
@@ -271,10 +953,29 @@ class PartitionHandle implements AutoCloseable {
         if (headerIndex < 0 || headerIndex >= MAX_HEADER_PAGES) {
             return true;
         }
-        if (masterPage[headerIndex] == 0) {
+        // Usually called without the partition lock, so the pages may be changed by an
+        // allocation or free while they are read; if so, they are read again under the
+        // read lock.
+        long stamp = this.headerLock.tryOptimisticRead();
+        boolean notAllocated = this.isNotAllocatedPage(headerIndex, pageIndex);
+        if (!this.headerLock.validate(stamp)) {
+            stamp = this.headerLock.readLock();
+            try {
+                notAllocated = this.isNotAllocatedPage(headerIndex, pageIndex);
+            } finally {
+                this.headerLock.unlockRead(stamp);
+            }
+        }
+        return notAllocated;
+    }
+
+    private boolean isNotAllocatedPage(int headerIndex, int pageIndex) {
+        // the header page is only dereferenced once, since it may be set concurrently
+        byte[] headerBytes = headerPages[headerIndex];
+        if (masterPage[headerIndex] == 0 || headerBytes == null) {
             return true;
         }
-        return Bits.getBit(headerPages[headerIndex], pageIndex) == Bits.Bit.ZERO;
+        return Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ZERO;
     }
 
     /**
@@ -285,15 +986,33 @@ class PartitionHandle implements AutoCloseable {
         for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
             if (masterPage[i] > 0) {
                 byte[] headerPage = headerPages[i];
-                for (int j = 0; j < DATA_PAGES_PER_HEADER; ++j) {
-                    if (Bits.getBit(headerPage, j) == Bits.Bit.ONE) {
-                        this.freePage(i * DATA_PAGES_PER_HEADER + j);
-                    }
+                for (int j = Bits.nextSetBit(headerPage, 0); j != -1; j = Bits.nextSetBit(headerPage, j + 1)) {
+                    this.freePage(i * DATA_PAGES_PER_HEADER + j);
                 }
             }
         }
     }
 
+    /**
+     * Measures how scattered the partition's allocated pages are in the OS file, as the
+     * fraction of allocated pages (after the first) that don't directly follow another
+     * allocated page. 0 means that the pages form one contiguous run, and 1 that no two
+     * of them are adjacent. Must hold the partition lock.
+     * @return fragmentation, between 0 and 1
+     */
+    double fragmentation() {
+        long pages = 0;
+        long runs = 0;
+        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+            if (this.masterPage[i] > 0) {
+                pages += this.masterPage[i];
+                // runs never continue across header pages, which sit between them on disk
+                runs += Bits.countRuns(this.headerPages[i]);
+            }
+        }
+        return pages <= 1 ? 0 : (double) (runs - 1) / (pages - 1);
+    }
+
     /**
      * @return offset in OS file for master page
      */
@@ -318,6 +1037,14 @@ class PartitionHandle implements AutoCloseable {
         return (1 + headerIndex * spacingCoeff) * PAGE_SIZE;
     }
 
+    /**
+     * @param offset offset in OS file
+     * @return offset of the same byte within its memory-mapped region
+     */
+    private static int regionOffset(long offset) {
+        return (int) (offset % ((long) MAPPED_REGION_PAGES * PAGE_SIZE));
+    }
+
     /**
      * @param pageNum data page number
      * @return offset in OS file for data page
@@ -0,0 +1,94 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Carries out durability barriers for partitions whose writes are not forced as they happen.
+ * Such writes only mark their partition as unsynced, and a barrier forces every unsynced
+ * partition, however many partitions were written to.
+ *
+ * Barriers requested at the same time are coalesced: a thread that requests a barrier while
+ * another one is in progress waits for it to finish (it may have missed the thread's writes),
+ * and then all of the waiting threads share a single barrier, carried out by one of them. Any
+ * number of concurrent requests (log flushes of committing transactions, a checkpoint) thus
+ * cost at most two rounds of fsyncs.
+ */
+class SyncScheduler {
+    // Partitions to force at each barrier (only the unsynced ones are actually forced).
+    private final Supplier<Collection<PartitionHandle>> partitions;
+
+    // Number of barriers started and finished; guarded by this.
+    private long started;
+    private long finished;
+    private boolean syncing;
+
+    // Number of partitions forced by barriers so far; guarded by this.
+    private long numPartitionSyncs;
+
+    SyncScheduler(Supplier<Collection<PartitionHandle>> partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * Returns once every write that finished before this call is durable.
+     */
+    void barrier() {
+        long barrierNum;
+        synchronized (this) {
+            // the first barrier that starts after now covers all of our writes
+            long needed = this.started + 1;
+            while (true) {
+                if (this.finished >= needed) {
+                    return;
+                }
+                if (!this.syncing) {
+                    break;
+                }
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PageException("interrupted while waiting for sync");
+                }
+            }
+            this.syncing = true;
+            barrierNum = ++this.started;
+        }
+
+        int synced = 0;
+        boolean done = false;
+        try {
+            for (PartitionHandle pi : this.partitions.get()) {
+                if (pi.sync()) {
+                    ++synced;
+                }
+            }
+            done = true;
+        } finally {
+            synchronized (this) {
+                // if the barrier failed, a waiting thread carries out the next one
+                if (done) {
+                    this.finished = barrierNum;
+                }
+                this.syncing = false;
+                this.numPartitionSyncs += synced;
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return number of barriers carried out so far
+     */
+    synchronized long getNumBarriers() {
+        return this.finished;
+    }
+
+    /**
+     * @return number of partitions forced by barriers so far
+     */
+    synchronized long getNumPartitionSyncs() {
+        return this.numPartitionSyncs;
+    }
+}
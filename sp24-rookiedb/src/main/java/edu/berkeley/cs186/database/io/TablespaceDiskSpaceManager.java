@@ -0,0 +1,564 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A disk space manager that stores every partition in a single OS file (the tablespace),
+ * instead of one OS file per partition like DiskSpaceManagerImpl. Partitions are made up of
+ * extents of EXTENT_PAGES pages, and creating or dropping a partition only changes which
+ * partition owns which extents: no files are created or deleted, and opening the database
+ * opens one file however many partitions it has. This makes short-lived partitions (such as
+ * the temporary tables of sorts, joins and group-bys) much cheaper.
+ *
+ * The tablespace file is a series of groups, each of which is a map page followed by the
+ * MAP_ENTRIES extents that it describes:
+ *
+ *     [map page][extent 0][extent 1] ... [extent 255][map page][extent 256] ...
+ *
+ * Each map page entry is 16 bytes: the number of the partition that owns the extent plus one
+ * (0 if the extent is free), the index of the extent within its partition, and a 64-bit bitmap
+ * of the extent's allocated pages (most significant bit first). Data page n of a partition is
+ * page n % EXTENT_PAGES of the partition's extent with index n / EXTENT_PAGES. A partition owns
+ * its extent 0 for as long as it exists, even with no pages allocated, which is how its existence
+ * is recorded; its other extents are given back once their last page is freed, and are reused by
+ * whichever partition needs an extent next. The file grows an extent at a time, with a single
+ * write of zeroes, so that each extent is contiguous on disk. As a result, every partition takes
+ * up at least one extent (EXTENT_PAGES pages, 256 KB) of the file for as long as it exists, even
+ * an empty one, and creating a partition writes out a whole extent of zeroes when no free extent
+ * can be reused.
+ *
+ * Map pages are cached in memory, and written through (and forced) whenever they change, like
+ * the master and header pages of DiskSpaceManagerImpl. As there, every data page write is forced
+ * before returning, and each partition has a lock that is held while its pages are allocated or
+ * freed, while data page reads and writes take no locks. Changes to the map itself are made under
+ * a separate lock, which is never held while calling out to the recovery manager. Unlike
+ * DiskSpaceManagerImpl, it has no other I/O modes and keeps no I/O metrics.
+ */
+public class TablespaceDiskSpaceManager implements DiskSpaceManager {
+    // Name of the tablespace file, in the database directory.
+    public static final String FILE_NAME = "tablespace";
+
+    static final int EXTENT_PAGES = Long.SIZE; // 1 bit per page in a map page entry
+    static final int MAP_ENTRY_SIZE = 16;
+    static final int MAP_ENTRIES = PAGE_SIZE / MAP_ENTRY_SIZE; // extents per map page
+    private static final long GROUP_PAGES = 1 + (long) MAP_ENTRIES * EXTENT_PAGES;
+
+    // Same limit as DiskSpaceManagerImpl, so partitions can move between the two.
+    private static final int MAX_EXTENTS_PER_PART =
+        DiskSpaceManagerImpl.MAX_HEADER_PAGES * (DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER / EXTENT_PAGES);
+
+    // An extent owned by a partition.
+    private static class Extent {
+        final int extentNum; // position in the tablespace
+        final int partNum;
+        final int index; // position in the partition
+
+        // Allocated pages of the extent, first page in the most significant bit. Only
+        // changed under the map lock (and the owning partition's lock).
+        volatile long bitmap;
+
+        Extent(int extentNum, int partNum, int index, long bitmap) {
+            this.extentNum = extentNum;
+            this.partNum = partNum;
+            this.index = index;
+            this.bitmap = bitmap;
+        }
+
+        boolean isAllocated(int slot) {
+            return (this.bitmap << slot) < 0;
+        }
+    }
+
+    private static class Partition {
+        // Held while pages are allocated or freed, and while the partition is created or dropped.
+        final ReentrantLock lock = new ReentrantLock();
+
+        // Extents of the partition, by index (null where the partition has no extent).
+        // Replaced rather than modified, so readers can use whatever array they see.
+        volatile Extent[] extents = new Extent[0];
+
+        Extent getExtent(int pageNum) {
+            Extent[] extents = this.extents;
+            int index = pageNum / EXTENT_PAGES;
+            return pageNum >= 0 && index < extents.length ? extents[index] : null;
+        }
+    }
+
+    private FileChannel channel;
+
+    // Partitions that currently exist.
+    private ConcurrentHashMap<Integer, Partition> partitions;
+
+    // Counter to generate new partition numbers.
+    private AtomicInteger partNumCounter;
+
+    // recovery manager
+    private RecoveryManager recoveryManager;
+
+    // Lock on the map: mapPages, usedExtents, and extents' bitmaps.
+    private ReentrantLock mapLock;
+
+    // Contents of the map pages, one per group.
+    private List<byte[]> mapPages;
+
+    // Extents that are owned by a partition.
+    private BitSet usedExtents;
+
+    /**
+     * Initialize the disk space manager using the tablespace file in the given directory.
+     * Creates the directory and the file if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public TablespaceDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        this.recoveryManager = recoveryManager;
+        this.partitions = new ConcurrentHashMap<>();
+        this.partNumCounter = new AtomicInteger(0);
+        this.mapLock = new ReentrantLock();
+        this.mapPages = new ArrayList<>();
+        this.usedExtents = new BitSet();
+
+        File dir = new File(dbDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new PageException("could not initialize disk space manager - could not make directory");
+        }
+        try {
+            this.channel = FileChannel.open(Paths.get(dbDir, FILE_NAME), StandardOpenOption.CREATE,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.loadMap();
+        } catch (IOException e) {
+            throw new PageException("could not open tablespace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads in the map pages, and rebuilds the partitions from them.
+     */
+    private void loadMap() throws IOException {
+        long size = this.channel.size();
+        int maxPartNum = -1;
+        for (int group = 0; mapPageOffset(group) < size; ++group) {
+            byte[] mapPage = new byte[PAGE_SIZE];
+            this.readFully(ByteBuffer.wrap(mapPage), mapPageOffset(group));
+            this.mapPages.add(mapPage);
+            ByteBuffer b = ByteBuffer.wrap(mapPage);
+            for (int i = 0; i < MAP_ENTRIES; ++i) {
+                int owner = b.getInt();
+                int index = b.getInt();
+                long bitmap = b.getLong();
+                if (owner == 0) {
+                    continue;
+                }
+                int extentNum = group * MAP_ENTRIES + i;
+                int partNum = owner - 1;
+                Partition partition = this.partitions.computeIfAbsent(partNum, p -> new Partition());
+                if (index < 0 || index >= MAX_EXTENTS_PER_PART || partition.getExtent(index * EXTENT_PAGES) != null) {
+                    throw new PageException("tablespace map is corrupt at extent " + extentNum);
+                }
+                Extent[] extents = Arrays.copyOf(partition.extents, Math.max(partition.extents.length, index + 1));
+                extents[index] = new Extent(extentNum, partNum, index, bitmap);
+                partition.extents = extents;
+                this.usedExtents.set(extentNum);
+                maxPartNum = Math.max(maxPartNum, partNum);
+            }
+        }
+        this.partNumCounter.set(maxPartNum + 1);
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            throw new PageException("could not close tablespace: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int allocPart() {
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement());
+    }
+
+    @Override
+    public int allocPart(int partNum) {
+        this.partNumCounter.updateAndGet((int x) -> Math.max(x, partNum) + 1);
+        return this.allocPartHelper(partNum);
+    }
+
+    private int allocPartHelper(int partNum) {
+        // The new partition is locked before it is published, so that nobody can
+        // allocate pages in it before it has its first extent.
+        Partition partition = new Partition();
+        partition.lock.lock();
+        if (this.partitions.putIfAbsent(partNum, partition) != null) {
+            partition.lock.unlock();
+            throw new IllegalStateException("partition number " + partNum + " already exists");
+        }
+        try {
+            TransactionContext transaction = TransactionContext.getTransaction();
+            if (transaction != null) {
+                recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
+            }
+
+            this.claimExtent(partNum, partition, 0);
+            return partNum;
+        } catch (IOException e) {
+            throw new PageException("could not allocate partition " + partNum + ": " + e.getMessage());
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    @Override
+    public void freePart(int partNum) {
+        Partition partition = this.partitions.remove(partNum);
+        if (partition == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        partition.lock.lock();
+        try {
+            for (Extent extent : partition.extents) {
+                if (extent == null) {
+                    continue;
+                }
+                for (int slot = 0; slot < EXTENT_PAGES; ++slot) {
+                    if (extent.isAllocated(slot)) {
+                        this.freePageHelper(partition, extent, slot);
+                    }
+                }
+            }
+
+            TransactionContext transaction = TransactionContext.getTransaction();
+            if (transaction != null) {
+                recoveryManager.logFreePart(transaction.getTransNum(), partNum);
+            }
+
+            for (Extent extent : partition.extents) {
+                if (extent != null) {
+                    this.releaseExtent(partition, extent);
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not free partition " + partNum + ": " + e.getMessage());
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    @Override
+    public long allocPage(int partNum) {
+        Partition partition = getPartition(partNum);
+        partition.lock.lock();
+        try {
+            // first free page of the partition's extents, or else the first page of the
+            // first extent it doesn't have
+            Extent[] extents = partition.extents;
+            int pageNum = -1;
+            int missingIndex = extents.length;
+            for (int i = 0; i < extents.length; ++i) {
+                Extent extent = extents[i];
+                if (extent == null) {
+                    missingIndex = Math.min(missingIndex, i);
+                } else if (extent.bitmap != -1L) {
+                    pageNum = i * EXTENT_PAGES + Long.numberOfLeadingZeros(~extent.bitmap);
+                    break;
+                }
+            }
+            if (pageNum == -1) {
+                if (missingIndex >= MAX_EXTENTS_PER_PART) {
+                    throw new PageException("no free pages - partition has reached max size");
+                }
+                pageNum = missingIndex * EXTENT_PAGES;
+            }
+            return this.allocPageHelper(partNum, partition, pageNum);
+        } catch (IOException e) {
+            throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    @Override
+    public long allocPage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        if (pageNum < 0 || pageNum / EXTENT_PAGES >= MAX_EXTENTS_PER_PART) {
+            throw new PageException("page number " + pageNum + " is past the max size of a partition");
+        }
+        Partition partition = getPartition(partNum);
+        partition.lock.lock();
+        try {
+            return this.allocPageHelper(partNum, partition, pageNum);
+        } catch (IOException e) {
+            throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    /**
+     * Allocates a page, claiming an extent for it if the partition doesn't have one yet.
+     * Must hold the partition's lock.
+     */
+    private long allocPageHelper(int partNum, Partition partition, int pageNum) throws IOException {
+        int slot = pageNum % EXTENT_PAGES;
+        Extent extent = partition.getExtent(pageNum);
+        if (extent != null && extent.isAllocated(slot)) {
+            throw new IllegalStateException("page at (part=" + partNum + ", page=" + pageNum + ") already allocated");
+        }
+
+        long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            recoveryManager.logAllocPage(transaction.getTransNum(), vpn);
+        }
+        recoveryManager.diskIOHook(vpn);
+        if (extent == null) {
+            extent = this.claimExtent(partNum, partition, pageNum / EXTENT_PAGES);
+        }
+        this.setBitmap(extent, extent.bitmap | (Long.MIN_VALUE >>> slot));
+        this.writePage(vpn, new byte[PAGE_SIZE]);
+        return vpn;
+    }
+
+    @Override
+    public void freePage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        Partition partition = getPartition(partNum);
+        partition.lock.lock();
+        try {
+            Extent extent = partition.getExtent(pageNum);
+            if (extent == null || !extent.isAllocated(pageNum % EXTENT_PAGES)) {
+                throw new NoSuchElementException("cannot free unallocated page");
+            }
+            this.freePageHelper(partition, extent, pageNum % EXTENT_PAGES);
+        } catch (IOException e) {
+            throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    /**
+     * Frees an allocated page, and gives its extent back if it was the extent's last page
+     * (unless it is the partition's extent 0). Must hold the partition's lock.
+     */
+    private void freePageHelper(Partition partition, Extent extent, int slot) throws IOException {
+        long vpn = DiskSpaceManager.getVirtualPageNum(extent.partNum, extent.index * EXTENT_PAGES + slot);
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            byte[] contents = new byte[PAGE_SIZE];
+            this.readFully(ByteBuffer.wrap(contents), dataPageOffset(extent, slot));
+            PartitionHandle.logFreePage(recoveryManager, transaction.getTransNum(), vpn, contents);
+        }
+        recoveryManager.diskIOHook(vpn);
+        this.setBitmap(extent, extent.bitmap & ~(Long.MIN_VALUE >>> slot));
+        if (extent.bitmap == 0 && extent.index != 0) {
+            this.releaseExtent(partition, extent);
+        }
+    }
+
+    @Override
+    public void readPage(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        Extent extent = getAllocatedExtent(partNum, pageNum);
+        try {
+            this.readFully(ByteBuffer.wrap(buf), dataPageOffset(extent, pageNum % EXTENT_PAGES));
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void writePage(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        Extent extent = getAllocatedExtent(partNum, pageNum);
+        try {
+            this.writeFully(ByteBuffer.wrap(buf), dataPageOffset(extent, pageNum % EXTENT_PAGES));
+            this.channel.force(false);
+        } catch (IOException e) {
+            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
+        }
+        recoveryManager.diskIOHook(page);
+    }
+
+    @Override
+    public boolean pageAllocated(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        Extent extent = getPartition(partNum).getExtent(pageNum);
+        return extent != null && extent.isAllocated(pageNum % EXTENT_PAGES);
+    }
+
+    /**
+     * @return number of extents in the tablespace that are owned by a partition
+     */
+    public int getNumUsedExtents() {
+        this.mapLock.lock();
+        try {
+            return this.usedExtents.cardinality();
+        } finally {
+            this.mapLock.unlock();
+        }
+    }
+
+    /**
+     * Gives the first free extent of the tablespace to a partition, growing the tablespace
+     * file if there is none. Must hold the partition's lock.
+     * @param index index of the extent within the partition
+     */
+    private Extent claimExtent(int partNum, Partition partition, int index) throws IOException {
+        this.mapLock.lock();
+        try {
+            int extentNum = this.usedExtents.nextClearBit(0);
+            Extent extent = new Extent(extentNum, partNum, index, 0L);
+            long end = dataPageOffset(extent, EXTENT_PAGES - 1) + PAGE_SIZE;
+            long size = this.channel.size();
+            if (size < end) {
+                // grow the file by the whole extent at once, so that it is contiguous
+                long offset = Math.max(size, dataPageOffset(extent, 0));
+                this.writeFully(ByteBuffer.allocate((int) (end - offset)), offset);
+            }
+            this.writeMapEntry(extent, partNum + 1);
+            this.usedExtents.set(extentNum);
+
+            Extent[] extents = Arrays.copyOf(partition.extents, Math.max(partition.extents.length, index + 1));
+            extents[index] = extent;
+            partition.extents = extents;
+            return extent;
+        } finally {
+            this.mapLock.unlock();
+        }
+    }
+
+    /**
+     * Takes an extent away from its partition, so that it can be reused. Must hold the
+     * partition's lock.
+     */
+    private void releaseExtent(Partition partition, Extent extent) throws IOException {
+        this.mapLock.lock();
+        try {
+            this.writeMapEntry(extent, 0);
+            this.usedExtents.clear(extent.extentNum);
+
+            Extent[] extents = partition.extents.clone();
+            extents[extent.index] = null;
+            partition.extents = extents;
+        } finally {
+            this.mapLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the allocated pages of an extent. Must hold the partition's lock.
+     */
+    private void setBitmap(Extent extent, long bitmap) throws IOException {
+        this.mapLock.lock();
+        try {
+            extent.bitmap = bitmap;
+            this.writeMapEntry(extent, extent.partNum + 1);
+        } finally {
+            this.mapLock.unlock();
+        }
+    }
+
+    /**
+     * Updates the map entry of an extent, and writes its map page to disk. Must hold the
+     * map lock.
+     * @param owner partition number of the extent's owner plus 1, or 0 if it is free
+     */
+    private void writeMapEntry(Extent extent, int owner) throws IOException {
+        int group = extent.extentNum / MAP_ENTRIES;
+        while (this.mapPages.size() <= group) {
+            this.mapPages.add(new byte[PAGE_SIZE]);
+        }
+        byte[] mapPage = this.mapPages.get(group);
+        ByteBuffer b = ByteBuffer.wrap(mapPage);
+        b.position((extent.extentNum % MAP_ENTRIES) * MAP_ENTRY_SIZE);
+        b.putInt(owner);
+        b.putInt(owner == 0 ? 0 : extent.index);
+        b.putLong(owner == 0 ? 0L : extent.bitmap);
+        this.writeFully(ByteBuffer.wrap(mapPage), mapPageOffset(group));
+        this.channel.force(false);
+    }
+
+    // Gets a partition, throws exception if not found.
+    private Partition getPartition(int partNum) {
+        Partition partition = this.partitions.get(partNum);
+        if (partition == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return partition;
+    }
+
+    // Gets the extent of an allocated page, throws exception if not allocated.
+    private Extent getAllocatedExtent(int partNum, int pageNum) {
+        Extent extent = getPartition(partNum).getExtent(pageNum);
+        if (extent == null || !extent.isAllocated(pageNum % EXTENT_PAGES)) {
+            throw new PageException("page " + pageNum + " is not allocated");
+        }
+        return extent;
+    }
+
+    private void readFully(ByteBuffer b, long offset) throws IOException {
+        while (b.hasRemaining()) {
+            int n = this.channel.read(b, offset);
+            if (n < 0) {
+                throw new PageException("unexpected end of tablespace file");
+            }
+            offset += n;
+        }
+    }
+
+    private void writeFully(ByteBuffer b, long offset) throws IOException {
+        while (b.hasRemaining()) {
+            offset += this.channel.write(b, offset);
+        }
+    }
+
+    /**
+     * @param group which group of extents
+     * @return offset in the tablespace file of the group's map page
+     */
+    private static long mapPageOffset(int group) {
+        return group * GROUP_PAGES * PAGE_SIZE;
+    }
+
+    /**
+     * @param extent extent of the page
+     * @param slot position of the page within the extent
+     * @return offset in the tablespace file of the page
+     */
+    private static long dataPageOffset(Extent extent, int slot) {
+        // Like header pages in DiskSpaceManagerImpl, each map page comes right before
+        // the extents it describes.
+        int group = extent.extentNum / MAP_ENTRIES;
+        long extentInGroup = extent.extentNum % MAP_ENTRIES;
+        return (group * GROUP_PAGES + 1 + extentInGroup * EXTENT_PAGES + slot) * PAGE_SIZE;
+    }
+}
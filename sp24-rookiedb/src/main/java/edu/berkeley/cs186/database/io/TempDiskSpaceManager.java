@@ -0,0 +1,646 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk space manager that keeps temporary partitions (see DiskSpaceManager#allocTempPart)
+ * in memory, and passes everything else through to another disk space manager.
+ *
+ * Temporary partitions hold the temporary tables of a transaction (sort runs, hash join
+ * partitions, materialized operators), which are freed when the transaction ends. Nothing
+ * about them is logged and they do not survive a restart, so there is no need to give them
+ * partition files: their pages are kept in memory instead, up to a limit on the number of
+ * bytes used. Once the limit is reached, further pages written out are spilled to a file in
+ * the database directory (SPILL_FILE_NAME), which is truncated again once no spilled pages
+ * are left, and deleted when the manager is closed.
+ *
+ * Allocated pages that have never been written out take no space (they read as zeros).
+ *
+ * Each temporary partition has a lock of its own, so transactions working on different
+ * temporary tables don't contend with each other, and reads and writes of spilled pages
+ * are done outside of any lock (only the slot of a page in the spill file is looked up or
+ * assigned under one). As with other disk space managers, callers are expected to serialize
+ * accesses to any single page themselves.
+ *
+ * I/O on temporary partitions is recorded in the I/O metrics of the other disk space manager
+ * (if it keeps any), under the shared entry for temporary partitions.
+ */
+public class TempDiskSpaceManager implements DiskSpaceManager {
+    // temporary partition numbers are handed out from [TEMP_PART_BASE, TEMP_PART_END)
+    static final int TEMP_PART_END = 900000000;
+    // name of the spill file, in the database directory
+    public static final String SPILL_FILE_NAME = "temp.spill";
+
+    // contents of a temporary page that was allocated but never written out
+    private static final byte[] ZEROS = new byte[PAGE_SIZE];
+
+    private final DiskSpaceManager diskSpaceManager;
+
+    // maximum number of bytes of page contents kept in memory
+    private volatile long memoryLimit;
+    // number of bytes of page contents kept in memory, over all partitions
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    // Temporary partitions, by partition number. Only added to and removed from under
+    // this, which also guards nextPartNum.
+    private final Map<Integer, TempPartition> partitions = new ConcurrentHashMap<>();
+    private int nextPartNum = TEMP_PART_BASE;
+
+    // Slots of the spill file, guarded by spillLock. A partition's lock may be held while
+    // taking spillLock, but not the other way around.
+    private final Object spillLock = new Object();
+    private final Deque<Long> freeSlots = new ArrayDeque<>();
+    private long numSlots;
+    private int numSpilledPages;
+
+    // created on first spill
+    private final Path spillPath;
+    private volatile FileChannel spillChannel;
+
+    /**
+     * Pages of a temporary partition. All fields are guarded by the partition.
+     */
+    private static class TempPartition {
+        // allocated pages
+        private final BitSet pages = new BitSet();
+        // contents of the pages kept in memory
+        private final Map<Integer, byte[]> memoryPages = new HashMap<>();
+        // slot in the spill file of the pages that were spilled
+        private final Map<Integer, Long> spilledPages = new HashMap<>();
+        // set once the partition is freed, after which no pages can be allocated in it
+        private boolean freed;
+    }
+
+    /**
+     * @param diskSpaceManager disk space manager for all non-temporary partitions
+     * @param dbDir directory to create the spill file in (the database directory)
+     * @param memoryLimit maximum number of bytes of temporary pages to keep in memory
+     */
+    public TempDiskSpaceManager(DiskSpaceManager diskSpaceManager, String dbDir, long memoryLimit) {
+        this.diskSpaceManager = diskSpaceManager;
+        this.spillPath = Paths.get(dbDir, SPILL_FILE_NAME);
+        this.setMemoryLimit(memoryLimit);
+        try {
+            // left behind if the database was not closed
+            Files.deleteIfExists(this.spillPath);
+        } catch (IOException e) {
+            throw new PageException("could not delete spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the maximum number of bytes of temporary pages to keep in memory. Pages
+     * already in memory stay there until they are freed, even if over the new limit.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("memory limit must not be negative");
+        }
+        this.memoryLimit = memoryLimit;
+    }
+
+    public long getMemoryLimit() {
+        return this.memoryLimit;
+    }
+
+    /**
+     * @return number of bytes of temporary pages kept in memory
+     */
+    public long getMemoryUsed() {
+        return this.memoryUsed.get();
+    }
+
+    /**
+     * @return number of temporary pages currently in the spill file
+     */
+    public int getNumSpilledPages() {
+        synchronized (this.spillLock) {
+            return this.numSpilledPages;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.partitions.clear();
+            this.memoryUsed.set(0);
+            synchronized (this.spillLock) {
+                this.numSpilledPages = 0;
+                try {
+                    this.closeSpillFile();
+                } catch (IOException e) {
+                    throw new PageException("could not delete spill file: " + e.getMessage());
+                }
+            }
+        }
+        this.diskSpaceManager.close();
+    }
+
+    @Override
+    public int allocPart() {
+        return this.diskSpaceManager.allocPart();
+    }
+
+    @Override
+    public int allocPart(int partNum) {
+        if (!DiskSpaceManager.isTempPart(partNum)) {
+            return this.diskSpaceManager.allocPart(partNum);
+        }
+        synchronized (this) {
+            if (partNum >= TEMP_PART_END) {
+                throw new IllegalArgumentException("invalid partition number " + partNum);
+            }
+            if (this.partitions.containsKey(partNum)) {
+                throw new IllegalStateException("partition number " + partNum + " already exists");
+            }
+            this.partitions.put(partNum, new TempPartition());
+            return partNum;
+        }
+    }
+
+    @Override
+    public int allocCompressedPart() {
+        return this.diskSpaceManager.allocCompressedPart();
+    }
+
+    @Override
+    public synchronized int allocTempPart() {
+        if (this.partitions.size() == TEMP_PART_END - TEMP_PART_BASE) {
+            throw new PageException("no temporary partition numbers left");
+        }
+        while (this.partitions.containsKey(this.nextPartNum)) {
+            this.advancePartNum();
+        }
+        int partNum = this.nextPartNum;
+        this.advancePartNum();
+        this.partitions.put(partNum, new TempPartition());
+        return partNum;
+    }
+
+    private void advancePartNum() {
+        ++this.nextPartNum;
+        if (this.nextPartNum == TEMP_PART_END) {
+            this.nextPartNum = TEMP_PART_BASE;
+        }
+    }
+
+    @Override
+    public void freePart(int partNum) {
+        if (!DiskSpaceManager.isTempPart(partNum)) {
+            this.diskSpaceManager.freePart(partNum);
+            return;
+        }
+        TempPartition partition;
+        synchronized (this) {
+            partition = this.partitions.remove(partNum);
+            if (partition == null) {
+                throw new NoSuchElementException("no partition " + partNum);
+            }
+        }
+        synchronized (partition) {
+            partition.freed = true;
+            BitSet pages = partition.pages;
+            for (int i = pages.nextSetBit(0); i >= 0; i = pages.nextSetBit(i + 1)) {
+                this.releasePage(partition, i);
+            }
+            pages.clear();
+        }
+    }
+
+    @Override
+    public long allocPage(int partNum) {
+        if (!DiskSpaceManager.isTempPart(partNum)) {
+            return this.diskSpaceManager.allocPage(partNum);
+        }
+        TempPartition partition = this.getPartition(partNum);
+        int pageNum;
+        synchronized (partition) {
+            if (partition.freed) {
+                throw new NoSuchElementException("no partition " + partNum);
+            }
+            pageNum = partition.pages.nextClearBit(0);
+            partition.pages.set(pageNum);
+        }
+        IOMetrics.PartitionMetrics metrics = this.getTempMetrics();
+        if (metrics != null) {
+            metrics.recordAlloc();
+        }
+        return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+    }
+
+    @Override
+    public long allocPage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        if (!DiskSpaceManager.isTempPart(partNum)) {
+            return this.diskSpaceManager.allocPage(page);
+        }
+        TempPartition partition = this.getPartition(partNum);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        synchronized (partition) {
+            if (partition.freed) {
+                throw new NoSuchElementException("no partition " + partNum);
+            }
+            if (partition.pages.get(pageNum)) {
+                throw new IllegalStateException("page " + page + " already allocated");
+            }
+            partition.pages.set(pageNum);
+        }
+        IOMetrics.PartitionMetrics metrics = this.getTempMetrics();
+        if (metrics != null) {
+            metrics.recordAlloc();
+        }
+        return page;
+    }
+
+    @Override
+    public void freePage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        if (!DiskSpaceManager.isTempPart(partNum)) {
+            this.diskSpaceManager.freePage(page);
+            return;
+        }
+        TempPartition partition = this.getPartition(partNum);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        synchronized (partition) {
+            if (!partition.pages.get(pageNum)) {
+                throw new NoSuchElementException("page " + page + " not allocated");
+            }
+            partition.pages.clear(pageNum);
+            this.releasePage(partition, pageNum);
+        }
+        IOMetrics.PartitionMetrics metrics = this.getTempMetrics();
+        if (metrics != null) {
+            metrics.recordFree();
+        }
+    }
+
+    @Override
+    public void readPage(long page, byte[] buf) {
+        if (!isTempPage(page)) {
+            this.diskSpaceManager.readPage(page, buf);
+            return;
+        }
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        this.readTempPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, byte[] buf) {
+        if (!isTempPage(page)) {
+            this.diskSpaceManager.writePage(page, buf);
+            return;
+        }
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        this.writeTempPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPages(long[] pages, byte[][] bufs) {
+        if (hasTempPage(pages)) {
+            DiskSpaceManager.super.readPages(pages, bufs);
+        } else {
+            this.diskSpaceManager.readPages(pages, bufs);
+        }
+    }
+
+    @Override
+    public void writePages(long[] pages, byte[][] bufs) {
+        if (hasTempPage(pages)) {
+            DiskSpaceManager.super.writePages(pages, bufs);
+        } else {
+            this.diskSpaceManager.writePages(pages, bufs);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        if (isTempPage(page)) {
+            return DiskSpaceManager.super.readPageAsync(page, buf);
+        }
+        return this.diskSpaceManager.readPageAsync(page, buf);
+    }
+
+    @Override
+    public CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        if (isTempPage(page)) {
+            return DiskSpaceManager.super.writePageAsync(page, buf);
+        }
+        return this.diskSpaceManager.writePageAsync(page, buf);
+    }
+
+    // Buffers are passed on as they are: pages of other partitions so that the wrapped disk
+    // space manager can do its I/O on them directly, and temporary pages so that they are
+    // copied straight between the buffer and memory (or the spill file), rather than through
+    // a page-sized array per read or write as in the DiskSpaceManager defaults.
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (isTempPage(page)) {
+            this.readTempPage(page, buf);
+        } else {
+            this.diskSpaceManager.readPage(page, buf);
+        }
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (isTempPage(page)) {
+            this.writeTempPage(page, buf);
+        } else {
+            this.diskSpaceManager.writePage(page, buf);
+        }
+    }
+
+    @Override
+    public void writePages(long[] pages, ByteBuffer[] bufs) {
+        if (!hasTempPage(pages)) {
+            this.diskSpaceManager.writePages(pages, bufs);
+            return;
+        }
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("writePages expects one buffer per page");
+        }
+        for (int i = 0; i < pages.length; ++i) {
+            this.writePage(pages[i], bufs[i]);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, ByteBuffer buf) {
+        if (!isTempPage(page)) {
+            return this.diskSpaceManager.readPageAsync(page, buf);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            this.readTempPage(page, buf);
+            future.complete(null);
+        } catch (PageException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long[] pages, ByteBuffer[] bufs) {
+        if (!hasTempPage(pages)) {
+            return this.diskSpaceManager.readPagesAsync(pages, bufs);
+        }
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("readPagesAsync expects one buffer per page");
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            for (int i = 0; i < pages.length; ++i) {
+                this.readPage(pages[i], bufs[i]);
+            }
+            future.complete(null);
+        } catch (PageException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void readTempPage(long page, ByteBuffer buf) {
+        long start = System.nanoTime();
+        this.readTempContents(page, buf);
+        IOMetrics.PartitionMetrics metrics = this.getTempMetrics();
+        if (metrics != null) {
+            metrics.recordRead(1, System.nanoTime() - start);
+        }
+    }
+
+    private void readTempContents(long page, ByteBuffer buf) {
+        TempPartition partition = this.getAllocatedPartition(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        ByteBuffer b = pageOf(buf);
+        Long slot;
+        synchronized (partition) {
+            checkAllocated(partition, page);
+            byte[] contents = partition.memoryPages.get(pageNum);
+            slot = partition.spilledPages.get(pageNum);
+            if (contents != null) {
+                b.put(contents);
+                return;
+            } else if (slot == null) {
+                b.put(ZEROS);
+                return;
+            }
+        }
+        try {
+            long offset = slot * PAGE_SIZE - b.position();
+            while (b.hasRemaining()) {
+                if (this.spillChannel.read(b, offset + b.position()) < 0) {
+                    throw new IOException("unexpected end of spill file");
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not read spilled page " + page + ": " + e.getMessage());
+        }
+    }
+
+    private void writeTempPage(long page, ByteBuffer buf) {
+        long start = System.nanoTime();
+        this.writeTempContents(page, buf);
+        IOMetrics.PartitionMetrics metrics = this.getTempMetrics();
+        if (metrics != null) {
+            metrics.recordWrite(1, System.nanoTime() - start);
+        }
+    }
+
+    private void writeTempContents(long page, ByteBuffer buf) {
+        TempPartition partition = this.getAllocatedPartition(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        ByteBuffer b = pageOf(buf);
+        Long slot;
+        synchronized (partition) {
+            checkAllocated(partition, page);
+            byte[] contents = partition.memoryPages.get(pageNum);
+            slot = partition.spilledPages.get(pageNum);
+            if (contents == null && slot == null && this.reserveMemory()) {
+                contents = new byte[PAGE_SIZE];
+                partition.memoryPages.put(pageNum, contents);
+            }
+            if (contents != null) {
+                b.get(contents);
+                return;
+            }
+            if (slot == null) {
+                slot = this.allocSlot(page);
+                partition.spilledPages.put(pageNum, slot);
+            }
+        }
+        try {
+            long offset = slot * PAGE_SIZE - b.position();
+            while (b.hasRemaining()) {
+                this.spillChannel.write(b, offset + b.position());
+            }
+        } catch (IOException e) {
+            throw new PageException("could not spill page " + page + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return view of the page's worth of bytes at buf's position, so that reads and writes
+     *         through it leave buf's position and limit alone
+     */
+    private static ByteBuffer pageOf(ByteBuffer buf) {
+        if (buf.remaining() < PAGE_SIZE) {
+            throw new IllegalArgumentException("expected a page-sized buffer");
+        }
+        ByteBuffer b = buf.duplicate();
+        b.limit(b.position() + PAGE_SIZE);
+        return b;
+    }
+
+    @Override
+    public boolean pageAllocated(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        if (!DiskSpaceManager.isTempPart(partNum)) {
+            return this.diskSpaceManager.pageAllocated(page);
+        }
+        TempPartition partition = this.partitions.get(partNum);
+        if (partition == null || page < 0) {
+            return false;
+        }
+        synchronized (partition) {
+            return partition.pages.get(DiskSpaceManager.getPageNum(page));
+        }
+    }
+
+    @Override
+    public void sync() {
+        this.diskSpaceManager.sync();
+    }
+
+    @Override
+    public IOMetrics getIOMetrics() {
+        return this.diskSpaceManager.getIOMetrics();
+    }
+
+    private IOMetrics.PartitionMetrics getTempMetrics() {
+        IOMetrics metrics = this.diskSpaceManager.getIOMetrics();
+        return metrics == null ? null : metrics.get(TEMP_PART_BASE);
+    }
+
+    private static boolean isTempPage(long page) {
+        return DiskSpaceManager.isTempPart(DiskSpaceManager.getPartNum(page));
+    }
+
+    private static boolean hasTempPage(long[] pages) {
+        for (long page : pages) {
+            if (isTempPage(page)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private TempPartition getPartition(int partNum) {
+        TempPartition partition = this.partitions.get(partNum);
+        if (partition == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return partition;
+    }
+
+    private TempPartition getAllocatedPartition(long page) {
+        TempPartition partition = this.partitions.get(DiskSpaceManager.getPartNum(page));
+        if (partition == null) {
+            throw new PageException("page " + page + " is not allocated");
+        }
+        return partition;
+    }
+
+    private static void checkAllocated(TempPartition partition, long page) {
+        if (!partition.pages.get(DiskSpaceManager.getPageNum(page))) {
+            throw new PageException("page " + page + " is not allocated");
+        }
+    }
+
+    /**
+     * Takes a page's worth of the memory limit, if there is that much left.
+     * @return whether the memory was taken
+     */
+    private boolean reserveMemory() {
+        long used;
+        do {
+            used = this.memoryUsed.get();
+            if (used + PAGE_SIZE > this.memoryLimit) {
+                return false;
+            }
+        } while (!this.memoryUsed.compareAndSet(used, used + PAGE_SIZE));
+        return true;
+    }
+
+    /**
+     * Drops the contents of a freed page, wherever they are. Must hold the partition's lock.
+     */
+    private void releasePage(TempPartition partition, int pageNum) {
+        if (partition.memoryPages.remove(pageNum) != null) {
+            this.memoryUsed.addAndGet(-PAGE_SIZE);
+        }
+        Long slot = partition.spilledPages.remove(pageNum);
+        if (slot == null) {
+            return;
+        }
+        synchronized (this.spillLock) {
+            this.freeSlots.push(slot);
+            --this.numSpilledPages;
+            if (this.numSpilledPages == 0) {
+                this.freeSlots.clear();
+                this.numSlots = 0;
+                try {
+                    this.spillChannel.truncate(0);
+                } catch (IOException e) {
+                    throw new PageException("could not truncate spill file: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Assigns a slot of the spill file to a page, creating the spill file if there is none
+     * yet. Must hold the page's partition's lock.
+     * @return slot of the page
+     */
+    private long allocSlot(long page) {
+        synchronized (this.spillLock) {
+            if (this.spillChannel == null) {
+                try {
+                    this.spillChannel = FileChannel.open(this.spillPath, StandardOpenOption.CREATE,
+                                                         StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw new PageException("could not spill page " + page + ": " + e.getMessage());
+                }
+            }
+            ++this.numSpilledPages;
+            return this.freeSlots.isEmpty() ? this.numSlots++ : this.freeSlots.pop();
+        }
+    }
+
+    // Must hold spillLock.
+    private void closeSpillFile() throws IOException {
+        if (this.spillChannel == null) {
+            return;
+        }
+        this.spillChannel.close();
+        this.spillChannel = null;
+        this.freeSlots.clear();
+        this.numSlots = 0;
+        Files.deleteIfExists(this.spillPath);
+    }
+}
@@ -0,0 +1,128 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Implementation of the ARC (adaptive replacement cache) eviction policy (Megiddo and
+ * Modha). Loaded pages are split between two LRU lists: T1, of pages referenced once since
+ * they were loaded, and T2, of pages referenced more than once. The page numbers of pages
+ * recently evicted from T1 and T2 are remembered in the ghost lists B1 and B2. A page
+ * loaded again while in B1 means T1 was too small, and one loaded again while in B2 means
+ * T2 was too small; the target size of T1 adapts accordingly, and pages are evicted from
+ * T1 while it is larger than its target, and from T2 otherwise. Since a scan only adds
+ * pages to T1 (and B1), it does not push out the pages in T2.
+ *
+ * Every read and write of a frame is a hit, so hits to a frame with no hits to other
+ * frames in between count as a single reference.
+ */
+public class ARCEvictionPolicy implements EvictionPolicy {
+    private final FrameList t1 = new FrameList();
+    private final FrameList t2 = new FrameList();
+    private final LinkedHashSet<Long> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<Long> b2 = new LinkedHashSet<>();
+    // target size of T1
+    private int target = 0;
+    private FrameList.Node lastReferenced = null;
+    // number of frames in the buffer, as of the last eviction
+    private int capacity = 0;
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        FrameList.Node node = new FrameList.Node(frame);
+        long pageNum = frame.getPageNum();
+        if (this.b1.contains(pageNum)) {
+            this.target = Math.min(this.capacity, this.target + Math.max(1, this.b2.size() / this.b1.size()));
+            this.b1.remove(pageNum);
+            this.t2.addLast(node);
+        } else if (this.b2.contains(pageNum)) {
+            this.target = Math.max(0, this.target - Math.max(1, this.b1.size() / this.b2.size()));
+            this.b2.remove(pageNum);
+            this.t2.addLast(node);
+        } else {
+            this.t1.addLast(node);
+        }
+        this.lastReferenced = node;
+        frame.tag = node;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (node == null || node.list == null || node == this.lastReferenced) {
+            return;
+        }
+        node.list.remove(node);
+        this.t2.addLast(node);
+        this.lastReferenced = node;
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer
+     *               manager has been resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.capacity = frames.length;
+        // the buffer may have shrunk since the target was last adapted
+        this.target = Math.min(this.target, this.capacity);
+        FrameList.Node node = null;
+        if (this.t1.size() > 0 && this.t1.size() > this.target) {
+            node = this.t1.firstUnpinned();
+        }
+        if (node == null) {
+            node = this.t2.firstUnpinned();
+        }
+        if (node == null) {
+            node = this.t1.firstUnpinned();
+        }
+        if (node == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return node.frame;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (node == null || node.list == null) {
+            return;
+        }
+        FrameList list = node.list;
+        list.remove(node);
+        if (node == this.lastReferenced) {
+            this.lastReferenced = null;
+        }
+        (list == this.t1 ? this.b1 : this.b2).add(frame.getPageNum());
+        // T1 and B1 together remember at most as many pages as fit in the buffer, and all
+        // four lists together at most twice as many
+        Iterator<Long> iter = this.b1.iterator();
+        while (this.t1.size() + this.b1.size() > this.capacity && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+        iter = this.b2.iterator();
+        while (this.t1.size() + this.t2.size() + this.b1.size() + this.b2.size() > 2 * this.capacity
+                && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+}
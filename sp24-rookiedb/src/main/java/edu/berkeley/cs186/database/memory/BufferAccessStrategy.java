@@ -0,0 +1,226 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Supplier;
+
+/**
+ * Access strategy for the pages loaded by a bulk operation, such as a scan of a large
+ * table or the writing of temporary tables by a sort or a hash join. Rather than taking
+ * frames from the shared buffer (through the eviction policy), and pushing out pages that
+ * other transactions keep using, the operation recycles a small private ring of frames:
+ * each page it loads goes in the frame of the page it loaded a ring length ago, as long as
+ * that frame is not pinned (or otherwise taken away from the ring).
+ *
+ * An operation only starts recycling its ring once it has loaded a quarter of the buffer,
+ * so that operations on small tables cache them like any other; the ring holds at most an
+ * eighth of the buffer, unless the operation asks for a larger one. Operations that write
+ * to many pages at once, such as a hash join filling one page per partition, need a ring
+ * of at least that many frames, or each write evicts a page that is about to be written
+ * again.
+ *
+ * The buffer manager uses the strategy of the transaction running on the current thread
+ * (see TransactionContext#setAccessStrategy); operators use theirs while they run with
+ * run and apply. A strategy is used by one operation (of one transaction) at a time.
+ */
+public class BufferAccessStrategy {
+    public enum Type {
+        // scans of tables larger than the buffer can hold on to
+        BULK_READ(32),
+        // temporary tables written (and read back) by sorts, hash joins and materialization
+        BULK_WRITE(128);
+
+        private final int ringSize;
+
+        Type(int ringSize) {
+            this.ringSize = ringSize;
+        }
+
+        /**
+         * @return number of frames in the ring of strategies of this type (for large buffers)
+         */
+        public int getRingSize() {
+            return this.ringSize;
+        }
+    }
+
+    private final Type type;
+    // number of frames the ring holds at least (if the buffer is that large)
+    private final int minRingSize;
+
+    // frame indices of the ring, and the page loaded into each, set by the buffer manager
+    // under its manager lock; null until the strategy is first used
+    private int[] ringFrames = null;
+    private long[] ringPages;
+    private int nextSlot = 0;
+    // number of pages loaded under the strategy so far, up to the quarter-buffer threshold
+    private int numSharedLoads = 0;
+
+    public BufferAccessStrategy(Type type) {
+        this(type, 0);
+    }
+
+    /**
+     * @param minRingSize number of frames the ring holds at least (up to the whole
+     *                    buffer), e.g. the number of pages the operation writes at once
+     */
+    public BufferAccessStrategy(Type type, int minRingSize) {
+        this.type = type;
+        this.minRingSize = minRingSize;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * @param bufferSize number of frames in the buffer
+     * @return number of frames in the ring of the strategy, for a buffer of the size
+     */
+    int getRingSize(int bufferSize) {
+        return Math.max(Math.min(this.type.getRingSize(), bufferSize / 8),
+                        Math.min(this.minRingSize, bufferSize));
+    }
+
+    /**
+     * Picks the ring slot for the next page loaded under the strategy. Must hold the
+     * buffer manager's manager lock.
+     *
+     * @param bufferSize number of frames in the buffer
+     * @return slot of the ring to load the page into, or -1 if the page should be loaded
+     *         into a frame of the shared buffer as usual
+     */
+    int nextSlot(int bufferSize) {
+        int ringSize = this.getRingSize(bufferSize);
+        if (ringSize < 2) {
+            return -1;
+        }
+        if (this.ringFrames == null || this.ringFrames.length != ringSize) {
+            this.ringFrames = new int[ringSize];
+            Arrays.fill(this.ringFrames, -1);
+            this.ringPages = new long[ringSize];
+            this.nextSlot = 0;
+        }
+        if (this.numSharedLoads < bufferSize / 4) {
+            ++this.numSharedLoads;
+            return -1;
+        }
+        int slot = this.nextSlot;
+        this.nextSlot = (this.nextSlot + 1) % ringSize;
+        return slot;
+    }
+
+    /**
+     * @return index of the frame last loaded into the slot, or -1 if there is none
+     */
+    int getFrameIndex(int slot) {
+        return this.ringFrames[slot];
+    }
+
+    /**
+     * @return page number of the page last loaded into the slot
+     */
+    long getPageNum(int slot) {
+        return this.ringPages[slot];
+    }
+
+    /**
+     * Records that the page was loaded into the frame, for the slot.
+     */
+    void setSlot(int slot, int frameIndex, long pageNum) {
+        this.ringFrames[slot] = frameIndex;
+        this.ringPages[slot] = pageNum;
+    }
+
+    /**
+     * @return access strategy of the transaction running on the current thread, or null
+     */
+    static BufferAccessStrategy current() {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        return transaction == null ? null : transaction.getAccessStrategy();
+    }
+
+    /**
+     * Runs the action with this strategy as the strategy of the transaction running on the
+     * current thread (if there is one), restoring the previous strategy afterwards.
+     */
+    public <T> T call(Supplier<T> action) {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction == null) {
+            return action.get();
+        }
+        BufferAccessStrategy previous = transaction.getAccessStrategy();
+        if (previous == this) {
+            // nested calls (e.g. an iterator over a wrapped iterator) keep the strategy as is
+            return action.get();
+        }
+        transaction.setAccessStrategy(this);
+        try {
+            return action.get();
+        } finally {
+            transaction.setAccessStrategy(previous);
+        }
+    }
+
+    /**
+     * Runs the action with this strategy, as call does.
+     */
+    public void run(Runnable action) {
+        this.call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return iterator that runs every call on the iterator with this strategy
+     */
+    public <T> Iterator<T> apply(Iterator<T> iterator) {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return call(iterator::hasNext);
+            }
+
+            @Override
+            public T next() {
+                return call(iterator::next);
+            }
+        };
+    }
+
+    /**
+     * @return backtracking iterator that runs every call on the iterator with this strategy
+     */
+    public <T> BacktrackingIterator<T> apply(BacktrackingIterator<T> iterator) {
+        return new BacktrackingIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return call(iterator::hasNext);
+            }
+
+            @Override
+            public T next() {
+                return call(iterator::next);
+            }
+
+            @Override
+            public void markPrev() {
+                BufferAccessStrategy.this.run(iterator::markPrev);
+            }
+
+            @Override
+            public void markNext() {
+                BufferAccessStrategy.this.run(iterator::markNext);
+            }
+
+            @Override
+            public void reset() {
+                BufferAccessStrategy.this.run(iterator::reset);
+            }
+        };
+    }
+}
@@ -1,35 +1,86 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * Buffer frame.
+ *
+ * Pinning is lock-free: the pin count is updated atomically, and any number of threads
+ * may pin a frame at once. Before the buffer manager evicts or moves the page of a frame,
+ * it retires the frame, which only succeeds if the frame is not pinned, and keeps it from
+ * being pinned from then on.
  */
 abstract class BufferFrame {
+    // pin count of a retired frame
+    private static final int RETIRED = -1;
+
+    private static final AtomicIntegerFieldUpdater<BufferFrame> PIN_COUNT =
+        AtomicIntegerFieldUpdater.newUpdater(BufferFrame.class, "pinCount");
+
     Object tag = null;
-    private int pinCount = 0;
+    private volatile int pinCount = 0;
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
      * buffer frame gets pinned.
      */
     void pin() {
-        ++pinCount;
+        if (!this.pinUnlessRetired()) {
+            throw new IllegalStateException("pinning retired frame");
+        }
+    }
+
+    /**
+     * Pins the buffer frame, unless it has been retired.
+     * @return whether the frame was pinned
+     */
+    boolean pinUnlessRetired() {
+        while (true) {
+            int count = this.pinCount;
+            if (count == RETIRED) {
+                return false;
+            }
+            if (PIN_COUNT.compareAndSet(this, count, count + 1)) {
+                return true;
+            }
+        }
     }
 
     /**
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
-            throw new IllegalStateException("cannot unpin unpinned frame");
+        while (true) {
+            int count = this.pinCount;
+            if (count <= 0) {
+                throw new IllegalStateException("cannot unpin unpinned frame");
+            }
+            if (PIN_COUNT.compareAndSet(this, count, count - 1)) {
+                return;
+            }
         }
-        --pinCount;
     }
 
     /**
      * @return whether this frame is pinned
      */
     boolean isPinned() {
-        return pinCount > 0;
+        return this.pinCount > 0;
+    }
+
+    /**
+     * Retires the frame if it is not pinned: it cannot be pinned again (until unretired).
+     * @return whether the frame was retired
+     */
+    boolean retire() {
+        return PIN_COUNT.compareAndSet(this, 0, RETIRED);
+    }
+
+    /**
+     * Makes a retired frame pinnable again.
+     */
+    void unretire() {
+        PIN_COUNT.compareAndSet(this, RETIRED, 0);
     }
 
     /**
@@ -63,6 +114,21 @@ abstract class BufferFrame {
      */
     abstract void writeBytes(short position, short num, byte[] buf);
 
+    /**
+     * Latches the contents of the frame: in shared mode, other threads may read but not
+     * write them until unlatched, and in exclusive mode, other threads may do neither.
+     * Exclusive latches may be taken again by the thread holding them; shared latches
+     * cannot be upgraded.
+     * @param exclusive whether to latch in exclusive mode
+     */
+    abstract void latch(boolean exclusive);
+
+    /**
+     * Releases a latch taken by latch.
+     * @param exclusive whether the latch was taken in exclusive mode
+     */
+    abstract void unlatch(boolean exclusive);
+
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
      * Frame is pinned on return.
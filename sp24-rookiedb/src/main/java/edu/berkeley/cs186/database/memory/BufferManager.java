@@ -4,21 +4,32 @@ import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.IOMetrics;
 import edu.berkeley.cs186.database.io.PageException;
-import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
- * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * Data is stored in page-sized views of off-heap memory (see FrameArena), and returned
+ * in a Frame object specific to the page loaded (evicting and loading a new page into
+ * the frame will result in a new Frame object, with the same underlying memory), with
+ * old Frame objects backed by the same memory marked as invalid.
+ *
+ * Fetching a page that is already loaded takes no buffer-wide lock: the frame is looked
+ * up in a striped page table and pinned directly (pin counts are atomic), and re-checked
+ * once pinned, since it may have been evicted in the meantime. Loading, evicting and
+ * freeing pages are done under the manager lock, and only lock the page table stripes of
+ * the pages concerned. A frame is only evicted once retired (see BufferFrame#retire), so
+ * that it cannot be pinned while its page is on its way out.
  */
 public class BufferManager implements AutoCloseable {
     // We reserve 36 bytes on each page for bookkeeping for recovery
@@ -29,46 +40,98 @@ public class BufferManager implements AutoCloseable {
     // Effective page size available to users of buffer manager.
     public static final short EFFECTIVE_PAGE_SIZE = (short) (DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE);
 
-    // Buffer frames
-    private Frame[] frames;
+    // How long resize waits for frames being removed to be unpinned.
+    static final long RESIZE_TIMEOUT_MILLIS = 5000;
+
+    // Buffer frames; only replaced (by resize) under the manager lock. The memory of the
+    // frames is in FrameArenas, kept alive by the frames' views of it
+    private volatile Frame[] frames;
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Map of page number to frame index; only modified under the manager lock
+    private StripedPageTable pageToFrame;
 
-    // Lock on buffer manager
+    // Lock on buffer manager, held to change what is loaded in which frame
     private ReentrantLock managerLock;
 
+    // Pages evicted from a frame that is written out after the manager lock is released,
+    // while it is; loading one of them again waits for the write instead of reading what
+    // was on disk before it (guarded by managerLock)
+    private final Map<Long, CompletableFuture<Void>> pendingWrites = new HashMap<>();
+
     // Eviction policy
     private EvictionPolicy evictionPolicy;
 
     // Index of first free frame
     private int firstFreeIndex;
 
+    // Number of free frames; only modified under the manager lock
+    private volatile int numFreeFrames;
+
     // Recovery manager
     private RecoveryManager recoveryManager;
 
     // Count of number of I/Os
-    private long numIOs = 0;
+    private final LongAdder numIOs = new LongAdder();
+
+    // The I/Os counted in numIOs, by partition, with how long the disk space manager took
+    private final IOMetrics ioMetrics = new IOMetrics();
+
+    // Number of the reads counted in numIOs that were done for a fetch, rather than ahead
+    // of time by loadPages
+    private final LongAdder numDemandReads = new LongAdder();
+
+    // Told the page number of every page fetched, if set (e.g. to a PageTrace)
+    private volatile LongConsumer fetchListener = null;
+
+    // Number of pages that had to be written out to evict them
+    private final LongAdder numDirtyEvictions = new LongAdder();
+
+    // Background writer keeping frames clean ahead of eviction, if started
+    private volatile PageCleaner pageCleaner = null;
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
      * underlying byte array. Free frames use the index field to create a (singly) linked
      * list between free frames.
+     *
+     * Frames may be found by fetchPageFrame without holding the manager lock, so the
+     * fields it checks before pinning a frame are final or volatile. Pins only keep the
+     * page in the frame; its contents are protected by the frame's latch, which readers
+     * usually don't even take: they read optimistically, and only latch the frame (in
+     * shared mode) if a writer got in the way. Writers, and the buffer manager when it
+     * invalidates a frame, latch it in exclusive mode.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
+        // reads and writes of at most this many bytes are copied with absolute gets/puts
+        // (reads a long at a time where they can; contents is big-endian), rather than
+        // allocating a duplicate of contents for a bulk copy
+        private static final int SHORT_COPY_BYTES = 64;
 
-        byte[] contents;
-        private int index;
-        private long pageNum;
-        private boolean dirty;
-        private ReentrantLock frameLock;
-        private boolean logPage;
+        // page-sized view of the frame's memory in the arena; its position and limit
+        // are never changed, so it can be handed to the disk space manager as is
+        volatile ByteBuffer contents;
+        private volatile int index;
+        private final long pageNum;
+        private volatile boolean dirty;
+        private final StampedLock latch;
+        // thread holding the latch in exclusive mode, with the latch's stamp and the
+        // number of times it took the latch; only read or written by the owning thread
+        // while it is the owner
+        private Thread latchOwner;
+        private long latchStamp;
+        private int latchHolds;
+        // true for pages of temporary partitions, whose changes are not logged
+        private boolean tempPage;
+        // Set while the page is being read in, and completed once the read is done. The
+        // frame counts as pinned in the meantime, and fetches of the page wait for the
+        // read. Only set under the manager lock.
+        private volatile CompletableFuture<Void> pendingRead;
 
-        Frame(byte[] contents, int nextFree) {
+        Frame(ByteBuffer contents, int nextFree) {
             this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
         }
 
@@ -76,14 +139,14 @@ public class BufferManager implements AutoCloseable {
             this(frame.contents, frame.index, frame.pageNum);
         }
 
-        Frame(byte[] contents, int index, long pageNum) {
+        Frame(ByteBuffer contents, int index, long pageNum) {
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
             this.dirty = false;
-            this.frameLock = new ReentrantLock();
+            this.latch = new StampedLock();
             int partNum = DiskSpaceManager.getPartNum(pageNum);
-            this.logPage = partNum == LogManager.LOG_PARTITION;
+            this.tempPage = DiskSpaceManager.isTempPart(partNum);
         }
 
         /**
@@ -92,22 +155,109 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         public void pin() {
-            this.frameLock.lock();
-
+            if (!this.pinUnlessRetired()) {
+                throw new IllegalStateException("pinning invalidated frame");
+            }
             if (!this.isValid()) {
+                super.unpin();
                 throw new IllegalStateException("pinning invalidated frame");
             }
+        }
 
+        /**
+         * Pins the frame if it still holds the page and is not being read in; fetchPageFrame
+         * finds frames without the manager lock, so the frame may have been evicted or freed
+         * since it was found.
+         * @param pageNum page that the frame was found for
+         * @return whether the frame was pinned
+         */
+        private boolean tryPin(long pageNum) {
+            if (!this.pinUnlessRetired()) {
+                // being evicted
+                return false;
+            }
+            if (this.isValid() && this.pageNum == pageNum && this.pendingRead == null) {
+                return true;
+            }
+            super.unpin();
+            return false;
+        }
+
+        /**
+         * Marks the frame as being read in, and pins it until the read is done. Must hold
+         * the manager lock.
+         */
+        private void beginRead() {
             super.pin();
+            this.pendingRead = new CompletableFuture<>();
         }
 
         /**
-         * Unpin buffer frame.
+         * Marks the read of the frame as done.
+         * @param keepPin whether the pin taken by beginRead is kept, for the caller to
+         *                unpin, rather than released
+         * @return the frame's pendingRead future, for the caller to complete
          */
+        private CompletableFuture<Void> endRead(boolean keepPin) {
+            CompletableFuture<Void> read = this.pendingRead;
+            // unpinned first: once pendingRead is cleared, tryPin may pin the frame
+            if (!keepPin) {
+                super.unpin();
+            }
+            this.pendingRead = null;
+            return read;
+        }
+
         @Override
-        public void unpin() {
-            super.unpin();
-            this.frameLock.unlock();
+        void latch(boolean exclusive) {
+            if (exclusive) {
+                if (this.latchOwner == Thread.currentThread()) {
+                    ++this.latchHolds;
+                    return;
+                }
+                long stamp = this.latch.writeLock();
+                this.latchOwner = Thread.currentThread();
+                this.latchStamp = stamp;
+                this.latchHolds = 1;
+            } else {
+                if (this.latchOwner == Thread.currentThread()) {
+                    throw new IllegalStateException("frame already latched in exclusive mode");
+                }
+                this.latch.readLock();
+            }
+        }
+
+        @Override
+        void unlatch(boolean exclusive) {
+            if (exclusive) {
+                if (this.latchOwner != Thread.currentThread()) {
+                    throw new IllegalStateException("frame not latched in exclusive mode");
+                }
+                if (--this.latchHolds == 0) {
+                    this.latchOwner = null;
+                    this.latch.unlockWrite(this.latchStamp);
+                }
+            } else if (!this.latch.tryUnlockRead()) {
+                throw new IllegalStateException("frame not latched in shared mode");
+            }
+        }
+
+        /**
+         * Latches the frame in shared mode, unless this thread already holds it in
+         * exclusive mode.
+         * @return stamp to pass to unlatchShared
+         */
+        private long latchShared() {
+            if (this.latchOwner == Thread.currentThread()) {
+                return 0L;
+            }
+            return this.latch.readLock();
+        }
+
+        private void unlatchShared(long stamp) {
+            if (stamp != 0L) {
+                this.latch.unlockRead(stamp);
+            }
         }
 
         /**
@@ -129,11 +279,16 @@ public class BufferManager implements AutoCloseable {
          * Invalidates the frame, flushing it if necessary.
          */
         private void invalidate() {
-            if (this.isValid()) {
-                this.flush();
+            this.latch(true);
+            try {
+                if (this.isValid()) {
+                    this.writeOut();
+                }
+                this.index = INVALID_INDEX;
+                this.contents = null;
+            } finally {
+                this.unlatch(true);
             }
-            this.index = INVALID_INDEX;
-            this.contents = null;
         }
 
         /**
@@ -146,6 +301,7 @@ public class BufferManager implements AutoCloseable {
             int nextFreeIndex = firstFreeIndex;
             firstFreeIndex = this.index;
             this.index = ~nextFreeIndex;
+            ++numFreeFrames;
         }
 
         private void setUsed() {
@@ -155,6 +311,7 @@ public class BufferManager implements AutoCloseable {
             int index = firstFreeIndex;
             firstFreeIndex = ~this.index;
             this.index = index;
+            --numFreeFrames;
         }
 
         /**
@@ -170,44 +327,93 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void flush() {
-            this.frameLock.lock();
-            super.pin();
+            long stamp = this.latchShared();
             try {
-                if (!this.isValid()) {
-                    return;
-                }
-                if (!this.dirty) {
-                    return;
-                }
-                if (!this.logPage) {
-                    recoveryManager.pageFlushHook(this.getPageLSN());
-                }
-                BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
-                BufferManager.this.incrementIOs();
-                this.dirty = false;
+                this.writeOut();
             } finally {
-                super.unpin();
-                this.frameLock.unlock();
+                this.unlatchShared(stamp);
+            }
+        }
+
+        /**
+         * Writes the page out if it is dirty, after flushing the log far enough for it.
+         * Must hold the latch.
+         */
+        private void writeOut() {
+            if (!this.isValid() || !this.dirty) {
+                return;
             }
+            if (!this.tempPage) {
+                recoveryManager.pageFlushHook(this.getPageLSN());
+            }
+            long start = System.nanoTime();
+            BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
+            BufferManager.this.numIOs.increment();
+            BufferManager.this.recordWrite(TransactionContext.getTransaction(), pageNum,
+                    System.nanoTime() - start);
+            this.dirty = false;
         }
 
         /**
-         * Read from the buffer frame.
+         * Read from the buffer frame. The bytes are first read without taking the latch,
+         * and only read again under it if a writer latched the frame in the meantime.
          * @param position position in buffer frame to start reading
          * @param num number of bytes to read
          * @param buf output buffer
          */
         @Override
         void readBytes(short position, short num, byte[] buf) {
-            this.pin();
+            if (this.latchOwner != Thread.currentThread()) {
+                long stamp = this.latch.tryOptimisticRead();
+                ByteBuffer contents = this.contents;
+                if (stamp != 0L && contents != null && this.isValid()) {
+                    this.copyBytes(contents, position, num, buf);
+                    if (this.latch.validate(stamp)) {
+                        return;
+                    }
+                }
+            }
+            long stamp = this.latchShared();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
-                BufferManager.this.evictionPolicy.hit(this);
+                this.copyBytes(this.contents, position, num, buf);
             } finally {
-                this.unpin();
+                this.unlatchShared(stamp);
+            }
+        }
+
+        private void copyBytes(ByteBuffer contents, short position, short num, byte[] buf) {
+            int offset = position + dataOffset();
+            if (num <= SHORT_COPY_BYTES) {
+                int i = 0;
+                for (; i + Long.BYTES <= num; i += Long.BYTES) {
+                    unpack(contents.getLong(offset + i), Long.BYTES, buf, i);
+                }
+                if (i + Integer.BYTES <= num) {
+                    unpack(contents.getInt(offset + i), Integer.BYTES, buf, i);
+                    i += Integer.BYTES;
+                }
+                if (i + Short.BYTES <= num) {
+                    unpack(contents.getShort(offset + i), Short.BYTES, buf, i);
+                    i += Short.BYTES;
+                }
+                if (i < num) {
+                    buf[i] = contents.get(offset + i);
+                }
+            } else {
+                ByteBuffer b = contents.duplicate();
+                b.position(offset);
+                b.get(buf, 0, num);
+            }
+        }
+
+        // stores the low len bytes of word, big-endian, at buf[offset..offset+len)
+        private void unpack(long word, int len, byte[] buf, int offset) {
+            for (int j = len - 1; j >= 0; --j) {
+                buf[offset + j] = (byte) word;
+                word >>>= Byte.SIZE;
             }
         }
 
@@ -219,30 +425,39 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void writeBytes(short position, short num, byte[] buf) {
-            this.pin();
+            this.latch(true);
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("writing to invalid buffer frame");
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
-                if (transaction != null && !logPage) {
-                    List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
+                if (transaction != null && !tempPage) {
+                    byte[] current = new byte[num];
+                    this.copyBytes(this.contents, position, num, current);
+                    List<Pair<Integer, Integer>> changedRanges = getChangedBytes(current, num, buf);
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
+                        byte[] before = Arrays.copyOfRange(current, start, start + len);
                         byte[] after = Arrays.copyOfRange(buf, start, start + len);
                         long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
                                        after);
                         this.setPageLSN(pageLSN);
                     }
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
+                if (num <= SHORT_COPY_BYTES) {
+                    for (int i = 0; i < num; ++i) {
+                        this.contents.put(offset + i, buf[i]);
+                    }
+                } else {
+                    ByteBuffer b = this.contents.duplicate();
+                    b.position(offset);
+                    b.put(buf, 0, num);
+                }
                 this.dirty = true;
-                BufferManager.this.evictionPolicy.hit(this);
             } finally {
-                this.unpin();
+                this.unlatch(true);
             }
         }
 
@@ -252,33 +467,23 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         Frame requestValidFrame() {
-            this.frameLock.lock();
-            try {
-                if (this.isFreed()) {
-                    throw new PageException("page already freed");
-                }
-                if (this.isValid()) {
-                    this.pin();
-                    return this;
-                }
-                return BufferManager.this.fetchPageFrame(this.pageNum);
-            } finally {
-                this.frameLock.unlock();
+            if (this.tryPin(this.pageNum)) {
+                return this;
             }
+            if (this.isFreed()) {
+                throw new PageException("page already freed");
+            }
+            return BufferManager.this.fetchPageFrame(this.pageNum);
         }
 
         @Override
         short getEffectivePageSize() {
-            if (logPage) {
-                return DiskSpaceManager.PAGE_SIZE;
-            } else {
-                return BufferManager.EFFECTIVE_PAGE_SIZE;
-            }
+            return BufferManager.EFFECTIVE_PAGE_SIZE;
         }
 
         @Override
         long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+            return this.contents.getLong(8);
         }
 
         @Override
@@ -293,11 +498,11 @@ public class BufferManager implements AutoCloseable {
         }
 
         /**
-         * Generates (offset, length) pairs for where buf differs from contents. Merges nearby
-         * pairs (where nearby is defined as pairs that have fewer than BufferManager.RESERVED_SPACE
-         * bytes of unmodified data between them).
+         * Generates (offset, length) pairs for where buf differs from current (the bytes of
+         * contents being overwritten). Merges nearby pairs (where nearby is defined as pairs
+         * that have fewer than BufferManager.RESERVED_SPACE bytes of unmodified data between them).
          */
-        private List<Pair<Integer, Integer>> getChangedBytes(int offset, int num, byte[] buf) {
+        private List<Pair<Integer, Integer>> getChangedBytes(byte[] current, int num, byte[] buf) {
             List<Pair<Integer, Integer>> ranges = new ArrayList<>();
             int maxRange = EFFECTIVE_PAGE_SIZE / 2;
             int startIndex = -1;
@@ -307,7 +512,7 @@ public class BufferManager implements AutoCloseable {
                     ranges.add(new Pair<>(startIndex, maxRange));
                     startIndex = -1;
                     skip = -1;
-                } else if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                } else if (buf[i] == current[i] && startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
                         ranges.add(new Pair<>(startIndex, i - startIndex - skip));
                         startIndex = -1;
@@ -315,7 +520,7 @@ public class BufferManager implements AutoCloseable {
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
+                } else if (buf[i] != current[i]) {
                     if (startIndex < 0) {
                         startIndex = i;
                     }
@@ -329,15 +534,16 @@ public class BufferManager implements AutoCloseable {
         }
 
         void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+            this.latch(true);
+            try {
+                this.contents.putLong(8, pageLSN);
+            } finally {
+                this.unlatch(true);
+            }
         }
 
         private short dataOffset() {
-            if (logPage) {
-                return 0;
-            } else {
-                return BufferManager.RESERVED_SPACE;
-            }
+            return BufferManager.RESERVED_SPACE;
         }
     }
 
@@ -350,36 +556,116 @@ public class BufferManager implements AutoCloseable {
      */
     public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                          int bufferSize, EvictionPolicy evictionPolicy) {
+        FrameArena arena = new FrameArena(bufferSize);
         this.frames = new Frame[bufferSize];
         for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+            this.frames[i] = new Frame(arena.frame(i), i + 1);
         }
         this.firstFreeIndex = 0;
+        this.numFreeFrames = bufferSize;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
+        this.pageToFrame = new StripedPageTable(bufferSize);
         this.managerLock = new ReentrantLock();
         this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
     }
 
+    /**
+     * Background thread that writes out dirty, unpinned pages ahead of their eviction, so
+     * that loading a page seldom has to wait for the page it replaces to be written out
+     * first. Whenever fewer than cleanFraction of the frames are clean (free, or holding
+     * an unpinned page with no unwritten changes), it writes out enough dirty pages to make
+     * up the difference, in page number order and after flushing the log far enough for
+     * them (see writeFrames). It checks every intervalMillis, and whenever a page load has
+     * had to write out a dirty page.
+     */
+    private class PageCleaner extends Thread {
+        private final double cleanFraction;
+        private final long intervalMillis;
+
+        // guarded by this
+        private boolean woken = false;
+        private boolean stopped = false;
+
+        private PageCleaner(double cleanFraction, long intervalMillis) {
+            super("page-cleaner");
+            this.cleanFraction = cleanFraction;
+            this.intervalMillis = intervalMillis;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    if (!this.woken && !this.stopped) {
+                        try {
+                            this.wait(this.intervalMillis);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (this.stopped) {
+                        return;
+                    }
+                    this.woken = false;
+                }
+                while (!this.isStopped() && BufferManager.this.cleanFrames(this.cleanFraction) > 0) {
+                    // keep going until enough frames are clean
+                }
+            }
+        }
+
+        private synchronized boolean isStopped() {
+            return this.stopped;
+        }
+
+        private synchronized void wake() {
+            this.woken = true;
+            this.notify();
+        }
+
+        /**
+         * Stops the thread, and waits for it to finish the pages it is writing out.
+         */
+        private void shutdown() {
+            synchronized (this) {
+                this.stopped = true;
+                this.notify();
+            }
+            boolean interrupted = false;
+            while (this.isAlive()) {
+                try {
+                    this.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     @Override
     public void close() {
+        this.stopPageCleaner();
+        this.awaitPendingReads();
+        this.flushUnpinned();
         this.managerLock.lock();
         try {
             for (Frame frame : this.frames) {
-                frame.frameLock.lock();
-                try {
-                    if (frame.isPinned()) {
-                        throw new IllegalStateException("closing buffer manager but frame still pinned");
-                    }
-                    if (!frame.isValid()) {
-                        continue;
-                    }
-                    evictionPolicy.cleanup(frame);
-                    frame.invalidate();
-                } finally {
-                    frame.frameLock.unlock();
+                if (frame.isPinned()) {
+                    throw new IllegalStateException("closing buffer manager but frame still pinned");
+                }
+                if (!frame.isValid()) {
+                    continue;
+                }
+                if (!frame.retire()) {
+                    throw new IllegalStateException("closing buffer manager but frame still pinned");
                 }
+                evictionPolicy.cleanup(frame);
+                frame.invalidate();
             }
         } finally {
             this.managerLock.unlock();
@@ -391,61 +677,377 @@ public class BufferManager implements AutoCloseable {
      * buffer frame if page already loaded in memory. Pins the buffer frame.
      * Cannot be used outside the package.
      *
+     * Fetching a page that is already loaded is what counts as a hit for the eviction
+     * policy; reads and writes of the page once fetched are not, so that they never
+     * wait on the eviction policy (which may take a lock of its own).
+     *
      * @param pageNum page number
      * @return buffer frame with specified page loaded
      */
     Frame fetchPageFrame(long pageNum) {
+        LongConsumer listener = this.fetchListener;
+        if (listener != null) {
+            listener.accept(pageNum);
+        }
+        while (true) {
+            int frameIndex = this.pageToFrame.get(pageNum);
+            Frame[] frames = this.frames;
+            Frame frame;
+            if (frameIndex == PageTable.NO_FRAME) {
+                frame = this.loadPageFrame(pageNum);
+            } else if (frameIndex >= frames.length) {
+                // moved out of a frame that resize has since removed
+                frame = null;
+            } else {
+                frame = this.pinLoadedFrame(frames[frameIndex], pageNum);
+                if (frame != null) {
+                    this.evictionPolicy.hit(frame);
+                }
+            }
+            if (frame != null) {
+                return frame;
+            }
+            // evicted, or loaded by another thread, in the meantime: look again
+        }
+    }
+
+    /**
+     * Pins a frame found in the page table without holding the manager lock.
+     *
+     * @param frame frame that the page table mapped the page to
+     * @param pageNum page number
+     * @return the frame, pinned, or null if it no longer holds the page
+     */
+    private Frame pinLoadedFrame(Frame frame, long pageNum) {
+        CompletableFuture<Void> pendingRead = frame.pendingRead;
+        if (pendingRead != null) {
+            // still being read in
+            pendingRead.join();
+            return null;
+        }
+        return frame.tryPin(pageNum) ? frame : null;
+    }
+
+    /**
+     * Loads a page that was not in the page table into a frame, evicting a page if needed.
+     *
+     * @param pageNum page number
+     * @return buffer frame with specified page loaded, pinned, or null if another thread
+     *         loaded the page first
+     */
+    private Frame loadPageFrame(long pageNum) {
         this.managerLock.lock();
         Frame newFrame;
         Frame evictedFrame;
+        CompletableFuture<Void> writeBack;
+        CompletableFuture<Void> priorWriteBack;
         // figure out what frame to load data to, and update manager state
         try {
             if (!this.diskSpaceManager.pageAllocated(pageNum)) {
                 throw new PageException("page " + pageNum + " not allocated");
             }
             if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
+                return null;
+            }
+            evictedFrame = this.claimFrame(pageNum, BufferAccessStrategy.current());
+            if (evictedFrame.dirty) {
+                this.dirtyEviction();
             }
+            writeBack = this.beginWriteBack(evictedFrame);
+            priorWriteBack = this.pendingWrites.get(pageNum);
             int frameIndex = evictedFrame.index;
             newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
             evictionPolicy.init(newFrame);
 
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
+            // fetches of the page by other threads wait until it has been read in
+            newFrame.beginRead();
 
             this.pageToFrame.put(pageNum, frameIndex);
         } finally {
             this.managerLock.unlock();
         }
-        // flush evicted frame
         try {
-            evictedFrame.invalidate();
+            // flush evicted frame
+            try {
+                evictedFrame.invalidate();
+            } finally {
+                this.endWriteBack(evictedFrame, writeBack);
+            }
+            // the page may itself still be being written out by whoever evicted it
+            if (priorWriteBack != null) {
+                priorWriteBack.join();
+            }
+            // read new page into frame
+            long start = System.nanoTime();
+            BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
+            this.numIOs.increment();
+            this.numDemandReads.increment();
+            this.recordRead(TransactionContext.getTransaction(), pageNum, 1, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            this.finishRead(newFrame, e);
+            throw e;
+        }
+        // the pin taken by beginRead is the caller's
+        newFrame.endRead(true).complete(null);
+        return newFrame;
+    }
+
+    /**
+     * Registers the write of a frame that is evicted, but written out after the manager
+     * lock is released (see pendingWrites). Must hold the manager lock.
+     *
+     * @param evictedFrame frame claimed to load another page into
+     * @return future to complete once the frame has been written out (see endWriteBack),
+     *         or null if the frame does not need to be written out
+     */
+    private CompletableFuture<Void> beginWriteBack(Frame evictedFrame) {
+        if (!evictedFrame.isValid() || !evictedFrame.dirty) {
+            return null;
+        }
+        CompletableFuture<Void> writeBack = new CompletableFuture<>();
+        this.pendingWrites.put(evictedFrame.pageNum, writeBack);
+        return writeBack;
+    }
+
+    /**
+     * Called once a frame registered by beginWriteBack has been written out (or failed to be).
+     */
+    private void endWriteBack(Frame evictedFrame, CompletableFuture<Void> writeBack) {
+        if (writeBack == null) {
+            return;
+        }
+        this.managerLock.lock();
+        try {
+            this.pendingWrites.remove(evictedFrame.pageNum, writeBack);
         } finally {
-            evictedFrame.frameLock.unlock();
+            this.managerLock.unlock();
+        }
+        writeBack.complete(null);
+    }
+
+    /**
+     * Picks a frame to load a page into under an access strategy: the frame in the
+     * strategy's ring that the page is due to replace, if the strategy has started
+     * recycling its ring and the frame can be reused, and otherwise a frame picked by
+     * claimFrame(), which then joins the ring. Must hold the manager lock.
+     *
+     * @param pageNum page number of the page to load
+     * @param strategy access strategy, or null to just use claimFrame()
+     * @return the frame, free or retired
+     * @throws IllegalStateException if every frame is pinned
+     */
+    private Frame claimFrame(long pageNum, BufferAccessStrategy strategy) {
+        if (strategy == null) {
+            return this.claimFrame();
+        }
+        int slot = strategy.nextSlot(this.frames.length);
+        if (slot < 0) {
+            return this.claimFrame();
+        }
+        int frameIndex = strategy.getFrameIndex(slot);
+        if (frameIndex >= 0 && frameIndex < this.frames.length) {
+            Frame frame = this.frames[frameIndex];
+            // the frame may have been evicted (and reused) since the strategy loaded it,
+            // or be in use by the operation itself or someone else
+            if (frame.isValid() && frame.pageNum == strategy.getPageNum(slot) && frame.retire()) {
+                this.pageToFrame.remove(frame.pageNum, frame.index);
+                evictionPolicy.cleanup(frame);
+                strategy.setSlot(slot, frameIndex, pageNum);
+                return frame;
+            }
         }
-        // read new page into frame
+        Frame frame = this.claimFrame();
+        strategy.setSlot(slot, frame.index, pageNum);
+        return frame;
+    }
+
+    /**
+     * Picks a frame to load a new page into: a free frame if there is one, and otherwise
+     * the frame chosen by the eviction policy, whose page is removed from the page table.
+     * Must hold the manager lock.
+     *
+     * @return the frame, free or retired
+     * @throws IllegalStateException if every frame is pinned
+     */
+    private Frame claimFrame() {
+        if (this.firstFreeIndex < this.frames.length) {
+            Frame frame = this.frames[this.firstFreeIndex];
+            frame.setUsed();
+            return frame;
+        }
+        while (true) {
+            Frame frame = (Frame) evictionPolicy.evict(frames);
+            // the frame may have been found in the page table before the eviction policy
+            // picked it, and been pinned since; if so, pick another
+            if (!frame.retire()) {
+                continue;
+            }
+            this.pageToFrame.remove(frame.pageNum, frame.index);
+            evictionPolicy.cleanup(frame);
+            return frame;
+        }
+    }
+
+    /**
+     * Starts reading the specified pages into the buffer cache, and returns without waiting
+     * for the reads to finish (fetching a page that is still being read waits for its read).
+     * Pages that are already loaded or not allocated are skipped, and at most a quarter of
+     * the buffer cache is loaded per call. The pages are not pinned. Reading a page this way
+     * is counted as an I/O when the read is issued, whether or not the page is fetched later
+     * (but not as a demand read, see getNumDemandReads).
+     *
+     * @param pageNums page numbers of pages to load
+     */
+    public void loadPages(long[] pageNums) {
+        int maxPages = Math.max(1, this.frames.length / 4);
+        List<Frame> newFrames = new ArrayList<>();
+        List<Frame> evictedFrames = new ArrayList<>();
+        List<CompletableFuture<Void>> writeBacks = new ArrayList<>();
+        List<CompletableFuture<Void>> priorWriteBacks = new ArrayList<>();
+        BufferAccessStrategy strategy = BufferAccessStrategy.current();
+        this.managerLock.lock();
         try {
-            newFrame.pageNum = pageNum;
-            newFrame.pin();
-            BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
-            this.incrementIOs();
-            return newFrame;
-        } catch (PageException e) {
-            newFrame.unpin();
+            for (long pageNum : pageNums) {
+                if (newFrames.size() == maxPages) {
+                    break;
+                }
+                if (this.pageToFrame.containsKey(pageNum) || !this.diskSpaceManager.pageAllocated(pageNum)) {
+                    continue;
+                }
+                Frame evictedFrame;
+                try {
+                    evictedFrame = this.claimFrame(pageNum, strategy);
+                } catch (IllegalStateException e) {
+                    // everything else is pinned, load what we have so far
+                    break;
+                }
+                if (evictedFrame.dirty) {
+                    this.dirtyEviction();
+                }
+                writeBacks.add(this.beginWriteBack(evictedFrame));
+                priorWriteBacks.add(this.pendingWrites.get(pageNum));
+                int frameIndex = evictedFrame.index;
+                Frame newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
+                evictionPolicy.init(newFrame);
+
+                // pinned until the read is done, which also keeps the eviction policy from
+                // picking it for a later page in this batch
+                newFrame.beginRead();
+
+                this.pageToFrame.put(pageNum, frameIndex);
+                newFrames.add(newFrame);
+                evictedFrames.add(evictedFrame);
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+        if (newFrames.isEmpty()) {
+            return;
+        }
+        // flush evicted frames
+        try {
+            try {
+                this.writeFrames(evictedFrames);
+                for (Frame evictedFrame : evictedFrames) {
+                    evictedFrame.invalidate();
+                }
+            } finally {
+                for (int i = 0; i < evictedFrames.size(); ++i) {
+                    this.endWriteBack(evictedFrames.get(i), writeBacks.get(i));
+                }
+            }
+            for (CompletableFuture<Void> priorWriteBack : priorWriteBacks) {
+                if (priorWriteBack != null) {
+                    priorWriteBack.join();
+                }
+            }
+        } catch (RuntimeException e) {
+            for (Frame newFrame : newFrames) {
+                this.finishRead(newFrame, e);
+            }
             throw e;
+        }
+        // read new pages into frames, one read per run of consecutive pages; the reads are
+        // all issued before any of them are waited on, so the disk can work on several at once
+        newFrames.sort(Comparator.comparingLong((Frame frame) -> frame.pageNum));
+        // the reads complete on other threads, so the transaction they are done for is looked up now
+        TransactionContext transaction = TransactionContext.getTransaction();
+        int start = 0;
+        while (start < newFrames.size()) {
+            int end = start + 1;
+            while (end < newFrames.size() && newFrames.get(end).pageNum == newFrames.get(end - 1).pageNum + 1) {
+                ++end;
+            }
+            List<Frame> run = newFrames.subList(start, end);
+            long[] runPageNums = new long[run.size()];
+            ByteBuffer[] runContents = new ByteBuffer[run.size()];
+            for (int i = 0; i < run.size(); ++i) {
+                runPageNums[i] = run.get(i).pageNum;
+                runContents[i] = run.get(i).contents;
+            }
+            long readStart = System.nanoTime();
+            CompletableFuture<Void> read;
+            try {
+                read = this.diskSpaceManager.readPagesAsync(runPageNums, runContents);
+            } catch (RuntimeException e) {
+                read = new CompletableFuture<>();
+                read.completeExceptionally(e);
+            }
+            this.numIOs.add(run.size());
+            read.whenComplete((v, e) -> {
+                this.recordRead(transaction, runPageNums[0], runPageNums.length,
+                        System.nanoTime() - readStart);
+                for (Frame newFrame : run) {
+                    this.finishRead(newFrame, e);
+                }
+            });
+            start = end;
+        }
+    }
+
+    /**
+     * Called once the read of a frame started by loadPages is done, or once the read of a
+     * frame by loadPageFrame fails. If the read failed, the page is dropped from the cache,
+     * so that the next fetch of it reads it again (and reports the error).
+     *
+     * @param frame frame that was read in
+     * @param error exception that the read failed with, or null if it succeeded
+     */
+    private void finishRead(Frame frame, Throwable error) {
+        CompletableFuture<Void> read;
+        this.managerLock.lock();
+        try {
+            read = frame.endRead(false);
+            if (error != null) {
+                int frameIndex = frame.index;
+                this.pageToFrame.remove(frame.pageNum, frameIndex);
+                evictionPolicy.cleanup(frame);
+                frame.setFree();
+                this.frames[frameIndex] = new Frame(frame);
+            }
         } finally {
-            newFrame.frameLock.unlock();
+            this.managerLock.unlock();
+        }
+        read.complete(null);
+    }
+
+    /**
+     * Waits for every asynchronous read started by loadPages so far to finish.
+     */
+    private void awaitPendingReads() {
+        List<CompletableFuture<Void>> pendingReads = new ArrayList<>();
+        this.managerLock.lock();
+        try {
+            for (Frame frame : this.frames) {
+                if (frame.pendingRead != null) {
+                    pendingReads.add(frame.pendingRead);
+                }
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+        for (CompletableFuture<Void> pendingRead : pendingReads) {
+            pendingRead.join();
         }
     }
 
@@ -457,6 +1059,7 @@ public class BufferManager implements AutoCloseable {
      * @return specified page
      */
     public Page fetchPage(LockContext parentContext, long pageNum) {
+        this.recoveryManager.pageFetchHook(pageNum);
         return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum));
     }
 
@@ -468,12 +1071,9 @@ public class BufferManager implements AutoCloseable {
      */
     Frame fetchNewPageFrame(int partNum) {
         long pageNum = this.diskSpaceManager.allocPage(partNum);
-        this.managerLock.lock();
-        try {
-            return fetchPageFrame(pageNum);
-        } finally {
-            this.managerLock.unlock();
-        }
+        // not under the manager lock: loading the page may wait for the write-back of an
+        // earlier page with the same number, which needs the lock to finish
+        return fetchPageFrame(pageNum);
     }
 
     /**
@@ -522,6 +1122,9 @@ public class BufferManager implements AutoCloseable {
      * @param partNum partition number to free
      */
     public void freePart(int partNum) {
+        this.recoveryManager.partFreeHook(partNum);
+        // reads into the partition's frames must be done before the frames are reused
+        this.awaitPendingReads();
         this.managerLock.lock();
         try {
             for (int i = 0; i < frames.length; ++i) {
@@ -549,42 +1152,403 @@ public class BufferManager implements AutoCloseable {
     public void evict(long pageNum) {
         managerLock.lock();
         try {
-            if (!pageToFrame.containsKey(pageNum)) {
+            int frameIndex = pageToFrame.get(pageNum);
+            if (frameIndex == PageTable.NO_FRAME) {
                 return;
             }
-            evict(pageToFrame.get(pageNum));
+            evict(frameIndex);
         } finally {
             managerLock.unlock();
         }
     }
 
     private void evict(int i) {
-        Frame frame = frames[i];
-        frame.frameLock.lock();
+        managerLock.lock();
         try {
-            if (frame.isValid() && !frame.isPinned()) {
+            Frame frame = frames[i];
+            // pinned frames stay
+            if (frame.isValid() && frame.retire()) {
                 this.pageToFrame.remove(frame.pageNum, frame.index);
                 evictionPolicy.cleanup(frame);
 
                 frames[i] = new Frame(frame.contents, this.firstFreeIndex);
                 this.firstFreeIndex = i;
+                ++this.numFreeFrames;
 
                 frame.invalidate();
             }
         } finally {
-            frame.frameLock.unlock();
+            managerLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the number of frames in the buffer, while the buffer manager is in use.
+     * Growing the buffer adds free frames. Shrinking it removes the frames at the end:
+     * if more pages are loaded than fit in the remaining frames, the eviction policy picks
+     * the pages to evict (writing them out if dirty), and the rest of the pages in removed
+     * frames are moved into free frames. Frames being removed must not be pinned; pins held
+     * by other threads are waited for, for up to RESIZE_TIMEOUT_MILLIS.
+     *
+     * The memory of removed frames is returned once none of the frames sharing its slabs
+     * (the frames added at the same time) remain.
+     *
+     * @param bufferSize new number of frames
+     * @throws IllegalStateException if the frames being removed stay pinned, or too many
+     *         of the remaining frames are pinned to make room for their pages
+     */
+    public void resize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        // pages being read in by loadPages count as pinned until they are done
+        this.awaitPendingReads();
+        long deadline = System.currentTimeMillis() + RESIZE_TIMEOUT_MILLIS;
+        while (true) {
+            this.managerLock.lock();
+            try {
+                if (bufferSize >= this.frames.length) {
+                    this.grow(bufferSize);
+                    return;
+                }
+                if (this.shrink(bufferSize)) {
+                    return;
+                }
+            } finally {
+                this.managerLock.unlock();
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("cannot shrink buffer - frames being removed are pinned");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while shrinking buffer");
+            }
+        }
+    }
+
+    /**
+     * Adds free frames to the end of the buffer. Must hold the manager lock.
+     */
+    private void grow(int bufferSize) {
+        Frame[] frames = this.frames;
+        if (bufferSize == frames.length) {
+            return;
+        }
+        FrameArena arena = new FrameArena(bufferSize - frames.length);
+        Frame[] newFrames = Arrays.copyOf(frames, bufferSize);
+        for (int i = frames.length; i < bufferSize; ++i) {
+            newFrames[i] = new Frame(arena.frame(i - frames.length), i + 1);
+        }
+        this.relinkFreeFrames(newFrames);
+        this.frames = newFrames;
+    }
+
+    /**
+     * Removes frames from the end of the buffer, unless any of them is pinned. Must hold
+     * the manager lock.
+     *
+     * @return whether the frames were removed
+     */
+    private boolean shrink(int bufferSize) {
+        Frame[] frames = this.frames;
+        // the frames being removed are retired, so that nothing pins them
+        List<Frame> retired = new ArrayList<>();
+        try {
+            for (int i = bufferSize; i < frames.length; ++i) {
+                Frame frame = frames[i];
+                if (!frame.retire()) {
+                    return false;
+                }
+                retired.add(frame);
+            }
+            Deque<Integer> freeIndices = new ArrayDeque<>();
+            for (int i = 0; i < bufferSize; ++i) {
+                if (frames[i].isFreed()) {
+                    freeIndices.add(i);
+                }
+            }
+            List<Frame> toMove = new ArrayList<>();
+            for (int i = bufferSize; i < frames.length; ++i) {
+                if (frames[i].isValid()) {
+                    toMove.add(frames[i]);
+                }
+            }
+            // let the eviction policy pick pages to evict until the rest fit
+            while (toMove.size() > freeIndices.size()) {
+                Frame victim = (Frame) evictionPolicy.evict(frames);
+                if (!victim.isValid()) {
+                    // some policies may pick free frames, which there usually aren't any of
+                    continue;
+                }
+                if (victim.index >= bufferSize) {
+                    // one of ours, so already retired
+                    toMove.remove(victim);
+                } else if (!victim.retire()) {
+                    // pinned since the policy picked it, pick another
+                    continue;
+                } else {
+                    freeIndices.add(victim.index);
+                    frames[victim.index] = new Frame(victim.contents, frames.length);
+                }
+                this.pageToFrame.remove(victim.pageNum, victim.index);
+                evictionPolicy.cleanup(victim);
+                victim.invalidate();
+            }
+            for (Frame frame : toMove) {
+                int frameIndex = freeIndices.remove();
+                ByteBuffer contents = frames[frameIndex].contents;
+                Frame newFrame = new Frame(contents, frameIndex, frame.pageNum);
+                // moved, so invalidated without writing it out
+                frame.latch(true);
+                try {
+                    contents.duplicate().put(frame.contents.duplicate());
+                    newFrame.dirty = frame.dirty;
+                    frame.index = Frame.INVALID_INDEX;
+                    frame.contents = null;
+                } finally {
+                    frame.unlatch(true);
+                }
+                frames[frameIndex] = newFrame;
+                evictionPolicy.cleanup(frame);
+                evictionPolicy.init(newFrame);
+                this.pageToFrame.put(frame.pageNum, frameIndex);
+            }
+            for (int i = bufferSize; i < frames.length; ++i) {
+                frames[i].index = Frame.INVALID_INDEX;
+            }
+            Frame[] newFrames = Arrays.copyOf(frames, bufferSize);
+            this.relinkFreeFrames(newFrames);
+            this.frames = newFrames;
+            return true;
+        } finally {
+            // evicted frames were replaced by free frames, relink them even if we failed
+            if (this.frames == frames) {
+                for (Frame frame : retired) {
+                    frame.unretire();
+                }
+                this.relinkFreeFrames(frames);
+            }
         }
     }
 
     /**
-     * Calls evict on every frame in sequence.
+     * Rebuilds the list of free frames (in order of index), and their count, for a new
+     * frames array. Must hold the manager lock.
+     */
+    private void relinkFreeFrames(Frame[] frames) {
+        int firstFree = frames.length;
+        int numFree = 0;
+        for (int i = frames.length - 1; i >= 0; --i) {
+            if (frames[i].isFreed()) {
+                frames[i].index = ~firstFree;
+                firstFree = i;
+                ++numFree;
+            }
+        }
+        this.firstFreeIndex = firstFree;
+        this.numFreeFrames = numFree;
+    }
+
+    /**
+     * Calls evict on every frame in sequence. Dirty pages are written out in
+     * batches first, rather than one at a time as they are evicted.
      */
     public void evictAll() {
+        this.awaitPendingReads();
+        this.flushUnpinned();
         for (int i = 0; i < frames.length; ++i) {
             evict(i);
         }
     }
 
+    /**
+     * Counts a page load that has to write out the page it evicts, and wakes up the page
+     * cleaner, if there is one, since it is falling behind.
+     */
+    private void dirtyEviction() {
+        this.numDirtyEvictions.increment();
+        PageCleaner cleaner = this.pageCleaner;
+        if (cleaner != null) {
+            cleaner.wake();
+        }
+    }
+
+    /**
+     * Starts a background thread that writes out dirty pages ahead of their eviction,
+     * trying to keep cleanFraction of the frames clean (free, or holding an unpinned page
+     * with no unwritten changes), so that loading a page seldom has to write one out first.
+     * The thread checks every intervalMillis milliseconds, and whenever a page load has to
+     * write out the page it evicts. Pages are written out in page number order, after the
+     * log is flushed far enough for them. Any page cleaner already running is stopped first.
+     *
+     * @param cleanFraction fraction of the frames to keep clean, between 0 and 1
+     * @param intervalMillis longest time between two checks of the buffer, in milliseconds
+     */
+    public synchronized void startPageCleaner(double cleanFraction, long intervalMillis) {
+        if (cleanFraction < 0 || cleanFraction > 1) {
+            throw new IllegalArgumentException("clean fraction must be between 0 and 1");
+        }
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("page cleaner interval must be positive");
+        }
+        this.stopPageCleaner();
+        PageCleaner cleaner = new PageCleaner(cleanFraction, intervalMillis);
+        this.pageCleaner = cleaner;
+        cleaner.start();
+    }
+
+    public void startPageCleaner(double cleanFraction) {
+        this.startPageCleaner(cleanFraction, 100);
+    }
+
+    /**
+     * Stops the page cleaner, if it is running, waiting for it to finish the pages it is
+     * writing out.
+     */
+    public synchronized void stopPageCleaner() {
+        PageCleaner cleaner = this.pageCleaner;
+        if (cleaner != null) {
+            this.pageCleaner = null;
+            cleaner.shutdown();
+        }
+    }
+
+    /**
+     * One round of the page cleaner: writes out dirty, unpinned pages if fewer than
+     * cleanFraction of the frames are clean, as many as are missing (or as there are).
+     *
+     * @param cleanFraction fraction of the frames to keep clean
+     * @return number of pages written out
+     */
+    int cleanFrames(double cleanFraction) {
+        Frame[] frames = this.frames;
+        int target = (int) Math.ceil(cleanFraction * frames.length);
+        int numClean = 0;
+        // counted without any locks: frames may change in the meantime, but the count only
+        // decides how much to write out this round
+        for (Frame frame : frames) {
+            if (!frame.isValid() || (!frame.dirty && !frame.isPinned())) {
+                ++numClean;
+            }
+        }
+        if (numClean >= target) {
+            return 0;
+        }
+        return this.flushUnpinned(target - numClean);
+    }
+
+    /**
+     * Writes out every dirty, unpinned page in the buffer cache, without unloading them.
+     */
+    private void flushUnpinned() {
+        this.flushUnpinned(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes out dirty, unpinned pages in the buffer cache, in page number order, without
+     * unloading them.
+     *
+     * @param maxPages maximum number of pages to write out
+     * @return number of pages written out
+     */
+    private int flushUnpinned(int maxPages) {
+        List<Frame> dirtyFrames = new ArrayList<>();
+        // frames are pinned while holding the manager lock, so that fetchPageFrame
+        // can't pick one to evict in the meantime
+        this.managerLock.lock();
+        try {
+            for (Frame frame : this.frames) {
+                if (dirtyFrames.size() == maxPages) {
+                    break;
+                }
+                if (frame.dirty && !frame.isPinned() && frame.tryPin(frame.pageNum)) {
+                    dirtyFrames.add(frame);
+                }
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+        dirtyFrames.sort(Comparator.comparingLong(Frame::getPageNum));
+        try {
+            return this.writeFrames(dirtyFrames);
+        } finally {
+            for (Frame frame : dirtyFrames) {
+                frame.unpin();
+            }
+        }
+    }
+
+    /**
+     * Writes out the dirty frames among frames with a single call to the disk space manager,
+     * after flushing the log far enough for all of them. The caller must ensure that the
+     * frames cannot be evicted (by pinning or retiring them).
+     *
+     * Every frame is latched in shared mode while it is written out, so that its contents
+     * don't change in the meantime.
+     *
+     * @param frames frames to write out
+     * @return number of pages written out
+     */
+    private int writeFrames(List<Frame> frames) {
+        long[] stamps = new long[frames.size()];
+        try {
+            long maxPageLSN = -1L;
+            boolean hasDataPage = false;
+            for (int i = 0; i < frames.size(); ++i) {
+                Frame frame = frames.get(i);
+                stamps[i] = frame.latchShared();
+                if (frame.isValid() && frame.dirty && !frame.tempPage) {
+                    maxPageLSN = Math.max(maxPageLSN, frame.getPageLSN());
+                    hasDataPage = true;
+                }
+            }
+            if (hasDataPage) {
+                recoveryManager.pageFlushHook(maxPageLSN);
+            }
+            List<Frame> dirtyFrames = new ArrayList<>();
+            for (Frame frame : frames) {
+                if (frame.isValid() && frame.dirty) {
+                    dirtyFrames.add(frame);
+                }
+            }
+            if (dirtyFrames.isEmpty()) {
+                return 0;
+            }
+            long[] pageNums = new long[dirtyFrames.size()];
+            ByteBuffer[] bufs = new ByteBuffer[dirtyFrames.size()];
+            for (int i = 0; i < dirtyFrames.size(); ++i) {
+                pageNums[i] = dirtyFrames.get(i).pageNum;
+                bufs[i] = dirtyFrames.get(i).contents;
+            }
+            long start = System.nanoTime();
+            this.diskSpaceManager.writePages(pageNums, bufs);
+            // the batch's latency is split evenly between its pages
+            long nanos = (System.nanoTime() - start) / dirtyFrames.size();
+            TransactionContext transaction = TransactionContext.getTransaction();
+            for (Frame frame : dirtyFrames) {
+                frame.dirty = false;
+                this.numIOs.increment();
+                this.recordWrite(transaction, frame.pageNum, nanos);
+            }
+            return dirtyFrames.size();
+        } finally {
+            for (int i = 0; i < frames.size(); ++i) {
+                frames.get(i).unlatchShared(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Makes every page written out so far durable (see DiskSpaceManager#sync).
+     * Does not write out any dirty pages.
+     */
+    public void sync() {
+        this.diskSpaceManager.sync();
+    }
+
     /**
      * Calls the passed in method with the page number of every loaded page.
      * @param process method to consume page numbers. The first parameter is the page number,
@@ -593,13 +1557,8 @@ public class BufferManager implements AutoCloseable {
      */
     public void iterPageNums(BiConsumer<Long, Boolean> process) {
         for (Frame frame : frames) {
-            frame.frameLock.lock();
-            try {
-                if (frame.isValid()) {
-                    process.accept(frame.pageNum, frame.dirty);
-                }
-            } finally {
-                frame.frameLock.unlock();
+            if (frame.isValid()) {
+                process.accept(frame.pageNum, frame.dirty);
             }
         }
     }
@@ -611,22 +1570,91 @@ public class BufferManager implements AutoCloseable {
      * @return number of I/Os
      */
     public long getNumIOs() {
-        return numIOs;
+        return numIOs.sum();
     }
 
-    public static boolean logIOs;
-    private void incrementIOs() {
-        if (logIOs) {
-            System.out.println("IO incurred");
-            StackTraceElement[] trace = Thread.currentThread().getStackTrace();
-            for (int i = 0; i < trace.length; i++) {
-                String s = trace[i].toString();
-                if (s.startsWith("edu")) {
-                    System.out.println(s);
-                }
-            }
+    /**
+     * Get the number of the reads counted by getNumIOs that were done because a page was
+     * fetched that was not in the buffer cache, i.e. excluding reads done ahead of time
+     * by loadPages.
+     * @return number of demand reads
+     */
+    public long getNumDemandReads() {
+        return numDemandReads.sum();
+    }
+
+    /**
+     * Sets a listener to be told the page number of every page fetched from now on (including
+     * new pages), in the order they are fetched in, or removes the listener if null. Used to
+     * record the page accesses of a workload, see PageTrace.
+     *
+     * @param listener listener for page fetches, or null
+     */
+    public void setFetchListener(LongConsumer listener) {
+        this.fetchListener = listener;
+    }
+
+    /**
+     * @return number of page loads so far that had to write out the page they evicted
+     *         first (rather than find it already written out, e.g. by the page cleaner)
+     */
+    public long getNumDirtyEvictions() {
+        return this.numDirtyEvictions.sum();
+    }
+
+    /**
+     * @return size of the buffer cache, in pages
+     */
+    public int getBufferSize() {
+        return this.frames.length;
+    }
+
+    /**
+     * @return number of frames with no page loaded (which may change as soon as it returns)
+     */
+    public int getNumFreeFrames() {
+        return this.numFreeFrames;
+    }
+
+    /**
+     * Get the I/Os counted by getNumIOs, broken down by partition, along with how long they
+     * took. Reads done ahead by loadPages are recorded once they finish, with one latency
+     * per run of consecutive pages read together.
+     * @return I/O metrics of the buffer manager
+     */
+    public IOMetrics getIOMetrics() {
+        return ioMetrics;
+    }
+
+    /**
+     * Records a read of numPages consecutive pages in the I/O metrics of the buffer manager,
+     * and in those of the transaction that it was done for.
+     * @param transaction transaction that the read was done for, or null
+     * @param pageNum page number of the first page read
+     * @param numPages number of pages read
+     * @param nanos how long the read took
+     */
+    private void recordRead(TransactionContext transaction, long pageNum, int numPages, long nanos) {
+        int partNum = DiskSpaceManager.getPartNum(pageNum);
+        this.ioMetrics.get(partNum).recordRead(numPages, nanos);
+        if (transaction != null) {
+            transaction.getIOMetrics().get(partNum).recordRead(numPages, nanos);
+        }
+    }
+
+    /**
+     * Records a write of a page in the I/O metrics of the buffer manager, and in those of the
+     * transaction that it was done for.
+     * @param transaction transaction that the write was done for, or null
+     * @param pageNum page number of the page written
+     * @param nanos how long the write took
+     */
+    private void recordWrite(TransactionContext transaction, long pageNum, long nanos) {
+        int partNum = DiskSpaceManager.getPartNum(pageNum);
+        this.ioMetrics.get(partNum).recordWrite(1, nanos);
+        if (transaction != null) {
+            transaction.getIOMetrics().get(partNum).recordWrite(1, nanos);
         }
-        ++numIOs;
     }
 
     /**
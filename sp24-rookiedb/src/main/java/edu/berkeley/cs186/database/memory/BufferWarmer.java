@@ -0,0 +1,158 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Warms up the buffer cache after a restart. The pages loaded in the buffer cache are saved
+ * to a file when the database shuts down (see save), and read back in the background when it
+ * starts up again, rather than one synchronous read at a time as the workload first
+ * fetches them.
+ *
+ * Pages are read in page number order (so partition by partition, in the order they are
+ * stored in), in batches with BufferManager#loadPages, and only into free frames: once the
+ * buffer cache is full, whether of saved pages or of pages the workload has fetched since
+ * startup, warming up is done. The rate at which pages are read can be capped, to leave the
+ * disk to the workload.
+ */
+public class BufferWarmer {
+    // most pages read in by a single call to loadPages
+    static final int BATCH_SIZE = 32;
+
+    private final BufferManager bufferManager;
+    private final long[] pageNums;
+    private final long maxPagesPerSecond;
+    private final Thread thread;
+
+    // number of pages of pageNums handed to loadPages so far
+    private volatile int numRequested = 0;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param bufferManager buffer manager to read pages into
+     * @param pageNums page numbers of pages to read in, in any order
+     * @param maxPagesPerSecond most pages to read in per second, or 0 for no limit
+     */
+    public BufferWarmer(BufferManager bufferManager, long[] pageNums, long maxPagesPerSecond) {
+        if (maxPagesPerSecond < 0) {
+            throw new IllegalArgumentException("warm-up rate must not be negative");
+        }
+        this.bufferManager = bufferManager;
+        this.pageNums = pageNums.clone();
+        Arrays.sort(this.pageNums);
+        this.maxPagesPerSecond = maxPagesPerSecond;
+        this.thread = new Thread(this::run, "buffer-warmer");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Writes the page numbers of the pages loaded in the buffer cache to a file, for a
+     * BufferWarmer to read back in later. Pages of temporary partitions are left out, since
+     * temporary partitions do not survive a restart.
+     *
+     * @param bufferManager buffer manager whose pages to save
+     * @param path file to write to, replaced if it exists
+     */
+    public static void save(BufferManager bufferManager, Path path) throws IOException {
+        PageTrace pages = new PageTrace();
+        bufferManager.iterPageNums((pageNum, dirty) -> {
+            if (!DiskSpaceManager.isTempPart(DiskSpaceManager.getPartNum(pageNum))) {
+                pages.accept(pageNum);
+            }
+        });
+        // written next to the file and moved into place, so that a crash never leaves
+        // half a list behind
+        Path tempPath = Paths.get(path + ".tmp");
+        pages.write(tempPath);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a file written by save.
+     *
+     * @param path file to read from
+     * @return page numbers in the file, or none if there is no file
+     */
+    public static long[] read(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return new long[0];
+        }
+        return PageTrace.read(path);
+    }
+
+    /**
+     * Starts reading the pages in, in the background.
+     */
+    public void start() {
+        this.thread.start();
+    }
+
+    /**
+     * Stops reading pages in, and waits for the warmer to stop handing out reads (reads
+     * already started by loadPages may still be in progress).
+     */
+    public void stop() {
+        this.stopped = true;
+        this.thread.interrupt();
+        this.await();
+    }
+
+    /**
+     * Waits for the warmer to be done: every page has been read in (or was already loaded),
+     * the buffer cache is full, or the warmer was stopped.
+     */
+    public void await() {
+        boolean interrupted = false;
+        while (this.thread.isAlive()) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of the pages to warm up that have been handed to loadPages so far
+     */
+    public int getNumRequested() {
+        return this.numRequested;
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        int batchSize = Math.max(1, Math.min(BATCH_SIZE, this.bufferManager.getBufferSize() / 4));
+        int next = 0;
+        while (next < this.pageNums.length && !this.stopped) {
+            int numFree = this.bufferManager.getNumFreeFrames();
+            if (numFree == 0) {
+                return;
+            }
+            int n = Math.min(Math.min(batchSize, numFree), this.pageNums.length - next);
+            if (this.maxPagesPerSecond > 0) {
+                // don't start the batch until the rate allows for it
+                long due = start + (next + n) * 1_000_000_000L / this.maxPagesPerSecond;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            this.bufferManager.loadPages(Arrays.copyOfRange(this.pageNums, next, next + n));
+            next += n;
+            this.numRequested = next;
+        }
+    }
+}
@@ -11,14 +11,15 @@ public interface EvictionPolicy {
     void init(BufferFrame frame);
 
     /**
-     * Called when a frame is hit.
-     * @param frame Frame object that is being read from/written to
+     * Called when a frame is hit, i.e. when the page in it is fetched again.
+     * @param frame Frame object whose page is being fetched
      */
     void hit(BufferFrame frame);
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer
+     *               manager has been resized; frames removed by resizing are cleaned up first)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
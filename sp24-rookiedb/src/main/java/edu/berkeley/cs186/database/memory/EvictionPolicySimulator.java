@@ -0,0 +1,152 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Replays a trace of page fetches (see PageTrace) against eviction policies, without a
+ * disk or a buffer manager, to compare the hit ratios they would get for the workload the
+ * trace was recorded from. Frames are handed to the policy the same way the buffer manager
+ * does: free frames are used in order until the buffer is full, each fetch that finds its
+ * page loaded is a hit, and each fetch that loads a page initializes the frame.
+ *
+ * Run with a trace file and one or more buffer sizes, e.g.
+ *
+ *   java edu.berkeley.cs186.database.memory.EvictionPolicySimulator trace.txt 64 256 1024
+ *
+ * to print the hit ratio of every policy in POLICIES at each buffer size.
+ */
+public class EvictionPolicySimulator {
+    // policies compared by main, by name
+    public static final Map<String, Supplier<EvictionPolicy>> POLICIES;
+    static {
+        Map<String, Supplier<EvictionPolicy>> policies = new LinkedHashMap<>();
+        policies.put("clock", ClockEvictionPolicy::new);
+        policies.put("lru", LRUEvictionPolicy::new);
+        policies.put("lru-2", LRU2EvictionPolicy::new);
+        policies.put("2q", TwoQEvictionPolicy::new);
+        policies.put("arc", ARCEvictionPolicy::new);
+        POLICIES = Collections.unmodifiableMap(policies);
+    }
+
+    private static class SimulatedFrame extends BufferFrame {
+        private final int index;
+        private final long pageNum;
+
+        private SimulatedFrame(int index, long pageNum) {
+            this.index = index;
+            this.pageNum = pageNum;
+        }
+
+        @Override
+        boolean isValid() {
+            return true;
+        }
+
+        @Override
+        long getPageNum() {
+            return this.pageNum;
+        }
+
+        @Override
+        void flush() {}
+
+        @Override
+        void readBytes(short position, short num, byte[] buf) {
+            throw new UnsupportedOperationException("simulated frames have no contents");
+        }
+
+        @Override
+        void writeBytes(short position, short num, byte[] buf) {
+            throw new UnsupportedOperationException("simulated frames have no contents");
+        }
+
+        // no contents to protect either
+
+        @Override
+        void latch(boolean exclusive) {}
+
+        @Override
+        void unlatch(boolean exclusive) {}
+
+        @Override
+        BufferFrame requestValidFrame() {
+            return this;
+        }
+
+        @Override
+        void setPageLSN(long pageLSN) {}
+
+        @Override
+        long getPageLSN() {
+            return 0;
+        }
+    }
+
+    /**
+     * Replays a trace against an eviction policy.
+     *
+     * @param trace page numbers of the fetches to replay, in order
+     * @param bufferSize number of frames in the simulated buffer
+     * @param policy eviction policy, not used before
+     * @return number of fetches that found their page loaded
+     */
+    public static long simulate(long[] trace, int bufferSize, EvictionPolicy policy) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        BufferFrame[] frames = new BufferFrame[bufferSize];
+        Map<Long, Integer> pageToFrame = new HashMap<>();
+        int numUsed = 0;
+        long numHits = 0;
+        for (long pageNum : trace) {
+            Integer index = pageToFrame.get(pageNum);
+            if (index != null) {
+                ++numHits;
+                policy.hit(frames[index]);
+                continue;
+            }
+            int newIndex;
+            if (numUsed < bufferSize) {
+                newIndex = numUsed++;
+            } else {
+                SimulatedFrame evicted = (SimulatedFrame) policy.evict(frames);
+                policy.cleanup(evicted);
+                pageToFrame.remove(evicted.getPageNum());
+                newIndex = evicted.index;
+            }
+            frames[newIndex] = new SimulatedFrame(newIndex, pageNum);
+            policy.init(frames[newIndex]);
+            pageToFrame.put(pageNum, newIndex);
+        }
+        return numHits;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: EvictionPolicySimulator <trace file> <buffer size>...");
+            System.exit(1);
+        }
+        long[] trace = PageTrace.read(Paths.get(args[0]));
+        System.out.printf("%d fetches%n", trace.length);
+        System.out.printf("%12s", "buffer size");
+        for (String name : POLICIES.keySet()) {
+            System.out.printf("%9s", name);
+        }
+        System.out.println();
+        for (int i = 1; i < args.length; ++i) {
+            int bufferSize = Integer.parseInt(args[i]);
+            System.out.printf("%12d", bufferSize);
+            for (Supplier<EvictionPolicy> policy : POLICIES.values()) {
+                long numHits = simulate(trace, bufferSize, policy.get());
+                System.out.printf("%8.2f%%", trace.length == 0 ? 0.0 : 100.0 * numHits / trace.length);
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Memory for the contents of the buffer manager's frames: a few large direct (off-heap)
+ * buffers, called slabs, of which each frame gets a page-sized view. Since page contents
+ * are not on the Java heap, the garbage collector does not scan or move them, and heap
+ * size does not need to grow with the buffer size. Direct buffers can also be read into
+ * and written from by file channels without an intermediate copy.
+ *
+ * The memory is only returned to the operating system once the arena is garbage
+ * collected. Direct memory is limited separately from the heap, by
+ * -XX:MaxDirectMemorySize (which defaults to the maximum heap size).
+ */
+class FrameArena {
+    // 1GB: a ByteBuffer can be at most 2GB, and fewer, larger slabs are easier on the OS
+    static final int PAGES_PER_SLAB = 1 << 18;
+
+    private final ByteBuffer[] slabs;
+    private final int numFrames;
+
+    /**
+     * @param numFrames number of page-sized frames to allocate memory for
+     */
+    FrameArena(int numFrames) {
+        this.numFrames = numFrames;
+        int numSlabs = (numFrames + PAGES_PER_SLAB - 1) / PAGES_PER_SLAB;
+        this.slabs = new ByteBuffer[numSlabs];
+        for (int i = 0; i < numSlabs; ++i) {
+            int slabPages = Math.min(PAGES_PER_SLAB, numFrames - i * PAGES_PER_SLAB);
+            this.slabs[i] = ByteBuffer.allocateDirect(slabPages * DiskSpaceManager.PAGE_SIZE);
+        }
+    }
+
+    /**
+     * @param index index of a frame
+     * @return page-sized view of the memory of the frame, with position 0 and limit
+     *         (and capacity) PAGE_SIZE
+     */
+    ByteBuffer frame(int index) {
+        if (index < 0 || index >= this.numFrames) {
+            throw new IndexOutOfBoundsException("no frame " + index + " in arena of " + this.numFrames);
+        }
+        ByteBuffer b = this.slabs[index / PAGES_PER_SLAB].duplicate();
+        int offset = (index % PAGES_PER_SLAB) * DiskSpaceManager.PAGE_SIZE;
+        b.limit(offset + DiskSpaceManager.PAGE_SIZE);
+        b.position(offset);
+        return b.slice();
+    }
+
+    /**
+     * @return number of frames in the arena
+     */
+    int getNumFrames() {
+        return this.numFrames;
+    }
+}
@@ -0,0 +1,75 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Doubly-linked list of buffer frames, for eviction policies that keep frames in the
+ * order they were added (or last moved to the end) in. Frames are linked through nodes,
+ * which policies keep in the tags of the frames; a node is in at most one list at a time.
+ */
+class FrameList {
+    // sentinel: head.next is the first node, and head.prev the last
+    private final Node head = new Node(null);
+    private int size = 0;
+
+    static class Node {
+        final BufferFrame frame;
+        Node prev = null;
+        Node next = null;
+        // list the node is in, or null
+        FrameList list = null;
+
+        Node(BufferFrame frame) {
+            this.frame = frame;
+        }
+    }
+
+    FrameList() {
+        this.head.prev = this.head.next = this.head;
+    }
+
+    /**
+     * Adds the node, which must not be in a list, to the end of this list.
+     */
+    void addLast(Node node) {
+        node.prev = this.head.prev;
+        node.next = this.head;
+        this.head.prev.next = node;
+        this.head.prev = node;
+        node.list = this;
+        ++this.size;
+    }
+
+    /**
+     * Removes the node, which must be in this list.
+     */
+    void remove(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+        node.list = null;
+        --this.size;
+    }
+
+    /**
+     * Moves the node, which must be in this list, to its end.
+     */
+    void moveToLast(Node node) {
+        this.remove(node);
+        this.addLast(node);
+    }
+
+    /**
+     * @return first node of the list whose frame is not pinned, or null if there is none
+     */
+    Node firstUnpinned() {
+        for (Node node = this.head.next; node != this.head; node = node.next) {
+            if (!node.frame.isPinned()) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return this.size;
+    }
+}
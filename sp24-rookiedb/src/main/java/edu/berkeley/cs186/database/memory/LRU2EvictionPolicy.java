@@ -0,0 +1,132 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+
+/**
+ * Implementation of the LRU-2 eviction policy (LRU-K with K = 2), which evicts the page
+ * whose second most recent reference is the oldest. Pages referenced only once since they
+ * were loaded are evicted first (in LRU order), so pages read once by a large scan do not
+ * push out pages that are used over and over.
+ *
+ * Every read and write of a frame is a hit, so hits to a frame with no hits to other
+ * frames in between are correlated, and count as a single reference. The time of the last
+ * reference of evicted pages is remembered for a while (for as many pages as there are
+ * frames), so that a page that is evicted and soon loaded again keeps its history.
+ */
+public class LRU2EvictionPolicy implements EvictionPolicy {
+    // number of references so far; times of references are values of the clock
+    private long clock = 0;
+    // frames with a single reference, from least to most recently referenced
+    private final FrameList once = new FrameList();
+    // frames with at least two references, by time of their second most recent reference
+    private final TreeMap<Long, Tag> twice = new TreeMap<>();
+    // time of the last reference of recently evicted pages, from oldest to newest eviction
+    private final LinkedHashMap<Long, Long> history = new LinkedHashMap<>();
+    private Tag lastReferenced = null;
+    // number of frames in the buffer, as of the last eviction
+    private int capacity = 0;
+
+    private static class Tag extends FrameList.Node {
+        long last;
+        // time of the second most recent reference, or 0 if referenced only once
+        long secondLast = 0;
+        boolean resident = true;
+
+        Tag(BufferFrame frame) {
+            super(frame);
+        }
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        Tag tag = new Tag(frame);
+        tag.last = ++this.clock;
+        Long previous = this.history.remove(frame.getPageNum());
+        if (previous != null) {
+            tag.secondLast = previous;
+            this.twice.put(tag.secondLast, tag);
+        } else {
+            this.once.addLast(tag);
+        }
+        this.lastReferenced = tag;
+        frame.tag = tag;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        Tag tag = (Tag) frame.tag;
+        if (tag == null || !tag.resident || tag == this.lastReferenced) {
+            return;
+        }
+        if (tag.secondLast == 0) {
+            this.once.remove(tag);
+        } else {
+            this.twice.remove(tag.secondLast);
+        }
+        tag.secondLast = tag.last;
+        tag.last = ++this.clock;
+        this.twice.put(tag.secondLast, tag);
+        this.lastReferenced = tag;
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer
+     *               manager has been resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.capacity = frames.length;
+        FrameList.Node node = this.once.firstUnpinned();
+        if (node != null) {
+            return node.frame;
+        }
+        for (Tag tag : this.twice.values()) {
+            if (!tag.frame.isPinned()) {
+                return tag.frame;
+            }
+        }
+        throw new IllegalStateException("cannot evict anything - everything pinned");
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        Tag tag = (Tag) frame.tag;
+        if (tag == null || !tag.resident) {
+            return;
+        }
+        if (tag.secondLast == 0) {
+            this.once.remove(tag);
+        } else {
+            this.twice.remove(tag.secondLast);
+        }
+        tag.resident = false;
+        if (tag == this.lastReferenced) {
+            this.lastReferenced = null;
+        }
+        this.history.put(frame.getPageNum(), tag.last);
+        Iterator<Long> iter = this.history.keySet().iterator();
+        while (this.history.size() > this.capacity) {
+            iter.next();
+            iter.remove();
+        }
+    }
+}
@@ -3,6 +3,9 @@ package edu.berkeley.cs186.database.memory;
 /**
  * Implementation of LRU eviction policy, which works by creating a
  * doubly-linked list between frames in order of ascending use time.
+ *
+ * Synchronized, since frames are hit by every read of them, and readers of a frame don't
+ * exclude each other.
  */
 public class LRUEvictionPolicy implements EvictionPolicy {
     private Tag listHead;
@@ -36,7 +39,7 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @param frame new frame to be initialized
      */
     @Override
-    public void init(BufferFrame frame) {
+    public synchronized void init(BufferFrame frame) {
         Tag frameTag = new Tag();
         frameTag.next = listTail;
         frameTag.prev = listTail.prev;
@@ -51,8 +54,12 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @param frame Frame object that is being read from/written to
      */
     @Override
-    public void hit(BufferFrame frame) {
+    public synchronized void hit(BufferFrame frame) {
         Tag frameTag = (Tag) frame.tag;
+        if (frameTag.prev == frameTag) {
+            // read just as it was removed
+            return;
+        }
         frameTag.prev.next = frameTag.next;
         frameTag.next.prev = frameTag.prev;
         frameTag.next = this.listTail;
@@ -63,12 +70,13 @@ public class LRUEvictionPolicy implements EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer
+     *               manager has been resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
     @Override
-    public BufferFrame evict(BufferFrame[] frames) {
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
         Tag frameTag = this.listHead.next;
         while (frameTag.cur != null && frameTag.cur.isPinned()) {
             frameTag = frameTag.next;
@@ -86,7 +94,7 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @param frame frame being removed
      */
     @Override
-    public void cleanup(BufferFrame frame) {
+    public synchronized void cleanup(BufferFrame frame) {
         Tag frameTag = (Tag) frame.tag;
         frameTag.prev.next = frameTag.next;
         frameTag.next.prev = frameTag.prev;
@@ -147,6 +147,40 @@ public class Page {
         this.frame.unpin();
     }
 
+    /**
+     * Latches the page in shared mode: until unlatchShared, other threads can read the
+     * page, but not change it. Each read or write of the page is atomic on its own; latch
+     * the page to read several parts of it consistently. The page must be pinned.
+     */
+    public void latchShared() {
+        this.frame.latch(false);
+    }
+
+    /**
+     * Releases a latch taken by latchShared.
+     */
+    public void unlatchShared() {
+        this.frame.unlatch(false);
+    }
+
+    /**
+     * Latches the page in exclusive mode: until unlatchExclusive, other threads can neither
+     * read nor change the page. Used to read and then change a page without other threads
+     * changing it in between. The thread holding the latch may take it again (and must
+     * release it as many times), but a shared latch cannot be upgraded to an exclusive one.
+     * The page must be pinned.
+     */
+    public void latchExclusive() {
+        this.frame.latch(true);
+    }
+
+    /**
+     * Releases a latch taken by latchExclusive.
+     */
+    public void unlatchExclusive() {
+        this.frame.unlatch(true);
+    }
+
     /**
      * @return the virtual page number of this page
      */
@@ -0,0 +1,167 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.Arrays;
+
+/**
+ * Map from page numbers to frame indices, used by the buffer manager to find the frame
+ * of a loaded page. Unlike a HashMap<Long, Integer>, neither keys nor values are boxed:
+ * entries live in a single primitive array, key and frame index side by side, with open
+ * addressing and linear probing, so that a lookup usually touches one or two adjacent
+ * array slots and allocates nothing.
+ *
+ * The table is kept at most half full, doubling in size when needed. Removal shifts later
+ * entries of the probe sequence back, so no tombstones are needed. Not thread safe, but
+ * get may race with modifications (see StripedPageTable) without failing or looping
+ * forever: it may just return a wrong answer, which the caller must then discard.
+ */
+class PageTable {
+    // frame index returned for pages that are not in the table
+    static final int NO_FRAME = -1;
+
+    // marks empty slots; never a valid page number
+    private static final long EMPTY = DiskSpaceManager.INVALID_PAGE_NUM;
+
+    // slots[2 * i] is the page number of slot i, and slots[2 * i + 1] its frame index;
+    // replaced (never modified) when the table grows
+    private long[] slots;
+    private int size;
+
+    /**
+     * @param expectedSize number of entries the table should hold without growing
+     */
+    PageTable(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative");
+        }
+        this.slots = emptySlots(Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1);
+    }
+
+    private static long[] emptySlots(int capacity) {
+        long[] slots = new long[2 * capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    static long hash(long pageNum) {
+        // Fibonacci hashing: page numbers of a partition are consecutive, and
+        // partition numbers are multiples of 10^10 apart, so mix the high bits in
+        return pageNum * 0x9E3779B97F4A7C15L;
+    }
+
+    private static int slot(long pageNum, int mask) {
+        long h = hash(pageNum);
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return frame index of the page, or NO_FRAME if the page is not in the table
+     */
+    int get(long pageNum) {
+        if (pageNum == EMPTY) {
+            return NO_FRAME;
+        }
+        long[] slots = this.slots;
+        int mask = (slots.length >> 1) - 1;
+        // the probe count is bounded only for the sake of readers racing with a writer
+        for (int i = slot(pageNum, mask), n = 0; n <= mask; i = (i + 1) & mask, ++n) {
+            long key = slots[2 * i];
+            if (key == pageNum) {
+                return (int) slots[2 * i + 1];
+            }
+            if (key == EMPTY) {
+                return NO_FRAME;
+            }
+        }
+        return NO_FRAME;
+    }
+
+    boolean containsKey(long pageNum) {
+        return this.get(pageNum) != NO_FRAME;
+    }
+
+    /**
+     * Maps the page to the frame index, replacing any previous mapping of the page.
+     */
+    void put(long pageNum, int frameIndex) {
+        if (pageNum == EMPTY) {
+            throw new IllegalArgumentException("invalid page number " + pageNum);
+        }
+        int mask = (this.slots.length >> 1) - 1;
+        int i = slot(pageNum, mask);
+        while (this.slots[2 * i] != EMPTY) {
+            if (this.slots[2 * i] == pageNum) {
+                this.slots[2 * i + 1] = frameIndex;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        if (2 * (this.size + 1) > mask + 1) {
+            this.grow();
+            this.put(pageNum, frameIndex);
+            return;
+        }
+        // frame index first, so that a racing get never sees the key with a stale index
+        this.slots[2 * i + 1] = frameIndex;
+        this.slots[2 * i] = pageNum;
+        ++this.size;
+    }
+
+    private void grow() {
+        long[] oldSlots = this.slots;
+        long[] newSlots = emptySlots(oldSlots.length);
+        int mask = (newSlots.length >> 1) - 1;
+        for (int j = 0; j < oldSlots.length; j += 2) {
+            if (oldSlots[j] != EMPTY) {
+                int i = slot(oldSlots[j], mask);
+                while (newSlots[2 * i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                newSlots[2 * i] = oldSlots[j];
+                newSlots[2 * i + 1] = oldSlots[j + 1];
+            }
+        }
+        this.slots = newSlots;
+    }
+
+    /**
+     * Removes the page from the table if it is mapped to the frame index.
+     * @return whether the page was removed
+     */
+    boolean remove(long pageNum, int frameIndex) {
+        if (pageNum == EMPTY) {
+            return false;
+        }
+        long[] slots = this.slots;
+        int mask = (slots.length >> 1) - 1;
+        int i = slot(pageNum, mask);
+        while (slots[2 * i] != pageNum) {
+            if (slots[2 * i] == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        if (slots[2 * i + 1] != frameIndex) {
+            return false;
+        }
+        // shift back later entries that would no longer be reachable past the hole at i
+        int hole = i;
+        for (int j = (i + 1) & mask; slots[2 * j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(slots[2 * j], mask);
+            // entry j may move to the hole if its home slot is not in (hole, j] (cyclically)
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                slots[2 * hole + 1] = slots[2 * j + 1];
+                slots[2 * hole] = slots[2 * j];
+                hole = j;
+            }
+        }
+        slots[2 * hole] = EMPTY;
+        --this.size;
+        return true;
+    }
+
+    int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,78 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Recording of the pages fetched from a buffer manager, in order, for replaying in the
+ * EvictionPolicySimulator. Record a workload with
+ *
+ *   PageTrace trace = new PageTrace();
+ *   bufferManager.setFetchListener(trace);
+ *   ... run the workload ...
+ *   bufferManager.setFetchListener(null);
+ *   trace.write(path);
+ *
+ * Traces are written as text, one page number per line.
+ */
+public class PageTrace implements LongConsumer {
+    private long[] pageNums = new long[1024];
+    private int length = 0;
+
+    /**
+     * Records a fetch of the page.
+     * @param pageNum page number of the fetched page
+     */
+    @Override
+    public synchronized void accept(long pageNum) {
+        if (this.length == this.pageNums.length) {
+            this.pageNums = Arrays.copyOf(this.pageNums, 2 * this.length);
+        }
+        this.pageNums[this.length++] = pageNum;
+    }
+
+    /**
+     * @return page numbers of the fetches recorded so far, in order
+     */
+    public synchronized long[] toArray() {
+        return Arrays.copyOf(this.pageNums, this.length);
+    }
+
+    /**
+     * Writes the fetches recorded so far to a file.
+     * @param path file to write to, replaced if it exists
+     */
+    public void write(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (long pageNum : this.toArray()) {
+                writer.write(Long.toString(pageNum));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads a trace written by write.
+     * @param path file to read from
+     * @return page numbers of the fetches in the trace, in order
+     */
+    public static long[] read(Path path) throws IOException {
+        PageTrace trace = new PageTrace();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    trace.accept(Long.parseLong(line));
+                }
+            }
+        }
+        return trace.toArray();
+    }
+}
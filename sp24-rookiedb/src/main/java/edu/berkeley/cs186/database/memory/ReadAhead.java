@@ -0,0 +1,120 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Read-ahead for a scan over pages, such as the data pages of a table or the leaves of a
+ * B+ tree. The scan tells the read-ahead about each page it is about to fetch, along with
+ * the pages that would follow it; as long as the scan keeps fetching the pages that were
+ * said to follow, the read-ahead loads a window of upcoming pages in the background with
+ * BufferManager#loadPages, so that they are usually in memory by the time they are fetched.
+ *
+ * The window starts out empty, and doubles (from MIN_WINDOW up to MAX_WINDOW, or an
+ * eighth of the buffer, whichever is smaller) every time the scan gets within half a window
+ * of the end of what was loaded. Every fetch of a page other than the expected one halves
+ * the window, so a scan that skips around, or backtracks, soon stops reading ahead.
+ *
+ * Not thread safe: each scan (iterator) should have a read-ahead of its own.
+ */
+public class ReadAhead {
+    // window size when a scan first looks sequential
+    static final int MIN_WINDOW = 4;
+    // largest window size, for large buffers
+    static final int MAX_WINDOW = 64;
+
+    private final BufferManager bufferManager;
+    private final int maxWindow;
+
+    // number of pages to keep loaded ahead of the scan
+    private int window = 0;
+    // pages that the scan is expected to fetch next, in order, starting at expectedIndex;
+    // if the window is not empty, they have all been loaded
+    private long[] expected = new long[0];
+    private int expectedIndex = 0;
+
+    /**
+     * Source of the page numbers that follow the page being fetched, in scan order.
+     */
+    @FunctionalInterface
+    public interface PageSequence {
+        /**
+         * @param n number of page numbers wanted
+         * @return page numbers of (up to) the next n pages of the scan; fewer at the end
+         */
+        long[] next(int n);
+    }
+
+    /**
+     * @param bufferManager buffer manager to load pages into
+     */
+    public ReadAhead(BufferManager bufferManager) {
+        this.bufferManager = bufferManager;
+        this.maxWindow = Math.min(MAX_WINDOW, bufferManager.getBufferSize() / 8);
+    }
+
+    /**
+     * @param pageNum page number of a page
+     * @return sequence of the pages physically after the page: pageNum + 1, pageNum + 2, ...
+     */
+    public static PageSequence consecutive(long pageNum) {
+        return n -> {
+            long[] pageNums = new long[n];
+            for (int i = 0; i < n; ++i) {
+                pageNums[i] = pageNum + 1 + i;
+            }
+            return pageNums;
+        };
+    }
+
+    /**
+     * Called by the scan before fetching a page.
+     *
+     * @param pageNum page number of the page about to be fetched
+     * @param following pages that follow the page in the scan; only used during this call
+     */
+    public void fetching(long pageNum, PageSequence following) {
+        int maxWindow = this.maxWindow;
+        BufferAccessStrategy strategy = BufferAccessStrategy.current();
+        if (strategy != null) {
+            // pages loaded under a strategy recycle its ring, so stay well within it
+            maxWindow = Math.min(maxWindow, strategy.getRingSize(this.bufferManager.getBufferSize()) / 2);
+        }
+        if (maxWindow < MIN_WINDOW) {
+            // too small a buffer to read ahead without evicting pages the scan still needs
+            this.window = 0;
+            return;
+        }
+        this.window = Math.min(this.window, maxWindow);
+        if (this.expectedIndex >= this.expected.length || this.expected[this.expectedIndex] != pageNum) {
+            // not the page we expected: remember what to expect next, with a smaller window
+            this.window = this.window / 2 < MIN_WINDOW ? 0 : this.window / 2;
+            this.expected = following.next(Math.max(1, this.window));
+            this.expectedIndex = 0;
+            if (this.window > 0) {
+                this.bufferManager.loadPages(this.expected);
+            }
+            return;
+        }
+        ++this.expectedIndex;
+        int ahead = this.expected.length - this.expectedIndex;
+        if (ahead > this.window / 2) {
+            return;
+        }
+        // sequential, and getting close to the end of what was loaded: grow the window,
+        // and load the pages past what is already loaded
+        int newWindow = this.window == 0 ? MIN_WINDOW : Math.min(2 * this.window, maxWindow);
+        long[] next = following.next(newWindow);
+        int numLoaded = this.window == 0 ? 0 : Math.min(ahead, next.length);
+        long[] toLoad = new long[next.length - numLoaded];
+        System.arraycopy(next, numLoaded, toLoad, 0, toLoad.length);
+        this.bufferManager.loadPages(toLoad);
+        this.window = newWindow;
+        this.expected = next;
+        this.expectedIndex = 0;
+    }
+
+    /**
+     * @return number of pages currently kept loaded ahead of the scan
+     */
+    public int getWindow() {
+        return this.window;
+    }
+}
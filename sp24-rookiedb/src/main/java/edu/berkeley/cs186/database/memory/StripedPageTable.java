@@ -0,0 +1,107 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe map from page numbers to frame indices, split into stripes that each
+ * hold the pages hashing to them in a PageTable of their own, behind a lock of their own.
+ * Lookups take no lock in the common case: they read the stripe optimistically, and
+ * only retry under the stripe's read lock if a modification of the stripe got in the
+ * way. Modifications only lock the stripe of the page they modify.
+ */
+class StripedPageTable {
+    // enough stripes that writers rarely hold up readers on the same stripe
+    static final int NUM_STRIPES = 64;
+
+    private final Stripe[] stripes;
+    private final int shift;
+
+    private static class Stripe {
+        final StampedLock lock = new StampedLock();
+        final PageTable table;
+
+        Stripe(int expectedSize) {
+            this.table = new PageTable(expectedSize);
+        }
+    }
+
+    /**
+     * @param expectedSize number of entries the table should hold without growing
+     */
+    StripedPageTable(int expectedSize) {
+        this.stripes = new Stripe[NUM_STRIPES];
+        // stripes grow independently, so leave some room for uneven hashing
+        int stripeSize = 2 * ((expectedSize + NUM_STRIPES - 1) / NUM_STRIPES);
+        for (int i = 0; i < NUM_STRIPES; ++i) {
+            this.stripes[i] = new Stripe(stripeSize);
+        }
+        this.shift = Long.SIZE - Integer.numberOfTrailingZeros(NUM_STRIPES);
+    }
+
+    private Stripe stripe(long pageNum) {
+        // the top bits of the hash, since the stripe's table probes by the bottom ones
+        return this.stripes[(int) (PageTable.hash(pageNum) >>> this.shift)];
+    }
+
+    /**
+     * @return frame index of the page, or PageTable.NO_FRAME if the page is not in the table
+     */
+    int get(long pageNum) {
+        Stripe stripe = this.stripe(pageNum);
+        long stamp = stripe.lock.tryOptimisticRead();
+        int frameIndex = stripe.table.get(pageNum);
+        if (stripe.lock.validate(stamp)) {
+            return frameIndex;
+        }
+        stamp = stripe.lock.readLock();
+        try {
+            return stripe.table.get(pageNum);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    boolean containsKey(long pageNum) {
+        return this.get(pageNum) != PageTable.NO_FRAME;
+    }
+
+    /**
+     * Maps the page to the frame index, replacing any previous mapping of the page.
+     */
+    void put(long pageNum, int frameIndex) {
+        Stripe stripe = this.stripe(pageNum);
+        long stamp = stripe.lock.writeLock();
+        try {
+            stripe.table.put(pageNum, frameIndex);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the page from the table if it is mapped to the frame index.
+     * @return whether the page was removed
+     */
+    boolean remove(long pageNum, int frameIndex) {
+        Stripe stripe = this.stripe(pageNum);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return stripe.table.remove(pageNum, frameIndex);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : this.stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.table.size();
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+}
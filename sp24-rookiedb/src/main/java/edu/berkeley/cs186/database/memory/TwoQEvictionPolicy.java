@@ -0,0 +1,105 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Implementation of the 2Q eviction policy (Johnson and Shasha). Newly loaded pages go in
+ * a FIFO queue, A1in, which takes up about a quarter of the buffer. Pages evicted from A1in
+ * are remembered (by page number only) in a second FIFO queue, A1out; a page that is
+ * loaded again while still remembered there has proven to be reused, and goes in the LRU
+ * list Am instead, where it stays for as long as it keeps being hit. Pages read once by a
+ * large scan therefore only ever cycle through A1in.
+ *
+ * Hits in A1in are ignored, which also means that the many hits to a page while it is
+ * being read (e.g. one per record) do not make it look reused.
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+    // fraction of the buffer that A1in may take up before pages are evicted from it
+    static final double IN_FRACTION = 0.25;
+    // number of page numbers remembered in A1out, as a fraction of the buffer size
+    static final double OUT_FRACTION = 0.5;
+
+    private final FrameList a1in = new FrameList();
+    private final FrameList am = new FrameList();
+    private final LinkedHashSet<Long> a1out = new LinkedHashSet<>();
+    // number of frames in the buffer, as of the last eviction
+    private int capacity = 0;
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        FrameList.Node node = new FrameList.Node(frame);
+        if (this.a1out.remove(frame.getPageNum())) {
+            this.am.addLast(node);
+        } else {
+            this.a1in.addLast(node);
+        }
+        frame.tag = node;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (node != null && node.list == this.am) {
+            this.am.moveToLast(node);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer
+     *               manager has been resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.capacity = frames.length;
+        FrameList.Node node = null;
+        if (this.a1in.size() > Math.max(1, (int) (IN_FRACTION * this.capacity))) {
+            node = this.a1in.firstUnpinned();
+        }
+        if (node == null) {
+            node = this.am.firstUnpinned();
+        }
+        if (node == null) {
+            node = this.a1in.firstUnpinned();
+        }
+        if (node == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return node.frame;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (node == null || node.list == null) {
+            return;
+        }
+        FrameList list = node.list;
+        list.remove(node);
+        if (list == this.a1in) {
+            this.a1out.add(frame.getPageNum());
+            Iterator<Long> iter = this.a1out.iterator();
+            while (this.a1out.size() > (int) (OUT_FRACTION * this.capacity)) {
+                iter.next();
+                iter.remove();
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 
 import java.util.List;
@@ -21,8 +22,9 @@ public class MaterializeOperator extends SequentialScanOperator {
 
     private static String materializeToTable(QueryOperator source, TransactionContext transaction) {
         String materializedTableName = transaction.createTempTable(source.getSchema());
+        BufferAccessStrategy strategy = new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE);
         for (Record record : source) {
-            transaction.addRecord(materializedTableName, record);
+            strategy.run(() -> transaction.addRecord(materializedTableName, record));
         }
         return materializedTableName;
     }
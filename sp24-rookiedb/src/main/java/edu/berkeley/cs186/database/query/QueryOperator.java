@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.ArrayBacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.PageDirectory;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -18,6 +19,9 @@ public abstract class QueryOperator implements Iterable<Record> {
     protected QueryOperator source;
     protected Schema outputSchema;
     protected TableStats stats;
+    // buffer access strategy of operators that load pages in bulk, or null to load pages
+    // with the strategy of the transaction (if any)
+    protected BufferAccessStrategy accessStrategy = null;
 
     public enum OperatorType {
         PROJECT,
@@ -109,6 +113,24 @@ public abstract class QueryOperator implements Iterable<Record> {
         return Collections.emptyList();
     }
 
+    /**
+     * @return buffer access strategy that the operator loads pages with, or null if it
+     * uses the strategy of the transaction
+     */
+    public BufferAccessStrategy getAccessStrategy() {
+        return this.accessStrategy;
+    }
+
+    /**
+     * Sets the buffer access strategy that the operator loads pages with. Only used by
+     * operators that load pages in bulk: sequential scans, sorts, hash joins and
+     * materialization.
+     * @param accessStrategy access strategy, or null to use the strategy of the transaction
+     */
+    public void setAccessStrategy(BufferAccessStrategy accessStrategy) {
+        this.accessStrategy = accessStrategy;
+    }
+
     /**
      * @return the source operator from which this operator draws records from
      */
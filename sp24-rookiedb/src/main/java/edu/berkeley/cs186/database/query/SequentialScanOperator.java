@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -33,6 +34,7 @@ public class SequentialScanOperator extends QueryOperator {
         super(type);
         this.transaction = transaction;
         this.tableName = tableName;
+        this.accessStrategy = new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_READ);
         this.setOutputSchema(this.computeSchema());
 
         this.stats = this.estimateStats();
@@ -57,7 +59,8 @@ public class SequentialScanOperator extends QueryOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
-        return this.transaction.getRecordIterator(tableName);
+        BacktrackingIterator<Record> iterator = this.transaction.getRecordIterator(tableName);
+        return this.accessStrategy == null ? iterator : this.accessStrategy.apply(iterator);
     }
 
     @Override
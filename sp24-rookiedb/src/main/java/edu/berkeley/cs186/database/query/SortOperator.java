@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.disk.Run;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -26,6 +27,9 @@ public class SortOperator extends QueryOperator {
         this.sortColumnIndex = getSchema().findField(columnName);
         this.sortColumnName = getSchema().getFieldName(this.sortColumnIndex);
         this.comparator = new RecordComparator();
+        // a ring with a frame for the current page of each run being merged
+        this.accessStrategy = new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE,
+                                                       this.numBuffers);
     }
 
     private class RecordComparator implements Comparator<Record> {
@@ -92,7 +96,7 @@ public class SortOperator extends QueryOperator {
             sortedRecord.add(records.next());
         }
         sortedRecord.sort(this.comparator);
-        Run sorted_run = new Run(transaction, this.getSchema());
+        Run sorted_run = new Run(transaction, this.getSchema(), this.accessStrategy);
         sorted_run.addAll(sortedRecord);
         return sorted_run;
     }
@@ -116,7 +120,7 @@ public class SortOperator extends QueryOperator {
         assert (runs.size() <= this.numBuffers - 1);
         // DONE(proj3_part1): implement
         // the return Run
-        Run newSortedRun = new Run(transaction, this.getSchema());
+        Run newSortedRun = new Run(transaction, this.getSchema(), this.accessStrategy);
 
         // contains all the run iterator in runs lst.
         List<BacktrackingIterator<Record>> runs_iterator_lst = new ArrayList<>();
@@ -218,7 +222,7 @@ public class SortOperator extends QueryOperator {
      * @return a new empty run.
      */
     public Run makeRun() {
-        return new Run(this.transaction, getSchema());
+        return new Run(this.transaction, getSchema(), this.accessStrategy);
     }
 
     /**
@@ -226,7 +230,7 @@ public class SortOperator extends QueryOperator {
      * @return A new run containing the records in `records`
      */
     public Run makeRun(List<Record> records) {
-        Run run = new Run(this.transaction, getSchema());
+        Run run = new Run(this.transaction, getSchema(), this.accessStrategy);
         run.addAll(records);
         return run;
     }
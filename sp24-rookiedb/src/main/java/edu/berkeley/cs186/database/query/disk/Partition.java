@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.query.disk;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -19,10 +20,17 @@ public class Partition implements Iterable<Record> {
     private TransactionContext transaction;
     // Under the hood we'll be storing all the records in a temporary table
     private String tempTableName;
+    // Buffer access strategy that the partition's pages are written and read with, if any
+    private BufferAccessStrategy accessStrategy;
 
     public Partition(TransactionContext transaction, Schema s) {
+        this(transaction, s, null);
+    }
+
+    public Partition(TransactionContext transaction, Schema s, BufferAccessStrategy accessStrategy) {
         this.transaction = transaction;
         this.tempTableName = transaction.createTempTable(s);
+        this.accessStrategy = accessStrategy;
     }
 
     /**
@@ -31,7 +39,11 @@ public class Partition implements Iterable<Record> {
      * @param record the record to add
      */
     public void add(Record record) {
-        this.transaction.addRecord(this.tempTableName, record);
+        if (this.accessStrategy == null) {
+            this.transaction.addRecord(this.tempTableName, record);
+        } else {
+            this.accessStrategy.run(() -> this.transaction.addRecord(this.tempTableName, record));
+        }
     }
 
     /**
@@ -47,7 +59,8 @@ public class Partition implements Iterable<Record> {
      * @return an iterator over the records in this partition
      */
     public BacktrackingIterator<Record> iterator() {
-        return this.transaction.getRecordIterator(this.tempTableName);
+        BacktrackingIterator<Record> iterator = this.transaction.getRecordIterator(this.tempTableName);
+        return this.accessStrategy == null ? iterator : this.accessStrategy.apply(iterator);
     }
 
     /**
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.query.disk;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.EmptyBacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
@@ -20,10 +21,17 @@ public class Run implements Iterable<Record> {
     // Under the hood we'll be storing all the records in a temporary table
     private String tempTableName;
     private Schema schema;
+    // Buffer access strategy that the run's pages are written and read with, if any
+    private BufferAccessStrategy accessStrategy;
 
     public Run(TransactionContext transaction, Schema schema) {
+        this(transaction, schema, null);
+    }
+
+    public Run(TransactionContext transaction, Schema schema, BufferAccessStrategy accessStrategy) {
         this.transaction = transaction;
         this.schema = schema;
+        this.accessStrategy = accessStrategy;
     }
 
     /**
@@ -34,7 +42,11 @@ public class Run implements Iterable<Record> {
         if (this.tempTableName == null) {
             this.tempTableName = transaction.createTempTable(schema);
         }
-        this.transaction.addRecord(this.tempTableName, record);
+        if (this.accessStrategy == null) {
+            this.transaction.addRecord(this.tempTableName, record);
+        } else {
+            this.accessStrategy.run(() -> this.transaction.addRecord(this.tempTableName, record));
+        }
     }
 
     /**
@@ -50,7 +62,8 @@ public class Run implements Iterable<Record> {
      */
     public BacktrackingIterator<Record> iterator() {
         if (this.tempTableName == null) return new EmptyBacktrackingIterator<>();
-        return this.transaction.getRecordIterator(this.tempTableName);
+        BacktrackingIterator<Record> iterator = this.transaction.getRecordIterator(this.tempTableName);
+        return this.accessStrategy == null ? iterator : this.accessStrategy.apply(iterator);
     }
 
     /**
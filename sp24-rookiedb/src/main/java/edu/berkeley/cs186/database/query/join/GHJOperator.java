@@ -5,6 +5,7 @@ import edu.berkeley.cs186.database.common.HashFunc;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.JoinOperator;
 import edu.berkeley.cs186.database.query.QueryOperator;
 import edu.berkeley.cs186.database.query.disk.Partition;
@@ -27,6 +28,9 @@ public class GHJOperator extends JoinOperator {
         this.numBuffers = transaction.getWorkMemSize();
         this.stats = this.estimateStats();
         this.joinedRecords = null;
+        // a ring with a frame for the last page of each partition
+        this.accessStrategy = new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE,
+                                                       this.numBuffers);
     }
 
     @Override
@@ -45,7 +49,7 @@ public class GHJOperator extends JoinOperator {
             // Executing GHJ on-the-fly is arduous without coroutines, so
             // instead we'll accumulate all of our joined records in this run
             // and return an iterator over it once the algorithm completes
-            this.joinedRecords = new Run(getTransaction(), getSchema());
+            this.joinedRecords = new Run(getTransaction(), getSchema(), this.accessStrategy);
             this.run(getLeftSource(), getRightSource(), 1);
         };
         return joinedRecords.iterator();
@@ -208,7 +212,7 @@ public class GHJOperator extends JoinOperator {
     private Partition createPartition(boolean left) {
         Schema schema = getRightSource().getSchema();
         if (left) schema = getLeftSource().getSchema();
-        return new Partition(getTransaction(), schema);
+        return new Partition(getTransaction(), schema, this.accessStrategy);
     }
 
     // Student Input Methods ///////////////////////////////////////////////////
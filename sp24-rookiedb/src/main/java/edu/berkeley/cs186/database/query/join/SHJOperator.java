@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.HashFunc;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.JoinOperator;
 import edu.berkeley.cs186.database.query.QueryOperator;
 import edu.berkeley.cs186.database.query.disk.Partition;
@@ -33,6 +34,9 @@ public class SHJOperator extends JoinOperator {
         this.numBuffers = transaction.getWorkMemSize();
         this.stats = this.estimateStats();
         this.joinedRecords = null;
+        // a ring with a frame for the last page of each partition
+        this.accessStrategy = new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE,
+                                                       this.numBuffers);
     }
 
     @Override
@@ -50,7 +54,7 @@ public class SHJOperator extends JoinOperator {
         if (joinedRecords == null) {
             // Accumulate all of our joined records in this run and return an
             // iterator over it once the algorithm completes
-            this.joinedRecords = new Run(getTransaction(), getSchema());
+            this.joinedRecords = new Run(getTransaction(), getSchema(), this.accessStrategy);
             this.run(getLeftSource(), getRightSource(), 1);
         };
         return joinedRecords.iterator();
@@ -151,7 +155,7 @@ public class SHJOperator extends JoinOperator {
         Partition partitions[] = new Partition[usableBuffers];
         for (int i = 0; i < usableBuffers; i++) {
             Schema schema = getLeftSource().getSchema();
-            partitions[i] = new Partition(getTransaction(), schema);
+            partitions[i] = new Partition(getTransaction(), schema, this.accessStrategy);
         }
         return partitions;
     }
@@ -27,6 +27,21 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     // Log manager
     LogManager logManager;
+    // Gather window of group commit, in microseconds (see LogManager#setGroupCommitWindow)
+    private long groupCommitWindowMicros = 0;
+    // Number of threads the redo pass of restart recovery redoes records on (see restartRedo)
+    private int redoThreads = 1;
+    // Whether the redo pass starts by reading the pages in the dirty page table into the
+    // buffer cache (see prefetchDirtyPages)
+    private boolean redoPrefetch = false;
+    // Whether restart opens the database right after the analysis pass, and finishes
+    // recovery in the background (see restart)
+    private boolean instantRestart = false;
+    // Recovery work an instant restart has left to do, or null once there is none
+    private volatile OnDemandRecovery onDemandRecovery = null;
+    // Thread finishing an instant restart, and what it failed with (if it did)
+    private Thread restartThread = null;
+    private volatile Throwable restartError = null;
     // Dirty page table (page number -> recLSN).
     Map<Long, Long> dirtyPageTable = new ConcurrentHashMap<>();
     // Transaction table (transaction number -> entry).
@@ -55,8 +70,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * because of the cyclic dependency between the buffer manager and recovery
      * manager (the buffer manager must interface with the recovery manager to
      * block page evictions until the log has been flushed, but the recovery
-     * manager needs to interface with the buffer manager to write the log and
-     * redo changes).
+     * manager needs to interface with the buffer manager to redo changes; the
+     * log itself is written to the disk space manager directly).
      * @param diskSpaceManager disk space manager
      * @param bufferManager buffer manager
      */
@@ -64,7 +79,93 @@ public class ARIESRecoveryManager implements RecoveryManager {
     public void setManagers(DiskSpaceManager diskSpaceManager, BufferManager bufferManager) {
         this.diskSpaceManager = diskSpaceManager;
         this.bufferManager = bufferManager;
-        this.logManager = new LogManager(bufferManager);
+        this.logManager = new LogManager(diskSpaceManager);
+        this.logManager.setGroupCommitWindow(this.groupCommitWindowMicros);
+    }
+
+    /**
+     * Sets how long a committing transaction that flushes the log on behalf of other
+     * committing transactions waits for more of them first (see LogManager#groupFlushToLSN).
+     *
+     * @param micros length of the gather window in microseconds, or 0 to flush right away
+     */
+    public void setGroupCommitWindow(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("group commit window must not be negative");
+        }
+        this.groupCommitWindowMicros = micros;
+        if (this.logManager != null) {
+            this.logManager.setGroupCommitWindow(micros);
+        }
+    }
+
+    /**
+     * Sets the number of threads the redo pass of restart recovery redoes records on. With
+     * more than one, records of different pages are redone in parallel (see restartRedo).
+     *
+     * @param numThreads number of redo threads, or 1 to redo every record on the thread
+     *                   doing the restart
+     */
+    public void setRedoThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("redo needs at least one thread");
+        }
+        this.redoThreads = numThreads;
+    }
+
+    /**
+     * Sets whether the redo pass of restart recovery starts by reading the pages in the
+     * dirty page table into the buffer cache, in batches (see prefetchDirtyPages), rather
+     * than reading each page as it gets to the page's first record. With instant restart,
+     * the pages left to redo in the background are read ahead instead (see
+     * prefetchPendingPages). Off by default: it only saves time when reading pages one at a
+     * time is slow (pages that are not in the OS page cache, on a disk that seeks).
+     *
+     * @param prefetch true to read the pages ahead, false to read them on demand
+     */
+    public void setRedoPrefetch(boolean prefetch) {
+        this.redoPrefetch = prefetch;
+    }
+
+    /**
+     * Sets whether restart recovery returns right after the analysis pass, leaving redo
+     * and undo to be finished in the background while the database is in use (see restart).
+     *
+     * @param instantRestart true to finish recovery in the background, false to finish it
+     *                       before restart returns
+     */
+    public void setInstantRestart(boolean instantRestart) {
+        this.instantRestart = instantRestart;
+    }
+
+    /**
+     * Waits for the recovery work left to the background by an instant restart (if any)
+     * to be done.
+     *
+     * @throws RuntimeException the exception (or error) recovery failed with, if it did
+     */
+    public void awaitRestart() {
+        Thread thread = this.restartThread;
+        if (thread == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable e = this.restartError;
+        if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
     }
 
     // Forward Processing //////////////////////////////////////////////////////
@@ -131,8 +232,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long recordLSN = logManager.appendToLog(commitTransactionLogRecord);
 
         // In commit the commit record needs to be flushed to disk before the commit call returns to ensure durability.
-        // flush the log into disk
-        flushToLSN(recordLSN);
+        // flush the log into disk, along with the commit records of concurrent commits
+        logManager.groupFlushToLSN(recordLSN);
 
         // update the transaction status
         transactionTableEntry.transaction.setStatus(Transaction.Status.COMMITTING);
@@ -274,7 +375,45 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public void diskIOHook(long pageNum) {
-        if (redoComplete) dirtyPageTable.remove(pageNum);
+        // after an instant restart, pages are up to date on disk once their records are redone
+        OnDemandRecovery recovery = this.onDemandRecovery;
+        if (redoComplete || (recovery != null && !recovery.redoPending(pageNum))) {
+            dirtyPageTable.remove(pageNum);
+        }
+    }
+
+    /**
+     * Called before a page is fetched from the buffer cache.
+     *
+     * After an instant restart, redoes the records of the page that have not
+     * been redone yet, and waits for the loser transactions that modified the
+     * page to have been rolled back (see OnDemandRecovery).
+     *
+     * @param pageNum page number of page about to be fetched
+     */
+    @Override
+    public void pageFetchHook(long pageNum) {
+        OnDemandRecovery recovery = this.onDemandRecovery;
+        if (recovery != null) {
+            recovery.beforeFetch(pageNum);
+        }
+    }
+
+    /**
+     * Called before a partition is freed.
+     *
+     * After an instant restart, redoes the records of pages of the partition
+     * that have not been redone yet, and waits for the loser transactions that
+     * modified them to have been rolled back (see OnDemandRecovery).
+     *
+     * @param partNum partition number of partition about to be freed
+     */
+    @Override
+    public void partFreeHook(int partNum) {
+        OnDemandRecovery recovery = this.onDemandRecovery;
+        if (recovery != null) {
+            recovery.beforeFreePart(partNum);
+        }
     }
 
     /**
@@ -503,6 +642,11 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *
      * First, a begin checkpoint record should be written.
      *
+     * Then, the DPT is copied, and the disk space manager is synced: pages drop out of
+     * the DPT as soon as they are written, not once the write is on stable storage, so
+     * the sync makes the writes of pages missing from the copy durable before a
+     * checkpoint without them is logged. (Pages written after the copy are still in it.)
+     *
      * Then, end checkpoint records should be filled up as much as possible first
      * using recLSNs from the DPT, then status/lastLSNs from the transactions
      * table, and written when full (or when nothing is left to be written).
@@ -518,13 +662,18 @@ public class ARIESRecoveryManager implements RecoveryManager {
         LogRecord beginRecord = new BeginCheckpointLogRecord();
         long beginLSN = logManager.appendToLog(beginRecord);
 
+        // Pages written before the copy are no longer in it, so their writes must be
+        // durable before this checkpoint's DPT replaces the last one.
+        Map<Long, Long> dirtyPages = new HashMap<>(dirtyPageTable);
+        diskSpaceManager.sync();
+
         Map<Long, Long> chkptDPT = new HashMap<>();
         Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable = new HashMap<>();
 
         // DONE(proj5): generate end checkpoint record(s) for DPT and transaction table
         // iterate through the dirtyPageTable and copy the entries.
         int numDPTRecords = 0, numTxnTableRecords = 0;
-        for (Long pageNum : dirtyPageTable.keySet()) {
+        for (Long pageNum : dirtyPages.keySet()) {
             //  If at any point, copying the current record would cause the end checkpoint record to be too large,
             //  an end checkpoint record with the copied DPT entries should be appended to the log.
             if (!EndCheckpointLogRecord.fitsInOneRecord(numDPTRecords + 1, numTxnTableRecords)) {
@@ -535,7 +684,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
                 numDPTRecords = 0;
             }
             // else copy this entries to chkptDPT
-            chkptDPT.put(pageNum, dirtyPageTable.get(pageNum));
+            chkptDPT.put(pageNum, dirtyPages.get(pageNum));
             numDPTRecords++;
         }
 
@@ -592,6 +741,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     @Override
     public void close() {
+        this.awaitRestart();
         this.checkpoint();
         this.logManager.close();
     }
@@ -607,9 +757,23 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * dirty page table of non-dirty pages (pages that aren't dirty in the
      * buffer manager) between redo and undo, and perform a checkpoint after
      * undo.
+     *
+     * With instant restart (see setInstantRestart), this only performs the
+     * analysis pass and the part of the redo pass that later records depend
+     * on (see restartRedoOnDemand), and locks the pages the loser transactions
+     * modified until they have been rolled back, before returning. Pages are
+     * then redone as they are fetched, while a background thread rolls back
+     * the losers, redoes the pages nobody has fetched yet, and takes the
+     * checkpoint. The dirty page table is not cleaned, since transactions may
+     * be dirtying pages at the same time; entries of redone pages are removed
+     * as the pages are written out instead.
      */
     @Override
     public void restart() {
+        if (this.instantRestart) {
+            this.restartInstantly();
+            return;
+        }
         this.restartAnalysis();
         this.restartRedo();
         this.redoComplete = true;
@@ -618,6 +782,38 @@ public class ARIESRecoveryManager implements RecoveryManager {
         this.checkpoint();
     }
 
+    /**
+     * Performs an instant restart (see restart).
+     */
+    private void restartInstantly() {
+        this.restartAnalysis();
+        OnDemandRecovery recovery = new OnDemandRecovery(
+            LSN -> this.redoIfNeeded(this.logManager.fetchLogRecord(LSN)));
+        this.restartRedoOnDemand(recovery);
+        this.lockLoserPages(recovery);
+
+        Thread thread = new Thread(() -> {
+            try {
+                if (this.redoPrefetch) {
+                    this.prefetchPendingPages(recovery);
+                }
+                this.restartUndo();
+                recovery.redoAll(this.redoThreads);
+                this.redoComplete = true;
+                this.onDemandRecovery = null;
+                this.checkpoint();
+            } catch (RuntimeException | Error e) {
+                this.restartError = e;
+                recovery.undoFailed(e);
+            }
+        }, "restart-recovery");
+        thread.setDaemon(true);
+        recovery.setUndoThread(thread);
+        this.restartThread = thread;
+        this.onDemandRecovery = recovery;
+        thread.start();
+    }
+
     // some help function for #restartAnanlysis /////////////////////////////
 
     /**
@@ -947,19 +1143,192 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * - modifies a page (Update/UndoUpdate/Free/UndoAlloc....Page) in
      *   the dirty page table with LSN >= recLSN, the page is fetched from disk,
      *   the pageLSN is checked, and the record is redone if needed.
+     *
+     * With more than one redo thread, records of a page (including the pageLSN check)
+     * are handed to the worker thread the page maps to, which redoes them in LSN order,
+     * while records of other pages are redone in parallel by the other workers.
+     * Partition-related records are redone by this thread, once every record before
+     * them has been redone.
+     *
+     * Before any of that, the pages in the dirty page table are read into the buffer
+     * cache ahead of time, if enabled (see setRedoPrefetch).
      */
     void restartRedo() {
         // DONE(proj5): implement
+        if (redoPrefetch) {
+            prefetchDirtyPages();
+        }
         // Start at the smallest recLSN in the DPT
         long startLSN = dirtyPageTable.values().stream().min(Long::compareTo).orElse(0L);
         // Scanning from the starting point
         Iterator<LogRecord> logRecordIterator = logManager.scanFrom(startLSN);
+        if (redoThreads == 1) {
+            while (logRecordIterator.hasNext()) {
+                redoIfNeeded(logRecordIterator.next());
+            }
+            return;
+        }
+        try (ParallelRedo parallelRedo = new ParallelRedo(redoThreads, this::redoIfNeeded)) {
+            while (logRecordIterator.hasNext()) {
+                LogRecord currRecord = logRecordIterator.next();
+                if (!currRecord.isRedoable()) {
+                    continue;
+                }
+                Optional<Long> pageNum = currRecord.getPageNum();
+                if (pageNum.isPresent()) {
+                    parallelRedo.submit(pageNum.get(), currRecord);
+                } else {
+                    parallelRedo.barrier();
+                    redoIfNeeded(currRecord);
+                }
+            }
+            parallelRedo.barrier();
+        }
+    }
+
+    /**
+     * Starts reading the pages in the dirty page table into the buffer cache, without
+     * waiting for the reads, so that redo mostly finds the pages it redoes records of
+     * loaded already instead of reading them one at a time, in log order (that is, in
+     * random order), as it gets to them.
+     *
+     * Pages are read in page number order (so partition by partition, in the order they
+     * are stored in), in batches with BufferManager#loadPages. If there are more of them
+     * than fit in the buffer cache, only the ones with the smallest recLSNs, which redo
+     * gets to first, are read. Pages that are not allocated (anymore) are skipped.
+     */
+    void prefetchDirtyPages() {
+        prefetch(dirtyPageTable.entrySet().stream()
+                 .filter(entry -> isAllocated(entry.getKey()))
+                 .sorted(Map.Entry.comparingByValue())
+                 .limit(bufferManager.getBufferSize())
+                 .mapToLong(Map.Entry::getKey)
+                 .sorted()
+                 .toArray());
+    }
+
+    /**
+     * The counterpart of prefetchDirtyPages for an instant restart: starts reading the
+     * pages that still have records to redo into the buffer cache, for the background
+     * thread finishing recovery. OnDemandRecovery#redoAll goes through the pages in page
+     * number order, so if they do not all fit in the buffer cache, the ones with the
+     * smallest page numbers are read.
+     */
+    void prefetchPendingPages(OnDemandRecovery recovery) {
+        prefetch(Arrays.stream(recovery.getPendingPages())
+                 .filter(this::isAllocated)
+                 .limit(bufferManager.getBufferSize())
+                 .toArray());
+    }
+
+    /**
+     * Starts reading pages into the buffer cache, in batches, without waiting for them.
+     * @param pageNums pages to read, in page number order
+     */
+    private void prefetch(long[] pageNums) {
+        int batchSize = Math.max(1, bufferManager.getBufferSize() / 4);
+        for (int i = 0; i < pageNums.length; i += batchSize) {
+            bufferManager.loadPages(Arrays.copyOfRange(pageNums, i, Math.min(i + batchSize, pageNums.length)));
+        }
+    }
+
+    /**
+     * @return whether a page is allocated, false if its partition is not
+     */
+    private boolean isAllocated(long pageNum) {
+        try {
+            return diskSpaceManager.pageAllocated(pageNum);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Redoes a record if it needs to be redone (see isRedoRecord).
+     */
+    void redoIfNeeded(LogRecord record) {
+        if (isRedoRecord(record)) {
+            record.redo(this, diskSpaceManager, bufferManager);
+        }
+    }
+
+    /**
+     * The redo pass of an instant restart. Scanning from the same starting point as
+     * restartRedo, records are redone right away if they are partition-related or
+     * allocate or free a page, since later records depend on them. Records that modify
+     * a page in the dirty page table with LSN >= recLSN are left to recovery instead, to
+     * be redone once the page is fetched; the records left for a page (or the pages of a
+     * partition) are redone before a later record allocates or frees it.
+     */
+    void restartRedoOnDemand(OnDemandRecovery recovery) {
+        long startLSN = dirtyPageTable.values().stream().min(Long::compareTo).orElse(0L);
+        Iterator<LogRecord> logRecordIterator = logManager.scanFrom(startLSN);
         while (logRecordIterator.hasNext()) {
             LogRecord currRecord = logRecordIterator.next();
-            // redo a record if it needs to
-            if (isRedoRecord(currRecord)) {
-                currRecord.redo(this, diskSpaceManager, bufferManager);
+            if (!currRecord.isRedoable()) {
+                continue;
+            }
+            LogType type = currRecord.getType();
+            Optional<Long> pageNum = currRecord.getPageNum();
+            if (type.equals(LogType.UPDATE_PAGE) || type.equals(LogType.UNDO_UPDATE_PAGE)) {
+                Long recLSN = dirtyPageTable.get(pageNum.get());
+                if (recLSN != null && currRecord.getLSN() >= recLSN) {
+                    recovery.addRedo(pageNum.get(), currRecord.getLSN());
+                }
+                continue;
+            }
+            if (pageNum.isPresent()) {
+                recovery.redoPage(pageNum.get());
+            } else {
+                currRecord.getPartNum().ifPresent(recovery::redoPartition);
+            }
+            redoIfNeeded(currRecord);
+        }
+    }
+
+    /**
+     * Locks the pages each loser transaction (RECOVERY_ABORTING in the transaction table)
+     * modified until it has been rolled back, following its records back from its lastLSN
+     * the same way restartUndo does.
+     *
+     * Pages and partitions a loser freed are not in use, so locking them would not keep
+     * them from being allocated again by a new transaction, whose changes rolling back the
+     * loser would then overwrite. They are allocated again here instead, on behalf of the
+     * loser's undo (which ignores them being allocated already); the pages are locked as well.
+     */
+    void lockLoserPages(OnDemandRecovery recovery) {
+        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+            if (!entry.getValue().transaction.getStatus().equals(Transaction.Status.RECOVERY_ABORTING)) {
+                continue;
+            }
+            Set<Long> pageNums = new HashSet<>();
+            long LSN = entry.getValue().lastLSN;
+            while (LSN != 0L) {
+                LogRecord record = logManager.fetchLogRecord(LSN);
+                if (record.isUndoable()) {
+                    record.getPageNum().ifPresent(pageNums::add);
+                    reserveFreed(record);
+                }
+                LSN = record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
             }
+            recovery.lockPages(entry.getKey(), pageNums);
+        }
+    }
+
+    /**
+     * Allocates the page or partition a record of a loser freed (if it freed one) again,
+     * until the record is undone (see lockLoserPages). Records are visited from the last
+     * one back, so a partition is allocated again before the pages freed in it earlier.
+     */
+    private void reserveFreed(LogRecord record) {
+        try {
+            if (record.getType().equals(LogType.FREE_PAGE)) {
+                diskSpaceManager.allocPage(record.getPageNum().get());
+            } else if (record.getType().equals(LogType.FREE_PART)) {
+                diskSpaceManager.allocPart(record.getPartNum().get());
+            }
+        } catch (IllegalStateException e) {
+            /* do nothing - not freed (the free was not redone) */
         }
     }
 
@@ -1014,6 +1383,11 @@ public class ARIESRecoveryManager implements RecoveryManager {
                 LogRecord endTransactionLogRecord = createRecord(transNum, "end");
                 logManager.appendToLog(endTransactionLogRecord);
                 transactionTable.remove(transNum);
+                // after an instant restart, the pages it modified can be used again
+                OnDemandRecovery recovery = this.onDemandRecovery;
+                if (recovery != null) {
+                    recovery.unlockPages(transNum);
+                }
             }
             // else just add this newLSN
             else {
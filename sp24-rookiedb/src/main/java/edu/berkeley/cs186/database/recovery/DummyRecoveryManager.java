@@ -45,6 +45,12 @@ public class DummyRecoveryManager implements RecoveryManager {
     @Override
     public void diskIOHook(long pageNum) {}
 
+    @Override
+    public void pageFetchHook(long pageNum) {}
+
+    @Override
+    public void partFreeHook(int partNum) {}
+
     @Override
     public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
                              byte[] after) {
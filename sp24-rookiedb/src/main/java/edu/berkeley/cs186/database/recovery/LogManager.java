@@ -5,14 +5,17 @@ import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.ConcatBacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.IndexBacktrackingIterator;
-import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
-import edu.berkeley.cs186.database.memory.BufferManager;
-import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * The LogManager is responsible for interfacing with the log itself. The log is stored
@@ -33,27 +36,116 @@ import java.util.*;
  * manager when pages are fetched and evicted (fetchPageHook, fetchNewPageHook, and pageEvictHook).
  * These must be called from the buffer manager to ensure that pageLSN is up to date, and
  * that flushedLSN >= any pageLSN on disk.
+ *
+ * Log pages do not go through the buffer manager. The tail of the log is kept in a log
+ * buffer of its own: a ring of page-sized slots, one contiguous array, where log page p
+ * lives in slot p % (number of slots) until it has been written out. Appending a record
+ * takes no lock: the thread reserves space for it by moving the tail of the log forward
+ * (with a compare-and-set, since a record that does not fit on the rest of a page starts
+ * the next one), then copies the record into its slot, in parallel with other appending
+ * threads. A page is sealed once the tail has moved past it, and complete once every
+ * record reserved on it has been copied in. A log writer thread writes complete pages out
+ * to the log partition, in order, and frees their slots; an appending thread only waits
+ * if the log buffer is full of pages not written out yet. Flushing the log seals the page
+ * holding the LSN (if it is still the tail page), and waits for the log writer to write
+ * it out and sync the disk.
+ *
+ * Committing transactions flush the log with groupFlushToLSN (group commit): rather than
+ * each committer flushing the log for its own commit record, they queue up, and one of them
+ * (the leader) flushes the log up to the highest LSN any of them asked for, on behalf of
+ * all of them. The leader can be made to wait a short while first (the gather window),
+ * for more committers to join the group.
  */
 public class LogManager implements Iterable<LogRecord>, AutoCloseable {
-    private BufferManager bufferManager;
-    private Deque<Page> unflushedLogTail;
-    private Page logTail;
-    private Buffer logTailBuffer;
-    private boolean logTailPinned = false;
-    private long flushedLSN;
+    // number of log pages the log buffer holds by default
+    static final int DEFAULT_BUFFER_PAGES = 32;
+
+    private static final int PAGE_SIZE = DiskSpaceManager.PAGE_SIZE;
+
+    private final DiskSpaceManager diskSpaceManager;
+
+    // The log buffer: bufferPages page-sized slots, one after the other
+    private final int bufferPages;
+    private final byte[] logBuffer;
+    // per slot, number of bytes of its page that have been copied in, plus the bytes
+    // skipped at the end of the page once it is sealed; the page is complete once this
+    // reaches PAGE_SIZE
+    private final AtomicIntegerArray filled;
+    // position (page number * PAGE_SIZE + offset) at which the next record is appended
+    private final AtomicLong tail;
+    // first log page of this log manager: earlier pages were written by an earlier one,
+    // and are only on disk
+    private final long firstPage;
+
+    // Pages up to writtenPage have been written to disk, the slots of pages up to
+    // freedPage may hold later pages, and pages up to durablePage are on stable storage.
+    // Only the log writer changes them (while holding writerLock); writtenPage and
+    // freedPage are also changed while holding the write lock of ringLock, whose
+    // optimistic reads let threads copy pages out of the log buffer without blocking
+    // the log writer.
+    private volatile long writtenPage;
+    private volatile long freedPage;
+    private volatile long durablePage;
+    private final Object writerLock = new Object();
+    private final StampedLock ringLock = new StampedLock();
+    // highest page some thread waits to be durable
+    private final AtomicLong requestedPage;
+    private volatile long flushedLSN;
+
+    // The log writer, parked while there is nothing to write. Threads waiting for a slot
+    // to be freed wait on slotFreed, and threads waiting for the log to be flushed wait on
+    // flushDone. Once the log manager is closed, the log writer is stopped, and threads
+    // do its work themselves.
+    private final Thread logWriter;
+    private final Object slotFreed = new Object();
+    private final Object flushDone = new Object();
+    private volatile boolean closed = false;
+    private volatile RuntimeException writerError = null;
+    // number of log pages read from and written to disk
+    private final LongAdder numIOs = new LongAdder();
+
+    // Group commit queue: the highest LSN asked for by threads in groupFlushToLSN, and
+    // whether one of them is flushing the log; both guarded by commitQueue, which threads
+    // waiting for the leader wait on
+    private final Object commitQueue = new Object();
+    private long requestedLSN = -1L;
+    private boolean leaderFlushing = false;
+    // how long a leader waits for more committers before flushing, in microseconds
+    private volatile long groupCommitWindowMicros = 0;
+    // number of log flushes done by leaders of groupFlushToLSN
+    private final LongAdder numGroupFlushes = new LongAdder();
 
     public static final int LOG_PARTITION = 0;
 
-    LogManager(BufferManager bufferManager) {
-        this.bufferManager = bufferManager;
-        this.unflushedLogTail = new ArrayDeque<>();
-
-        this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-        this.unflushedLogTail.add(this.logTail);
-        this.logTailBuffer = this.logTail.getBuffer();
-        this.logTail.unpin();
+    LogManager(DiskSpaceManager diskSpaceManager) {
+        this(diskSpaceManager, DEFAULT_BUFFER_PAGES);
+    }
 
-        this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+    /**
+     * @param diskSpaceManager disk space manager of the log partition
+     * @param bufferPages number of pages the log buffer holds
+     */
+    LogManager(DiskSpaceManager diskSpaceManager, int bufferPages) {
+        if (bufferPages < 1) {
+            throw new IllegalArgumentException("log buffer must hold at least one page");
+        }
+        this.diskSpaceManager = diskSpaceManager;
+        this.bufferPages = bufferPages;
+        this.logBuffer = new byte[bufferPages * PAGE_SIZE];
+        this.filled = new AtomicIntegerArray(bufferPages);
+
+        // the log picks up after the pages of the last log manager
+        this.firstPage = diskSpaceManager.allocPage(LOG_PARTITION);
+        this.tail = new AtomicLong(this.firstPage * PAGE_SIZE);
+        this.writtenPage = this.firstPage - 1L;
+        this.freedPage = this.firstPage - 1L;
+        this.durablePage = this.firstPage - 1L;
+        this.requestedPage = new AtomicLong(this.firstPage - 1L);
+        this.flushedLSN = maxLSN(this.firstPage - 1L);
+
+        this.logWriter = new Thread(this::runLogWriter, "log-writer");
+        this.logWriter.setDaemon(true);
+        this.logWriter.start();
     }
 
     /**
@@ -61,13 +153,16 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @param record log record to replace first record with
      */
     public synchronized void rewriteMasterRecord(MasterLogRecord record) {
-        Page firstPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-        try {
-            firstPage.getBuffer().put(record.toBytes());
-            firstPage.flush();
-        } finally {
-            firstPage.unpin();
-        }
+        long firstPageNum = DiskSpaceManager.getVirtualPageNum(LOG_PARTITION, 0);
+        // the page is rewritten on disk, so it must be out of the log buffer first
+        this.flushToLSN(maxLSN(firstPageNum));
+        byte[] page = new byte[PAGE_SIZE];
+        this.diskSpaceManager.readPage(firstPageNum, page);
+        byte[] bytes = record.toBytes();
+        System.arraycopy(bytes, 0, page, 0, bytes.length);
+        this.diskSpaceManager.writePage(firstPageNum, page);
+        this.numIOs.add(2);
+        this.diskSpaceManager.sync();
     }
 
     /**
@@ -75,32 +170,115 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @param record log record to append to the log
      * @return LSN of new log record
      */
-    public synchronized long appendToLog(LogRecord record) {
+    public long appendToLog(LogRecord record) {
         byte[] bytes = record.toBytes();
-        // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
-        do {
-            if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
-                logTailPinned = true;
-                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-                unflushedLogTail.add(logTail);
-                logTailBuffer = logTail.getBuffer();
+        long position = this.reserve(bytes.length);
+        long pageNum = position / PAGE_SIZE;
+        int offset = (int) (position % PAGE_SIZE);
+        this.awaitSlot(pageNum);
+        System.arraycopy(bytes, 0, this.logBuffer, this.slot(pageNum) * PAGE_SIZE + offset, bytes.length);
+        this.fill(pageNum, bytes.length);
+        long LSN = makeLSN(pageNum, offset);
+        record.LSN = LSN;
+        return LSN;
+    }
+
+    /**
+     * Reserves space for a record at the tail of the log, sealing the tail page and
+     * starting the next one if the record does not fit on it.
+     * @param length length of the record in bytes
+     * @return position of the record (page number * PAGE_SIZE + offset)
+     */
+    private long reserve(int length) {
+        if (length > PAGE_SIZE) {
+            throw new IllegalArgumentException("log record does not fit on a page");
+        }
+        while (true) {
+            long position = this.tail.get();
+            int offset = (int) (position % PAGE_SIZE);
+            if (offset + length <= PAGE_SIZE) {
+                if (this.tail.compareAndSet(position, position + length)) {
+                    return position;
+                }
             } else {
-                logTailPinned = true;
-                logTail.pin();
-                if (logTailBuffer == null) {
-                    logTail.unpin();
+                long nextPage = position / PAGE_SIZE + 1L;
+                if (this.tail.compareAndSet(position, nextPage * PAGE_SIZE + length)) {
+                    this.skipRest(nextPage - 1L, offset);
+                    return nextPage * PAGE_SIZE;
                 }
             }
-        } while (logTailBuffer == null);
-        try {
-            int pos = logTailBuffer.position();
-            logTailBuffer.put(bytes);
-            long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
-            record.LSN = LSN;
-            return LSN;
-        } finally {
-            logTail.unpin();
-            logTailPinned = false;
+        }
+    }
+
+    /**
+     * Seals the tail page if it is at most pageNum, so that the log writer can write it
+     * out once the records reserved on it have been copied in.
+     * @param pageNum page number of log page
+     */
+    private void seal(long pageNum) {
+        while (true) {
+            long position = this.tail.get();
+            long tailPage = position / PAGE_SIZE;
+            if (tailPage > pageNum) {
+                return;
+            }
+            if (this.tail.compareAndSet(position, (tailPage + 1L) * PAGE_SIZE)) {
+                this.skipRest(tailPage, (int) (position % PAGE_SIZE));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Marks the bytes of a sealed page after offset as filled: nothing is appended there.
+     */
+    private void skipRest(long pageNum, int offset) {
+        this.awaitSlot(pageNum);
+        this.fill(pageNum, PAGE_SIZE - offset);
+    }
+
+    private int slot(long pageNum) {
+        return DiskSpaceManager.getPageNum(pageNum) % this.bufferPages;
+    }
+
+    /**
+     * Counts bytes of a page as filled, and wakes the log writer if the page is complete.
+     */
+    private void fill(long pageNum, int length) {
+        if (this.filled.addAndGet(this.slot(pageNum), length) == PAGE_SIZE) {
+            this.signalLogWriter();
+        }
+    }
+
+    /**
+     * Waits for the slot of a page to be free, i.e. for the page that was in it before
+     * to have been written out.
+     */
+    private void awaitSlot(long pageNum) {
+        if (pageNum - this.bufferPages <= this.freedPage) {
+            return;
+        }
+        boolean interrupted = false;
+        while (pageNum - this.bufferPages > this.freedPage) {
+            this.checkLogWriter();
+            if (this.closed) {
+                this.writeOut();
+                Thread.yield();
+                continue;
+            }
+            synchronized (this.slotFreed) {
+                if (pageNum - this.bufferPages > this.freedPage && !this.closed && this.writerError == null) {
+                    try {
+                        this.slotFreed.wait();
+                    } catch (InterruptedException e) {
+                        // the record has its LSN already, so it must be copied in
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -110,48 +288,309 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return log record with the specified LSN
      */
     public LogRecord fetchLogRecord(long LSN) {
-        try {
-            Page logPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), getLSNPage(LSN));
-            try {
-                Buffer buf = logPage.getBuffer();
-                buf.position(getLSNIndex(LSN));
-                Optional<LogRecord> record = LogRecord.fromBytes(buf);
-                record.ifPresent((LogRecord e) -> e.setLSN(LSN));
-                return record.orElse(null);
-            } finally {
-                logPage.unpin();
+        byte[] page = this.readLogPage(getLSNPage(LSN));
+        if (page == null) {
+            return null;
+        }
+        Optional<LogRecord> record = recordAt(page, getLSNIndex(LSN));
+        record.ifPresent((LogRecord e) -> e.setLSN(LSN));
+        return record.orElse(null);
+    }
+
+    /**
+     * Parses the record at an offset of a log page.
+     * @return the record, or nothing if there is no record there (including at the end of
+     * a page filled to the last byte)
+     */
+    private static Optional<LogRecord> recordAt(byte[] page, int index) {
+        if (index >= PAGE_SIZE) {
+            return Optional.empty();
+        }
+        return LogRecord.fromBytes(pageBuffer(page, index));
+    }
+
+    /**
+     * @return buffer over a log page, positioned at an offset
+     */
+    private static Buffer pageBuffer(byte[] page, int index) {
+        Buffer buf = edu.berkeley.cs186.database.common.ByteBuffer.wrap(page);
+        buf.position(index);
+        return buf;
+    }
+
+    /**
+     * Reads a copy of a log page: from the log buffer if the page has not been written out
+     * yet (with the records appended to it so far, and zeroes after them), or else from
+     * disk.
+     * @param pageNum page number of log page
+     * @return copy of the page, or null if there is no such page
+     */
+    private byte[] readLogPage(long pageNum) {
+        byte[] page = new byte[PAGE_SIZE];
+        if (pageNum >= this.firstPage) {
+            int slot = this.slot(pageNum);
+            while (true) {
+                long stamp = this.ringLock.tryOptimisticRead();
+                if (pageNum <= this.writtenPage) {
+                    break;
+                }
+                if (this.tail.get() / PAGE_SIZE < pageNum) {
+                    return null;
+                }
+                if (pageNum - this.bufferPages > this.freedPage) {
+                    // the slot still holds an earlier page
+                    Thread.yield();
+                    continue;
+                }
+                // Once the bytes filled match the bytes reserved, with filled read first,
+                // every record reserved so far has been copied in
+                int numFilled = this.filled.get(slot);
+                long position = this.tail.get();
+                long tailPage = position / PAGE_SIZE;
+                int numReserved = tailPage > pageNum ? PAGE_SIZE : (int) (position % PAGE_SIZE);
+                if (numFilled < numReserved) {
+                    Thread.yield();
+                    continue;
+                }
+                System.arraycopy(this.logBuffer, slot * PAGE_SIZE, page, 0, numReserved);
+                if (this.ringLock.validate(stamp)) {
+                    return page;
+                }
             }
+        }
+        try {
+            this.diskSpaceManager.readPage(pageNum, page);
         } catch (PageException e) {
             return null;
         }
+        this.numIOs.increment();
+        return page;
     }
 
     /**
      * Flushes the log to at least the specified record,
      * essentially flushing up to and including the page
      * that contains the record specified by the LSN.
+     *
+     * If the page is still the tail page, it is sealed (the next record goes on the next
+     * page), and the log writer is woken up to write it out. Threads flushing the log at
+     * the same time (e.g. committing transactions) share the log writer's durability
+     * barrier.
      * @param LSN LSN up to which the log should be flushed
      */
-    public synchronized void flushToLSN(long LSN) {
-        Iterator<Page> iter = unflushedLogTail.iterator();
+    public void flushToLSN(long LSN) {
+        if (this.flushedLSN >= LSN) {
+            return;
+        }
         long pageNum = getLSNPage(LSN);
-        while (iter.hasNext()) {
-            Page page = iter.next();
-            if (page.getPageNum() > pageNum) {
-                break;
+        this.seal(pageNum);
+        // there is nothing to flush past the last sealed page
+        pageNum = Math.min(pageNum, this.tail.get() / PAGE_SIZE - 1L);
+        if (this.durablePage >= pageNum) {
+            return;
+        }
+        this.requestedPage.accumulateAndGet(pageNum, Math::max);
+        this.signalLogWriter();
+        boolean interrupted = false;
+        while (this.durablePage < pageNum) {
+            this.checkLogWriter();
+            if (this.closed) {
+                this.writeOut();
+                Thread.yield();
+                continue;
+            }
+            synchronized (this.flushDone) {
+                if (this.durablePage < pageNum && !this.closed && this.writerError == null) {
+                    try {
+                        this.flushDone.wait();
+                    } catch (InterruptedException e) {
+                        // callers rely on the log being flushed when this returns
+                        interrupted = true;
+                    }
+                }
             }
-            page.flush();
-            iter.remove();
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
-        if (unflushedLogTail.size() == 0) {
-            if (!logTailPinned) {
-                logTail = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of log pages read from and written to disk
+     */
+    long getNumIOs() {
+        return this.numIOs.sum();
+    }
+
+    private void signalLogWriter() {
+        if (this.closed) {
+            this.writeOut();
+        } else {
+            LockSupport.unpark(this.logWriter);
+        }
+    }
+
+    private void checkLogWriter() {
+        RuntimeException e = this.writerError;
+        if (e != null) {
+            throw new PageException("log writer failed: " + e.getMessage());
+        }
+    }
+
+    private void runLogWriter() {
+        try {
+            while (!this.closed) {
+                if (!this.writeOut()) {
+                    LockSupport.park(this);
+                }
+            }
+        } catch (RuntimeException e) {
+            this.writerError = e;
+            synchronized (this.slotFreed) {
+                this.slotFreed.notifyAll();
+            }
+            synchronized (this.flushDone) {
+                this.flushDone.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Does a round of the log writer's work: writes out the complete pages following the
+     * last page written, in order and in one batch, frees their slots, and syncs the disk
+     * if a thread is waiting for a page written so far to be durable.
+     * @return whether there was anything to do
+     */
+    private boolean writeOut() {
+        synchronized (this.writerLock) {
+            long nextPage = this.writtenPage + 1L;
+            int numPages = 0;
+            while (numPages < this.bufferPages && this.filled.get(this.slot(nextPage + numPages)) == PAGE_SIZE) {
+                ++numPages;
             }
-            logTailBuffer = null;
+            if (numPages > 0) {
+                long[] pageNums = new long[numPages];
+                ByteBuffer[] bufs = new ByteBuffer[numPages];
+                for (int i = 0; i < numPages; ++i) {
+                    pageNums[i] = nextPage + i;
+                    if (pageNums[i] > this.firstPage) {
+                        this.diskSpaceManager.allocPage(pageNums[i]);
+                    }
+                    bufs[i] = ByteBuffer.wrap(this.logBuffer, this.slot(pageNums[i]) * PAGE_SIZE, PAGE_SIZE).slice();
+                }
+                this.diskSpaceManager.writePages(pageNums, bufs);
+                this.numIOs.add(numPages);
+
+                long stamp = this.ringLock.writeLock();
+                try {
+                    this.writtenPage = nextPage + numPages - 1L;
+                    for (long pageNum : pageNums) {
+                        int slot = this.slot(pageNum);
+                        Arrays.fill(this.logBuffer, slot * PAGE_SIZE, (slot + 1) * PAGE_SIZE, (byte) 0);
+                        this.filled.set(slot, 0);
+                    }
+                    this.freedPage = this.writtenPage;
+                } finally {
+                    this.ringLock.unlockWrite(stamp);
+                }
+                synchronized (this.slotFreed) {
+                    this.slotFreed.notifyAll();
+                }
+            }
+
+            long requested = this.requestedPage.get();
+            boolean sync = requested > this.durablePage && this.writtenPage > this.durablePage;
+            if (sync) {
+                // flushedLSN may only advance once the pages are durable
+                long pageNum = this.writtenPage;
+                this.diskSpaceManager.sync();
+                this.durablePage = pageNum;
+                this.flushedLSN = maxLSN(pageNum);
+                synchronized (this.flushDone) {
+                    this.flushDone.notifyAll();
+                }
+            }
+            return numPages > 0 || sync;
         }
     }
 
+    /**
+     * Flushes the log to at least the specified record, like flushToLSN, but together with
+     * other threads calling this method at the same time (group commit). If no other thread
+     * is flushing the log for the group, this thread becomes the leader: it waits for the
+     * gather window, then flushes the log up to the highest LSN asked for by any thread so
+     * far, and wakes them up. Otherwise, it waits for the leader, and returns if the
+     * leader's flush covered its LSN, or tries to become the next leader if not.
+     *
+     * @param LSN LSN up to which the log should be flushed
+     */
+    public void groupFlushToLSN(long LSN) {
+        if (this.flushedLSN >= LSN) {
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            synchronized (this.commitQueue) {
+                this.requestedLSN = Math.max(this.requestedLSN, LSN);
+                while (this.leaderFlushing) {
+                    try {
+                        this.commitQueue.wait();
+                    } catch (InterruptedException e) {
+                        // the commit must be durable before returning, so keep waiting
+                        interrupted = true;
+                    }
+                    if (this.flushedLSN >= LSN) {
+                        return;
+                    }
+                }
+                this.leaderFlushing = true;
+            }
+            long windowMicros = this.groupCommitWindowMicros;
+            if (windowMicros > 0) {
+                LockSupport.parkNanos(windowMicros * 1000L);
+            }
+            try {
+                long groupLSN;
+                synchronized (this.commitQueue) {
+                    groupLSN = this.requestedLSN;
+                }
+                this.flushToLSN(groupLSN);
+                this.numGroupFlushes.increment();
+            } finally {
+                synchronized (this.commitQueue) {
+                    // if the flush failed, one of the waiting threads tries again
+                    this.leaderFlushing = false;
+                    this.commitQueue.notifyAll();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sets the gather window of group commit: how long the leader of a group waits for more
+     * threads to join it before flushing the log (see groupFlushToLSN). Longer windows mean
+     * fewer log flushes for many concurrent committers, but add to the latency of each commit.
+     *
+     * @param micros length of the window in microseconds, or 0 to flush right away
+     */
+    public void setGroupCommitWindow(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("group commit window must not be negative");
+        }
+        this.groupCommitWindowMicros = micros;
+    }
+
+    /**
+     * @return number of log flushes done on behalf of groups of groupFlushToLSN callers
+     */
+    long getNumGroupFlushes() {
+        return this.numGroupFlushes.sum();
+    }
+
     /**
      * @return flushedLSN
      */
@@ -196,6 +635,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         return (int) (LSN % 10000L);
     }
 
+
     /**
      * Scan forward in the log from LSN.
      * @param LSN LSN to start scanning from
@@ -214,60 +654,82 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         return this.scanFrom(0);
     }
 
+    /**
+     * Flushes the log, and stops the log writer. The log can still be appended to and
+     * flushed afterwards, by threads doing the log writer's work themselves.
+     */
     @Override
     public synchronized void close() {
-        if (!this.unflushedLogTail.isEmpty()) {
-            this.flushToLSN(maxLSN(unflushedLogTail.getLast().getPageNum()));
+        long position = this.tail.get();
+        long lastPage = position / PAGE_SIZE;
+        if (position % PAGE_SIZE == 0) {
+            // the tail page is empty
+            --lastPage;
+        }
+        this.flushToLSN(maxLSN(lastPage));
+        this.closed = true;
+        LockSupport.unpark(this.logWriter);
+        boolean interrupted = false;
+        while (this.logWriter.isAlive()) {
+            try {
+                this.logWriter.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this.slotFreed) {
+            this.slotFreed.notifyAll();
+        }
+        synchronized (this.flushDone) {
+            this.flushDone.notifyAll();
         }
     }
 
     private class LogPageIterator extends IndexBacktrackingIterator<LogRecord> {
-        private Page logPage;
+        private long pageNum;
+        private byte[] page;
         private int startIndex;
 
-        private LogPageIterator(Page logPage, int startIndex) {
+        private LogPageIterator(long pageNum, byte[] page, int startIndex) {
             super(DiskSpaceManager.PAGE_SIZE);
-            this.logPage = logPage;
+            this.pageNum = pageNum;
+            this.page = page;
             this.startIndex = startIndex;
-            this.logPage.unpin();
         }
 
         @Override
         protected int getNextNonEmpty(int currentIndex) {
-            logPage.pin();
-            try {
-                Buffer buf = logPage.getBuffer();
-                if (currentIndex == -1) {
-                    currentIndex = startIndex;
-                    buf.position(currentIndex);
-                } else {
-                    buf.position(currentIndex);
-                    LogRecord.fromBytes(buf);
-                    currentIndex = buf.position();
-                }
+            if (currentIndex == -1) {
+                currentIndex = startIndex;
+            } else {
+                Buffer buf = pageBuffer(page, currentIndex);
+                LogRecord.fromBytes(buf);
+                currentIndex = buf.position();
+            }
 
-                if (LogRecord.fromBytes(buf).isPresent()) {
-                    return currentIndex;
-                } else {
-                    return DiskSpaceManager.PAGE_SIZE;
+            if (!recordAt(page, currentIndex).isPresent() && pageNum >= tail.get() / PAGE_SIZE) {
+                // the copy of the tail page may have been taken before the last records
+                // were appended to it
+                byte[] latest = readLogPage(pageNum);
+                if (latest != null) {
+                    page = latest;
                 }
-            } finally {
-                logPage.unpin();
+            }
+            if (recordAt(page, currentIndex).isPresent()) {
+                return currentIndex;
+            } else {
+                return DiskSpaceManager.PAGE_SIZE;
             }
         }
 
         @Override
         protected LogRecord getValue(int index) {
-            logPage.pin();
-            try {
-                Buffer buf = logPage.getBuffer();
-                buf.position(index);
-                LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
-                record.setLSN(makeLSN(logPage.getPageNum(), index));
-                return record;
-            } finally {
-                logPage.unpin();
-            }
+            LogRecord record = recordAt(page, index).orElseThrow(NoSuchElementException::new);
+            record.setLSN(makeLSN(pageNum, index));
+            return record;
         }
     }
 
@@ -277,12 +739,8 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
 
         private LogPagesIterator(long startLSN) {
             nextIndex = getLSNPage(startLSN);
-            try {
-                Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                nextIter = new LogPageIterator(page, getLSNIndex(startLSN));
-            } catch (PageException e) {
-                nextIter = null;
-            }
+            byte[] page = readLogPage(nextIndex);
+            nextIter = page == null ? null : new LogPageIterator(nextIndex, page, getLSNIndex(startLSN));
         }
 
         @Override
@@ -314,12 +772,11 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 nextIter = null;
                 do {
                     ++nextIndex;
-                    try {
-                        Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                        nextIter = new LogPageIterator(page, 0);
-                    } catch (PageException e) {
+                    byte[] page = readLogPage(nextIndex);
+                    if (page == null) {
                         break;
                     }
+                    nextIter = new LogPageIterator(nextIndex, page, 0);
                 } while (!nextIter.hasNext());
 
                 return iterable;
@@ -0,0 +1,282 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Recovery work left over by an instant restart, which opens the database right after
+ * the analysis pass and finishes recovery in the background (see
+ * ARIESRecoveryManager#restart). Two kinds of work are tracked:
+ *
+ * - Records still to be redone, per page. Fetching a page first redoes its records,
+ *   on the fetching thread, so that a page is never seen before it is up to date.
+ *   Meanwhile, the pages nobody asks for are redone in the background (redoAll).
+ *
+ * - Pages modified by loser transactions that have not been rolled back yet. The locks
+ *   the losers held before the crash are not logged, so the pages they modified stand in
+ *   for them: fetching such a page waits until every loser that modified it has been
+ *   rolled back, except on the thread rolling them back.
+ */
+class OnDemandRecovery {
+    // redoes the record with the given LSN, if it needs to be redone
+    private final LongConsumer redo;
+    // LSNs of the records still to be redone, per page, in LSN order
+    private final Map<Long, PageRedo> pendingRedo = new ConcurrentHashMap<>();
+    // loser transaction -> pages it modified (guarded by this)
+    private final Map<Long, Set<Long>> loserPages = new HashMap<>();
+    // page -> number of losers that modified it (guarded by this)
+    private final Map<Long, Integer> lockedPages = new HashMap<>();
+    // whether lockedPages is not empty, to skip synchronizing when there is nothing to wait for
+    private volatile boolean anyLocked = false;
+    // thread rolling back the losers, which their pages are not locked for
+    private volatile Thread undoThread = null;
+    // why the losers could not be rolled back, if they couldn't (guarded by this)
+    private Throwable undoError = null;
+
+    private static class PageRedo {
+        private final List<Long> LSNs = new ArrayList<>();
+        // thread redoing the records, while it is (guarded by this)
+        private Thread redoingThread = null;
+        private boolean done = false;
+    }
+
+    /**
+     * @param redo redoes the record with the given LSN, if it needs to be redone
+     */
+    OnDemandRecovery(LongConsumer redo) {
+        this.redo = redo;
+    }
+
+    /**
+     * Leaves a record of a page to be redone once the page is fetched. Records of a page
+     * must be added in LSN order, before recovery is handed over to other threads.
+     */
+    void addRedo(long pageNum, long LSN) {
+        this.pendingRedo.computeIfAbsent(pageNum, p -> new PageRedo()).LSNs.add(LSN);
+    }
+
+    /**
+     * @return whether some records of the page have not been redone yet
+     */
+    boolean redoPending(long pageNum) {
+        return this.pendingRedo.containsKey(pageNum);
+    }
+
+    /**
+     * @return page numbers of the pages with records that have not been redone yet, in
+     * page number order
+     */
+    long[] getPendingPages() {
+        return this.pendingRedo.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    /**
+     * Redoes the records of a page that have not been redone yet. If another thread is
+     * already redoing them, waits for it to finish instead.
+     */
+    void redoPage(long pageNum) {
+        this.redoPageIfPending(pageNum);
+    }
+
+    /**
+     * Redoes the records of the pages of a partition that have not been redone yet.
+     */
+    void redoPartition(int partNum) {
+        for (long pageNum : new ArrayList<>(this.pendingRedo.keySet())) {
+            if (DiskSpaceManager.getPartNum(pageNum) == partNum) {
+                this.redoPage(pageNum);
+            }
+        }
+    }
+
+    /**
+     * Redoes every record that has not been redone yet, going through the pages in page
+     * number order.
+     * @param numThreads number of threads to redo the records of different pages on,
+     *                   including this one
+     */
+    void redoAll(int numThreads) {
+        Queue<Long> pageNums = new ConcurrentLinkedQueue<>(new TreeSet<>(this.pendingRedo.keySet()));
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Runnable redoPages = () -> {
+            Long pageNum;
+            while (error.get() == null && (pageNum = pageNums.poll()) != null) {
+                try {
+                    this.redoPage(pageNum);
+                } catch (RuntimeException | Error e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        };
+        Thread[] helpers = new Thread[numThreads - 1];
+        for (int i = 0; i < helpers.length; ++i) {
+            helpers[i] = new Thread(redoPages, "redo-" + (i + 1));
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+        redoPages.run();
+        boolean interrupted = false;
+        for (Thread helper : helpers) {
+            while (helper.isAlive()) {
+                try {
+                    helper.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable e = error.get();
+        if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Called before a page is fetched: redoes its records that have not been redone yet,
+     * and waits for the losers that modified it to have been rolled back.
+     */
+    void beforeFetch(long pageNum) {
+        if (this.redoPageIfPending(pageNum) && this.anyLocked && Thread.currentThread() != this.undoThread) {
+            this.awaitUnlocked(pageNum);
+        }
+    }
+
+    /**
+     * Called before a partition is freed: redoes the records of its pages that have not
+     * been redone yet, and waits for the losers that modified them to have been rolled back.
+     */
+    void beforeFreePart(int partNum) {
+        this.redoPartition(partNum);
+        if (this.anyLocked && Thread.currentThread() != this.undoThread) {
+            this.awaitUnlocked(partNum);
+        }
+    }
+
+    /**
+     * @return false if this thread is in the middle of redoing the records of the page
+     * already (redoing them fetches the page), true once they have been redone
+     */
+    private boolean redoPageIfPending(long pageNum) {
+        PageRedo pageRedo = this.pendingRedo.get(pageNum);
+        if (pageRedo == null) {
+            return true;
+        }
+        synchronized (pageRedo) {
+            if (pageRedo.redoingThread == Thread.currentThread()) {
+                return false;
+            }
+            if (pageRedo.done) {
+                return true;
+            }
+            pageRedo.redoingThread = Thread.currentThread();
+            // redo is not part of the transaction running on this thread (if any), and must
+            // not be logged as one of its changes
+            TransactionContext transaction = TransactionContext.getTransaction();
+            if (transaction != null) {
+                TransactionContext.unsetTransaction();
+            }
+            try {
+                for (long LSN : pageRedo.LSNs) {
+                    this.redo.accept(LSN);
+                }
+            } finally {
+                pageRedo.redoingThread = null;
+                if (transaction != null) {
+                    TransactionContext.setTransaction(transaction);
+                }
+            }
+            pageRedo.done = true;
+            this.pendingRedo.remove(pageNum, pageRedo);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the thread rolling back the losers.
+     */
+    void setUndoThread(Thread thread) {
+        this.undoThread = thread;
+    }
+
+    /**
+     * Locks the pages a loser modified, until it has been rolled back (see unlockPages).
+     */
+    synchronized void lockPages(long transNum, Set<Long> pageNums) {
+        this.loserPages.put(transNum, pageNums);
+        for (long pageNum : pageNums) {
+            this.lockedPages.merge(pageNum, 1, Integer::sum);
+        }
+        this.anyLocked = !this.lockedPages.isEmpty();
+    }
+
+    /**
+     * Unlocks the pages a loser modified, once it has been rolled back.
+     */
+    synchronized void unlockPages(long transNum) {
+        Set<Long> pageNums = this.loserPages.remove(transNum);
+        if (pageNums == null) {
+            return;
+        }
+        for (long pageNum : pageNums) {
+            this.lockedPages.computeIfPresent(pageNum, (p, n) -> n == 1 ? null : n - 1);
+        }
+        this.anyLocked = !this.lockedPages.isEmpty();
+        this.notifyAll();
+    }
+
+    /**
+     * Called if the losers could not be rolled back. Their pages stay locked, and threads
+     * waiting for them (or that later would) fail instead.
+     */
+    synchronized void undoFailed(Throwable error) {
+        this.undoError = error;
+        this.notifyAll();
+    }
+
+    /**
+     * Waits for a page to be unlocked.
+     */
+    private void awaitUnlocked(long pageNum) {
+        this.awaitUnlocked(lockedPageNums -> lockedPageNums.contains(pageNum));
+    }
+
+    /**
+     * Waits for every page of a partition to be unlocked.
+     */
+    private void awaitUnlocked(int partNum) {
+        this.awaitUnlocked(lockedPageNums -> lockedPageNums.stream()
+                           .anyMatch(p -> DiskSpaceManager.getPartNum(p) == partNum));
+    }
+
+    private synchronized void awaitUnlocked(Predicate<Set<Long>> locked) {
+        boolean interrupted = false;
+        try {
+            while (locked.test(this.lockedPages.keySet())) {
+                if (this.undoError != null) {
+                    throw new IllegalStateException("restart recovery failed", this.undoError);
+                }
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package edu.berkeley.cs186.database.recovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Worker threads for the redo pass of restart recovery. Records of a page are handed to
+ * the worker the page number maps to, so that every record of a page is redone by the
+ * same worker, in the order the records were submitted (LSN order). Records of different
+ * pages may be redone in any order relative to each other. Records that do not belong to
+ * a single page (e.g. partition allocations, which the pages of the partition depend on)
+ * are redone by the submitting thread after a barrier, once every record submitted before
+ * them has been redone.
+ */
+class ParallelRedo implements AutoCloseable {
+    // records queued up per worker before submitting blocks
+    static final int QUEUE_CAPACITY = 256;
+
+    // tells a worker to stop
+    private static final Runnable STOP = () -> {};
+
+    private final Consumer<LogRecord> redo;
+    private final Thread[] workers;
+    private final List<BlockingQueue<Runnable>> queues;
+    // first exception thrown by a worker; once set, workers skip the rest of their records
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private boolean closed = false;
+
+    /**
+     * @param numThreads number of worker threads
+     * @param redo redoes a record, if it needs to be redone
+     */
+    ParallelRedo(int numThreads, Consumer<LogRecord> redo) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("redo needs at least one thread");
+        }
+        this.redo = redo;
+        this.workers = new Thread[numThreads];
+        this.queues = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; ++i) {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            this.queues.add(queue);
+            this.workers[i] = new Thread(() -> runWorker(queue), "redo-" + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Hands a record of a page to the page's worker.
+     * @param pageNum page number of the page the record modifies
+     * @param record record to redo
+     */
+    void submit(long pageNum, LogRecord record) {
+        int worker = Math.floorMod(Long.hashCode(pageNum), this.workers.length);
+        this.put(this.queues.get(worker), () -> {
+            if (this.error.get() != null) {
+                return;
+            }
+            try {
+                this.redo.accept(record);
+            } catch (RuntimeException | Error e) {
+                this.error.compareAndSet(null, e);
+            }
+        });
+    }
+
+    /**
+     * Waits for every record submitted so far to have been redone.
+     * @throws RuntimeException the first exception (or error) thrown redoing a record, if any
+     */
+    void barrier() {
+        CountDownLatch done = new CountDownLatch(this.workers.length);
+        for (BlockingQueue<Runnable> queue : this.queues) {
+            this.put(queue, done::countDown);
+        }
+        boolean interrupted = false;
+        while (done.getCount() > 0) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable e = this.error.get();
+        if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Stops the workers once they are done with the records submitted so far.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        for (BlockingQueue<Runnable> queue : this.queues) {
+            this.put(queue, STOP);
+        }
+        boolean interrupted = false;
+        for (Thread worker : this.workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(BlockingQueue<Runnable> queue, Runnable task) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(task);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void runWorker(BlockingQueue<Runnable> queue) {
+        while (true) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (task == STOP) {
+                return;
+            }
+            task.run();
+        }
+    }
+}
@@ -65,6 +65,23 @@ public interface RecoveryManager extends AutoCloseable {
      */
     void diskIOHook(long pageNum);
 
+    /**
+     * Called before a page is fetched from the buffer cache, before any buffer
+     * frame of it is pinned. This method is never called on a log page, nor on
+     * a newly allocated page.
+     *
+     * @param pageNum page number of page about to be fetched
+     */
+    void pageFetchHook(long pageNum);
+
+    /**
+     * Called before a partition is freed, before any of its pages are evicted
+     * from the buffer cache.
+     *
+     * @param partNum partition number of partition about to be freed
+     */
+    void partFreeHook(int partNum);
+
     /**
      * Called when a write to a page happens.
      *
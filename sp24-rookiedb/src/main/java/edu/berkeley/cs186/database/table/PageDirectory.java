@@ -13,7 +13,9 @@ import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.memory.ReadAhead;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -243,7 +245,8 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private HeaderPage(long pageNum, int headerOffset, boolean firstHeader) {
             this.page = bufferManager.fetchPage(lockContext, pageNum);
             // We do not lock header pages for the entirety of the transaction. Instead, we simply
-            // use the buffer frame lock (from pinning) to ensure that one transaction writes at a time.
+            // latch the header page exclusively while changing it, to ensure that one transaction
+            // writes at a time.
             // This does mean that we do not have complete isolation in the header pages, but this does not
             // really matter, as the only observable effect is that a transaction may be told to use a different
             // data page, which is perfectly fine.
@@ -301,10 +304,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             }
             Page page = bufferManager.fetchNewPage(lockContext, partNum);
             this.page.pin();
+            this.page.latchExclusive();
             try {
                 this.nextPage = new HeaderPage(page.getPageNum(), headerOffset + 1, false);
-                this.page.getBuffer().position(1).putLong(page.getPageNum());
+                // the next page number follows the valid byte and the page directory id
+                this.page.getBuffer().position(1 + Integer.BYTES).putLong(page.getPageNum());
             } finally {
+                this.page.unlatchExclusive();
                 this.page.unpin();
                 page.unpin();
             }
@@ -313,6 +319,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         // gets and loads a page with the required free space
         private Page loadPageWithSpace(short requiredSpace) {
             this.page.pin();
+            this.page.latchExclusive();
             try {
                 Buffer b = this.page.getBuffer();
                 b.position(HEADER_HEADER_SIZE);
@@ -359,6 +366,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                 // no space on this header page, try next one
                 return this.nextPage.loadPageWithSpace(requiredSpace);
             } finally {
+                this.page.unlatchExclusive();
                 this.page.unpin();
             }
         }
@@ -366,6 +374,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         // updates free space
         private void updateSpace(Page dataPage, short index, short newFreeSpace) {
             this.page.pin();
+            this.page.latchExclusive();
             try {
                 if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
                     // write new free space to disk
@@ -383,6 +392,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     bufferManager.freePage(dataPage);
                 }
             } finally {
+                this.page.unlatchExclusive();
                 this.page.unpin();
             }
         }
@@ -394,6 +404,9 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
+            // loads upcoming data pages in the background while the scan is sequential
+            private final ReadAhead readAhead = new ReadAhead(bufferManager);
+
             private HeaderPageIterator() {
                 super(HEADER_ENTRY_COUNT);
             }
@@ -423,11 +436,30 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                    readAhead.fetching(dpe.pageNum, n -> nextPageNums(b, index, n));
                     return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum));
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
             }
+
+            // page numbers of the (up to) n valid data pages after the entry at index.
+            // b should be positioned right after the entry at index. The remaining entries
+            // are copied out of the page in one read, rather than read one at a time.
+            private long[] nextPageNums(Buffer b, int index, int n) {
+                byte[] entries = new byte[DataPageEntry.SIZE * (HEADER_ENTRY_COUNT - index - 1)];
+                b.get(entries);
+                Buffer entryBuf = ByteBuffer.wrap(entries);
+                long[] pageNums = new long[n];
+                int numPages = 0;
+                for (int i = index + 1; i < HEADER_ENTRY_COUNT && numPages < n; ++i) {
+                    DataPageEntry dpe = DataPageEntry.fromBytes(entryBuf);
+                    if (dpe.isValid()) {
+                        pageNums[numPages++] = dpe.pageNum;
+                    }
+                }
+                return Arrays.copyOf(pageNums, numPages);
+            }
         }
     }
 
@@ -3,10 +3,17 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.IOMetrics;
+import edu.berkeley.cs186.database.io.TablespaceDiskSpaceManager;
+import edu.berkeley.cs186.database.io.TempDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -19,10 +26,20 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -148,6 +165,67 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testBufferWarmup() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, "table1");
+            for (int i = 0; i < 200; ++i) {
+                t.getTransactionContext().addRecord("table1", input);
+            }
+        }
+        Set<Long> resident = new HashSet<>();
+        db.getBufferManager().iterPageNums((pageNum, dirty) -> resident.add(pageNum));
+
+        db.close();
+        assertTrue(new File(this.filename, Database.BUFFER_PAGES_FILE).exists());
+        db = new Database(this.filename, 32);
+        db.warmUpBuffer(0).await();
+
+        // every page that was loaded at shutdown (and still exists) is loaded again
+        Set<Long> warmed = new HashSet<>();
+        db.getBufferManager().iterPageNums((pageNum, dirty) -> warmed.add(pageNum));
+        for (long pageNum : resident) {
+            if (db.getDiskSpaceManager().pageAllocated(pageNum)) {
+                assertTrue(warmed.contains(pageNum));
+            }
+        }
+        try (Transaction t = db.beginTransaction()) {
+            assertEquals(input, t.getTransactionContext().getTable("table1").iterator().next());
+        }
+    }
+
+    @Test
+    public void testSetBufferSize() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, "table1");
+            for (int i = 0; i < 200; ++i) {
+                t.getTransactionContext().addRecord("table1", input);
+            }
+        }
+        db.setWorkMem(64);
+        assertEquals(32, db.getWorkMem());
+        db.setBufferSize(128);
+        assertEquals(128, db.getBufferSize());
+        assertEquals(64, db.getWorkMem());
+
+        db.setBufferSize(8);
+        assertEquals(8, db.getBufferSize());
+        assertEquals(8, db.getWorkMem());
+        try (Transaction t = db.beginTransaction()) {
+            int count = 0;
+            Iterator<Record> records = t.getTransactionContext().getTable("table1").iterator();
+            while (records.hasNext()) {
+                assertEquals(input, records.next());
+                ++count;
+            }
+            assertEquals(200, count);
+        }
+    }
+
     @Test
     public void testREADMESample() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -306,4 +384,241 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    @Test
+    public void testTablespaceIOMode() {
+        // a tablespace only does FILE_CHANNEL I/O, whichever option is set first
+        try {
+            new DatabaseOptions().setUseTablespace(true).setIOMode(DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED);
+            fail("tablespace with memory-mapped I/O should be rejected");
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+        try {
+            new DatabaseOptions().setIOMode(DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED).setUseTablespace(true);
+            fail("tablespace with memory-mapped I/O should be rejected");
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+        DatabaseOptions options = new DatabaseOptions().setUseTablespace(true)
+                .setIOMode(DiskSpaceManagerImpl.IOMode.FILE_CHANNEL);
+        assertTrue(options.getUseTablespace());
+    }
+
+    @Test
+    public void testTablespace() throws Exception {
+        File dir = tempFolder.newFolder("tablespaceDatabase");
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        Database tablespaceDb = new Database(dir.getAbsolutePath(), 32, new DummyLockManager(),
+                new ClockEvictionPolicy(), false, new DatabaseOptions().setUseTablespace(true));
+        RecordId rid;
+        try (Transaction t = tablespaceDb.beginTransaction()) {
+            t.createTable(s, "table1");
+            rid = t.getTransactionContext().addRecord("table1", input);
+            String tempTableName = t.getTransactionContext().createTempTable(s);
+            t.getTransactionContext().addRecord(tempTableName, input);
+        }
+        tablespaceDb.close();
+
+        // every partition is in the one file (next to the list of buffered pages)
+        assertArrayEquals(new String[] { TablespaceDiskSpaceManager.FILE_NAME },
+                dir.list((d, name) -> !name.equals(Database.BUFFER_PAGES_FILE)));
+
+        tablespaceDb = new Database(dir.getAbsolutePath(), 32, new DummyLockManager(),
+                new ClockEvictionPolicy(), false, new DatabaseOptions().setUseTablespace(true));
+        try (Transaction t = tablespaceDb.beginTransaction()) {
+            assertEquals(input, t.getTransactionContext().getRecord("table1", rid));
+        }
+        tablespaceDb.close();
+    }
+
+    @Test
+    public void testCompressTables() throws Exception {
+        File dir = tempFolder.newFolder("compressedDatabase");
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        Database compressedDb = new Database(dir.getAbsolutePath(), 32, new DummyLockManager(),
+                new ClockEvictionPolicy(), true, new DatabaseOptions().setCompressTables(true));
+        List<RecordId> rids = new ArrayList<>();
+        try (Transaction t = compressedDb.beginTransaction()) {
+            t.createTable(s, "table1");
+            for (int i = 0; i < 1000; ++i) {
+                rids.add(t.getTransactionContext().addRecord("table1", input));
+            }
+        }
+        compressedDb.close();
+
+        // only the table's partition is compressed (its pages are in a second file)
+        String[] compressedFiles = dir.list((d, name) -> name.endsWith(".pages"));
+        assertEquals(1, compressedFiles.length);
+        assertFalse(Arrays.asList("0.pages", "1.pages", "2.pages").contains(compressedFiles[0]));
+
+        // the table stays compressed when the database is reopened without the option
+        compressedDb = new Database(dir.getAbsolutePath(), 32, new DummyLockManager(),
+                new ClockEvictionPolicy(), true);
+        try (Transaction t = compressedDb.beginTransaction()) {
+            for (RecordId rid : rids) {
+                assertEquals(input, t.getTransactionContext().getRecord("table1", rid));
+            }
+        }
+        compressedDb.close();
+    }
+
+    @Test
+    public void testRedoThreads() throws Exception {
+        try {
+            new DatabaseOptions().setRedoThreads(0);
+            fail("redo with no threads should be rejected");
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+
+        File dir = tempFolder.newFolder("parallelRedoDatabase");
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        DatabaseOptions options = new DatabaseOptions().setRedoThreads(4);
+        Database parallelRedoDb = new Database(dir.getAbsolutePath(), 32, new DummyLockManager(),
+                new ClockEvictionPolicy(), true, options);
+        RecordId rid;
+        try (Transaction t = parallelRedoDb.beginTransaction()) {
+            t.createTable(s, "table1");
+            rid = t.getTransactionContext().addRecord("table1", input);
+        }
+        parallelRedoDb.close();
+
+        parallelRedoDb = new Database(dir.getAbsolutePath(), 32, new DummyLockManager(),
+                new ClockEvictionPolicy(), true, options);
+        try (Transaction t = parallelRedoDb.beginTransaction()) {
+            assertEquals(input, t.getTransactionContext().getRecord("table1", rid));
+        }
+        parallelRedoDb.close();
+    }
+
+    @Test
+    public void testTempTablesInMemory() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        String[] files = new File(this.filename).list();
+        Arrays.sort(files);
+        this.db.setTempMemoryLimit(4 * DiskSpaceManager.PAGE_SIZE);
+        try (Transaction t = this.db.beginTransaction()) {
+            String tempTableName = t.getTransactionContext().createTempTable(s);
+            List<RecordId> rids = new ArrayList<>();
+            for (int i = 0; i < 30000; ++i) {
+                rids.add(t.getTransactionContext().addRecord(tempTableName, input));
+            }
+            // more pages than the buffer holds, so some were spilled
+            assertTrue(this.db.getTempSpaceManager().getNumSpilledPages() > 0);
+            for (RecordId rid : rids) {
+                assertEquals(input, t.getTransactionContext().getRecord(tempTableName, rid));
+            }
+            // no partition files were created, only the spill file
+            List<String> expectedFiles = new ArrayList<>(Arrays.asList(files));
+            expectedFiles.add(TempDiskSpaceManager.SPILL_FILE_NAME);
+            Collections.sort(expectedFiles);
+            String[] filesNow = new File(this.filename).list();
+            Arrays.sort(filesNow);
+            assertArrayEquals(expectedFiles.toArray(new String[0]), filesNow);
+        }
+        assertEquals(0, this.db.getTempSpaceManager().getMemoryUsed());
+        assertEquals(0, this.db.getTempSpaceManager().getNumSpilledPages());
+    }
+
+    @Test
+    public void testSortSpillsAtDefaultTempMemoryLimit() {
+        // the default limit leaves most of the heap to everything else
+        long limit = this.db.getTempSpaceManager().getMemoryLimit();
+        assertTrue(limit <= Runtime.getRuntime().maxMemory() / 8);
+
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("filler", Type.stringType(3000));
+        // one record per page, and about twice the limit's worth of pages, so the runs of
+        // the sort can't all fit
+        int numRecords = (int) (2 * limit / DiskSpaceManager.PAGE_SIZE);
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(s, "table1");
+            for (int i = 0; i < numRecords; ++i) {
+                t.insert("table1", numRecords - 1 - i, "x");
+            }
+        }
+        // enough to sort in two passes
+        this.db.setWorkMem(16);
+        try (Transaction t = this.db.beginTransaction()) {
+            QueryPlan query = t.query("table1");
+            query.sort("id");
+            Iterator<Record> records = query.execute();
+            for (int i = 0; i < numRecords; ++i) {
+                assertTrue(records.hasNext());
+                assertEquals(new IntDataBox(i), records.next().getValue(0));
+                if (i == 0) {
+                    // the sorted output is a temporary table larger than the limit
+                    assertTrue(this.db.getTempSpaceManager().getNumSpilledPages() > 0);
+                }
+            }
+            assertFalse(records.hasNext());
+        }
+        assertEquals(0, this.db.getTempSpaceManager().getNumSpilledPages());
+    }
+
+    @Test
+    public void testResetIOMetrics() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(s, "table1");
+            t.getTransactionContext().addRecord("table1", input);
+        }
+        this.db.getBufferManager().evictAll();
+        assertFalse(this.db.getDiskSpaceManager().getIOMetrics().getPartitions().isEmpty());
+
+        this.db.resetIOMetrics();
+        assertTrue(this.db.getBufferManager().getIOMetrics().getPartitions().isEmpty());
+        assertTrue(this.db.getDiskSpaceManager().getIOMetrics().getPartitions().isEmpty());
+        try (Transaction t = this.db.beginTransaction()) {
+            t.getTransactionContext().getTable("table1").iterator().next();
+        }
+        // only the reads since the reset are counted
+        assertTrue(this.db.getBufferManager().getIOMetrics().getPartitions().values().stream()
+                .allMatch(m -> m.getNumWrites() == 0));
+        assertTrue(this.db.getBufferManager().getIOMetrics().getPartitions().values().stream()
+                .anyMatch(m -> m.getNumReads() > 0));
+    }
+
+    @Test
+    public void testTransactionIOMetrics() throws Exception {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(s, "table1");
+            t.getTransactionContext().addRecord("table1", input);
+        }
+        this.db.getBufferManager().evictAll();
+
+        try (Transaction t1 = this.db.beginTransaction()) {
+            IOMetrics t1Metrics = t1.getTransactionContext().getIOMetrics();
+            t1.getTransactionContext().getTable("table1").iterator().next();
+            long t1Reads = t1Metrics.getPartitions().values().stream()
+                    .mapToLong(IOMetrics.PartitionMetrics::getNumReads).sum();
+            assertTrue(t1Reads > 0);
+
+            // a transaction running at the same time counts its own reads, and not the first's
+            this.db.getBufferManager().evictAll();
+            AtomicReference<IOMetrics> t2Metrics = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try (Transaction t2 = this.db.beginTransaction()) {
+                    t2Metrics.set(t2.getTransactionContext().getIOMetrics());
+                    assertTrue(t2Metrics.get().getPartitions().isEmpty());
+                    t2.getTransactionContext().getTable("table1").iterator().next();
+                }
+            });
+            thread.start();
+            thread.join();
+            assertTrue(t2Metrics.get().getPartitions().values().stream()
+                    .anyMatch(m -> m.getNumReads() > 0));
+            assertEquals(t1Reads, t1Metrics.getPartitions().values().stream()
+                    .mapToLong(IOMetrics.PartitionMetrics::getNumReads).sum());
+        }
+    }
 }
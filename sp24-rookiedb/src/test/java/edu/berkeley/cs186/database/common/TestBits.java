@@ -5,6 +5,8 @@ import edu.berkeley.cs186.database.categories.SystemTests;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -119,4 +121,47 @@ public class TestBits {
             assertArrayEquals(expectedsZero[i], bytes);
         }
     }
+
+    @Test
+    public void testNextClearAndSetBit() {
+        byte[] bytes = new byte[24];
+        Arrays.fill(bytes, (byte) 0xFF);
+        assertEquals(-1, Bits.nextClearBit(bytes, 0));
+        Bits.setBit(bytes, 130, Bits.Bit.ZERO);
+        Bits.setBit(bytes, 190, Bits.Bit.ZERO);
+        assertEquals(130, Bits.nextClearBit(bytes, 0));
+        assertEquals(130, Bits.nextClearBit(bytes, 130));
+        assertEquals(190, Bits.nextClearBit(bytes, 131));
+        assertEquals(-1, Bits.nextClearBit(bytes, 191));
+
+        byte[] odd = {(byte) 0b11111111, (byte) 0b11011111};
+        assertEquals(10, Bits.nextClearBit(odd, 0));
+
+        bytes = new byte[24];
+        assertEquals(-1, Bits.nextSetBit(bytes, 0));
+        Bits.setBit(bytes, 5, Bits.Bit.ONE);
+        Bits.setBit(bytes, 150, Bits.Bit.ONE);
+        assertEquals(5, Bits.nextSetBit(bytes, 0));
+        assertEquals(150, Bits.nextSetBit(bytes, 6));
+        assertEquals(-1, Bits.nextSetBit(bytes, 151));
+    }
+
+    @Test
+    public void testCountRuns() {
+        assertEquals(4, Bits.countRuns(new byte[]{0b01101110, (byte) 0b10000001}));
+        assertEquals(0, Bits.countRuns(new byte[16]));
+
+        // runs that cross word boundaries are only counted once
+        byte[] bytes = new byte[17];
+        for (int i = 60; i < 70; ++i) {
+            Bits.setBit(bytes, i, Bits.Bit.ONE);
+        }
+        for (int i = 120; i < 136; ++i) {
+            Bits.setBit(bytes, i, Bits.Bit.ONE);
+        }
+        Bits.setBit(bytes, 135, Bits.Bit.ONE);
+        assertEquals(2, Bits.countRuns(bytes));
+        Bits.setBit(bytes, 65, Bits.Bit.ZERO);
+        assertEquals(3, Bits.countRuns(bytes));
+    }
 }
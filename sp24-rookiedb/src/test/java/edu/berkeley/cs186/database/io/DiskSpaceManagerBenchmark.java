@@ -0,0 +1,196 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput of the disk space manager on a 16M partition: writing and scanning it in
+ * each IO mode, scanning it with readPages batches of different sizes, reading random
+ * pages of it from 1 to 8 threads at once, and how well it compresses and how fast its
+ * compressed pages scan.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class DiskSpaceManagerBenchmark {
+    private static final int NUM_PAGES = 4096; // 16M partition
+    private static final int NUM_SCANS = 5;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void benchmarkIOModes() throws IOException {
+        for (DiskSpaceManagerImpl.IOMode mode : DiskSpaceManagerImpl.IOMode.values()) {
+            String dir = tempFolder.newFolder(mode.name()).toString();
+            DiskSpaceManager dsm = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(), mode);
+            int partNum = dsm.allocPart();
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+
+            long start = System.nanoTime();
+            for (int i = 0; i < NUM_PAGES; ++i) {
+                long pageNum = dsm.allocPage(partNum);
+                buf[0] = (byte) i;
+                dsm.writePage(pageNum, buf);
+            }
+            dsm.sync();
+            long writeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long checksum = 0;
+            for (int s = 0; s < NUM_SCANS; ++s) {
+                for (int i = 0; i < NUM_PAGES; ++i) {
+                    dsm.readPage(DiskSpaceManager.getVirtualPageNum(partNum, i), buf);
+                    checksum += buf[0];
+                }
+            }
+            long scanNanos = System.nanoTime() - start;
+            dsm.close();
+
+            long expected = 0;
+            for (int i = 0; i < NUM_PAGES; ++i) {
+                expected += (byte) i;
+            }
+            assertEquals(expected * NUM_SCANS, checksum);
+            System.out.printf("%-14s alloc+write %6d pages: %8.1f ms   scan x%d: %8.1f ms (%.0f pages/s)%n",
+                              mode, NUM_PAGES, writeNanos / 1e6, NUM_SCANS, scanNanos / 1e6,
+                              NUM_SCANS * NUM_PAGES / (scanNanos / 1e9));
+        }
+    }
+
+    @Test
+    public void benchmarkBatchedReads() throws IOException {
+        DiskSpaceManager dsm = new DiskSpaceManagerImpl(tempFolder.newFolder("batched").toString(),
+                                                        new DummyRecoveryManager());
+        int partNum = dsm.allocPart();
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            dsm.allocPage(partNum);
+        }
+
+        for (int batchSize : new int[] { 1, 8, 64 }) {
+            long[] pageNums = new long[batchSize];
+            byte[][] bufs = new byte[batchSize][DiskSpaceManager.PAGE_SIZE];
+            long start = System.nanoTime();
+            for (int s = 0; s < NUM_SCANS; ++s) {
+                for (int i = 0; i < NUM_PAGES; i += batchSize) {
+                    for (int j = 0; j < batchSize; ++j) {
+                        pageNums[j] = DiskSpaceManager.getVirtualPageNum(partNum, i + j);
+                    }
+                    if (batchSize == 1) {
+                        dsm.readPage(pageNums[0], bufs[0]);
+                    } else {
+                        dsm.readPages(pageNums, bufs);
+                    }
+                }
+            }
+            long scanNanos = System.nanoTime() - start;
+            System.out.printf("readPages batch %3d: scan x%d: %8.1f ms (%.0f pages/s)%n", batchSize, NUM_SCANS,
+                              scanNanos / 1e6, NUM_SCANS * NUM_PAGES / (scanNanos / 1e9));
+        }
+        dsm.close();
+    }
+
+    @Test
+    public void benchmarkConcurrentReads() throws Exception {
+        for (DiskSpaceManagerImpl.IOMode mode : DiskSpaceManagerImpl.IOMode.values()) {
+            String dir = tempFolder.newFolder("concurrent-" + mode.name()).toString();
+            DiskSpaceManager dsm = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(), mode);
+            int partNum = dsm.allocPart();
+            for (int i = 0; i < NUM_PAGES; ++i) {
+                dsm.allocPage(partNum);
+            }
+
+            for (int numThreads : new int[] { 1, 2, 4, 8 }) {
+                // Every thread does the same number of random reads, so perfect scaling
+                // shows up as constant wall-clock time.
+                int readsPerThread = NUM_SCANS * NUM_PAGES;
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < numThreads; ++t) {
+                    final long seed = t;
+                    threads.add(new Thread(() -> {
+                        Random random = new Random(seed);
+                        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                        for (int i = 0; i < readsPerThread; ++i) {
+                            dsm.readPage(DiskSpaceManager.getVirtualPageNum(partNum, random.nextInt(NUM_PAGES)), buf);
+                        }
+                    }));
+                }
+                long start = System.nanoTime();
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%-14s %d thread(s): %8.1f ms (%.0f pages/s)%n", mode, numThreads,
+                                  nanos / 1e6, numThreads * readsPerThread / (nanos / 1e9));
+            }
+            dsm.close();
+        }
+    }
+
+    @Test
+    public void benchmarkCompression() throws IOException {
+        String dir = tempFolder.newFolder("compression").toString();
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager());
+        int plainPart = dsm.allocPart();
+        int compressedPart = dsm.allocCompressedPart();
+
+        // pages of fixed-width records with NUL-padded strings, like a table's data pages
+        int batchSize = 64;
+        long[][] pageNums = new long[2][batchSize];
+        byte[][] bufs = new byte[batchSize][DiskSpaceManager.PAGE_SIZE];
+        int recordNum = 0;
+        for (int i = 0; i < NUM_PAGES; i += batchSize) {
+            for (int j = 0; j < batchSize; ++j) {
+                ByteBuffer b = ByteBuffer.wrap(bufs[j]);
+                b.position(64);
+                while (b.remaining() >= 41) {
+                    byte[] name = ("name" + recordNum).getBytes();
+                    b.put((byte) 1).putInt(recordNum).putFloat(recordNum * 0.5f).put(name).put(new byte[32 - name.length]);
+                    ++recordNum;
+                }
+                pageNums[0][j] = dsm.allocPage(plainPart);
+                pageNums[1][j] = dsm.allocPage(compressedPart);
+            }
+            dsm.writePages(pageNums[0], bufs);
+            dsm.writePages(pageNums[1], bufs);
+        }
+        dsm.close();
+
+        long plainBytes = (long) NUM_PAGES * DiskSpaceManager.PAGE_SIZE;
+        long compressedBytes = new File(dir, compressedPart + CompressedPageStore.FILE_SUFFIX).length();
+        System.out.printf("compression: %d pages, %d bytes -> %d bytes (ratio %.2f)%n", NUM_PAGES, plainBytes,
+                          compressedBytes, (double) plainBytes / compressedBytes);
+
+        dsm = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        double[] pagesPerSecond = new double[2];
+        int[] parts = new int[] { plainPart, compressedPart };
+        for (int p = 0; p < 2; ++p) {
+            long start = System.nanoTime();
+            for (int s = 0; s < NUM_SCANS; ++s) {
+                for (int i = 0; i < NUM_PAGES; ++i) {
+                    dsm.readPage(DiskSpaceManager.getVirtualPageNum(parts[p], i), buf);
+                }
+            }
+            pagesPerSecond[p] = NUM_SCANS * NUM_PAGES / ((System.nanoTime() - start) / 1e9);
+        }
+        dsm.close();
+        System.out.printf("scan x%d: uncompressed %.0f pages/s, compressed %.0f pages/s (%+.1f%%)%n", NUM_SCANS,
+                          pagesPerSecond[0], pagesPerSecond[1], 100 * (pagesPerSecond[1] / pagesPerSecond[0] - 1));
+    }
+}
@@ -9,9 +9,18 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -298,5 +307,683 @@ public class TestDiskSpaceManager {
         diskSpaceManager.freePart(partNum2);
         diskSpaceManager.close();
     }
-}
 
+    @Test
+    public void testMappedReadWritePersistent() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf1.length; ++i) {
+            buf1[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+            buf2[i] = (byte) ((Integer.valueOf(i).hashCode() >> 8) & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.writePage(pageNum2, buf2);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.sync();
+        diskSpaceManager.close();
+
+        // the file layout is the same in both modes
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        assertTrue(diskSpaceManager.pageAllocated(pageNum2));
+        assertFalse(diskSpaceManager.pageAllocated(pageNum2 + 1));
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testMappedAcrossRegions() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED);
+        int partNum = diskSpaceManager.allocPart();
+        int numPages = PartitionHandle.MAPPED_REGION_PAGES + 2;
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            long pageNum = diskSpaceManager.allocPage(partNum);
+            buf[0] = (byte) i;
+            buf[DiskSpaceManager.PAGE_SIZE - 1] = (byte) (i >> 8);
+            diskSpaceManager.writePage(pageNum, buf);
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED);
+        for (int i = 0; i < numPages; ++i) {
+            diskSpaceManager.readPage(DiskSpaceManager.getVirtualPageNum(partNum, i), buf);
+            assertEquals((byte) i, buf[0]);
+            assertEquals((byte) (i >> 8), buf[DiskSpaceManager.PAGE_SIZE - 1]);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testMappedFileSize() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        buf[0] = 42;
+        diskSpaceManager.writePage(pageNum, buf);
+        diskSpaceManager.close();
+
+        // the file only grows to the end of the first extent, not the whole mapped region
+        File file = managerRoot.resolve(Integer.toString(partNum)).toFile();
+        assertEquals((long) DiskSpaceManagerImpl.EXTENT_PAGES * DiskSpaceManager.PAGE_SIZE, file.length());
+
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED);
+        diskSpaceManager.readPage(pageNum, buf);
+        assertEquals(42, buf[0]);
+        diskSpaceManager.close();
+        assertEquals((long) DiskSpaceManagerImpl.EXTENT_PAGES * DiskSpaceManager.PAGE_SIZE, file.length());
+    }
+
+    @Test
+    public void testReadWritePages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long[] pageNums = new long[6];
+        for (int i = 0; i < 4; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum1);
+        }
+        pageNums[4] = diskSpaceManager.allocPage(partNum2);
+        pageNums[5] = diskSpaceManager.allocPage(partNum2);
+        // pages out of order, with a gap in partition 1
+        long[] batch = new long[] { pageNums[5], pageNums[3], pageNums[0], pageNums[4], pageNums[1] };
+
+        byte[][] bufs = new byte[batch.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < batch.length; ++i) {
+            for (int j = 0; j < DiskSpaceManager.PAGE_SIZE; ++j) {
+                bufs[i][j] = (byte) ((Integer.valueOf(j).hashCode() >> i) & 0xFF);
+            }
+        }
+        diskSpaceManager.writePages(batch, bufs);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[][] readbufs = new byte[batch.length][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(batch, readbufs);
+        for (int i = 0; i < batch.length; ++i) {
+            assertArrayEquals(bufs[i], readbufs[i]);
+        }
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNums[2], readbuf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], readbuf);
+
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = PageException.class)
+    public void testReadPagesUnallocated() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        byte[][] bufs = new byte[2][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(new long[] { pageNum, pageNum + 1 }, bufs);
+    }
+
+    @Test
+    public void testConcurrentReadWrite() throws Exception {
+        for (DiskSpaceManagerImpl.IOMode mode : DiskSpaceManagerImpl.IOMode.values()) {
+            diskSpaceManager = new DiskSpaceManagerImpl(tempFolder.newFolder(mode.name()).toString(),
+                    new DummyRecoveryManager(), mode);
+            int partNum = diskSpaceManager.allocPart();
+            int numThreads = 4;
+            int pagesPerThread = 64;
+
+            // Each thread allocates its own pages in the shared partition (interleaved
+            // with the other threads' allocations), and repeatedly rewrites them and reads
+            // them back, singly and in batches.
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < numThreads; ++t) {
+                final int threadNum = t;
+                threads.add(new Thread(() -> {
+                    try {
+                        long[] pages = new long[pagesPerThread];
+                        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                        for (int i = 0; i < pagesPerThread; ++i) {
+                            pages[i] = diskSpaceManager.allocPage(partNum);
+                        }
+                        for (int round = 0; round < 10; ++round) {
+                            byte[][] writeBufs = new byte[pagesPerThread][DiskSpaceManager.PAGE_SIZE];
+                            for (int i = 0; i < pagesPerThread; ++i) {
+                                writeBufs[i][0] = (byte) threadNum;
+                                writeBufs[i][1] = (byte) i;
+                                writeBufs[i][2] = (byte) round;
+                                if (round % 2 == 0) {
+                                    diskSpaceManager.writePage(pages[i], writeBufs[i]);
+                                }
+                            }
+                            if (round % 2 == 1) {
+                                diskSpaceManager.writePages(pages, writeBufs);
+                            }
+                            for (int i = 0; i < pagesPerThread; ++i) {
+                                diskSpaceManager.readPage(pages[i], buf);
+                                assertEquals((byte) threadNum, buf[0]);
+                                assertEquals((byte) i, buf[1]);
+                                assertEquals((byte) round, buf[2]);
+                            }
+                            byte[][] bufs = new byte[pagesPerThread][DiskSpaceManager.PAGE_SIZE];
+                            diskSpaceManager.readPages(pages, bufs);
+                            for (int i = 0; i < pagesPerThread; ++i) {
+                                assertEquals((byte) threadNum, bufs[i][0]);
+                                assertEquals((byte) i, bufs[i][1]);
+                                assertEquals((byte) round, bufs[i][2]);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (failure.get() != null) {
+                throw new AssertionError(mode + ": " + failure.get(), failure.get());
+            }
+            for (int i = 0; i < numThreads * pagesPerThread; ++i) {
+                assertTrue(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, i)));
+            }
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testReadWritePageAsync() throws IOException {
+        for (DiskSpaceManagerImpl.IOMode mode : DiskSpaceManagerImpl.IOMode.values()) {
+            String dir = tempFolder.newFolder("async-" + mode.name()).toString();
+            // queue depth of 2, so most of the operations have to wait for earlier ones
+            diskSpaceManager = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(), mode, 2);
+            int partNum = diskSpaceManager.allocPart();
+            int numPages = 64;
+            long[] pageNums = new long[numPages];
+            byte[][] bufs = new byte[numPages][DiskSpaceManager.PAGE_SIZE];
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < numPages; ++i) {
+                pageNums[i] = diskSpaceManager.allocPage(partNum);
+                bufs[i][0] = (byte) i;
+                bufs[i][DiskSpaceManager.PAGE_SIZE - 1] = (byte) ~i;
+                futures.add(diskSpaceManager.writePageAsync(pageNums[i], bufs[i]));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            diskSpaceManager.close();
+
+            diskSpaceManager = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(), mode, 2);
+            byte[][] readBufs = new byte[numPages][DiskSpaceManager.PAGE_SIZE];
+            futures.clear();
+            for (int i = 0; i < numPages; ++i) {
+                futures.add(diskSpaceManager.readPageAsync(pageNums[i], readBufs[i]));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            for (int i = 0; i < numPages; ++i) {
+                assertArrayEquals(bufs[i], readBufs[i]);
+            }
+            diskSpaceManager.close();
+        }
+    }
+
+    /**
+     * Page-sized view of a slab of direct memory, like the buffer manager's frames.
+     */
+    private static ByteBuffer directPage(ByteBuffer slab, int index) {
+        ByteBuffer b = slab.duplicate();
+        b.limit((index + 1) * DiskSpaceManager.PAGE_SIZE);
+        b.position(index * DiskSpaceManager.PAGE_SIZE);
+        return b.slice();
+    }
+
+    @Test
+    public void testDirectBufferIO() throws IOException {
+        for (DiskSpaceManagerImpl.IOMode mode : DiskSpaceManagerImpl.IOMode.values()) {
+            String dir = tempFolder.newFolder("direct-" + mode.name()).toString();
+            DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(), mode);
+            diskSpaceManager = dsm;
+            for (int partNum : new int[] { dsm.allocPart(), dsm.allocCompressedPart() }) {
+                ByteBuffer slab = ByteBuffer.allocateDirect(6 * DiskSpaceManager.PAGE_SIZE);
+                long[] pageNums = new long[3];
+                byte[][] pages = new byte[3][DiskSpaceManager.PAGE_SIZE];
+                for (int i = 0; i < 3; ++i) {
+                    pageNums[i] = dsm.allocPage(partNum);
+                    pages[i][0] = (byte) (i + 1);
+                    pages[i][DiskSpaceManager.PAGE_SIZE - 1] = (byte) ~i;
+                    directPage(slab, i).put(pages[i]);
+                }
+                dsm.writePage(pageNums[0], directPage(slab, 0));
+                dsm.writePages(new long[] { pageNums[2], pageNums[1] },
+                               new ByteBuffer[] { directPage(slab, 2), directPage(slab, 1) });
+
+                // read into the other half of the slab, leaving positions alone
+                for (int i = 0; i < 3; ++i) {
+                    ByteBuffer view = directPage(slab, 3 + i);
+                    if (i == 2) {
+                        dsm.readPageAsync(pageNums[i], view).join();
+                    } else {
+                        dsm.readPage(pageNums[i], view);
+                    }
+                    assertEquals(0, view.position());
+                    byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+                    view.get(actual);
+                    assertArrayEquals(pages[i], actual);
+                    // byte arrays still work alongside
+                    dsm.readPage(pageNums[i], actual);
+                    assertArrayEquals(pages[i], actual);
+                }
+            }
+            try {
+                dsm.readPage(DiskSpaceManager.getVirtualPageNum(0, 0), ByteBuffer.allocateDirect(10));
+                fail();
+            } catch (IllegalArgumentException e) {
+                /* do nothing */
+            }
+            dsm.close();
+        }
+    }
+
+    @Test
+    public void testReadPageAsyncUnallocated() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        CompletableFuture<Void> future = diskSpaceManager.readPageAsync(pageNum + 1,
+                                         new byte[DiskSpaceManager.PAGE_SIZE]);
+        try {
+            future.join();
+            fail("read of unallocated page should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof PageException);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testWritePageAsyncUnallocated() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        // more failures than there are permits: none of them may keep its permit
+        for (int i = 0; i < DiskSpaceManagerImpl.DEFAULT_MAX_ASYNC_IOS * 2; ++i) {
+            CompletableFuture<Void> future = diskSpaceManager.writePageAsync(pageNum + 1,
+                                             new byte[DiskSpaceManager.PAGE_SIZE]);
+            try {
+                future.join();
+                fail("write of unallocated page should fail");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof PageException);
+            }
+        }
+        diskSpaceManager.readPageAsync(pageNum, new byte[DiskSpaceManager.PAGE_SIZE]).join();
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadPagesAsync() throws IOException {
+        for (DiskSpaceManagerImpl.IOMode mode : DiskSpaceManagerImpl.IOMode.values()) {
+            String dir = tempFolder.newFolder("async-batch-" + mode.name()).toString();
+            DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(), mode);
+            diskSpaceManager = dsm;
+            int partNum1 = dsm.allocPart();
+            int partNum2 = dsm.allocCompressedPart();
+            long[] pageNums = new long[6];
+            for (int i = 0; i < 4; ++i) {
+                pageNums[i] = dsm.allocPage(partNum1);
+            }
+            pageNums[4] = dsm.allocPage(partNum2);
+            pageNums[5] = dsm.allocPage(partNum2);
+            // pages out of order, with a gap in partition 1
+            long[] batch = new long[] { pageNums[5], pageNums[3], pageNums[0], pageNums[4], pageNums[1] };
+            byte[][] bufs = new byte[batch.length][DiskSpaceManager.PAGE_SIZE];
+            for (int i = 0; i < batch.length; ++i) {
+                bufs[i][0] = (byte) (i + 1);
+                bufs[i][DiskSpaceManager.PAGE_SIZE - 1] = (byte) ~i;
+            }
+            dsm.writePages(batch, bufs);
+
+            dsm.getIOMetrics().reset();
+            byte[][] readBufs = new byte[batch.length][DiskSpaceManager.PAGE_SIZE];
+            ByteBuffer[] views = new ByteBuffer[batch.length];
+            for (int i = 0; i < batch.length; ++i) {
+                views[i] = ByteBuffer.wrap(readBufs[i]);
+            }
+            dsm.readPagesAsync(batch, views).join();
+            for (int i = 0; i < batch.length; ++i) {
+                assertArrayEquals(bufs[i], readBufs[i]);
+                assertEquals(0, views[i].position());
+            }
+            assertEquals(3, dsm.getIOMetrics().get(partNum1).getNumReads());
+            assertEquals(2, dsm.getIOMetrics().get(partNum2).getNumReads());
+
+            try {
+                dsm.readPagesAsync(new long[] { pageNums[0], pageNums[3] + 1 },
+                                   new ByteBuffer[] { ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE),
+                                                      ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE) }).join();
+                fail("read of unallocated page should fail");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof PageException);
+            }
+            dsm.close();
+        }
+    }
+
+    @Test
+    public void testCompressedReadWritePersistent() throws IOException {
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        diskSpaceManager = dsm;
+        int partNum = dsm.allocCompressedPart();
+        int numPages = 64;
+        byte[][] pages = new byte[numPages][DiskSpaceManager.PAGE_SIZE];
+        Random random = new Random(186);
+        for (int i = 0; i < numPages; ++i) {
+            if (i % 8 == 0) {
+                // incompressible
+                random.nextBytes(pages[i]);
+            } else {
+                for (int j = 0; j < 100; ++j) {
+                    pages[i][j * 40] = (byte) (i + j);
+                }
+            }
+            long pageNum = dsm.allocPage(partNum);
+            dsm.writePage(pageNum, pages[i]);
+        }
+        dsm.close();
+
+        File compressedPages = new File(managerRoot.toString(), partNum + CompressedPageStore.FILE_SUFFIX);
+        assertTrue(compressedPages.length() < (long) numPages * DiskSpaceManager.PAGE_SIZE / 2);
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            diskSpaceManager.readPage(DiskSpaceManager.getVirtualPageNum(partNum, i), buf);
+            assertArrayEquals(pages[i], buf);
+        }
+        byte[][] bufs = new byte[2][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(new long[] {
+            DiskSpaceManager.getVirtualPageNum(partNum, 8), DiskSpaceManager.getVirtualPageNum(partNum, 9)
+        }, bufs);
+        assertArrayEquals(pages[8], bufs[0]);
+        assertArrayEquals(pages[9], bufs[1]);
+
+        diskSpaceManager.freePart(partNum);
+        assertFalse(compressedPages.exists());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testCompressedTornWrite() throws IOException {
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        diskSpaceManager = dsm;
+        int partNum = dsm.allocCompressedPart();
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        page[100] = 42;
+        long pageNum1 = dsm.allocPage(partNum);
+        long pageNum2 = dsm.allocPage(partNum);
+        dsm.writePage(pageNum1, page);
+        dsm.close();
+
+        // simulate a crash in the middle of appending a record for page 2
+        File compressedPages = new File(managerRoot.toString(), partNum + CompressedPageStore.FILE_SUFFIX);
+        long length = compressedPages.length();
+        try (FileOutputStream out = new FileOutputStream(compressedPages, true)) {
+            out.write(new byte[] { 0, 0, 0, 1, 0, 0, 0, 50, 1, 2, 3, 4, 5 });
+        }
+
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(length, compressedPages.length());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, buf);
+        assertArrayEquals(page, buf);
+        diskSpaceManager.readPage(pageNum2, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testCompressedCompaction() {
+        // memory-mapped mode doesn't force every write, which keeps this fast
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                DiskSpaceManagerImpl.IOMode.MEMORY_MAPPED);
+        diskSpaceManager = dsm;
+        int partNum = dsm.allocCompressedPart();
+        long pageNum1 = dsm.allocPage(partNum);
+        long pageNum2 = dsm.allocPage(partNum);
+        Random random = new Random(186);
+        byte[] page1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] page2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        random.nextBytes(page2);
+        dsm.writePage(pageNum2, page2);
+        for (int i = 0; i < 1000; ++i) {
+            random.nextBytes(page1);
+            dsm.writePage(pageNum1, page1);
+        }
+        dsm.close();
+
+        // 1000 rewrites of an incompressible page would take up 4M without compaction
+        File compressedPages = new File(managerRoot.toString(), partNum + CompressedPageStore.FILE_SUFFIX);
+        assertTrue(compressedPages.length() < 2 * 1024 * 1024);
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, buf);
+        assertArrayEquals(page1, buf);
+        diskSpaceManager.readPage(pageNum2, buf);
+        assertArrayEquals(page2, buf);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testExtentAllocation() {
+        DiskSpaceManagerImpl dsm = (DiskSpaceManagerImpl) getDiskSpaceManager();
+        diskSpaceManager = dsm;
+        int partNum = dsm.allocPart();
+        long[] pages = new long[10];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = dsm.allocPage(partNum);
+            assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, i), pages[i]);
+        }
+        // the extent covers the first 64 pages, which are preallocated in the file
+        assertEquals((2 + DiskSpaceManagerImpl.EXTENT_PAGES) * DiskSpaceManager.PAGE_SIZE,
+                     managerRoot.resolve(Integer.toString(partNum)).toFile().length());
+
+        // freed pages aren't reused while the extent has pages left...
+        dsm.freePage(pages[3]);
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 10), dsm.allocPage(partNum));
+
+        // ...or around pages that were allocated by number
+        dsm.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, 11));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 12), dsm.allocPage(partNum));
+
+        for (int i = 13; i < DiskSpaceManagerImpl.EXTENT_PAGES; ++i) {
+            dsm.allocPage(partNum);
+        }
+        // once the extent is used up, the freed page is reused before the next extent is started
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 3), dsm.allocPage(partNum));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, DiskSpaceManagerImpl.EXTENT_PAGES),
+                     dsm.allocPage(partNum));
+        dsm.close();
+
+        // reservations don't survive a restart, but the extent that was being filled is picked
+        // up again (rather than the hole at page 3)
+        dsm = (DiskSpaceManagerImpl) getDiskSpaceManager();
+        diskSpaceManager = dsm;
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, DiskSpaceManagerImpl.EXTENT_PAGES + 1),
+                     dsm.allocPage(partNum));
+
+        // freed pages are reused before the partition grows any further
+        for (int i = DiskSpaceManagerImpl.EXTENT_PAGES + 2; i < 2 * DiskSpaceManagerImpl.EXTENT_PAGES; ++i) {
+            dsm.allocPage(partNum);
+        }
+        dsm.freePage(DiskSpaceManager.getVirtualPageNum(partNum, 100));
+        dsm.close();
+        dsm = (DiskSpaceManagerImpl) getDiskSpaceManager();
+        diskSpaceManager = dsm;
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 100), dsm.allocPage(partNum));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 2 * DiskSpaceManagerImpl.EXTENT_PAGES),
+                     dsm.allocPage(partNum));
+        dsm.close();
+    }
+
+    @Test
+    public void testFragmentation() {
+        DiskSpaceManagerImpl dsm = (DiskSpaceManagerImpl) getDiskSpaceManager();
+        diskSpaceManager = dsm;
+        int partNum1 = dsm.allocPart();
+        int partNum2 = dsm.allocPart();
+        assertEquals(0.0, dsm.getFragmentation(partNum1), 1e-9);
+
+        // interleaved growth keeps each partition contiguous
+        long[] pages = new long[100];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = dsm.allocPage(partNum1);
+            dsm.allocPage(partNum2);
+        }
+        assertEquals(0.0, dsm.getFragmentation(partNum1), 1e-9);
+        assertEquals(0.0, dsm.getFragmentation(partNum2), 1e-9);
+
+        // 50 pages left, no two of them adjacent
+        for (int i = 1; i < pages.length; i += 2) {
+            dsm.freePage(pages[i]);
+        }
+        assertEquals(1.0, dsm.getFragmentation(partNum1), 1e-9);
+
+        // 25 runs of 2 pages
+        for (int i = 1; i < pages.length; i += 4) {
+            dsm.allocPage(pages[i]);
+        }
+        assertEquals(24.0 / 74, dsm.getFragmentation(partNum1), 1e-9);
+        dsm.close();
+    }
+
+    @Test
+    public void testBatchedSync() {
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                DiskSpaceManagerImpl.IOMode.BATCHED_SYNC);
+        long[] pageNums = new long[4];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = dsm.allocPage(dsm.allocPart());
+        }
+        dsm.sync();
+        assertEquals(1, dsm.getNumSyncBarriers());
+        long partitionSyncs = dsm.getNumPartitionSyncs();
+
+        // only the partitions written to since the last barrier are forced, all at once
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < 3; ++i) {
+            buf[0] = (byte) (i + 1);
+            dsm.writePage(pageNums[i], buf);
+        }
+        dsm.sync();
+        assertEquals(2, dsm.getNumSyncBarriers());
+        assertEquals(partitionSyncs + 3, dsm.getNumPartitionSyncs());
+
+        dsm.sync();
+        assertEquals(3, dsm.getNumSyncBarriers());
+        assertEquals(partitionSyncs + 3, dsm.getNumPartitionSyncs());
+        dsm.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < 3; ++i) {
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertEquals((byte) (i + 1), buf[0]);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testConcurrentSyncBarriers() throws InterruptedException {
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                DiskSpaceManagerImpl.IOMode.BATCHED_SYNC);
+        int numThreads = 8;
+        int numSyncs = 20;
+        long[] pageNums = new long[numThreads];
+        for (int i = 0; i < numThreads; ++i) {
+            pageNums[i] = dsm.allocPage(dsm.allocPart());
+        }
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; ++i) {
+            long pageNum = pageNums[i];
+            threads.add(new Thread(() -> {
+                try {
+                    byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                    for (int j = 0; j < numSyncs; ++j) {
+                        buf[0] = (byte) j;
+                        dsm.writePage(pageNum, buf);
+                        dsm.sync();
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(error.get());
+        // every sync() either carried out a barrier or shared one
+        assertTrue(dsm.getNumSyncBarriers() <= numThreads * numSyncs);
+        assertTrue(dsm.getNumSyncBarriers() >= numSyncs);
+        dsm.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (long pageNum : pageNums) {
+            diskSpaceManager.readPage(pageNum, buf);
+            assertEquals((byte) (numSyncs - 1), buf[0]);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testIOMetrics() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long page1 = diskSpaceManager.allocPage(partNum1);
+        long page2 = diskSpaceManager.allocPage(partNum2);
+        long page3 = diskSpaceManager.allocPage(partNum2);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.writePage(page1, buf);
+        diskSpaceManager.readPage(page1, buf);
+        diskSpaceManager.readPages(new long[] { page1, page2, page3 },
+                new byte[][] { new byte[DiskSpaceManager.PAGE_SIZE], new byte[DiskSpaceManager.PAGE_SIZE],
+                        new byte[DiskSpaceManager.PAGE_SIZE] });
+        diskSpaceManager.writePageAsync(page2, buf).join();
+        diskSpaceManager.freePage(page3);
+
+        IOMetrics.PartitionMetrics metrics1 = diskSpaceManager.getIOMetrics().getPartitions().get(partNum1);
+        assertEquals(1, metrics1.getNumAllocs());
+        assertEquals(2, metrics1.getNumReads());
+        assertEquals(1, metrics1.getNumWrites());
+        assertEquals(2, metrics1.getReadLatency().getCount());
+        IOMetrics.PartitionMetrics metrics2 = diskSpaceManager.getIOMetrics().getPartitions().get(partNum2);
+        assertEquals(2, metrics2.getNumAllocs());
+        assertEquals(1, metrics2.getNumFrees());
+        assertEquals(2, metrics2.getNumReads());
+        // the two pages were read in one request
+        assertEquals(1, metrics2.getReadLatency().getCount());
+        assertEquals(1, metrics2.getNumWrites());
+        assertEquals(DiskSpaceManager.PAGE_SIZE, metrics2.getBytesWritten());
+        diskSpaceManager.close();
+    }
+}
@@ -0,0 +1,65 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestIOMetrics {
+    @Test
+    public void testLatencyHistogram() {
+        IOMetrics.LatencyHistogram histogram = new IOMetrics.LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(0, histogram.getMeanNanos(), 0);
+
+        for (int i = 0; i < 98; ++i) {
+            histogram.record(1000);
+        }
+        histogram.record(0);
+        histogram.record(1000000);
+        assertEquals(100, histogram.getCount());
+        assertEquals((98 * 1000 + 1000000) / 100.0, histogram.getMeanNanos(), 1e-9);
+        // 1000 is in [512, 1024)
+        assertEquals(1023, histogram.getPercentileNanos(50));
+        assertEquals(1023, histogram.getPercentileNanos(99));
+        // 1000000 is in [2^19, 2^20)
+        assertEquals((1 << 20) - 1, histogram.getPercentileNanos(100));
+        assertEquals(0, histogram.getPercentileNanos(1));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testPartitionMetrics() {
+        IOMetrics metrics = new IOMetrics();
+        metrics.get(3).recordRead(4, 100);
+        metrics.get(3).recordRead(1, -1);
+        metrics.get(3).recordWrite(2, 50);
+        metrics.get(3).recordAlloc();
+        metrics.get(5).recordFree();
+
+        IOMetrics.PartitionMetrics part = metrics.getPartitions().get(3);
+        assertEquals(5, part.getNumReads());
+        assertEquals(5L * DiskSpaceManager.PAGE_SIZE, part.getBytesRead());
+        assertEquals(2, part.getNumWrites());
+        assertEquals(2L * DiskSpaceManager.PAGE_SIZE, part.getBytesWritten());
+        assertEquals(1, part.getNumAllocs());
+        // a batch is one request, and unknown latencies are not recorded
+        assertEquals(1, part.getReadLatency().getCount());
+        assertEquals(1, part.getWriteLatency().getCount());
+        assertEquals(1, metrics.getPartitions().get(5).getNumFrees());
+
+        // temporary partitions share one entry
+        metrics.get(DiskSpaceManager.TEMP_PART_BASE + 1).recordRead(1, 10);
+        metrics.get(DiskSpaceManager.TEMP_PART_BASE + 7).recordRead(1, 10);
+        assertEquals(2, metrics.get(DiskSpaceManager.TEMP_PART_BASE).getNumReads());
+        assertEquals(3, metrics.getPartitions().size());
+
+        metrics.reset();
+        assertTrue(metrics.getPartitions().isEmpty());
+    }
+}
@@ -0,0 +1,73 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLZPageCodec {
+    private static byte[] roundTrip(byte[] page) {
+        byte[] compressed = new byte[DiskSpaceManager.PAGE_SIZE - 1];
+        int length = LZPageCodec.compress(page, compressed);
+        assertTrue(length > 0);
+        byte[] decompressed = new byte[page.length];
+        LZPageCodec.decompress(compressed, length, decompressed);
+        assertArrayEquals(page, decompressed);
+        return Arrays.copyOf(compressed, length);
+    }
+
+    @Test
+    public void testZeroPage() {
+        byte[] compressed = roundTrip(new byte[DiskSpaceManager.PAGE_SIZE]);
+        assertTrue(compressed.length < 32);
+    }
+
+    @Test
+    public void testRecordsPage() {
+        // fixed-width records with NUL-padded strings, like a table's data page
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        ByteBuffer b = ByteBuffer.wrap(page);
+        b.position(64);
+        for (int i = 0; b.remaining() >= 41; ++i) {
+            b.put((byte) 1).putInt(i).putFloat(i * 1.5f);
+            byte[] s = ("name" + i).getBytes();
+            b.put(s).put(new byte[32 - s.length]);
+        }
+        byte[] compressed = roundTrip(page);
+        assertTrue(compressed.length < DiskSpaceManager.PAGE_SIZE / 2);
+    }
+
+    @Test
+    public void testLongLiteralsAndMatches() {
+        // a random prefix (one long literal run) followed by repeats of it (long matches)
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        Random random = new Random(186);
+        byte[] prefix = new byte[700];
+        random.nextBytes(prefix);
+        for (int i = 0; i < page.length; i += prefix.length) {
+            System.arraycopy(prefix, 0, page, i, Math.min(prefix.length, page.length - i));
+        }
+        roundTrip(page);
+    }
+
+    @Test
+    public void testIncompressible() {
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        new Random(186).nextBytes(page);
+        assertEquals(-1, LZPageCodec.compress(page, new byte[DiskSpaceManager.PAGE_SIZE - 1]));
+    }
+
+    @Test(expected = PageException.class)
+    public void testCorrupt() {
+        // no literals, then a match whose offset points before the start of the page
+        byte[] compressed = new byte[] { 0x0F, 0x01, 0x00, 0x00 };
+        LZPageCodec.decompress(compressed, compressed.length, new byte[DiskSpaceManager.PAGE_SIZE]);
+    }
+}
@@ -0,0 +1,219 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestTablespaceDiskSpaceManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private TablespaceDiskSpaceManager diskSpaceManager;
+    private Path managerRoot;
+
+    @Before
+    public void beforeEach() throws IOException {
+        managerRoot = tempFolder.newFolder("tablespace-test").toPath();
+    }
+
+    private TablespaceDiskSpaceManager getDiskSpaceManager() {
+        return new TablespaceDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager());
+    }
+
+    private static byte[] pageWith(int value) {
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < page.length; i += 4) {
+            page[i] = (byte) value;
+            page[i + 1] = (byte) (value >> 8);
+        }
+        return page;
+    }
+
+    @Test
+    public void testAllocFreePartIsMetadataOnly() {
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < 100; ++i) {
+            int partNum = diskSpaceManager.allocPart();
+            assertEquals(i, partNum);
+            diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.freePart(partNum);
+        }
+        // each partition reused the extent the last one gave back
+        assertEquals(0, diskSpaceManager.getNumUsedExtents());
+        diskSpaceManager.close();
+
+        File[] files = managerRoot.toFile().listFiles();
+        assertEquals(1, files.length);
+        assertEquals(TablespaceDiskSpaceManager.FILE_NAME, files[0].getName());
+        long extentBytes = (long) TablespaceDiskSpaceManager.EXTENT_PAGES * DiskSpaceManager.PAGE_SIZE;
+        assertEquals(DiskSpaceManager.PAGE_SIZE + extentBytes, files[0].length());
+    }
+
+    @Test
+    public void testAllocPart() {
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(0, diskSpaceManager.allocPart(0));
+        assertEquals(1, diskSpaceManager.allocPart());
+        assertEquals(5, diskSpaceManager.allocPart(5));
+        assertEquals(6, diskSpaceManager.allocPart());
+        try {
+            diskSpaceManager.allocPart(5);
+            fail();
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        }
+        diskSpaceManager.freePart(6);
+        try {
+            diskSpaceManager.freePart(6);
+            fail();
+        } catch (NoSuchElementException e) {
+            /* do nothing */
+        }
+        diskSpaceManager.close();
+
+        // partitions and the partition number counter survive a restart, even with no pages
+        diskSpaceManager = getDiskSpaceManager();
+        assertFalse(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(5, 0)));
+        try {
+            diskSpaceManager.allocPage(6);
+            fail();
+        } catch (NoSuchElementException e) {
+            /* do nothing */
+        }
+        assertEquals(6, diskSpaceManager.allocPart());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWritePersistent() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        // more than an extent per partition, with allocations interleaved
+        long[] pages1 = new long[150];
+        long[] pages2 = new long[150];
+        for (int i = 0; i < pages1.length; ++i) {
+            pages1[i] = diskSpaceManager.allocPage(partNum1);
+            pages2[i] = diskSpaceManager.allocPage(partNum2);
+            assertEquals(DiskSpaceManager.getVirtualPageNum(partNum1, i), pages1[i]);
+            assertEquals(DiskSpaceManager.getVirtualPageNum(partNum2, i), pages2[i]);
+            diskSpaceManager.writePage(pages1[i], pageWith(i));
+            diskSpaceManager.writePage(pages2[i], pageWith(1000 + i));
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages1.length; ++i) {
+            diskSpaceManager.readPage(pages1[i], buf);
+            assertArrayEquals(pageWith(i), buf);
+            diskSpaceManager.readPage(pages2[i], buf);
+            assertArrayEquals(pageWith(1000 + i), buf);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testFreePage() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pages = new long[TablespaceDiskSpaceManager.EXTENT_PAGES + 1];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(partNum);
+        }
+        assertEquals(2, diskSpaceManager.getNumUsedExtents());
+
+        diskSpaceManager.writePage(pages[3], pageWith(3));
+        diskSpaceManager.freePage(pages[3]);
+        assertFalse(diskSpaceManager.pageAllocated(pages[3]));
+        try {
+            diskSpaceManager.readPage(pages[3], new byte[DiskSpaceManager.PAGE_SIZE]);
+            fail();
+        } catch (PageException e) {
+            /* do nothing */
+        }
+        try {
+            diskSpaceManager.freePage(pages[3]);
+            fail();
+        } catch (NoSuchElementException e) {
+            /* do nothing */
+        }
+
+        // freed pages are reused, and come back zeroed
+        assertEquals(pages[3], diskSpaceManager.allocPage(partNum));
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pages[3], buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+
+        // an extent is given back along with its last page, except for extent 0
+        diskSpaceManager.freePage(pages[TablespaceDiskSpaceManager.EXTENT_PAGES]);
+        assertEquals(1, diskSpaceManager.getNumUsedExtents());
+        for (int i = 0; i < TablespaceDiskSpaceManager.EXTENT_PAGES; ++i) {
+            diskSpaceManager.freePage(pages[i]);
+        }
+        assertEquals(1, diskSpaceManager.getNumUsedExtents());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPageByNumber() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long page = DiskSpaceManager.getVirtualPageNum(partNum, 1000);
+        diskSpaceManager.allocPage(page);
+        assertTrue(diskSpaceManager.pageAllocated(page));
+        assertFalse(diskSpaceManager.pageAllocated(page - 1));
+        try {
+            diskSpaceManager.allocPage(page);
+            fail();
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        }
+        diskSpaceManager.writePage(page, pageWith(1000));
+        // only the extents that have pages are claimed
+        assertEquals(2, diskSpaceManager.getNumUsedExtents());
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 0), diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(page, buf);
+        assertArrayEquals(pageWith(1000), buf);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testManyPartitions() {
+        // more partitions than fit in one map page
+        int numParts = TablespaceDiskSpaceManager.MAP_ENTRIES + 10;
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < numParts; ++i) {
+            int partNum = diskSpaceManager.allocPart();
+            long page = diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.writePage(page, pageWith(i));
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numParts; ++i) {
+            diskSpaceManager.readPage(DiskSpaceManager.getVirtualPageNum(i, 0), buf);
+            assertArrayEquals(pageWith(i), buf);
+        }
+        assertEquals(numParts, diskSpaceManager.allocPart());
+        diskSpaceManager.close();
+    }
+}
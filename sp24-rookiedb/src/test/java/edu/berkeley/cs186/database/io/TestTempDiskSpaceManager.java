@@ -0,0 +1,254 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestTempDiskSpaceManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private TempDiskSpaceManager diskSpaceManager;
+    private Path managerRoot;
+
+    @Before
+    public void beforeEach() throws IOException {
+        managerRoot = tempFolder.newFolder("temp-dsm-test").toPath();
+        diskSpaceManager = new TempDiskSpaceManager(
+                new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager()),
+                managerRoot.toString(), 4 * DiskSpaceManager.PAGE_SIZE);
+    }
+
+    @After
+    public void afterEach() {
+        diskSpaceManager.close();
+    }
+
+    private static byte[] pageWith(int value) {
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        page[0] = (byte) value;
+        page[DiskSpaceManager.PAGE_SIZE - 1] = (byte) (value >> 8);
+        return page;
+    }
+
+    @Test
+    public void testTempPartitionsStayInMemory() {
+        int partNum = diskSpaceManager.allocTempPart();
+        assertTrue(DiskSpaceManager.isTempPart(partNum));
+        long page1 = diskSpaceManager.allocPage(partNum);
+        long page2 = diskSpaceManager.allocPage(partNum);
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 1), page2);
+
+        // never-written pages read as zeros, and take no memory
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(page2, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+        assertEquals(0, diskSpaceManager.getMemoryUsed());
+
+        diskSpaceManager.writePage(page1, pageWith(1));
+        diskSpaceManager.readPage(page1, buf);
+        assertArrayEquals(pageWith(1), buf);
+        assertEquals(DiskSpaceManager.PAGE_SIZE, diskSpaceManager.getMemoryUsed());
+        assertEquals(0, managerRoot.toFile().list().length);
+
+        diskSpaceManager.freePage(page1);
+        assertFalse(diskSpaceManager.pageAllocated(page1));
+        assertEquals(0, diskSpaceManager.getMemoryUsed());
+        // freed pages are reused
+        assertEquals(page1, diskSpaceManager.allocPage(partNum));
+
+        diskSpaceManager.freePart(partNum);
+        assertFalse(diskSpaceManager.pageAllocated(page2));
+        try {
+            diskSpaceManager.allocPage(partNum);
+            fail();
+        } catch (NoSuchElementException e) {
+            /* do nothing */
+        }
+    }
+
+    @Test
+    public void testSpill() {
+        int partNum = diskSpaceManager.allocTempPart();
+        long[] pages = new long[10];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.writePage(pages[i], pageWith(i));
+        }
+        assertEquals(4 * DiskSpaceManager.PAGE_SIZE, diskSpaceManager.getMemoryUsed());
+        assertEquals(6, diskSpaceManager.getNumSpilledPages());
+        // spilled to the database directory
+        Path spillFile = managerRoot.resolve(TempDiskSpaceManager.SPILL_FILE_NAME);
+        assertEquals(6 * DiskSpaceManager.PAGE_SIZE, spillFile.toFile().length());
+
+        // rewriting a spilled page keeps it in the same place
+        diskSpaceManager.writePage(pages[8], pageWith(80));
+        assertEquals(6, diskSpaceManager.getNumSpilledPages());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages.length; ++i) {
+            diskSpaceManager.readPage(pages[i], buf);
+            assertArrayEquals(pageWith(i == 8 ? 80 : i), buf);
+        }
+
+        // a freed page's memory is available again, and freed pages come back zeroed
+        diskSpaceManager.freePage(pages[0]);
+        diskSpaceManager.freePage(pages[9]);
+        assertEquals(pages[0], diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.readPage(pages[0], buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+        diskSpaceManager.writePage(pages[0], pageWith(0));
+        assertEquals(4 * DiskSpaceManager.PAGE_SIZE, diskSpaceManager.getMemoryUsed());
+        assertEquals(5, diskSpaceManager.getNumSpilledPages());
+
+        diskSpaceManager.freePart(partNum);
+        assertEquals(0, diskSpaceManager.getMemoryUsed());
+        assertEquals(0, diskSpaceManager.getNumSpilledPages());
+        assertEquals(0, spillFile.toFile().length());
+
+        diskSpaceManager.close();
+        assertFalse(spillFile.toFile().exists());
+    }
+
+    @Test
+    public void testByteBuffers() throws Exception {
+        // buffers are read and written at their position, as the buffer manager's frames are
+        int partNum = diskSpaceManager.allocTempPart();
+        long[] pages = new long[6];
+        ByteBuffer[] bufs = new ByteBuffer[pages.length];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(partNum);
+            ByteBuffer frame = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE + 8);
+            frame.position(8);
+            bufs[i] = frame.slice();
+            frame.put(pageWith(i));
+            diskSpaceManager.writePage(pages[i], bufs[i]);
+        }
+        assertEquals(2, diskSpaceManager.getNumSpilledPages());
+        long unwritten = diskSpaceManager.allocPage(partNum);
+
+        ByteBuffer frame = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE + 8);
+        frame.position(8);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages.length; ++i) {
+            diskSpaceManager.readPageAsync(pages[i], frame).get();
+            assertEquals(8, frame.position());
+            frame.duplicate().get(buf);
+            assertArrayEquals(pageWith(i), buf);
+        }
+        diskSpaceManager.readPage(unwritten, frame);
+        frame.duplicate().get(buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+
+        ByteBuffer[] readBufs = new ByteBuffer[pages.length];
+        for (int i = 0; i < pages.length; ++i) {
+            readBufs[i] = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+        }
+        diskSpaceManager.readPagesAsync(pages, readBufs).get();
+        for (int i = 0; i < pages.length; ++i) {
+            readBufs[i].get(buf);
+            assertArrayEquals(pageWith(i), buf);
+        }
+    }
+
+    @Test
+    public void testConcurrentPartitions() throws Exception {
+        // each thread works on a partition of its own, which spills once the others
+        // have used up the memory
+        int numThreads = 4;
+        int pagesPerThread = 16;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            final int threadNum = t;
+            threads.add(new Thread(() -> {
+                try {
+                    int partNum = diskSpaceManager.allocTempPart();
+                    long[] pages = new long[pagesPerThread];
+                    for (int round = 0; round < 10; ++round) {
+                        for (int i = 0; i < pagesPerThread; ++i) {
+                            if (round == 0) {
+                                pages[i] = diskSpaceManager.allocPage(partNum);
+                            }
+                            diskSpaceManager.writePage(pages[i], pageWith(threadNum * 1000 + round * 16 + i));
+                        }
+                        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                        for (int i = 0; i < pagesPerThread; ++i) {
+                            diskSpaceManager.readPage(pages[i], buf);
+                            assertArrayEquals(pageWith(threadNum * 1000 + round * 16 + i), buf);
+                        }
+                    }
+                    diskSpaceManager.freePart(partNum);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(0, diskSpaceManager.getMemoryUsed());
+        assertEquals(0, diskSpaceManager.getNumSpilledPages());
+    }
+
+    @Test
+    public void testOtherPartitionsPassThrough() {
+        int partNum = diskSpaceManager.allocPart();
+        assertFalse(DiskSpaceManager.isTempPart(partNum));
+        long page = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePages(new long[] { page }, new byte[][] { pageWith(7) });
+        assertEquals(0, diskSpaceManager.getMemoryUsed());
+        assertArrayEquals(new String[] { Integer.toString(partNum) }, managerRoot.toFile().list());
+
+        // batches may mix temporary and other pages
+        int tempPartNum = diskSpaceManager.allocTempPart();
+        long tempPage = diskSpaceManager.allocPage(tempPartNum);
+        diskSpaceManager.writePage(tempPage, pageWith(8));
+        byte[][] bufs = new byte[2][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(new long[] { page, tempPage }, bufs);
+        assertArrayEquals(pageWith(7), bufs[0]);
+        assertArrayEquals(pageWith(8), bufs[1]);
+    }
+
+    @Test
+    public void testAllocTempPartByNumber() {
+        int partNum = DiskSpaceManager.TEMP_PART_BASE + 5;
+        assertEquals(partNum, diskSpaceManager.allocPart(partNum));
+        try {
+            diskSpaceManager.allocPart(partNum);
+            fail();
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        }
+        assertEquals(DiskSpaceManager.TEMP_PART_BASE, diskSpaceManager.allocTempPart());
+        diskSpaceManager.freePart(partNum);
+        try {
+            diskSpaceManager.freePart(partNum);
+            fail();
+        } catch (NoSuchElementException e) {
+            /* do nothing */
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Cost of the buffer manager's hot paths: page table lookups (against a HashMap), fetches
+ * of pages that are already loaded, from one thread and from many, many threads reading
+ * the same page (with the clock and LRU policies), and the heap taken by the frames of a
+ * large buffer.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class BufferManagerBenchmark {
+    // sized to fit in the test JVM's heap (see the pom): frames of the fetchPage
+    // benchmark are backed by real page buffers
+    private static final int NUM_FRAMES = 65536;
+    private static final int NUM_FETCH_FRAMES = 2048;
+    private static final int ORDER_LENGTH = 1 << 20;
+    private static final int NUM_PASSES = 8;
+    private static final int NUM_LOOKUPS = ORDER_LENGTH * NUM_PASSES;
+    private static final int NUM_ROUNDS = 3;
+    private static final int READS_PER_FETCH = 8;
+
+    @Test
+    public void benchmarkPageTable() {
+        long[] pageNums = new long[NUM_FRAMES];
+        for (int i = 0; i < NUM_FRAMES; ++i) {
+            // a few partitions' worth of pages
+            pageNums[i] = DiskSpaceManager.getVirtualPageNum(3 + i % 8, i / 8);
+        }
+        PageTable table = new PageTable(NUM_FRAMES);
+        Map<Long, Integer> map = new HashMap<>();
+        for (int i = 0; i < NUM_FRAMES; ++i) {
+            table.put(pageNums[i], i);
+            map.put(pageNums[i], i);
+        }
+        int[] order = randomOrder(ORDER_LENGTH, NUM_FRAMES);
+
+        for (int round = 0; round < NUM_ROUNDS; ++round) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int pass = 0; pass < NUM_PASSES; ++pass) {
+                for (int i : order) {
+                    sum += map.get(pageNums[i]);
+                }
+            }
+            long mapNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long tableSum = 0;
+            for (int pass = 0; pass < NUM_PASSES; ++pass) {
+                for (int i : order) {
+                    tableSum += table.get(pageNums[i]);
+                }
+            }
+            long tableNanos = System.nanoTime() - start;
+            assertEquals(sum, tableSum);
+            System.out.printf("lookups x%d: HashMap %6.1f ns/op, PageTable %6.1f ns/op%n", NUM_LOOKUPS,
+                              (double) mapNanos / NUM_LOOKUPS, (double) tableNanos / NUM_LOOKUPS);
+        }
+    }
+
+    @Test
+    public void benchmarkFetchPageHits() {
+        DiskSpaceManager dsm = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(dsm, new DummyRecoveryManager(), NUM_FETCH_FRAMES,
+                                                        new ClockEvictionPolicy());
+        int partNum = dsm.allocPart(1);
+        long[] pageNums = new long[NUM_FETCH_FRAMES];
+        for (int i = 0; i < NUM_FETCH_FRAMES; ++i) {
+            pageNums[i] = dsm.allocPage(partNum);
+            bufferManager.fetchPage(new DummyLockContext(), pageNums[i]).unpin();
+        }
+        int numFetches = NUM_LOOKUPS;
+        int[] order = randomOrder(ORDER_LENGTH, NUM_FETCH_FRAMES);
+        long numIOs = bufferManager.getNumIOs();
+
+        for (int round = 0; round < NUM_ROUNDS; ++round) {
+            DummyLockContext context = new DummyLockContext();
+            long start = System.nanoTime();
+            for (int pass = 0; pass < NUM_PASSES; ++pass) {
+                for (int i : order) {
+                    bufferManager.fetchPage(context, pageNums[i]).unpin();
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("fetchPage+unpin hits x%d: %6.1f ns/op%n", numFetches, (double) nanos / numFetches);
+        }
+        // every fetch was a hit
+        assertEquals(numIOs, bufferManager.getNumIOs());
+        bufferManager.close();
+    }
+
+    @Test
+    public void benchmarkConcurrentFetchPageHits() throws InterruptedException {
+        DiskSpaceManager dsm = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(dsm, new DummyRecoveryManager(), NUM_FETCH_FRAMES,
+                                                        new ClockEvictionPolicy());
+        int partNum = dsm.allocPart(1);
+        long[] pageNums = new long[NUM_FETCH_FRAMES];
+        for (int i = 0; i < NUM_FETCH_FRAMES; ++i) {
+            pageNums[i] = dsm.allocPage(partNum);
+            bufferManager.fetchPageFrame(pageNums[i]).unpin();
+        }
+        int[] order = randomOrder(ORDER_LENGTH, NUM_FETCH_FRAMES);
+        long numIOs = bufferManager.getNumIOs();
+
+        for (int numThreads = 1; numThreads <= 32; numThreads *= 2) {
+            // the same total number of fetches, split between the threads
+            int fetchesPerThread = NUM_LOOKUPS / numThreads;
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; ++t) {
+                int offset = t * (ORDER_LENGTH / numThreads);
+                threads[t] = new Thread(() -> {
+                    for (int n = 0; n < fetchesPerThread; ++n) {
+                        bufferManager.fetchPageFrame(pageNums[order[(offset + n) & (ORDER_LENGTH - 1)]]).unpin();
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("fetchPageFrame+unpin hits, %2d threads: %8.0f fetches/ms%n", numThreads,
+                              (double) fetchesPerThread * numThreads / (nanos / 1e6));
+        }
+        assertEquals(numIOs, bufferManager.getNumIOs());
+        bufferManager.close();
+    }
+
+    @Test
+    public void benchmarkConcurrentSamePageReads() throws InterruptedException {
+        runConcurrentSamePageReads("clock", new ClockEvictionPolicy());
+    }
+
+    @Test
+    public void benchmarkConcurrentSamePageReadsLRU() throws InterruptedException {
+        // LRU's hits take a lock, which reads of a fetched page should never wait on
+        runConcurrentSamePageReads("LRU", new LRUEvictionPolicy());
+    }
+
+    private void runConcurrentSamePageReads(String policyName, EvictionPolicy policy) throws InterruptedException {
+        // every thread pins and reads the same page, like lookups starting at a B+ tree root:
+        // a fetch, then a few reads of the fetched page (as a search of the node would)
+        DiskSpaceManager dsm = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(dsm, new DummyRecoveryManager(), NUM_FETCH_FRAMES,
+                                                        policy);
+        long pageNum = dsm.allocPage(dsm.allocPart(1));
+        bufferManager.fetchPageFrame(pageNum).unpin();
+
+        for (int numThreads = 1; numThreads <= 32; numThreads *= 2) {
+            // the same number of reads per thread: with no contention, the time stays the same
+            int readsPerThread = NUM_LOOKUPS / 8;
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; ++t) {
+                threads[t] = new Thread(() -> {
+                    byte[] buf = new byte[64];
+                    for (int n = 0; n < readsPerThread; n += READS_PER_FETCH) {
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNum);
+                        for (int i = 0; i < READS_PER_FETCH; ++i) {
+                            frame.readBytes((short) ((n + i) & 1023), (short) buf.length, buf);
+                        }
+                        frame.unpin();
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("same-page fetch+%d reads+unpin (%s), %2d threads: %8.0f reads/ms%n", READS_PER_FETCH,
+                              policyName, numThreads, (double) readsPerThread * numThreads / (nanos / 1e6));
+        }
+        bufferManager.close();
+    }
+
+    @Test
+    public void benchmarkHeapFootprint() {
+        // page contents live off-heap, so only frame bookkeeping should show up on the heap
+        int numFrames = 4096;
+        long heapBefore = usedHeapAfterGC();
+        DiskSpaceManager dsm = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(dsm, new DummyRecoveryManager(), numFrames,
+                                                        new ClockEvictionPolicy());
+        long heapAfter = usedHeapAfterGC();
+        System.out.printf("%d frames (%d KB of pages): %d KB of heap%n", numFrames,
+                          (long) numFrames * DiskSpaceManager.PAGE_SIZE / 1024, (heapAfter - heapBefore) / 1024);
+        bufferManager.close();
+    }
+
+    private static long usedHeapAfterGC() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static int[] randomOrder(int length, int bound) {
+        Random random = new Random(186);
+        int[] order = new int[length];
+        for (int i = 0; i < length; ++i) {
+            order[i] = random.nextInt(bound);
+        }
+        return order;
+    }
+}
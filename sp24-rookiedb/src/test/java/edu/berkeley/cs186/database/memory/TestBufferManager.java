@@ -1,9 +1,12 @@
 package edu.berkeley.cs186.database.memory;
 
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyTransactionContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.IOMetrics;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
@@ -12,7 +15,20 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -92,6 +108,25 @@ public class TestBufferManager {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testReadWriteLengths() {
+        int partNum = diskSpaceManager.allocPart(1);
+        Random random = new Random(186);
+
+        // short copies go through longs/ints/shorts, longer ones are bulk copies
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
+        for (short num = 1; num <= 100; ++num) {
+            byte[] expected = new byte[num];
+            random.nextBytes(expected);
+            byte[] actual = new byte[num];
+            short position = (short) (13 * num);
+            frame1.writeBytes(position, num, expected);
+            frame1.readBytes(position, num, actual);
+            assertArrayEquals(expected, actual);
+        }
+        frame1.unpin();
+    }
+
     @Test
     public void testFlush() {
         int partNum = diskSpaceManager.allocPart(1);
@@ -137,47 +172,6 @@ public class TestBufferManager {
                           37 + BufferManager.RESERVED_SPACE));
     }
 
-    @Test
-    public void testFlushLogPage() {
-        int partNum = diskSpaceManager.allocPart(0);
-
-        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
-        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
-
-        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
-        frame1.writeBytes((short) 67, (short) 4, expected);
-        frame1.unpin();
-
-        diskSpaceManager.readPage(frame1.getPageNum(), actual);
-        assertArrayEquals(new byte[4], Arrays.copyOfRange(actual, 67, 71));
-
-        frame1.flush();
-        diskSpaceManager.readPage(frame1.getPageNum(), actual);
-        assertArrayEquals(expected, Arrays.copyOfRange(actual, 67, 71));
-
-        frame1.pin();
-        frame1.writeBytes((short) 33, (short) 4, expected);
-        frame1.unpin();
-
-        diskSpaceManager.readPage(frame1.getPageNum(), actual);
-        assertArrayEquals(new byte[4], Arrays.copyOfRange(actual, 33, 37));
-
-        // force a eviction
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-        bufferManager.fetchNewPageFrame(partNum).unpin();
-
-        diskSpaceManager.readPage(frame1.getPageNum(), actual);
-        assertFalse(frame1.isValid());
-        assertArrayEquals(expected, Arrays.copyOfRange(actual, 33, 37));
-    }
-
     @Test
     public void testReload() {
         int partNum = diskSpaceManager.allocPart(1);
@@ -330,4 +324,785 @@ public class TestBufferManager {
         int partNum = diskSpaceManager.allocPart(1);
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0));
     }
+
+    @Test
+    public void testLoadPages() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[3];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            buf[BufferManager.RESERVED_SPACE] = (byte) (i + 1);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+
+        // at most a quarter of the buffer (1 frame) is loaded at once, and the read is
+        // counted right away
+        long numIOs = bufferManager.getNumIOs();
+        bufferManager.loadPages(pageNums);
+        assertEquals(numIOs + 1, bufferManager.getNumIOs());
+        BufferFrame frame1 = bufferManager.fetchPageFrame(pageNums[0]);
+        byte[] actual = new byte[1];
+        frame1.readBytes((short) 0, (short) 1, actual);
+        assertEquals(1, actual[0]);
+
+        // fetching the loaded page is a hit
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        assertEquals(numIOs + 1, bufferManager.getNumIOs());
+        assertEquals(0, bufferManager.getNumDemandReads());
+        frame1.unpin();
+
+        // already loaded pages are skipped
+        bufferManager.loadPages(new long[] { pageNums[0], pageNums[2] });
+        BufferFrame frame3 = bufferManager.fetchPageFrame(pageNums[2]);
+        frame3.readBytes((short) 0, (short) 1, actual);
+        frame3.unpin();
+        assertEquals(3, actual[0]);
+        assertSame(frame1, bufferManager.fetchPageFrame(pageNums[0]));
+        frame1.unpin();
+    }
+
+    @Test
+    public void testEvictAllWritesDirtyPages() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
+        BufferFrame frame2 = bufferManager.fetchNewPageFrame(partNum);
+        frame1.writeBytes((short) 67, (short) 4, expected);
+        frame2.writeBytes((short) 67, (short) 4, expected);
+        frame1.unpin();
+
+        bufferManager.evictAll();
+
+        // frame2 is still pinned, so it is neither written nor evicted
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(frame1.getPageNum(), actual);
+        assertArrayEquals(expected, Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                          71 + BufferManager.RESERVED_SPACE));
+        diskSpaceManager.readPage(frame2.getPageNum(), actual);
+        assertArrayEquals(new byte[4], Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                          71 + BufferManager.RESERVED_SPACE));
+        assertFalse(frame1.isValid());
+        assertTrue(frame2.isValid());
+        frame2.unpin();
+    }
+
+    @Test
+    public void testFetchWaitsForAsyncLoad() throws InterruptedException {
+        // reads started with readPagesAsync only happen once release is completed
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        DiskSpaceManager delayedDiskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public CompletableFuture<Void> readPagesAsync(long[] pages, ByteBuffer[] bufs) {
+                return release.thenCompose(v -> super.readPagesAsync(pages, bufs));
+            }
+        };
+        BufferManager delayedBufferManager = new BufferManager(delayedDiskSpaceManager,
+                new DummyRecoveryManager(), 5, new ClockEvictionPolicy());
+        int partNum = delayedDiskSpaceManager.allocPart(1);
+        long pageNum = delayedDiskSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        buf[BufferManager.RESERVED_SPACE] = 42;
+        delayedDiskSpaceManager.writePage(pageNum, buf);
+
+        // returns without waiting for the read
+        delayedBufferManager.loadPages(new long[] { pageNum });
+        long numIOs = delayedBufferManager.getNumIOs();
+
+        // the fetching thread pins the frame, so it has to read and unpin it too
+        AtomicReference<Byte> fetched = new AtomicReference<>();
+        Thread fetcher = new Thread(() -> {
+            BufferFrame frame = delayedBufferManager.fetchPageFrame(pageNum);
+            byte[] actual = new byte[1];
+            frame.readBytes((short) 0, (short) 1, actual);
+            frame.unpin();
+            fetched.set(actual[0]);
+        });
+        fetcher.start();
+        fetcher.join(200);
+        assertTrue(fetcher.isAlive());
+
+        release.complete(null);
+        fetcher.join();
+        assertEquals(Byte.valueOf((byte) 42), fetched.get());
+        // the read was counted when it was issued, and the fetch did not read again
+        assertEquals(numIOs, delayedBufferManager.getNumIOs());
+        assertEquals(0, delayedBufferManager.getNumDemandReads());
+
+        delayedBufferManager.close();
+        delayedDiskSpaceManager.close();
+    }
+
+    @Test
+    public void testConcurrentFetch() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[20];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            buf[BufferManager.RESERVED_SPACE] = (byte) i;
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+
+        // many more pages than frames, so that hits race with evictions of the same frames
+        // (but fewer threads than frames, so that there is always an unpinned frame)
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                byte[] actual = new byte[1];
+                try {
+                    for (int n = 0; n < 20000; ++n) {
+                        int i = random.nextInt(pageNums.length);
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+                        try {
+                            assertEquals(pageNums[i], frame.getPageNum());
+                            frame.readBytes((short) 0, (short) 1, actual);
+                            assertEquals((byte) i, actual[0]);
+                        } finally {
+                            frame.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void testSharedPins() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        long pageNum = frame.getPageNum();
+        frame.writeBytes((short) 0, (short) 1, new byte[] { 42 });
+
+        // another thread can pin (and read) the page while it is pinned here
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                BufferFrame other = bufferManager.fetchPageFrame(pageNum);
+                byte[] actual = new byte[1];
+                other.readBytes((short) 0, (short) 1, actual);
+                assertEquals(42, actual[0]);
+                other.unpin();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        thread.start();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertNull(failure.get());
+
+        // pinned twice: not evicted until both pins are gone
+        BufferFrame again = bufferManager.fetchPageFrame(pageNum);
+        assertSame(frame, again);
+        frame.unpin();
+        bufferManager.evict(pageNum);
+        assertTrue(frame.isValid());
+        again.unpin();
+        bufferManager.evict(pageNum);
+        assertFalse(frame.isValid());
+        try {
+            frame.unpin();
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+    }
+
+    @Test
+    public void testExclusiveLatch() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        page.getBuffer().putInt(0, 1).putInt(4, 1);
+
+        // readers wait for the latch, and see both halves of the change made under it
+        page.latchExclusive();
+        page.latchExclusive();
+        page.getBuffer().putInt(0, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        int[] read = new int[2];
+        Thread reader = new Thread(() -> {
+            Page other = bufferManager.fetchPage(new DummyLockContext(), page.getPageNum());
+            started.countDown();
+            other.latchShared();
+            read[0] = other.getBuffer().getInt(0);
+            read[1] = other.getBuffer().getInt(4);
+            other.unlatchShared();
+            other.unpin();
+        });
+        reader.start();
+        started.await();
+        Thread.sleep(100);
+        assertTrue(reader.isAlive());
+        page.getBuffer().putInt(4, 2);
+        page.unlatchExclusive();
+        Thread.sleep(100);
+        assertTrue(reader.isAlive());
+        page.unlatchExclusive();
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertArrayEquals(new int[] { 2, 2 }, read);
+
+        try {
+            page.unlatchExclusive();
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+        page.unpin();
+    }
+
+    @Test
+    public void testSharedLatch() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        page.getBuffer().putInt(0, 1);
+
+        // readers go ahead, writers wait
+        page.latchShared();
+        Page other = bufferManager.fetchPage(new DummyLockContext(), page.getPageNum());
+        assertEquals(1, other.getBuffer().getInt(0));
+        Thread writer = new Thread(() -> other.getBuffer().putInt(0, 2));
+        writer.start();
+        Thread.sleep(100);
+        assertTrue(writer.isAlive());
+        assertEquals(1, page.getBuffer().getInt(0));
+        page.unlatchShared();
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertEquals(2, page.getBuffer().getInt(0));
+        other.unpin();
+        page.unpin();
+    }
+
+    @Test
+    public void testConcurrentReadsAndWrites() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        long pageNum = frame.getPageNum();
+        frame.unpin();
+
+        // writers fill a range of the page with one value at a time; readers must never see
+        // a mix of two writes
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[6];
+        for (int t = 0; t < threads.length; ++t) {
+            boolean writer = t < 2;
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                byte[] buf = new byte[256];
+                try {
+                    for (int n = 0; n < 20000; ++n) {
+                        BufferFrame pinned = bufferManager.fetchPageFrame(pageNum);
+                        try {
+                            if (writer) {
+                                Arrays.fill(buf, (byte) random.nextInt());
+                                pinned.writeBytes((short) 100, (short) buf.length, buf);
+                            } else {
+                                pinned.readBytes((short) 100, (short) buf.length, buf);
+                                for (byte b : buf) {
+                                    assertEquals(buf[0], b);
+                                }
+                            }
+                        } finally {
+                            pinned.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void testEvictionPolicies() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[20];
+        byte[] expected = new byte[pageNums.length];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+        for (String name : EvictionPolicySimulator.POLICIES.keySet()) {
+            BufferManager policyBufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                    5, EvictionPolicySimulator.POLICIES.get(name).get());
+            Random random = new Random(186);
+            byte[] value = new byte[1];
+            for (int n = 0; n < 2000; ++n) {
+                // mostly the first few pages, with the occasional run over all of them
+                int i = n % 100 < 80 ? random.nextInt(4) : n % pageNums.length;
+                BufferFrame frame = policyBufferManager.fetchPageFrame(pageNums[i]);
+                try {
+                    frame.readBytes((short) 0, (short) 1, value);
+                    assertEquals(name, expected[i], value[0]);
+                    if (random.nextInt(4) == 0) {
+                        value[0] = ++expected[i];
+                        frame.writeBytes((short) 0, (short) 1, value);
+                    }
+                } finally {
+                    frame.unpin();
+                }
+            }
+            policyBufferManager.close();
+            for (int i = 0; i < pageNums.length; ++i) {
+                diskSpaceManager.readPage(pageNums[i], buf);
+                assertEquals(name, expected[i], buf[BufferManager.RESERVED_SPACE]);
+            }
+        }
+    }
+
+    @Test
+    public void testResizeGrow() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        BufferFrame[] frames = new BufferFrame[pageNums.length];
+        for (int i = 0; i < 5; ++i) {
+            frames[i] = bufferManager.fetchPageFrame(pageNums[i]);
+            frames[i].unpin();
+        }
+        bufferManager.resize(8);
+        assertEquals(8, bufferManager.getBufferSize());
+        assertEquals(3, bufferManager.getNumFreeFrames());
+
+        // the new frames take the next pages, without evicting any
+        for (int i = 5; i < 8; ++i) {
+            frames[i] = bufferManager.fetchPageFrame(pageNums[i]);
+            frames[i].unpin();
+        }
+        for (BufferFrame frame : frames) {
+            assertTrue(frame.isValid());
+        }
+        assertEquals(0, bufferManager.getNumFreeFrames());
+    }
+
+    @Test
+    public void testResizeShrink() {
+        int partNum = diskSpaceManager.allocPart(1);
+        bufferManager.resize(8);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { (byte) i });
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        bufferManager.resize(3);
+        assertEquals(3, bufferManager.getBufferSize());
+
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertEquals(3, loaded.size());
+        // every page is still there, loaded or written out
+        byte[] value = new byte[1];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+            frame.readBytes((short) 0, (short) 1, value);
+            assertEquals(i, value[0]);
+            frame.unpin();
+        }
+    }
+
+    @Test
+    public void testResizeShrinkMovesPages() {
+        int partNum = diskSpaceManager.allocPart(1);
+        bufferManager.resize(8);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { (byte) i });
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        // free up the frames that stay, so that the pages in the others fit
+        for (int i = 0; i < 4; ++i) {
+            bufferManager.evict(pageNums[i]);
+        }
+        long numIOs = bufferManager.getNumIOs();
+        bufferManager.resize(4);
+        assertEquals(numIOs, bufferManager.getNumIOs());
+
+        // moved with their (unwritten) changes, so fetching them takes no I/O
+        byte[] value = new byte[1];
+        for (int i = 4; i < 8; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+            frame.readBytes((short) 0, (short) 1, value);
+            assertEquals(i, value[0]);
+            frame.unpin();
+        }
+        assertEquals(numIOs, bufferManager.getNumIOs());
+        bufferManager.evictAll();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNums[7], buf);
+        assertEquals(7, buf[BufferManager.RESERVED_SPACE]);
+    }
+
+    @Test
+    public void testResizeWaitsForPins() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        // another thread holds on to the page in the last frame for a bit
+        CountDownLatch pinned = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[4]);
+            pinned.countDown();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                frame.unpin();
+            }
+        });
+        thread.start();
+        pinned.await();
+        bufferManager.resize(2);
+        thread.join();
+        assertEquals(2, bufferManager.getBufferSize());
+    }
+
+    @Test
+    public void testResizeEvictionPolicies() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[20];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+        byte[] expected = new byte[pageNums.length];
+        int[] sizes = new int[] { 12, 3, 7, 2, 16, 5 };
+        for (String name : EvictionPolicySimulator.POLICIES.keySet()) {
+            BufferManager policyBufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                    5, EvictionPolicySimulator.POLICIES.get(name).get());
+            Random random = new Random(186);
+            byte[] value = new byte[1];
+            for (int n = 0; n < 3000; ++n) {
+                if (n % 500 == 499) {
+                    policyBufferManager.resize(sizes[n / 500]);
+                }
+                int i = random.nextInt(pageNums.length);
+                BufferFrame frame = policyBufferManager.fetchPageFrame(pageNums[i]);
+                try {
+                    frame.readBytes((short) 0, (short) 1, value);
+                    assertEquals(name, expected[i], value[0]);
+                    if (random.nextInt(4) == 0) {
+                        value[0] = ++expected[i];
+                        frame.writeBytes((short) 0, (short) 1, value);
+                    }
+                } finally {
+                    frame.unpin();
+                }
+            }
+            policyBufferManager.close();
+            for (int i = 0; i < pageNums.length; ++i) {
+                diskSpaceManager.readPage(pageNums[i], buf);
+                assertEquals(name, expected[i], buf[BufferManager.RESERVED_SPACE]);
+            }
+        }
+    }
+
+    @Test
+    public void testFetchListener() throws IOException {
+        int partNum = diskSpaceManager.allocPart(1);
+        PageTrace trace = new PageTrace();
+        bufferManager.setFetchListener(trace);
+        long[] pageNums = new long[3];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        bufferManager.fetchPageFrame(pageNums[1]).unpin();
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        bufferManager.setFetchListener(null);
+        bufferManager.fetchPageFrame(pageNums[2]).unpin();
+
+        long[] expected = new long[] { pageNums[0], pageNums[1], pageNums[2], pageNums[1], pageNums[0] };
+        assertArrayEquals(expected, trace.toArray());
+
+        Path path = Files.createTempFile("trace", ".txt");
+        try {
+            trace.write(path);
+            assertArrayEquals(expected, PageTrace.read(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    // scans pages [from, to) of pageNums, returning the number of I/Os the scan took
+    private long scanPages(BufferManager bufferManager, long[] pageNums, int from, int to) {
+        long numIOs = bufferManager.getNumIOs();
+        for (int i = from; i < to; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i]).unpin();
+        }
+        return bufferManager.getNumIOs() - numIOs;
+    }
+
+    @Test
+    public void testAccessStrategy() {
+        // 64 frames: rings of 8 frames, used once a quarter of the buffer has been loaded
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 64,
+                new LRUEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[200];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        TransactionContext transaction = new DummyTransactionContext(null, 1);
+        TransactionContext.setTransaction(transaction);
+        try {
+            // a hot set of 16 pages, then a large scan with a bulk read strategy
+            assertEquals(16, scanPages(bufferManager, pageNums, 0, 16));
+            BufferAccessStrategy strategy = new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_READ);
+            strategy.run(() -> assertEquals(184, scanPages(bufferManager, pageNums, 16, 200)));
+            assertNull(transaction.getAccessStrategy());
+
+            // the scan only took 16 + 8 frames, leaving the hot set loaded
+            assertEquals(0, scanPages(bufferManager, pageNums, 0, 16));
+            // ...along with the first pages it loaded, and the last ring's worth
+            assertEquals(0, scanPages(bufferManager, pageNums, 16, 32));
+            assertEquals(0, scanPages(bufferManager, pageNums, 192, 200));
+
+            // without a strategy, the same scan pushes the hot set out
+            scanPages(bufferManager, pageNums, 16, 200);
+            assertEquals(16, scanPages(bufferManager, pageNums, 0, 16));
+
+            // the transaction's strategy is used outside of operators too
+            transaction.setAccessStrategy(new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_READ));
+            scanPages(bufferManager, pageNums, 16, 200);
+            transaction.setAccessStrategy(null);
+            assertEquals(0, scanPages(bufferManager, pageNums, 0, 16));
+        } finally {
+            TransactionContext.unsetTransaction();
+            bufferManager.close();
+        }
+    }
+
+    /**
+     * Appends to numParts partitions the way a hash join does: a record at a time to the
+     * last page of each partition in turn, moving on to a partition's next page every
+     * recordsPerPage records.
+     *
+     * @return number of I/Os done
+     */
+    private long fillPartitions(BufferManager bufferManager, long[] pageNums, int numParts,
+                                int recordsPerPage) {
+        long numIOs = bufferManager.getNumIOs();
+        int pagesPerPart = pageNums.length / numParts;
+        for (int i = 0; i < pagesPerPart * recordsPerPage; ++i) {
+            for (int p = 0; p < numParts; ++p) {
+                BufferFrame frame = bufferManager.fetchPageFrame(pageNums[p * pagesPerPart + i / recordsPerPage]);
+                frame.writeBytes((short) (i % recordsPerPage), (short) 1, new byte[] { (byte) p });
+                frame.unpin();
+            }
+        }
+        return bufferManager.getNumIOs() - numIOs;
+    }
+
+    @Test
+    public void testAccessStrategyFanOut() {
+        // 64 frames: rings of 8 frames, unless asked for more
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[160];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        TransactionContext transaction = new DummyTransactionContext(null, 1);
+        TransactionContext.setTransaction(transaction);
+        try {
+            // with a ring smaller than the 16 partitions, writes evict pages still being
+            // filled, so most writes read the page back (and write it out again)
+            BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 64,
+                    new LRUEvictionPolicy());
+            BufferAccessStrategy strategy = new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE);
+            long numIOs = strategy.call(() -> fillPartitions(bufferManager, pageNums, 16, 4));
+            assertTrue(numIOs > 4 * pageNums.length);
+            bufferManager.close();
+
+            // with a ring as large as the fan-out, each page is read and written out once
+            BufferManager fanOutBufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                    64, new LRUEvictionPolicy());
+            BufferAccessStrategy fanOutStrategy = new BufferAccessStrategy(BufferAccessStrategy.Type.BULK_WRITE,
+                    17);
+            numIOs = fanOutStrategy.call(() -> fillPartitions(fanOutBufferManager, pageNums, 16, 4));
+            assertTrue(numIOs <= 2 * pageNums.length);
+            fanOutBufferManager.close();
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    @Test
+    public void testPageCleaner() throws InterruptedException {
+        // every log flush and page write, in order
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        DiskSpaceManager recordingDiskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public void writePages(long[] pages, ByteBuffer[] bufs) {
+                events.add("write " + Arrays.toString(pages));
+                super.writePages(pages, bufs);
+            }
+        };
+        DummyRecoveryManager recoveryManager = new DummyRecoveryManager() {
+            @Override
+            public void pageFlushHook(long pageLSN) {
+                events.add("flush " + pageLSN);
+            }
+        };
+        BufferManager cleanedBufferManager = new BufferManager(recordingDiskSpaceManager,
+                recoveryManager, 8, new ClockEvictionPolicy());
+        int partNum = recordingDiskSpaceManager.allocPart(1);
+        // dirty every frame, in reverse page number order
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = recordingDiskSpaceManager.allocPage(partNum);
+        }
+        for (int i = pageNums.length - 1; i >= 0; --i) {
+            BufferFrame frame = cleanedBufferManager.fetchPageFrame(pageNums[i]);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { (byte) i });
+            frame.setPageLSN(100 + i);
+            frame.unpin();
+        }
+        long numIOs = cleanedBufferManager.getNumIOs();
+
+        cleanedBufferManager.startPageCleaner(1.0, 10);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cleanedBufferManager.getNumIOs() < numIOs + 8 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        cleanedBufferManager.stopPageCleaner();
+        assertEquals(numIOs + 8, cleanedBufferManager.getNumIOs());
+        // the log is flushed past every page first, and the pages are written in order
+        assertEquals(Arrays.asList("flush 107", "write " + Arrays.toString(pageNums)), events);
+
+        // no page load has to write out the page it evicts
+        for (int i = 0; i < 8; ++i) {
+            BufferFrame frame = cleanedBufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { (byte) i });
+            frame.unpin();
+        }
+        assertEquals(0, cleanedBufferManager.getNumDirtyEvictions());
+        // which they all have to without the cleaner
+        for (int i = 0; i < 8; ++i) {
+            cleanedBufferManager.fetchNewPageFrame(partNum).unpin();
+        }
+        assertEquals(8, cleanedBufferManager.getNumDirtyEvictions());
+
+        cleanedBufferManager.close();
+        recordingDiskSpaceManager.close();
+    }
+
+    @Test
+    public void testPageCleanerStopsOnClose() {
+        bufferManager.startPageCleaner(0.5, 10);
+        bufferManager.close();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertNotEquals("page-cleaner", thread.getName());
+        }
+    }
+
+    @Test
+    public void testLoadPagesFailedRead() {
+        DiskSpaceManager failingDiskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public CompletableFuture<Void> readPagesAsync(long[] pages, ByteBuffer[] bufs) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(new PageException("injected failure"));
+                return future;
+            }
+        };
+        BufferManager failingBufferManager = new BufferManager(failingDiskSpaceManager,
+                new DummyRecoveryManager(), 5, new ClockEvictionPolicy());
+        int partNum = failingDiskSpaceManager.allocPart(1);
+        long pageNum = failingDiskSpaceManager.allocPage(partNum);
+
+        // the failed read drops the page, so fetching it reads it again
+        failingBufferManager.loadPages(new long[] { pageNum });
+        long numIOs = failingBufferManager.getNumIOs();
+        BufferFrame frame = failingBufferManager.fetchPageFrame(pageNum);
+        assertEquals(numIOs + 1, failingBufferManager.getNumIOs());
+        assertEquals(1, failingBufferManager.getNumDemandReads());
+        frame.unpin();
+
+        failingBufferManager.close();
+        failingDiskSpaceManager.close();
+    }
+
+    @Test
+    public void testLoadPagesReadsRuns() {
+        List<long[]> reads = new ArrayList<>();
+        DiskSpaceManager recordingDiskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public CompletableFuture<Void> readPagesAsync(long[] pages, ByteBuffer[] bufs) {
+                reads.add(pages);
+                return super.readPagesAsync(pages, bufs);
+            }
+        };
+        BufferManager recordingBufferManager = new BufferManager(recordingDiskSpaceManager,
+                new DummyRecoveryManager(), 16, new ClockEvictionPolicy());
+        int partNum = recordingDiskSpaceManager.allocPart(1);
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = recordingDiskSpaceManager.allocPage(partNum);
+        }
+
+        // consecutive pages are read together, whatever order they are asked for in
+        recordingBufferManager.loadPages(new long[] { pageNums[4], pageNums[1], pageNums[0], pageNums[3] });
+        assertEquals(2, reads.size());
+        assertArrayEquals(new long[] { pageNums[0], pageNums[1] }, reads.get(0));
+        assertArrayEquals(new long[] { pageNums[3], pageNums[4] }, reads.get(1));
+
+        recordingBufferManager.close();
+        recordingDiskSpaceManager.close();
+    }
+
+    @Test
+    public void testIOMetrics() {
+        int partNum1 = diskSpaceManager.allocPart(1);
+        int partNum2 = diskSpaceManager.allocPart(2);
+        long[] pageNums = new long[6];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(i < 3 ? partNum1 : partNum2);
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        // the first page was evicted, and is read back in
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        bufferManager.evictAll();
+
+        IOMetrics metrics = bufferManager.getIOMetrics();
+        long numIOs = 0;
+        for (IOMetrics.PartitionMetrics partMetrics : metrics.getPartitions().values()) {
+            numIOs += partMetrics.getNumReads() + partMetrics.getNumWrites();
+        }
+        assertEquals(bufferManager.getNumIOs(), numIOs);
+        // new pages are read in once, and none of the pages were written to
+        assertEquals(4, metrics.get(partNum1).getNumReads());
+        assertEquals(4, metrics.get(partNum1).getReadLatency().getCount());
+        assertEquals(3, metrics.get(partNum2).getNumReads());
+        assertEquals(0, metrics.get(partNum2).getNumWrites());
+    }
 }
@@ -0,0 +1,156 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestBufferWarmer {
+    private static final int NUM_PAGES = 24;
+
+    private DiskSpaceManager diskSpaceManager;
+    private long[] pageNums;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void beforeEach() {
+        diskSpaceManager = new MemoryDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(1);
+        pageNums = new long[NUM_PAGES];
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+    }
+
+    @After
+    public void afterEach() {
+        diskSpaceManager.close();
+    }
+
+    private BufferManager newBufferManager(int bufferSize) {
+        return new BufferManager(diskSpaceManager, new DummyRecoveryManager(), bufferSize,
+                                 new ClockEvictionPolicy());
+    }
+
+    private static Set<Long> loadedPages(BufferManager bufferManager) {
+        Set<Long> loaded = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        return loaded;
+    }
+
+    @Test
+    public void testSaveAndRead() throws IOException {
+        BufferManager bufferManager = newBufferManager(8);
+        // fetched out of order, and with a temporary page that should not be saved
+        for (int i : new int[] { 5, 3, 9, 1 }) {
+            bufferManager.fetchPageFrame(pageNums[i]).unpin();
+        }
+        int tempPartNum = diskSpaceManager.allocPart(DiskSpaceManager.TEMP_PART_BASE);
+        bufferManager.fetchNewPageFrame(tempPartNum).unpin();
+
+        Path path = tempFolder.getRoot().toPath().resolve("pages");
+        BufferWarmer.save(bufferManager, path);
+        long[] saved = BufferWarmer.read(path);
+        Set<Long> savedSet = new HashSet<>();
+        for (long pageNum : saved) {
+            savedSet.add(pageNum);
+        }
+        Set<Long> expected = new HashSet<>();
+        for (int i : new int[] { 5, 3, 9, 1 }) {
+            expected.add(pageNums[i]);
+        }
+        assertEquals(expected, savedSet);
+
+        assertEquals(0, BufferWarmer.read(tempFolder.getRoot().toPath().resolve("missing")).length);
+        bufferManager.close();
+    }
+
+    @Test
+    public void testWarmUp() {
+        BufferManager bufferManager = newBufferManager(16);
+        long[] toWarm = new long[] { pageNums[7], pageNums[2], pageNums[11], pageNums[4] };
+        BufferWarmer warmer = new BufferWarmer(bufferManager, toWarm, 0);
+        warmer.start();
+        warmer.await();
+        assertEquals(4, warmer.getNumRequested());
+
+        Set<Long> expected = new HashSet<>();
+        for (long pageNum : toWarm) {
+            expected.add(pageNum);
+        }
+        assertEquals(expected, loadedPages(bufferManager));
+
+        // the reads were counted when the pages were loaded, so fetching a warmed-up page
+        // costs nothing more
+        assertEquals(4, bufferManager.getNumIOs());
+        bufferManager.fetchPageFrame(pageNums[7]).unpin();
+        bufferManager.fetchPageFrame(pageNums[7]).unpin();
+        assertEquals(4, bufferManager.getNumIOs());
+        bufferManager.close();
+    }
+
+    @Test
+    public void testWarmUpOnlyFillsFreeFrames() {
+        BufferManager bufferManager = newBufferManager(8);
+        // the workload got to half of the buffer first
+        for (int i = 0; i < 4; ++i) {
+            bufferManager.fetchPageFrame(pageNums[NUM_PAGES - 1 - i]).unpin();
+        }
+        BufferWarmer warmer = new BufferWarmer(bufferManager, pageNums, 0);
+        warmer.start();
+        warmer.await();
+
+        Set<Long> loaded = loadedPages(bufferManager);
+        assertEquals(8, loaded.size());
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(loaded.contains(pageNums[NUM_PAGES - 1 - i]));
+            // pages are warmed up in page number order
+            assertTrue(loaded.contains(pageNums[i]));
+        }
+        assertEquals(0, bufferManager.getNumFreeFrames());
+        bufferManager.close();
+    }
+
+    @Test
+    public void testWarmUpRate() {
+        BufferManager bufferManager = newBufferManager(16);
+        // batches of 4 pages at 40 pages a second: the second batch waits 200ms
+        long start = System.nanoTime();
+        BufferWarmer warmer = new BufferWarmer(bufferManager, new long[] {
+            pageNums[0], pageNums[1], pageNums[2], pageNums[3],
+            pageNums[4], pageNums[5], pageNums[6], pageNums[7],
+        }, 40);
+        warmer.start();
+        warmer.await();
+        assertTrue(System.nanoTime() - start >= 150_000_000L);
+        assertEquals(8, loadedPages(bufferManager).size());
+        bufferManager.close();
+    }
+
+    @Test
+    public void testStop() {
+        BufferManager bufferManager = newBufferManager(16);
+        BufferWarmer warmer = new BufferWarmer(bufferManager, pageNums, 1);
+        warmer.start();
+        warmer.stop();
+        assertTrue(warmer.getNumRequested() < NUM_PAGES);
+        bufferManager.close();
+    }
+}
@@ -6,6 +6,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.Arrays;
+import java.util.function.Supplier;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -32,7 +35,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return index;
         }
 
         @Override
@@ -47,6 +50,14 @@ public class TestEvictionPolicy {
         void writeBytes(short position, short num, byte[] buf) {
         }
 
+        @Override
+        void latch(boolean exclusive) {
+        }
+
+        @Override
+        void unlatch(boolean exclusive) {
+        }
+
         @Override
         long getPageLSN() {
             return 0;
@@ -193,4 +204,166 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testLRU2Policy() {
+        EvictionPolicy policy = new LRU2EvictionPolicy();
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        // the second hit in a row is correlated with the first, and does not count
+        policy.hit(frames[0]); policy.hit(frames[0]);
+        policy.hit(frames[1]);
+
+        // pages referenced once go first, least recently referenced first
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+
+        policy.init(frames[4]); policy.hit(frames[4]);
+        frames[3].pin();
+
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[4], frames[3]}));
+        policy.cleanup(frames[4]);
+
+        // page 2 was evicted recently, so loading it again counts as a second reference
+        policy.init(frames[2]); policy.hit(frames[2]);
+
+        // then by oldest second most recent reference
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+
+        frames[1].pin();
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], frames[1], frames[2], frames[3]}));
+        frames[2].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {placeholderFrames[0], frames[1], frames[2], frames[3]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+
+        frames[3].unpin();
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {placeholderFrames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[3]);
+        frames[1].unpin();
+        frames[2].unpin();
+    }
+
+    @Test
+    public void testTwoQPolicy() {
+        // with 8 frames, A1in may hold 2 pages, and A1out remembers 4
+        EvictionPolicy policy = new TwoQEvictionPolicy();
+        for (BufferFrame frame : frames) {
+            policy.init(frame); policy.hit(frame);
+            // hits in A1in are ignored
+            policy.hit(frame);
+        }
+
+        assertEquals(frames[0], policy.evict(frames));
+        policy.cleanup(frames[0]);
+        // page 0 is remembered in A1out, so goes in Am when loaded again
+        policy.init(frames[0]); policy.hit(frames[0]);
+
+        // pages are evicted from A1in, in FIFO order, while it is too large
+        for (int i = 1; i <= 5; ++i) {
+            assertEquals(frames[i], policy.evict(frames));
+            policy.cleanup(frames[i]);
+        }
+        assertEquals(frames[0], policy.evict(frames));
+        frames[0].pin();
+        assertEquals(frames[6], policy.evict(frames));
+        frames[0].unpin();
+
+        // A1out only remembers pages 2 to 5 now
+        policy.init(frames[5]); policy.hit(frames[5]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        assertEquals(frames[6], policy.evict(frames));
+        policy.cleanup(frames[6]);
+        assertEquals(frames[0], policy.evict(frames));
+        policy.hit(frames[0]);
+        assertEquals(frames[5], policy.evict(frames));
+    }
+
+    @Test
+    public void testARCPolicy() {
+        EvictionPolicy policy = new ARCEvictionPolicy();
+        BufferFrame[] buffer = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+        for (BufferFrame frame : buffer) {
+            policy.init(frame); policy.hit(frame);
+        }
+        // referenced again, so moves to T2
+        policy.hit(frames[0]);
+
+        // T1 is above its target size (0), so is evicted from first
+        assertEquals(frames[1], policy.evict(buffer));
+        policy.cleanup(frames[1]);
+
+        // page 1 is in B1, so T1 should have been larger: its target grows to 1
+        policy.init(frames[1]); policy.hit(frames[1]);
+        assertEquals(frames[2], policy.evict(buffer));
+        policy.cleanup(frames[2]);
+
+        // T1 is down to its target size, so T2 is evicted from, least recently used first
+        buffer[2] = placeholderFrames[2];
+        assertEquals(frames[0], policy.evict(buffer));
+        frames[0].pin();
+        assertEquals(frames[1], policy.evict(buffer));
+        frames[1].pin();
+        assertEquals(frames[3], policy.evict(buffer));
+        frames[3].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(buffer);
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[0].unpin();
+        frames[1].unpin();
+        frames[3].unpin();
+    }
+
+    @Test
+    public void testScanResistance() {
+        // a hot set of 8 pages, used over and over, first along with a few other pages,
+        // then between scans of 32 pages that are never read again
+        int bufferSize = 16;
+        int numRounds = 50;
+        int numWarmupRounds = 8;
+        long[] trace = new long[numWarmupRounds * 12 + numRounds * (8 + 32)];
+        int length = 0;
+        long nextPage = 100;
+        for (int round = 0; round < numWarmupRounds; ++round) {
+            for (int i = 0; i < 8; ++i) {
+                trace[length++] = i;
+                if (i % 2 == 0) {
+                    trace[length++] = nextPage++;
+                }
+            }
+        }
+        long[] warmup = Arrays.copyOf(trace, length);
+        for (int round = 0; round < numRounds; ++round) {
+            for (int i = 0; i < 8; ++i) {
+                trace[length++] = i;
+            }
+            for (int i = 0; i < 32; ++i) {
+                trace[length++] = nextPage++;
+            }
+        }
+
+        for (String name : EvictionPolicySimulator.POLICIES.keySet()) {
+            Supplier<EvictionPolicy> policy = EvictionPolicySimulator.POLICIES.get(name);
+            long scanHits = EvictionPolicySimulator.simulate(trace, bufferSize, policy.get()) -
+                            EvictionPolicySimulator.simulate(warmup, bufferSize, policy.get());
+            if (name.equals("clock") || name.equals("lru")) {
+                // every scan pushes out the hot set
+                assertTrue(name + " got " + scanHits + " hits", scanHits <= 8);
+            } else {
+                // the hot set stays loaded after the first scan
+                assertTrue(name + " got " + scanHits + " hits", scanHits >= 8 * (numRounds - 1));
+            }
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestPageTable {
+    @Test
+    public void testPutGetRemove() {
+        PageTable table = new PageTable(4);
+        long page1 = DiskSpaceManager.getVirtualPageNum(1, 0);
+        long page2 = DiskSpaceManager.getVirtualPageNum(2, 0);
+        assertEquals(PageTable.NO_FRAME, table.get(page1));
+        assertFalse(table.containsKey(page1));
+
+        table.put(page1, 0);
+        table.put(page2, 3);
+        assertEquals(0, table.get(page1));
+        assertEquals(3, table.get(page2));
+        assertTrue(table.containsKey(page2));
+        table.put(page2, 1);
+        assertEquals(1, table.get(page2));
+        assertEquals(2, table.size());
+
+        // only removed if mapped to the given frame
+        assertFalse(table.remove(page2, 3));
+        assertTrue(table.remove(page2, 1));
+        assertFalse(table.containsKey(page2));
+        assertFalse(table.remove(page2, 1));
+        assertEquals(1, table.size());
+
+        // the invalid page number is never in the table
+        assertFalse(table.containsKey(DiskSpaceManager.INVALID_PAGE_NUM));
+        assertFalse(table.remove(DiskSpaceManager.INVALID_PAGE_NUM, 0));
+    }
+
+    @Test
+    public void testGrow() {
+        PageTable table = new PageTable(2);
+        for (int i = 0; i < 1000; ++i) {
+            table.put(DiskSpaceManager.getVirtualPageNum(i % 3, i), i);
+        }
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(i, table.get(DiskSpaceManager.getVirtualPageNum(i % 3, i)));
+        }
+        // replacing a mapping does not add an entry
+        table.put(DiskSpaceManager.getVirtualPageNum(2, 2), 5);
+        assertEquals(5, table.get(DiskSpaceManager.getVirtualPageNum(2, 2)));
+        assertEquals(1000, table.size());
+    }
+
+    @Test
+    public void testStriped() throws InterruptedException {
+        StripedPageTable table = new StripedPageTable(16);
+        int numPages = 4096;
+        for (int i = 0; i < numPages; i += 2) {
+            table.put(i, i);
+        }
+        assertEquals(numPages / 2, table.size());
+
+        // readers never see a page that is always mapped as missing, or mapped wrong,
+        // while a writer keeps adding and removing the other pages
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; ++t) {
+            readers[t] = new Thread(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    int page = 2 * random.nextInt(numPages / 2);
+                    if (table.get(page) != page) {
+                        failed.set(true);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        for (int round = 0; round < 50; ++round) {
+            for (int i = 1; i < numPages; i += 2) {
+                table.put(i, i);
+            }
+            for (int i = 1; i < numPages; i += 2) {
+                assertTrue(table.remove(i, i));
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertFalse(failed.get());
+        assertEquals(numPages / 2, table.size());
+        assertEquals(PageTable.NO_FRAME, table.get(1));
+    }
+
+    @Test
+    public void testRandomAgainstHashMap() {
+        // a small table with many keys per partition, so that probe sequences
+        // are long and removals have to shift entries back
+        int maxSize = 64;
+        PageTable table = new PageTable(8);
+        Map<Long, Integer> expected = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        Random random = new Random(186);
+        for (int step = 0; step < 100000; ++step) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(random.nextInt(4), random.nextInt(200));
+            if (expected.size() < maxSize && random.nextBoolean()) {
+                int frameIndex = random.nextInt(maxSize);
+                if (!expected.containsKey(pageNum)) {
+                    keys.add(pageNum);
+                }
+                expected.put(pageNum, frameIndex);
+                table.put(pageNum, frameIndex);
+            } else if (!keys.isEmpty()) {
+                long victim = keys.remove(random.nextInt(keys.size()));
+                assertTrue(table.remove(victim, expected.remove(victim)));
+            }
+            assertEquals(expected.size(), table.size());
+            long probe = DiskSpaceManager.getVirtualPageNum(random.nextInt(4), random.nextInt(200));
+            assertEquals((int) expected.getOrDefault(probe, PageTable.NO_FRAME), table.get(probe));
+        }
+        for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), table.get(e.getKey()));
+        }
+    }
+}
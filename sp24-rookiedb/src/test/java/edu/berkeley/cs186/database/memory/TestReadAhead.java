@@ -0,0 +1,121 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestReadAhead {
+    private static final int NUM_PAGES = 300;
+
+    private DiskSpaceManager diskSpaceManager;
+    private BufferManager bufferManager;
+    private int partNum;
+    private long firstPageNum;
+
+    @Before
+    public void beforeEach() {
+        diskSpaceManager = new MemoryDiskSpaceManager();
+        partNum = diskSpaceManager.allocPart(1);
+        firstPageNum = diskSpaceManager.allocPage(partNum);
+        for (int i = 1; i < NUM_PAGES; ++i) {
+            diskSpaceManager.allocPage(partNum);
+        }
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 512,
+                                          new ClockEvictionPolicy());
+    }
+
+    @After
+    public void afterEach() {
+        bufferManager.close();
+        diskSpaceManager.close();
+    }
+
+    // fetches the page the way a scan would, telling the read-ahead about it first
+    private void scanPage(ReadAhead readAhead, long pageNum) {
+        readAhead.fetching(pageNum, ReadAhead.consecutive(pageNum));
+        bufferManager.fetchPageFrame(pageNum).unpin();
+    }
+
+    // number of reads of pages that were not loaded ahead of being fetched
+    private long getNumSyncReads() {
+        return bufferManager.getNumDemandReads();
+    }
+
+    @Test
+    public void testSequentialScan() {
+        ReadAhead readAhead = new ReadAhead(bufferManager);
+        int maxWindow = 0;
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            scanPage(readAhead, firstPageNum + i);
+            assertTrue(readAhead.getWindow() >= maxWindow);
+            maxWindow = readAhead.getWindow();
+        }
+        assertEquals(ReadAhead.MAX_WINDOW, readAhead.getWindow());
+        // only the first two pages (before the scan looks sequential) are read synchronously
+        assertEquals(NUM_PAGES, bufferManager.getIOMetrics().get(partNum).getNumReads());
+        assertEquals(2, getNumSyncReads());
+    }
+
+    @Test
+    public void testRandomAccess() {
+        ReadAhead readAhead = new ReadAhead(bufferManager);
+        for (int i = 0; i < 100; ++i) {
+            scanPage(readAhead, firstPageNum + i);
+        }
+        assertEquals(ReadAhead.MAX_WINDOW, readAhead.getWindow());
+
+        // jumping around shrinks the window until nothing is read ahead
+        Random random = new Random(186);
+        for (int i = 0; i < 10; ++i) {
+            scanPage(readAhead, firstPageNum + 200 + random.nextInt(50) * 2);
+        }
+        assertEquals(0, readAhead.getWindow());
+
+        // a new sequential run ramps it back up
+        for (int i = 0; i < 10; ++i) {
+            scanPage(readAhead, firstPageNum + 150 + i);
+        }
+        assertTrue(readAhead.getWindow() >= ReadAhead.MIN_WINDOW);
+    }
+
+    @Test
+    public void testNoReadAheadWhenRandom() {
+        ReadAhead readAhead = new ReadAhead(bufferManager);
+        for (int i = 0; i < 50; ++i) {
+            scanPage(readAhead, firstPageNum + (i * 7) % NUM_PAGES);
+        }
+        // every page was read when fetched
+        assertEquals(0, readAhead.getWindow());
+        assertEquals(50, getNumSyncReads());
+    }
+
+    @Test
+    public void testSmallBuffer() {
+        BufferManager smallBufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                                                             8, new ClockEvictionPolicy());
+        try {
+            ReadAhead readAhead = new ReadAhead(smallBufferManager);
+            for (int i = 0; i < 20; ++i) {
+                long pageNum = firstPageNum + i;
+                readAhead.fetching(pageNum, ReadAhead.consecutive(pageNum));
+                smallBufferManager.fetchPageFrame(pageNum).unpin();
+            }
+            // the buffer is too small to read ahead in
+            assertEquals(0, readAhead.getWindow());
+            assertEquals(20, smallBufferManager.getNumDemandReads());
+        } finally {
+            smallBufferManager.close();
+        }
+    }
+}
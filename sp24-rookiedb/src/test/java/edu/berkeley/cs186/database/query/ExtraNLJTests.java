@@ -1415,7 +1415,9 @@ public class ExtraNLJTests {
                                     TestSourceOperator rightSourceOperator, Transaction transaction) {
         setSourceOperators(
                 new MaterializeOperator(leftSourceOperator, transaction.getTransactionContext()),
-                new MaterializeOperator(rightSourceOperator, transaction.getTransactionContext())
+                new MaterializeOperator(rightSourceOperator, transaction.getTransactionContext()),
+                // materialized into the first two temporary partitions
+                DiskSpaceManager.TEMP_PART_BASE, DiskSpaceManager.TEMP_PART_BASE + 1
         );
     }
 
@@ -1438,17 +1440,23 @@ public class ExtraNLJTests {
 
     private void setSourceOperators(QueryOperator leftSourceOperator,
                                     QueryOperator rightSourceOperator) {
+        // hard-coded mess, but works as long as the first two tables created are the source operators
+        setSourceOperators(leftSourceOperator, rightSourceOperator, 3, 4);
+    }
+
+    private void setSourceOperators(QueryOperator leftSourceOperator,
+                                    QueryOperator rightSourceOperator,
+                                    int leftPartNum, int rightPartNum) {
         assert (this.leftSourceOperator == null && this.rightSourceOperator == null);
 
         this.leftSourceOperator = leftSourceOperator;
         this.rightSourceOperator = rightSourceOperator;
 
-        // hard-coded mess, but works as long as the first two tables created are the source operators
         pinPage(1, 0); // _metadata.tables header page
         pinPage(1, 1); // _metadata.tables entry for left source
         pinPage(1, 2); // _metadata.tables entry for right source
-        pinPage(3, 0); // left source header page
-        pinPage(4, 0); // right source header page
+        pinPage(leftPartNum, 0); // left source header page
+        pinPage(rightPartNum, 0); // right source header page
     }
 
     public Schema getSchema() {
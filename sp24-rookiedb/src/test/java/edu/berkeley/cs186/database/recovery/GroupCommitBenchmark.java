@@ -0,0 +1,79 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.recovery.records.CommitTransactionLogRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Commit throughput of the log manager, with each commit flushing the log for itself
+ * (flushToLSN) and with group commit (groupFlushToLSN), for 1 to 64 concurrent committers.
+ * The log is on disk, and every flush ends with a sync barrier.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class GroupCommitBenchmark {
+    // commits per configuration, split between the committers
+    private static final int NUM_COMMITS = 2048;
+    private static final int MAX_THREADS = 64;
+    // gather windows to try for group commit, in microseconds; -1 for a flush per commit
+    private static final long[] WINDOWS = { -1, 0, 100, 500 };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void benchmarkCommitThroughput() throws IOException, InterruptedException {
+        for (long window : WINDOWS) {
+            for (int numThreads = 1; numThreads <= MAX_THREADS; numThreads *= 2) {
+                String dir = tempFolder.newFolder().toString();
+                DiskSpaceManager dsm = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(),
+                                                                DiskSpaceManagerImpl.IOMode.BATCHED_SYNC);
+                dsm.allocPart(0);
+                LogManager logManager = new LogManager(dsm);
+                logManager.setGroupCommitWindow(Math.max(0, window));
+
+                int commitsPerThread = NUM_COMMITS / numThreads;
+                AtomicLong transNums = new AtomicLong();
+                Thread[] threads = new Thread[numThreads];
+                for (int t = 0; t < numThreads; ++t) {
+                    threads[t] = new Thread(() -> {
+                        for (int n = 0; n < commitsPerThread; ++n) {
+                            long LSN = logManager.appendToLog(
+                                new CommitTransactionLogRecord(transNums.incrementAndGet(), 0L));
+                            if (window < 0) {
+                                logManager.flushToLSN(LSN);
+                            } else {
+                                logManager.groupFlushToLSN(LSN);
+                            }
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long nanos = System.nanoTime() - start;
+                long numCommits = (long) commitsPerThread * numThreads;
+                assertTrue(logManager.getFlushedLSN() > 0);
+                System.out.printf("%-22s %2d committers: %8.0f commits/s, %5d group flushes%n",
+                                  window < 0 ? "flush per commit" : "group, " + window + "us window",
+                                  numThreads, numCommits / (nanos / 1e9), logManager.getNumGroupFlushes());
+                logManager.close();
+                dsm.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.recovery.records.CommitTransactionLogRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Append throughput of the log manager for 1 to 32 concurrent appending threads, with
+ * the log writer streaming the log to disk behind them; nothing is flushed.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class LogAppendBenchmark {
+    // appends per configuration, split between the threads
+    private static final int NUM_APPENDS = 1 << 20;
+    private static final int MAX_THREADS = 32;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void benchmarkAppendThroughput() throws IOException, InterruptedException {
+        for (int numThreads = 1; numThreads <= MAX_THREADS; numThreads *= 2) {
+            DiskSpaceManager dsm = new DiskSpaceManagerImpl(tempFolder.newFolder().toString(),
+                                                            new DummyRecoveryManager());
+            dsm.allocPart(0);
+            LogManager logManager = new LogManager(dsm);
+
+            int appendsPerThread = NUM_APPENDS / numThreads;
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; ++t) {
+                long transNum = t;
+                threads[t] = new Thread(() -> {
+                    for (int n = 0; n < appendsPerThread; ++n) {
+                        logManager.appendToLog(new CommitTransactionLogRecord(transNum, n));
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long nanos = System.nanoTime() - start;
+            long numAppends = (long) appendsPerThread * numThreads;
+            System.out.printf("appendToLog, %2d threads: %8.0f appends/ms, %6d log page I/Os%n", numThreads,
+                              numAppends / (nanos / 1e6), logManager.getNumIOs());
+            logManager.close();
+            assertTrue(logManager.getFlushedLSN() > 0);
+            dsm.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.IOMetrics;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.records.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Time taken by the redo pass of restart recovery for 1 to 8 redo threads, with and without
+ * prefetching the pages in the dirty page table, on a crash workload: a log of random
+ * updates to many pages, none of which made it to disk before the crash. The buffer cache
+ * either holds a fraction of the pages, or all of them. Along with the time, the number of
+ * pages read is printed, and how many of those reads redo had to wait for.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class RedoBenchmark {
+    private static final int NUM_PAGES = 2048;
+    private static final int NUM_UPDATES = 40000;
+    private static final int BUFFER_SIZE = 256;
+    private static final int MAX_THREADS = 8;
+    private static final int NUM_ROUNDS = 2;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void benchmarkRedo() throws IOException {
+        for (int round = 0; round < NUM_ROUNDS; ++round) {
+            for (int bufferSize : new int[] {BUFFER_SIZE, NUM_PAGES}) {
+                for (boolean prefetch : new boolean[] {false, true}) {
+                    for (int numThreads = 1; numThreads <= MAX_THREADS; numThreads *= 2) {
+                        benchmarkRedo(bufferSize, prefetch, numThreads);
+                    }
+                }
+            }
+        }
+    }
+
+    private void benchmarkRedo(int bufferSize, boolean prefetch, int numThreads) throws IOException {
+        String dir = tempFolder.newFolder().toString();
+        logWorkload(dir);
+
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        recoveryManager.setRedoThreads(numThreads);
+        recoveryManager.setRedoPrefetch(prefetch);
+        DiskSpaceManager dsm = new DiskSpaceManagerImpl(dir, recoveryManager);
+        BufferManager bufferManager = new BufferManager(dsm, recoveryManager, bufferSize,
+                                                        new LRUEvictionPolicy());
+        recoveryManager.setManagers(dsm, bufferManager);
+        recoveryManager.restartAnalysis();
+        assertEquals(NUM_PAGES, recoveryManager.dirtyPageTable.size());
+
+        long start = System.nanoTime();
+        recoveryManager.restartRedo();
+        long nanos = System.nanoTime() - start;
+        IOMetrics.PartitionMetrics metrics = bufferManager.getIOMetrics().get(1);
+        System.out.printf("redo of %d updates to %d pages, %4d frames, prefetch %-5s, %d threads: " +
+                          "%6.1f ms (%d buffer I/Os, %d pages read, %d waited for)%n",
+                          NUM_UPDATES, NUM_PAGES, bufferSize, prefetch, numThreads, nanos / 1e6,
+                          bufferManager.getNumIOs(), metrics.getNumReads(), bufferManager.getNumDemandReads());
+
+        recoveryManager.logManager.close();
+        bufferManager.close();
+        dsm.close();
+        DummyTransaction.cleanupTransactions();
+    }
+
+    /**
+     * Logs the crash workload to a new database in dir: the pages are allocated, but the
+     * updates are only logged.
+     */
+    private static void logWorkload(String dir) {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        DiskSpaceManager dsm = new DiskSpaceManagerImpl(dir, recoveryManager);
+        BufferManager bufferManager = new BufferManager(dsm, recoveryManager, BUFFER_SIZE,
+                                                        new LRUEvictionPolicy());
+        dsm.allocPart(0);
+        recoveryManager.setManagers(dsm, bufferManager);
+        recoveryManager.initialize();
+        LogManager logManager = recoveryManager.logManager;
+
+        Random random = new Random(186);
+        long transNum = 1L;
+        long prevLSN = logManager.appendToLog(new AllocPartLogRecord(transNum, 1, 0L));
+        dsm.allocPart(1);
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i);
+            prevLSN = logManager.appendToLog(new AllocPageLogRecord(transNum, pageNum, prevLSN));
+            dsm.allocPage(pageNum);
+        }
+        byte[] before = new byte[16];
+        for (int i = 0; i < NUM_UPDATES; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, random.nextInt(NUM_PAGES));
+            byte[] after = new byte[16];
+            random.nextBytes(after);
+            short offset = (short) (16 * random.nextInt(DiskSpaceManager.PAGE_SIZE / 32));
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(transNum, pageNum, prevLSN, offset,
+                                                                     before, after));
+        }
+        prevLSN = logManager.appendToLog(new CommitTransactionLogRecord(transNum, prevLSN));
+        logManager.appendToLog(new EndTransactionLogRecord(transNum, prevLSN));
+        logManager.close();
+        bufferManager.close();
+        dsm.close();
+        DummyTransaction.cleanupTransactions();
+    }
+}
@@ -0,0 +1,78 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestCheckpoint {
+    private ARIESRecoveryManager recoveryManager;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @After
+    public void cleanup() {
+        if (recoveryManager != null) {
+            recoveryManager.close();
+        }
+        DummyTransaction.cleanupTransactions();
+    }
+
+    /**
+     * Tests that a checkpoint keeps a page in its DPT when the page is written back while
+     * the disk space manager is synced for the checkpoint: the write is not known to be
+     * durable, so the page must stay dirty in the checkpoint.
+     */
+    @Test
+    public void testCheckpointDuringWriteBack() throws IOException {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+
+        // Pages written back during a sync drop out of the DPT but miss the sync
+        recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        String dir = tempFolder.newFolder("write-back-dir").getAbsolutePath();
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir, recoveryManager) {
+            @Override
+            public void sync() {
+                recoveryManager.diskIOHook(10000000001L);
+                super.sync();
+            }
+        };
+        diskSpaceManager.allocPart(0);
+        diskSpaceManager.allocPart(1);
+        diskSpaceManager.allocPage(10000000001L);
+        recoveryManager.setManagers(diskSpaceManager, new BufferManager(diskSpaceManager,
+                recoveryManager, 32, new LRUEvictionPolicy()));
+        recoveryManager.initialize();
+        recoveryManager.redoComplete = true;
+        LogManager logManager = recoveryManager.logManager;
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long writeLSN = recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, before, after);
+
+        recoveryManager.checkpoint();
+
+        Iterator<LogRecord> logs = logManager.scanFrom(writeLSN);
+        logs.next(); // page write (writeLSN)
+        assertEquals(LogType.BEGIN_CHECKPOINT, logs.next().getType());
+        LogRecord endCheckpoint = logs.next();
+        assertEquals(LogType.END_CHECKPOINT, endCheckpoint.getType());
+        assertEquals(writeLSN, (long) endCheckpoint.getDirtyPageTable().get(10000000001L));
+    }
+}
@@ -0,0 +1,101 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestGroupCommit {
+    private DiskSpaceManager diskSpaceManager;
+    private LogManager logManager;
+
+    @Before
+    public void setup() {
+        diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        logManager = new LogManager(diskSpaceManager);
+    }
+
+    @After
+    public void cleanup() {
+        logManager.close();
+    }
+
+    @Test
+    public void testGroupFlush() {
+        long LSN = logManager.appendToLog(new MasterLogRecord(1234));
+        logManager.groupFlushToLSN(LSN);
+        assertTrue(logManager.getFlushedLSN() >= LSN);
+        assertEquals(1, logManager.getNumGroupFlushes());
+
+        // already flushed: nothing to do
+        logManager.groupFlushToLSN(LSN);
+        assertEquals(1, logManager.getNumGroupFlushes());
+    }
+
+    @Test
+    public void testGroupFlushSharedByConcurrentCommits() throws InterruptedException {
+        // a long window, so that every thread gets in line while the first one waits
+        logManager.setGroupCommitWindow(100_000);
+        Thread[] threads = new Thread[8];
+        CyclicBarrier barrier = new CyclicBarrier(threads.length);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                try {
+                    long LSN = logManager.appendToLog(new MasterLogRecord(1234));
+                    barrier.await();
+                    logManager.groupFlushToLSN(LSN);
+                    assertTrue(logManager.getFlushedLSN() >= LSN);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertTrue(logManager.getNumGroupFlushes() <= threads.length / 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeWindow() {
+        logManager.setGroupCommitWindow(-1);
+    }
+
+    @Test
+    public void testCommitFlushesLog() {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        recoveryManager.setGroupCommitWindow(10);
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 32,
+                new ClockEvictionPolicy());
+        diskSpaceManager.allocPart(0);
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        recoveryManager.initialize();
+        DummyTransaction.cleanupTransactions();
+
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        long flushes = recoveryManager.logManager.getNumGroupFlushes();
+        long LSN = recoveryManager.commit(1L);
+        assertTrue(recoveryManager.logManager.getFlushedLSN() >= LSN);
+        assertEquals(flushes + 1, recoveryManager.logManager.getNumGroupFlushes());
+        recoveryManager.end(1L);
+        recoveryManager.close();
+    }
+}
@@ -0,0 +1,292 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.IOMetrics;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.records.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestInstantRestart {
+    private static final int NUM_PAGES = 16;
+    private static final long LOSER = 2L;
+    private static final byte[] ZEROES = new byte[8];
+    // page the loser frees, if it does
+    private static final long FREED = DiskSpaceManager.getVirtualPageNum(1, NUM_PAGES);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DiskSpaceManager diskSpaceManager;
+    private ARIESRecoveryManager recoveryManager;
+    private BufferManager bufferManager;
+
+    @Before
+    public void setup() {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        open(recoveryManager -> diskSpaceManager, false, 8);
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.awaitRestart();
+        recoveryManager.logManager.close();
+        bufferManager.close();
+        diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+    }
+
+    /**
+     * Logs the workload (see logWorkload), and sets up the managers to restart from it.
+     * @param newDiskSpaceManager opens the disk, for a recovery manager
+     * @param numFrames size of the buffer cache to restart with
+     */
+    private void open(Function<RecoveryManager, DiskSpaceManager> newDiskSpaceManager, boolean loserFreesPage,
+                      int numFrames) {
+        logWorkload(newDiskSpaceManager, loserFreesPage);
+        recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        diskSpaceManager = newDiskSpaceManager.apply(recoveryManager);
+        bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numFrames, new LRUEvictionPolicy());
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+    }
+
+    private static long pageNum(int i) {
+        return DiskSpaceManager.getVirtualPageNum(1, i);
+    }
+
+    private static byte[] value(int i) {
+        return new byte[] {(byte) i, 1, 8, 6, 1, 8, 6, (byte) i};
+    }
+
+    /**
+     * Logs a workload without applying any of it to the pages, as if the database crashed
+     * before writing them out: transaction 1 writes value(i) to the start of page i and
+     * commits, while transaction 2 (a loser) writes to the end of page 0 and never commits.
+     * If loserFreesPage, transaction 1 also allocates page FREED, which the loser writes
+     * value(200) to the start of and then frees (which does make it to disk).
+     */
+    private void logWorkload(Function<RecoveryManager, DiskSpaceManager> newDiskSpaceManager,
+                             boolean loserFreesPage) {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        DiskSpaceManager diskSpaceManager = newDiskSpaceManager.apply(recoveryManager);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 8,
+                                                        new LRUEvictionPolicy());
+        diskSpaceManager.allocPart(0);
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        recoveryManager.initialize();
+        LogManager logManager = recoveryManager.logManager;
+
+        long prevLSN = logManager.appendToLog(new AllocPartLogRecord(1L, 1, 0L));
+        diskSpaceManager.allocPart(1);
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            prevLSN = logManager.appendToLog(new AllocPageLogRecord(1L, pageNum(i), prevLSN));
+            diskSpaceManager.allocPage(pageNum(i));
+        }
+        if (loserFreesPage) {
+            prevLSN = logManager.appendToLog(new AllocPageLogRecord(1L, FREED, prevLSN));
+            diskSpaceManager.allocPage(FREED);
+        }
+        long loserLSN = 0L;
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum(i), prevLSN, (short) 0,
+                                                                     ZEROES, value(i)));
+            if (i == 0) {
+                loserLSN = logManager.appendToLog(new UpdatePageLogRecord(LOSER, pageNum(0), 0L, (short) 100,
+                                                                          ZEROES, value(100)));
+            }
+        }
+        prevLSN = logManager.appendToLog(new CommitTransactionLogRecord(1L, prevLSN));
+        logManager.appendToLog(new EndTransactionLogRecord(1L, prevLSN));
+        if (loserFreesPage) {
+            loserLSN = logManager.appendToLog(new UpdatePageLogRecord(LOSER, FREED, loserLSN, (short) 0,
+                                                                      ZEROES, value(200)));
+            logManager.flushToLSN(logManager.appendToLog(new FreePageLogRecord(LOSER, FREED, loserLSN)));
+            // unlike updates, frees take effect on disk right away
+            diskSpaceManager.freePage(FREED);
+        }
+        logManager.close();
+        bufferManager.close();
+        diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+    }
+
+    private byte[] read(long pageNum, short offset) {
+        Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            byte[] bytes = new byte[8];
+            page.getBuffer().position(offset).get(bytes);
+            return bytes;
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private byte[] readFromDisk(long pageNum, short offset) {
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, page);
+        int start = BufferManager.RESERVED_SPACE + offset;
+        return Arrays.copyOfRange(page, start, start + 8);
+    }
+
+    @Test
+    public void testRedoOnFetch() {
+        recoveryManager.restartAnalysis();
+        AtomicInteger numRedone = new AtomicInteger();
+        OnDemandRecovery recovery = new OnDemandRecovery(LSN -> {
+            numRedone.incrementAndGet();
+            recoveryManager.redoIfNeeded(recoveryManager.logManager.fetchLogRecord(LSN));
+        });
+        recoveryManager.restartRedoOnDemand(recovery);
+
+        // the updates are left for later
+        assertEquals(0, numRedone.get());
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            assertTrue(recovery.redoPending(pageNum(i)));
+            assertArrayEquals(ZEROES, readFromDisk(pageNum(i), (short) 0));
+        }
+
+        // and redone page by page
+        recovery.beforeFetch(pageNum(3));
+        assertEquals(1, numRedone.get());
+        assertFalse(recovery.redoPending(pageNum(3)));
+        assertArrayEquals(value(3), read(pageNum(3), (short) 0));
+        recovery.beforeFetch(pageNum(3));
+        assertEquals(1, numRedone.get());
+
+        recovery.beforeFetch(pageNum(0));
+        // the update of the loser is redone too, undo comes later
+        assertEquals(3, numRedone.get());
+        assertArrayEquals(value(100), read(pageNum(0), (short) 100));
+
+        recovery.redoAll(3);
+        assertEquals(NUM_PAGES + 1, numRedone.get());
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            assertFalse(recovery.redoPending(pageNum(i)));
+            assertArrayEquals(value(i), read(pageNum(i), (short) 0));
+        }
+    }
+
+    @Test
+    public void testLoserPagesLocked() throws InterruptedException {
+        OnDemandRecovery recovery = new OnDemandRecovery(LSN -> {});
+        recovery.lockPages(LOSER, new HashSet<>(Arrays.asList(pageNum(0), pageNum(1))));
+        recovery.lockPages(LOSER + 1, Collections.singleton(pageNum(1)));
+
+        List<Long> fetched = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; ++i) {
+            long pageNum = pageNum(i);
+            threads[i] = new Thread(() -> {
+                recovery.beforeFetch(pageNum);
+                fetched.add(pageNum);
+            });
+            threads[i].start();
+        }
+        threads[2].join();
+        Thread.sleep(100);
+        assertEquals(Collections.singletonList(pageNum(2)), fetched);
+
+        // the thread rolling back the losers is not held up
+        recovery.setUndoThread(Thread.currentThread());
+        recovery.beforeFetch(pageNum(1));
+
+        // a page is unlocked once every loser that modified it has been rolled back
+        recovery.unlockPages(LOSER);
+        threads[0].join();
+        Thread.sleep(100);
+        assertEquals(Arrays.asList(pageNum(2), pageNum(0)), fetched);
+        recovery.unlockPages(LOSER + 1);
+        threads[1].join();
+        assertEquals(Arrays.asList(pageNum(2), pageNum(0), pageNum(1)), fetched);
+    }
+
+    @Test
+    public void testInstantRestart() {
+        recoveryManager.setInstantRestart(true);
+        recoveryManager.restart();
+
+        // pages are recovered as they are used, including the rollback of the loser
+        assertArrayEquals(value(5), read(pageNum(5), (short) 0));
+        assertArrayEquals(value(0), read(pageNum(0), (short) 0));
+        assertArrayEquals(ZEROES, read(pageNum(0), (short) 100));
+
+        recoveryManager.awaitRestart();
+        assertTrue(recoveryManager.transactionTable.isEmpty());
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            assertArrayEquals(value(i), read(pageNum(i), (short) 0));
+        }
+
+        // and are up to date on disk once written out
+        bufferManager.evictAll();
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            assertArrayEquals(value(i), readFromDisk(pageNum(i), (short) 0));
+        }
+        assertArrayEquals(ZEROES, readFromDisk(pageNum(0), (short) 100));
+    }
+
+    @Test
+    public void testPrefetch() {
+        cleanup();
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        open(recoveryManager -> diskSpaceManager, false, 2 * NUM_PAGES);
+        recoveryManager.setInstantRestart(true);
+        recoveryManager.setRedoPrefetch(true);
+        recoveryManager.restart();
+        recoveryManager.awaitRestart();
+
+        // the pages left to recover in the background are read ahead of recovering them,
+        // so that recovery never waits for a read
+        IOMetrics.PartitionMetrics metrics = bufferManager.getIOMetrics().get(1);
+        assertEquals(NUM_PAGES, metrics.getNumReads());
+        assertEquals(0, bufferManager.getNumDemandReads());
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            assertArrayEquals(value(i), read(pageNum(i), (short) 0));
+        }
+    }
+
+    @Test
+    public void testLoserFreedPageNotReused() throws IOException {
+        cleanup();
+        String dir = tempFolder.newFolder().toString();
+        // unlike MemoryDiskSpaceManager, reuses freed pages
+        open(recoveryManager -> new DiskSpaceManagerImpl(dir, recoveryManager), true, 8);
+        recoveryManager.setInstantRestart(true);
+        recoveryManager.restart();
+
+        // a new page is not the page the loser freed, while the loser is not rolled back yet
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), 1);
+        long pageNum;
+        try {
+            pageNum = page.getPageNum();
+            page.getBuffer().put(value(7));
+        } finally {
+            page.unpin();
+        }
+        assertNotEquals(FREED, pageNum);
+
+        // rolling the loser back brings back the page it freed, as it was before
+        recoveryManager.awaitRestart();
+        assertArrayEquals(value(7), read(pageNum, (short) 0));
+        assertTrue(diskSpaceManager.pageAllocated(FREED));
+        assertArrayEquals(ZEROES, read(FREED, (short) 0));
+    }
+}
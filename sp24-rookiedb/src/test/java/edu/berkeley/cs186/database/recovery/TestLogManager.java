@@ -1,42 +1,45 @@
 package edu.berkeley.cs186.database.recovery;
 
+import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
-import edu.berkeley.cs186.database.concurrency.DummyLockContext;
-import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
-import edu.berkeley.cs186.database.memory.BufferManager;
-import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
-import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.records.EndTransactionLogRecord;
 import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
-@Category(SystemTests.class)
+@Category({Proj99Tests.class, SystemTests.class})
 public class TestLogManager {
+    private DiskSpaceManager diskSpaceManager;
     private LogManager logManager;
-    private BufferManager bufferManager;
 
     @Before
     public void setup() {
-        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager = new MemoryDiskSpaceManager();
         diskSpaceManager.allocPart(0);
-        this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
-                new ClockEvictionPolicy());
-        logManager = new LogManager(bufferManager);
+        logManager = new LogManager(diskSpaceManager);
     }
 
     @After
     public void cleanup() {
         logManager.close();
-        bufferManager.close();
+    }
+
+    private static DiskSpaceManager newDiskSpaceManager() {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        return diskSpaceManager;
     }
 
     @Test
@@ -109,25 +112,149 @@ public class TestLogManager {
 
     @Test
     public void testPartialFlush() {
+        // 7 pages of records, the last one not quite full: the first 6 pages are written
+        // out as they fill up, but the last one stays in the log buffer
         for (int i = 0; i < (DiskSpaceManager.PAGE_SIZE / 9) * 7; ++i) {
             logManager.appendToLog(new MasterLogRecord(i));
         }
-        Page p = bufferManager.fetchPage(new DummyLockContext((LockContext) null), 4L);
-        p.unpin();
-        p.flush();
-        long prevIO = bufferManager.getNumIOs();
         logManager.flushToLSN(20001);
-        long postIO = bufferManager.getNumIOs();
-        assertEquals(3, postIO - prevIO);
+        assertTrue(logManager.getFlushedLSN() >= 29999);
 
-        prevIO = bufferManager.getNumIOs();
         logManager.flushToLSN(50001);
-        postIO = bufferManager.getNumIOs();
-        assertEquals(2, postIO - prevIO);
+        assertTrue(logManager.getFlushedLSN() >= 59999);
+        long prevIO = logManager.getNumIOs();
+        assertEquals(6, prevIO);
 
-        prevIO = bufferManager.getNumIOs();
         logManager.flushToLSN(50055);
-        postIO = bufferManager.getNumIOs();
-        assertEquals(0, postIO - prevIO);
+        assertEquals(prevIO, logManager.getNumIOs());
+        assertEquals(59999, logManager.getFlushedLSN());
+    }
+
+    @Test
+    public void testLogBufferWraparound() {
+        // a log buffer of 2 pages, for 10 pages of records
+        LogManager smallLogManager = new LogManager(newDiskSpaceManager(), 2);
+        int numRecords = (DiskSpaceManager.PAGE_SIZE / 9) * 10;
+        for (int i = 0; i < numRecords; ++i) {
+            smallLogManager.appendToLog(new MasterLogRecord(i));
+        }
+        // pages that were written out are read back from disk
+        assertEquals(new MasterLogRecord(0), smallLogManager.fetchLogRecord(0));
+        assertEquals(new MasterLogRecord(numRecords - 1), smallLogManager.fetchLogRecord(90000 + 9 * 454));
+
+        Iterator<LogRecord> iter = smallLogManager.iterator();
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        assertTrue(smallLogManager.getNumIOs() >= 8);
+        smallLogManager.close();
+    }
+
+    @Test
+    public void testFullPage() {
+        // 440 records of 9 bytes and 8 of 17 bytes fill the first page to the last byte
+        for (int i = 0; i < 440; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        for (int i = 0; i < 8; ++i) {
+            logManager.appendToLog(new EndTransactionLogRecord(i, 0));
+        }
+        assertEquals(10000, logManager.appendToLog(new MasterLogRecord(440)));
+        assertEquals(null, logManager.fetchLogRecord(DiskSpaceManager.PAGE_SIZE));
+
+        for (int pass = 0; pass < 2; ++pass) {
+            // once from the log buffer, once from disk
+            Iterator<LogRecord> iter = logManager.iterator();
+            for (int i = 0; i < 440; ++i) {
+                assertEquals(new MasterLogRecord(i), iter.next());
+            }
+            for (int i = 0; i < 8; ++i) {
+                assertEquals(new EndTransactionLogRecord(i, 0), iter.next());
+            }
+            assertEquals(new MasterLogRecord(440), iter.next());
+            assertFalse(iter.hasNext());
+            logManager.flushToLSN(10000);
+        }
+    }
+
+    @Test
+    public void testConcurrentAppends() throws InterruptedException {
+        LogManager smallLogManager = new LogManager(newDiskSpaceManager(), 4);
+        int numThreads = 8;
+        int recordsPerThread = 2000;
+        long[][] LSNs = new long[numThreads][recordsPerThread];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            int threadNum = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; ++i) {
+                    LSNs[threadNum][i] = smallLogManager.appendToLog(
+                        new MasterLogRecord(threadNum * recordsPerThread + i));
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // every record got its own LSN, and can be read back from it
+        Set<Long> seen = new HashSet<>();
+        long lastLSN = 0;
+        for (int t = 0; t < numThreads; ++t) {
+            for (int i = 0; i < recordsPerThread; ++i) {
+                assertTrue(seen.add(LSNs[t][i]));
+                if (i > 0) {
+                    assertTrue(LSNs[t][i] > LSNs[t][i - 1]);
+                }
+                assertEquals(new MasterLogRecord(t * recordsPerThread + i),
+                             smallLogManager.fetchLogRecord(LSNs[t][i]));
+                lastLSN = Math.max(lastLSN, LSNs[t][i]);
+            }
+        }
+        int numScanned = 0;
+        for (LogRecord record : smallLogManager) {
+            assertTrue(seen.contains(record.getLSN()));
+            ++numScanned;
+        }
+        assertEquals(numThreads * recordsPerThread, numScanned);
+
+        smallLogManager.flushToLSN(lastLSN);
+        assertTrue(smallLogManager.getFlushedLSN() >= lastLSN);
+        smallLogManager.close();
+    }
+
+    @Test
+    public void testRestart() {
+        for (int i = 0; i < 1000; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.close();
+
+        // the next log manager starts on a new page, after the pages of the last one
+        LogManager restarted = new LogManager(diskSpaceManager);
+        assertEquals(29999, restarted.getFlushedLSN());
+        assertEquals(30000, restarted.appendToLog(new MasterLogRecord(1000)));
+        Iterator<LogRecord> iter = restarted.iterator();
+        for (int i = 0; i <= 1000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        restarted.close();
+    }
+
+    @Test
+    public void testAppendAfterClose() {
+        logManager.appendToLog(new MasterLogRecord(1));
+        logManager.close();
+
+        // without the log writer, flushing threads write the log out themselves
+        long LSN = logManager.appendToLog(new MasterLogRecord(2));
+        logManager.flushToLSN(LSN);
+        assertEquals(LogManager.maxLSN(LogManager.getLSNPage(LSN)), logManager.getFlushedLSN());
+        assertEquals(new MasterLogRecord(2), logManager.fetchLogRecord(LSN));
     }
 }
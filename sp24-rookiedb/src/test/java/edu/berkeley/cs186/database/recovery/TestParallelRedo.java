@@ -0,0 +1,195 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.IOMetrics;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.records.*;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestParallelRedo {
+    private static final int NUM_PAGES = 48;
+    private static final int NUM_UPDATES = 3000;
+    private static final int SLOT_SIZE = 8;
+    private static final int NUM_SLOTS = 16;
+
+    @After
+    public void cleanup() {
+        DummyTransaction.cleanupTransactions();
+    }
+
+    /**
+     * Logs a workload of updates to pages of partition 1, without applying any of them to
+     * the pages, as if the database crashed before writing them out. The pages themselves
+     * are allocated, as they would be during forward processing.
+     * @return expected contents of the slots of each page once the log has been redone
+     */
+    private static Map<Long, byte[]> logWorkload(DiskSpaceManager diskSpaceManager) {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 16,
+                                                        new LRUEvictionPolicy());
+        diskSpaceManager.allocPart(0);
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        recoveryManager.initialize();
+        LogManager logManager = recoveryManager.logManager;
+
+        Map<Long, byte[]> expected = new HashMap<>();
+        Random random = new Random(186);
+        long transNum = 1L;
+        long prevLSN = logManager.appendToLog(new AllocPartLogRecord(transNum, 1, 0L));
+        diskSpaceManager.allocPart(1);
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i);
+            prevLSN = logManager.appendToLog(new AllocPageLogRecord(transNum, pageNum, prevLSN));
+            diskSpaceManager.allocPage(pageNum);
+            expected.put(pageNum, new byte[SLOT_SIZE * NUM_SLOTS]);
+        }
+        for (int i = 0; i < NUM_UPDATES; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, random.nextInt(NUM_PAGES));
+            int slot = random.nextInt(NUM_SLOTS);
+            byte[] before = Arrays.copyOfRange(expected.get(pageNum), slot * SLOT_SIZE, (slot + 1) * SLOT_SIZE);
+            byte[] after = new byte[SLOT_SIZE];
+            random.nextBytes(after);
+            System.arraycopy(after, 0, expected.get(pageNum), slot * SLOT_SIZE, SLOT_SIZE);
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(transNum, pageNum, prevLSN,
+                                                                     (short) (slot * SLOT_SIZE), before, after));
+        }
+        prevLSN = logManager.appendToLog(new CommitTransactionLogRecord(transNum, prevLSN));
+        logManager.appendToLog(new EndTransactionLogRecord(transNum, prevLSN));
+        logManager.close();
+        bufferManager.close();
+        DummyTransaction.cleanupTransactions();
+        return expected;
+    }
+
+    private static void checkPages(BufferManager bufferManager, Map<Long, byte[]> expected) {
+        for (Map.Entry<Long, byte[]> entry : expected.entrySet()) {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), entry.getKey());
+            try {
+                byte[] contents = new byte[SLOT_SIZE * NUM_SLOTS];
+                page.getBuffer().get(contents);
+                assertArrayEquals(entry.getValue(), contents);
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    private void testRedo(int redoThreads) {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        Map<Long, byte[]> expected = logWorkload(diskSpaceManager);
+
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        recoveryManager.setRedoThreads(redoThreads);
+        // smaller than the number of pages, so that redo evicts pages it has redone
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 16,
+                                                        new LRUEvictionPolicy());
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        recoveryManager.restartAnalysis();
+        assertEquals(NUM_PAGES, recoveryManager.dirtyPageTable.size());
+        recoveryManager.restartRedo();
+
+        checkPages(bufferManager, expected);
+        recoveryManager.logManager.close();
+        bufferManager.close();
+    }
+
+    /**
+     * Redoes the workload with a buffer cache large enough for every page, with or without
+     * reading the pages in the dirty page table ahead of redo.
+     * @return number of pages redo had to wait to have read in
+     */
+    private long testPrefetch(boolean prefetch) {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        Map<Long, byte[]> expected = logWorkload(diskSpaceManager);
+
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        recoveryManager.setRedoPrefetch(prefetch);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 64,
+                                                        new LRUEvictionPolicy());
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        recoveryManager.restartAnalysis();
+        recoveryManager.restartRedo();
+
+        // every page is read once, whether ahead of redo or by it
+        IOMetrics.PartitionMetrics metrics = bufferManager.getIOMetrics().get(1);
+        assertEquals(NUM_PAGES, metrics.getNumReads());
+        long demandReads = bufferManager.getNumDemandReads();
+
+        checkPages(bufferManager, expected);
+        recoveryManager.logManager.close();
+        bufferManager.close();
+        return demandReads;
+    }
+
+    @Test
+    public void testPrefetchDirtyPages() {
+        assertEquals(NUM_PAGES, testPrefetch(false));
+        assertEquals(0, testPrefetch(true));
+    }
+
+    @Test
+    public void testSequentialRedo() {
+        testRedo(1);
+    }
+
+    @Test
+    public void testParallelRedo() {
+        testRedo(4);
+    }
+
+    @Test
+    public void testPerPageOrder() {
+        // records of a page are redone in the order they were submitted, one at a time
+        Map<Long, List<Long>> redone = new HashMap<>();
+        for (long pageNum = 0; pageNum < 8; ++pageNum) {
+            redone.put(pageNum, Collections.synchronizedList(new ArrayList<>()));
+        }
+        try (ParallelRedo parallelRedo = new ParallelRedo(3, record ->
+                redone.get(record.getPageNum().get()).add(record.getPrevLSN().get()))) {
+            for (long i = 0; i < 800; ++i) {
+                long pageNum = i % 8;
+                parallelRedo.submit(pageNum, new AllocPageLogRecord(1L, pageNum, i));
+            }
+            parallelRedo.barrier();
+        }
+        for (long pageNum = 0; pageNum < 8; ++pageNum) {
+            List<Long> order = redone.get(pageNum);
+            assertEquals(100, order.size());
+            for (int i = 0; i < order.size(); ++i) {
+                assertEquals(pageNum + 8L * i, (long) order.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testFailedRedo() {
+        try (ParallelRedo parallelRedo = new ParallelRedo(2, record -> {
+            if (record.getPrevLSN().get() == 5L) {
+                throw new IllegalStateException("redo failed");
+            }
+        })) {
+            for (long i = 0; i < 10; ++i) {
+                parallelRedo.submit(i, new AllocPageLogRecord(1L, i, i));
+            }
+            try {
+                parallelRedo.barrier();
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("redo failed", e.getMessage());
+            }
+        }
+    }
+}
@@ -640,11 +640,11 @@ public class TestRecoveryManager {
         Map<Long, Long> expectedDPT = new HashMap<>(dirtyPageTable);
         Map<Long, TransactionTableEntry> expectedTxnTable = new HashMap<>(transactionTable);
 
-        long initNumIOs = bufferManager.getNumIOs();
+        long initNumIOs = bufferManager.getNumIOs() + logManager.getNumIOs();
         setupRedoChecks(); // Intentionally empty, no CLRs should be created
         recoveryManager.rollbackToSavepoint(t2.getTransNum(), "savepoint");
         finishRedoChecks();
-        long finalNumIOs = bufferManager.getNumIOs();
+        long finalNumIOs = bufferManager.getNumIOs() + logManager.getNumIOs();
 
         // read CLR (1 I/O)
         assertEquals(1L, finalNumIOs - initNumIOs);
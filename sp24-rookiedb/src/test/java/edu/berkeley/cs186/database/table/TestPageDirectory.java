@@ -248,4 +248,35 @@ public class TestPageDirectory {
             assertEquals(page, p);
         }
     }
+
+    @Test
+    public void testReopenWithManyHeaderPages() {
+        Page headerPage = bufferManager.fetchNewPage(new DummyLockContext("_dummyPageDirectoryRecord"), 0);
+        long headerPageNum = headerPage.getPageNum();
+        headerPage.unpin();
+        short metadataSize = (short) (BufferManager.EFFECTIVE_PAGE_SIZE - 30);
+        createPageDirectory(headerPageNum, metadataSize);
+
+        // one data page per request, enough to fill the first header page and start a second
+        int numRequests = 500;
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < numRequests; ++i) {
+            Page page = pageDirectory.getPageWithSpace((short) 13);
+            pages.add(page);
+            page.unpin();
+        }
+
+        // reopen the page directory, reading the header pages back in
+        createPageDirectory(headerPageNum, metadataSize);
+
+        Iterator<Page> iter = pageDirectory.iterator();
+        for (Page page : pages) {
+            assertTrue(iter.hasNext());
+
+            Page p = iter.next();
+            p.unpin();
+            assertEquals(page, p);
+        }
+        assertFalse(iter.hasNext());
+    }
 }